@@ -0,0 +1,366 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.Arrays;
+
+/**
+ * A dense matrix stored in a single row-major {@code double[]}. Unlike {@link Matrix},
+ * whose rows are separate arrays, consecutive rows are contiguous in memory, so the
+ * multiplication kernels here stream through memory linearly. Products with a short inner
+ * dimension, such as a block of frames times a DCT, are computed a column at a time over
+ * a transposed copy of the left operand; larger products use a cache-blocked GEMM.
+ * Matrix-vector products use a dedicated GEMV. All of these can write into caller-supplied
+ * storage so that per-frame feature computations need not allocate.
+ * <br><br>
+ * Use {@link #fromMatrix(Matrix)} and {@link #toMatrix()} to convert to and from the
+ * existing {@link Matrix} type.
+ *
+ * @see Matrix
+ */
+public class DenseMatrix {
+
+  /**
+   * Edge length of the panels of B used by {@link #multiply(DenseMatrix, DenseMatrix, DenseMatrix)}.
+   * A 64 x 64 panel of doubles takes 32 KB, which fits in L1 or L2 cache.
+   */
+  private static final int BLOCK_SIZE = 64;
+
+  /**
+   * Number of rows of A transposed at a time by the column kernel, so that the transposed
+   * strip, at most {@link #BLOCK_SIZE} x 128 doubles, stays in cache.
+   */
+  private static final int ROW_STRIP = 128;
+
+  /**
+   * Matrix entries in row-major order: entry (i, j) is at {@code i * cols + j}.
+   */
+  public final double[] data;
+
+  /**
+   * Row and column dimensions.
+   */
+  public final int rows, cols;
+
+  /**
+   * Scratch space of the column kernel when this matrix is the destination of a product:
+   * the columns of a strip of A, and one column of the product. They are kept so that
+   * repeated products into the same destination do not allocate.
+   */
+  private double[][] strip;
+  private double[] column;
+
+  /**
+   * Constructs a rows-by-cols matrix of zeros.
+   *
+   * @param rows number of rows.
+   * @param cols number of columns.
+   */
+  public DenseMatrix(int rows, int cols) {
+    this(new double[rows * cols], rows, cols);
+  }
+
+  /**
+   * Wraps the given row-major array without copying it.
+   *
+   * @param data the matrix entries in row-major order.
+   * @param rows number of rows.
+   * @param cols number of columns.
+   */
+  public DenseMatrix(double[] data, int rows, int cols) {
+    if (data.length < rows * cols) {
+      throw new IllegalArgumentException("Array is too short for a " + rows + "x" + cols + " matrix.");
+    }
+    this.data = data;
+    this.rows = rows;
+    this.cols = cols;
+  }
+
+  /**
+   * Copies a {@link Matrix} into row-major storage.
+   *
+   * @param matrix the matrix to copy.
+   * @return a dense copy of the matrix.
+   */
+  public static DenseMatrix fromMatrix(Matrix matrix) {
+    int m = matrix.getRowDimension(), n = matrix.getColumnDimension();
+    DenseMatrix result = new DenseMatrix(m, n);
+    double[][] a = matrix.getArray();
+    for (int i = 0; i < m; i++) {
+      System.arraycopy(a[i], 0, result.data, i * n, n);
+    }
+    return result;
+  }
+
+  /**
+   * Copies this matrix into a new {@link Matrix}.
+   *
+   * @return a two-dimensional copy of this matrix.
+   */
+  public Matrix toMatrix() {
+    double[][] a = new double[rows][cols];
+    for (int i = 0; i < rows; i++) {
+      System.arraycopy(data, i * cols, a[i], 0, cols);
+    }
+    return new Matrix(a, rows, cols);
+  }
+
+  /**
+   * Returns a single element.
+   *
+   * @param i row index.
+   * @param j column index.
+   * @return the entry (i, j).
+   */
+  public double get(int i, int j) {
+    return data[i * cols + j];
+  }
+
+  /**
+   * Sets a single element.
+   *
+   * @param i row index.
+   * @param j column index.
+   * @param s the value.
+   */
+  public void set(int i, int j, double s) {
+    data[i * cols + j] = s;
+  }
+
+  /**
+   * Linear algebraic matrix multiplication, this * B.
+   *
+   * @param b another matrix.
+   * @return a new matrix holding the product.
+   */
+  public DenseMatrix times(DenseMatrix b) {
+    DenseMatrix c = new DenseMatrix(rows, b.cols);
+    multiply(this, b, c);
+    return c;
+  }
+
+  /**
+   * Matrix-vector multiplication, this * x.
+   *
+   * @param x a vector of length {@link #cols}.
+   * @return a new vector of length {@link #rows} holding the product.
+   */
+  public double[] times(double[] x) {
+    double[] y = new double[rows];
+    multiply(x, y);
+    return y;
+  }
+
+  /**
+   * Matrix-vector multiplication into a destination vector, y = this * x.
+   *
+   * @param x a vector of length at least {@link #cols}.
+   * @param y the destination vector, of length at least {@link #rows}.
+   */
+  public void multiply(double[] x, double[] y) {
+    if (x.length < cols || y.length < rows) {
+      throw new IllegalArgumentException("Matrix dimensions must agree.");
+    }
+    final double[] a = data;
+    final int n = cols;
+    for (int i = 0, offset = 0; i < rows; i++, offset += n) {
+      // two accumulators break the dependency chain between successive additions
+      double s0 = 0, s1 = 0;
+      int j = 0;
+      for (; j + 1 < n; j += 2) {
+        s0 += a[offset + j] * x[j];
+        s1 += a[offset + j + 1] * x[j + 1];
+      }
+      if (j < n) {
+        s0 += a[offset + j] * x[j];
+      }
+      y[i] = s0 + s1;
+    }
+  }
+
+  /**
+   * Matrix multiplication into a destination matrix, C = A * B. The destination must not
+   * be the same matrix as either operand.
+   * <br><br>
+   * If the inner dimension is at most {@link #BLOCK_SIZE}, as for the feature transforms,
+   * the whole of B fits in cache and blocking only adds overhead. Instead, each strip of
+   * rows of A is transposed into one array per column, and each column of C is computed
+   * as a sum of scaled columns of A. The innermost loop then runs over the rows with the
+   * same index into every array, which the compiler turns into vector instructions.
+   * <br><br>
+   * Otherwise, the inner dimension and the columns of B are split into blocks so that the panel of B
+   * being used stays in cache while all rows of A stream past it. Within a block, C is
+   * computed in 4 x 4 tiles whose sixteen partial sums are held in local variables, so
+   * each element of A and B loaded from memory feeds four multiply-adds.
+   *
+   * @param a the left operand, m x k.
+   * @param b the right operand, k x n.
+   * @param c the destination, m x n; its previous contents are overwritten.
+   */
+  public static void multiply(DenseMatrix a, DenseMatrix b, DenseMatrix c) {
+    if (a.cols != b.rows || c.rows != a.rows || c.cols != b.cols) {
+      throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+    }
+    if (c == a || c == b) {
+      throw new IllegalArgumentException("Destination must not alias an operand.");
+    }
+    final int m = a.rows, k = a.cols, n = b.cols;
+    if (k == 0) {
+      Arrays.fill(c.data, 0, m * n, 0.0);
+      return;
+    }
+    if (k <= BLOCK_SIZE && m >= 4) {
+      multiplyColumns(a.data, b.data, c, m, k, n);
+      return;
+    }
+    for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+      int p1 = Math.min(p0 + BLOCK_SIZE, k);
+      for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+        int j1 = Math.min(j0 + BLOCK_SIZE, n);
+        multiplyBlock(a.data, b.data, c.data, m, k, n, p0, p1, j0, j1, p0 > 0);
+      }
+    }
+  }
+
+  /**
+   * Computes C = A * B column by column over transposed strips of A, for 0 < k <= {@link #BLOCK_SIZE}.
+   */
+  private static void multiplyColumns(double[] a, double[] b, DenseMatrix dest, int m, int k, int n) {
+    final int height = Math.min(m, ROW_STRIP);
+    if (dest.strip == null || dest.strip.length < k || dest.column.length < height) {
+      // row by row, which avoids the runtime call of a multi-dimensional allocation
+      dest.strip = new double[k][];
+      for (int p = 0; p < k; p++) {
+        dest.strip[p] = new double[height];
+      }
+      dest.column = new double[height];
+    }
+    final double[][] t = dest.strip;
+    final double[] col = dest.column, c = dest.data;
+    for (int i0 = 0; i0 < m; i0 += ROW_STRIP) {
+      final int rows = Math.min(ROW_STRIP, m - i0);
+      int p = 0;
+      for (; p + 3 < k; p += 4) {
+        final double[] t0 = t[p], t1 = t[p + 1], t2 = t[p + 2], t3 = t[p + 3];
+        for (int i = 0, o = i0 * k + p; i < rows; i++, o += k) {
+          t0[i] = a[o]; t1[i] = a[o + 1]; t2[i] = a[o + 2]; t3[i] = a[o + 3];
+        }
+      }
+      for (; p < k; p++) {
+        final double[] t0 = t[p];
+        for (int i = 0, o = i0 * k + p; i < rows; i++, o += k) {
+          t0[i] = a[o];
+        }
+      }
+
+      for (int j = 0; j < n; j++) {
+        // four columns of A per pass, so each element of the column is loaded and stored
+        // once per four multiply-adds
+        if (k >= 4) {
+          final double b0 = b[j], b1 = b[n + j], b2 = b[2 * n + j], b3 = b[3 * n + j];
+          final double[] t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3];
+          for (int i = 0; i < rows; i++) {
+            col[i] = b0 * t0[i] + b1 * t1[i] + b2 * t2[i] + b3 * t3[i];
+          }
+          p = 4;
+        }
+        else {
+          final double b0 = b[j];
+          final double[] t0 = t[0];
+          for (int i = 0; i < rows; i++) {
+            col[i] = b0 * t0[i];
+          }
+          p = 1;
+        }
+        for (; p + 3 < k; p += 4) {
+          final int q = p * n + j;
+          final double b0 = b[q], b1 = b[q + n], b2 = b[q + 2 * n], b3 = b[q + 3 * n];
+          final double[] t0 = t[p], t1 = t[p + 1], t2 = t[p + 2], t3 = t[p + 3];
+          for (int i = 0; i < rows; i++) {
+            col[i] += b0 * t0[i] + b1 * t1[i] + b2 * t2[i] + b3 * t3[i];
+          }
+        }
+        for (; p < k; p++) {
+          final double b0 = b[p * n + j];
+          final double[] t0 = t[p];
+          for (int i = 0; i < rows; i++) {
+            col[i] += b0 * t0[i];
+          }
+        }
+        for (int i = 0, o = i0 * n + j; i < rows; i++, o += n) {
+          c[o] = col[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes C[:, j0:j1] (+)= A[:, p0:p1] * B[p0:p1, j0:j1] for row-major arrays.
+   *
+   * @param accumulate whether to add to the existing contents of C rather than overwrite them.
+   */
+  private static void multiplyBlock(double[] a, double[] b, double[] c, int m, int k, int n,
+                                    int p0, int p1, int j0, int j1, boolean accumulate) {
+    int i = 0;
+    for (; i + 3 < m; i += 4) {
+      final int a0 = i * k, a1 = a0 + k, a2 = a1 + k, a3 = a2 + k;
+      final int c0 = i * n, c1 = c0 + n, c2 = c1 + n, c3 = c2 + n;
+      int j = j0;
+      for (; j + 3 < j1; j += 4) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = p0, bRow = p0 * n + j; p < p1; p++, bRow += n) {
+          double b0 = b[bRow], b1 = b[bRow + 1], b2 = b[bRow + 2], b3 = b[bRow + 3];
+          double x = a[a0 + p];
+          c00 += x * b0; c01 += x * b1; c02 += x * b2; c03 += x * b3;
+          x = a[a1 + p];
+          c10 += x * b0; c11 += x * b1; c12 += x * b2; c13 += x * b3;
+          x = a[a2 + p];
+          c20 += x * b0; c21 += x * b1; c22 += x * b2; c23 += x * b3;
+          x = a[a3 + p];
+          c30 += x * b0; c31 += x * b1; c32 += x * b2; c33 += x * b3;
+        }
+        if (accumulate) {
+          c[c0 + j] += c00; c[c0 + j + 1] += c01; c[c0 + j + 2] += c02; c[c0 + j + 3] += c03;
+          c[c1 + j] += c10; c[c1 + j + 1] += c11; c[c1 + j + 2] += c12; c[c1 + j + 3] += c13;
+          c[c2 + j] += c20; c[c2 + j + 1] += c21; c[c2 + j + 2] += c22; c[c2 + j + 3] += c23;
+          c[c3 + j] += c30; c[c3 + j + 1] += c31; c[c3 + j + 2] += c32; c[c3 + j + 3] += c33;
+        }
+        else {
+          c[c0 + j] = c00; c[c0 + j + 1] = c01; c[c0 + j + 2] = c02; c[c0 + j + 3] = c03;
+          c[c1 + j] = c10; c[c1 + j + 1] = c11; c[c1 + j + 2] = c12; c[c1 + j + 3] = c13;
+          c[c2 + j] = c20; c[c2 + j + 1] = c21; c[c2 + j + 2] = c22; c[c2 + j + 3] = c23;
+          c[c3 + j] = c30; c[c3 + j + 1] = c31; c[c3 + j + 2] = c32; c[c3 + j + 3] = c33;
+        }
+      }
+      // remaining columns of this 4-row strip
+      for (; j < j1; j++) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int p = p0, bRow = p0 * n + j; p < p1; p++, bRow += n) {
+          double bv = b[bRow];
+          s0 += a[a0 + p] * bv;
+          s1 += a[a1 + p] * bv;
+          s2 += a[a2 + p] * bv;
+          s3 += a[a3 + p] * bv;
+        }
+        if (accumulate) {
+          c[c0 + j] += s0; c[c1 + j] += s1; c[c2 + j] += s2; c[c3 + j] += s3;
+        }
+        else {
+          c[c0 + j] = s0; c[c1 + j] = s1; c[c2 + j] = s2; c[c3 + j] = s3;
+        }
+      }
+    }
+    // remaining rows
+    for (; i < m; i++) {
+      final int aRow = i * k, cRow = i * n;
+      for (int j = j0; j < j1; j++) {
+        double s = 0;
+        for (int p = p0, bRow = p0 * n + j; p < p1; p++, bRow += n) {
+          s += a[aRow + p] * b[bRow];
+        }
+        c[cRow + j] = accumulate ? c[cRow + j] + s : s;
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Describes the on-disk format of an audio feature archive. An archive is a directory of
+ * append-only segment files, each holding fixed-width frames of a single feature type
+ * (e.g. MFCCs, deltas, sound level or pitch). A segment starts with a {@link #HEADER_SIZE}
+ * byte header, followed by frames laid out back to back:
+ * <pre>
+ *   header: int magic, int version, int sampleRate, int dimension,
+ *           long startTime, int frameCount, int capacity
+ *   frame:  long timestamp, float[dimension] values
+ * </pre>
+ * All values are big-endian, so segments can be read on any JVM without parsing. Frame
+ * timestamps are non-decreasing within an archive and segment files are named after the
+ * timestamp of their first frame, so both segments and frames can be located by binary
+ * search.
+ *
+ * @see FeatureArchiveWriter
+ * @see FeatureArchiveReader
+ */
+public final class FeatureArchive {
+
+  /** Identifies a feature archive segment ("MAFA"). */
+  static final int MAGIC = 0x4D414641;
+
+  /** The current version of the segment format. */
+  static final int VERSION = 1;
+
+  /** Size of the segment header in bytes. */
+  static final int HEADER_SIZE = 32;
+
+  /** Offset of the frame count within the header. */
+  static final int FRAME_COUNT_OFFSET = 24;
+
+  /** File extension of segment files. */
+  static final String EXTENSION = ".seg";
+
+  private FeatureArchive() {
+  }
+
+  /**
+   * Returns the size in bytes of a single frame.
+   *
+   * @param dimension the number of values in each frame.
+   * @return the frame size in bytes.
+   */
+  static int frameSize(int dimension) {
+    return 8 + 4 * dimension;
+  }
+
+  /**
+   * Returns the name of the segment file whose first frame has the given timestamp. Names
+   * are zero-padded so that lexicographic order matches chronological order; segments that
+   * start at the same time are distinguished by a sequence number.
+   */
+  static String segmentName(long startTime, int sequence) {
+    String name = String.format(Locale.US, "%020d", startTime);
+    if (sequence > 0) {
+      name += String.format(Locale.US, "_%04d", sequence);
+    }
+    return name + EXTENSION;
+  }
+
+  /**
+   * Lists the segment files in the archive directory, in chronological order.
+   *
+   * @param directory the archive directory.
+   * @return the segment files, or an empty array if there are none.
+   */
+  static File[] listSegments(File directory) {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(EXTENSION);
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(files);
+    return files;
+  }
+
+  /**
+   * The header of a single segment.
+   */
+  public static class Header {
+    /** The audio sampling rate from which the features were computed. */
+    public final int sampleRate;
+
+    /** The number of values in each frame. */
+    public final int dimension;
+
+    /** The timestamp of the first frame in the segment. */
+    public final long startTime;
+
+    /** The number of frames written to the segment. */
+    public final int frameCount;
+
+    /** The maximum number of frames the segment can hold. */
+    public final int capacity;
+
+    Header(int sampleRate, int dimension, long startTime, int frameCount, int capacity) {
+      this.sampleRate = sampleRate;
+      this.dimension = dimension;
+      this.startTime = startTime;
+      this.frameCount = frameCount;
+      this.capacity = capacity;
+    }
+
+    void write(ByteBuffer buffer) {
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+      buffer.putInt(8, sampleRate);
+      buffer.putInt(12, dimension);
+      buffer.putLong(16, startTime);
+      buffer.putInt(FRAME_COUNT_OFFSET, frameCount);
+      buffer.putInt(28, capacity);
+    }
+
+    static Header read(ByteBuffer buffer) {
+      if (buffer.getInt(0) != MAGIC) {
+        throw new IllegalArgumentException("Not a feature archive segment.");
+      }
+      if (buffer.getInt(4) != VERSION) {
+        throw new IllegalArgumentException("Unsupported feature archive version " + buffer.getInt(4) + ".");
+      }
+      return new Header(buffer.getInt(8), buffer.getInt(12), buffer.getLong(16), buffer.getInt(FRAME_COUNT_OFFSET), buffer.getInt(28));
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads feature frames from a {@link FeatureArchive} by time range. Every segment is
+ * memory-mapped read-only. The segments overlapping a range are found by binary search
+ * over their start times, and the first frame in range of each by binary search over the
+ * frame timestamps, so a query only touches the pages holding the frames it returns.
+ * Results are returned as flat primitive arrays.
+ * <br><br>
+ * This class has no Android dependencies, so archives copied off the phone can be loaded
+ * directly by desktop training code.
+ *
+ * @see FeatureArchive
+ * @see FeatureArchiveWriter
+ */
+public class FeatureArchiveReader {
+
+  /**
+   * A block of frames read from the archive.
+   */
+  public static class Frames {
+    /** The number of frames. */
+    public final int size;
+
+    /** The number of values in each frame. */
+    public final int dimension;
+
+    /** The timestamp of each frame. */
+    public final long[] timestamps;
+
+    /** The frame values, row-major: value j of frame i is at {@code i * dimension + j}. */
+    public final float[] values;
+
+    Frames(int size, int dimension) {
+      this.size = size;
+      this.dimension = dimension;
+      this.timestamps = new long[size];
+      this.values = new float[size * dimension];
+    }
+  }
+
+  private final int dimension;
+  private final List<MappedByteBuffer> segments;
+
+  /** The start time of each segment, in the order of {@link #segments}. */
+  private final long[] startTimes;
+
+  /**
+   * Maps all segments in the archive directory.
+   *
+   * @param directory the archive directory.
+   * @throws IOException if a segment cannot be mapped or the segments disagree on the frame dimension.
+   */
+  public FeatureArchiveReader(File directory) throws IOException {
+    segments = new ArrayList<>();
+    List<Long> starts = new ArrayList<>();
+    int dim = -1;
+    for (File segment : FeatureArchive.listSegments(directory)) {
+      RandomAccessFile file = new RandomAccessFile(segment, "r");
+      MappedByteBuffer buffer;
+      try {
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+      }
+      finally {
+        file.close();
+      }
+      if (buffer.capacity() < FeatureArchive.HEADER_SIZE) {
+        continue;
+      }
+      FeatureArchive.Header header = FeatureArchive.Header.read(buffer);
+      if (dim == -1) {
+        dim = header.dimension;
+      }
+      else if (dim != header.dimension) {
+        throw new IOException("Segment " + segment.getName() + " has dimension " + header.dimension + ", expected " + dim + ".");
+      }
+      segments.add(buffer);
+      starts.add(header.startTime);
+    }
+    dimension = dim;
+    startTimes = new long[starts.size()];
+    for (int s = 0; s < startTimes.length; s++) {
+      startTimes[s] = starts.get(s);
+    }
+  }
+
+  /**
+   * Returns the number of values in each frame.
+   *
+   * @return the frame dimension, or -1 if the archive is empty.
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * Returns the headers of all segments, in chronological order.
+   *
+   * @return the segment headers.
+   */
+  public List<FeatureArchive.Header> getHeaders() {
+    List<FeatureArchive.Header> headers = new ArrayList<>(segments.size());
+    for (MappedByteBuffer buffer : segments) {
+      headers.add(FeatureArchive.Header.read(buffer));
+    }
+    return headers;
+  }
+
+  /**
+   * Returns the total number of frames in the archive.
+   *
+   * @return the frame count.
+   */
+  public long getFrameCount() {
+    long count = 0;
+    for (MappedByteBuffer buffer : segments) {
+      count += frameCount(buffer);
+    }
+    return count;
+  }
+
+  /**
+   * Reads all frames whose timestamps fall within the given range.
+   *
+   * @param startTime the start of the range, inclusive.
+   * @param endTime   the end of the range, inclusive.
+   * @return the frames in chronological order.
+   */
+  public Frames read(long startTime, long endTime) {
+    int frameSize = FeatureArchive.frameSize(Math.max(dimension, 0));
+    // a segment ends where the next one starts, but frames sharing a timestamp may straddle
+    // the boundary, so the range starts in the last segment starting strictly before it
+    int first = Math.max(0, segmentBound(startTimes, startTime) - 1);
+    int last = endTime == Long.MAX_VALUE ? startTimes.length : segmentBound(startTimes, endTime + 1);
+    int n = Math.max(last, first);
+    int[] from = new int[n];
+    int[] to = new int[n];
+    int total = 0;
+    for (int s = first; s < n; s++) {
+      MappedByteBuffer buffer = segments.get(s);
+      int count = frameCount(buffer);
+      from[s] = lowerBound(buffer, count, frameSize, startTime);
+      to[s] = lowerBound(buffer, count, frameSize, endTime == Long.MAX_VALUE ? endTime : endTime + 1);
+      total += to[s] - from[s];
+    }
+
+    Frames frames = new Frames(total, Math.max(dimension, 0));
+    int row = 0;
+    for (int s = first; s < n; s++) {
+      MappedByteBuffer buffer = segments.get(s);
+      for (int i = from[s]; i < to[s]; i++, row++) {
+        int position = FeatureArchive.HEADER_SIZE + i * frameSize;
+        frames.timestamps[row] = buffer.getLong(position);
+        position += 8;
+        int offset = row * dimension;
+        for (int j = 0; j < dimension; j++) {
+          frames.values[offset + j] = buffer.getFloat(position);
+          position += 4;
+        }
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * Reads every frame in the archive.
+   *
+   * @return all frames in chronological order.
+   */
+  public Frames readAll() {
+    return read(Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  private static int frameCount(MappedByteBuffer buffer) {
+    return buffer.getInt(FeatureArchive.FRAME_COUNT_OFFSET);
+  }
+
+  /**
+   * Returns the index of the first segment starting at or after the given time.
+   */
+  private static int segmentBound(long[] startTimes, long time) {
+    int lo = 0, hi = startTimes.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (startTimes[mid] < time) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the index of the first frame whose timestamp is at least the given time.
+   */
+  private static int lowerBound(MappedByteBuffer buffer, int count, int frameSize, long time) {
+    int lo = 0, hi = count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (buffer.getLong(FeatureArchive.HEADER_SIZE + mid * frameSize) < time) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -0,0 +1,177 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends fixed-width feature frames to a {@link FeatureArchive}. Each segment file is
+ * preallocated and memory-mapped, so appending a frame is a handful of buffer writes with
+ * no system call; when a segment is full, a new one is started. Segments keep their
+ * preallocated length, since a file cannot safely be truncated while it is still mapped;
+ * instead, the frame count in the header marks the end of the frames. It is updated after
+ * every append, so a concurrent {@link FeatureArchiveReader} always sees a consistent
+ * prefix of the segment. The directory and segment files are only created on the first
+ * append, so opening a writer does no I/O. Optionally, the oldest segments are deleted
+ * whenever a new one is started, to bound the size of the archive.
+ * <br><br>
+ * Frames are expected to be appended from a single thread, e.g. the audio recording thread,
+ * but all methods are synchronized so that the writer may be closed from another thread.
+ *
+ * @see FeatureArchive
+ */
+public class FeatureArchiveWriter implements Closeable {
+
+  /** The default number of frames per segment. */
+  public static final int DEFAULT_SEGMENT_CAPACITY = 1 << 16;
+
+  /** Keeps every segment in the archive. */
+  public static final int UNLIMITED_SEGMENTS = Integer.MAX_VALUE;
+
+  private final File directory;
+  private final int sampleRate;
+  private final int dimension;
+  private final int capacity;
+  private final int frameSize;
+  private final int maxSegments;
+
+  private RandomAccessFile file;
+  private MappedByteBuffer buffer;
+  private long startTime;
+  private int frameCount;
+  private long lastTimestamp = Long.MIN_VALUE;
+
+  /**
+   * Opens a writer with the default segment capacity, keeping every segment.
+   *
+   * @param directory  the archive directory, created on the first append if it does not exist.
+   * @param sampleRate the audio sampling rate from which the features are computed.
+   * @param dimension  the number of values in each frame.
+   */
+  public FeatureArchiveWriter(File directory, int sampleRate, int dimension) {
+    this(directory, sampleRate, dimension, DEFAULT_SEGMENT_CAPACITY, UNLIMITED_SEGMENTS);
+  }
+
+  /**
+   * Opens a writer keeping every segment.
+   *
+   * @param directory  the archive directory, created on the first append if it does not exist.
+   * @param sampleRate the audio sampling rate from which the features are computed.
+   * @param dimension  the number of values in each frame.
+   * @param capacity   the maximum number of frames per segment.
+   */
+  public FeatureArchiveWriter(File directory, int sampleRate, int dimension, int capacity) {
+    this(directory, sampleRate, dimension, capacity, UNLIMITED_SEGMENTS);
+  }
+
+  /**
+   * @param directory   the archive directory, created on the first append if it does not exist.
+   * @param sampleRate  the audio sampling rate from which the features are computed.
+   * @param dimension   the number of values in each frame.
+   * @param capacity    the maximum number of frames per segment.
+   * @param maxSegments the maximum number of segments kept in the archive, including the
+   *                    one being written; older segments are deleted.
+   */
+  public FeatureArchiveWriter(File directory, int sampleRate, int dimension, int capacity, int maxSegments) {
+    if (dimension <= 0 || capacity <= 0 || maxSegments <= 0) {
+      throw new IllegalArgumentException("Dimension, capacity and segment count must be positive.");
+    }
+    if (FeatureArchive.HEADER_SIZE + (long)capacity * FeatureArchive.frameSize(dimension) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Segments cannot exceed 2 GB.");
+    }
+    this.directory = directory;
+    this.sampleRate = sampleRate;
+    this.dimension = dimension;
+    this.capacity = capacity;
+    this.frameSize = FeatureArchive.frameSize(dimension);
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * Appends a frame to the archive.
+   *
+   * @param timestamp the time of the frame, which must not precede the previous frame.
+   * @param values    the feature values; only the first {@code dimension} entries are stored.
+   * @throws IOException if the directory or a new segment cannot be created.
+   */
+  public synchronized void append(long timestamp, double[] values) throws IOException {
+    if (values.length < dimension) {
+      throw new IllegalArgumentException("Expected " + dimension + " values but got " + values.length + ".");
+    }
+    if (timestamp < lastTimestamp) {
+      throw new IllegalArgumentException("Frames must be appended in timestamp order.");
+    }
+    if (buffer == null || frameCount == capacity) {
+      startSegment(timestamp);
+    }
+    int position = FeatureArchive.HEADER_SIZE + frameCount * frameSize;
+    buffer.putLong(position, timestamp);
+    position += 8;
+    for (int i = 0; i < dimension; i++) {
+      buffer.putFloat(position, (float)values[i]);
+      position += 4;
+    }
+    frameCount++;
+    buffer.putInt(FeatureArchive.FRAME_COUNT_OFFSET, frameCount);
+    lastTimestamp = timestamp;
+  }
+
+  /**
+   * Forces the frames written so far to storage.
+   */
+  public synchronized void flush() {
+    if (buffer != null) {
+      buffer.force();
+    }
+  }
+
+  /**
+   * Flushes and closes the current segment. The writer may be reused afterwards, in which
+   * case a new segment is started.
+   *
+   * @throws IOException if the segment cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (buffer == null) {
+      return;
+    }
+    buffer.force();
+    buffer = null;
+    file.close();
+    file = null;
+  }
+
+  private void startSegment(long timestamp) throws IOException {
+    close();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create archive directory " + directory);
+    }
+    deleteOldestSegments();
+    startTime = timestamp;
+    frameCount = 0;
+    File segment = new File(directory, FeatureArchive.segmentName(timestamp, 0));
+    for (int i = 1; segment.exists(); i++) {
+      segment = new File(directory, FeatureArchive.segmentName(timestamp, i));
+    }
+    file = new RandomAccessFile(segment, "rw");
+    long size = FeatureArchive.HEADER_SIZE + (long)capacity * frameSize;
+    buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    new FeatureArchive.Header(sampleRate, dimension, startTime, 0, capacity).write(buffer);
+  }
+
+  /**
+   * Deletes the oldest segments, leaving room for a new one within {@link #maxSegments}.
+   */
+  private void deleteOldestSegments() {
+    File[] segments = FeatureArchive.listSegments(directory);
+    for (int i = 0; i <= segments.length - maxSegments; i++) {
+      if (!segments[i].delete()) {
+        break;
+      }
+    }
+  }
+}
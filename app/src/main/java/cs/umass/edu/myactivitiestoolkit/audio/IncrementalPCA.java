@@ -0,0 +1,395 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Streaming principal component analysis for reducing the dimensionality of feature
+ * vectors, such as MFCC frames or accelerometer window features, before they are
+ * classified or uploaded.
+ * <br><br>
+ * Updates and fits must come from a single thread; projections may run concurrently on others.
+ * <br><br>
+ * Each call to {@link #update(double[])} folds one sample into a running mean and
+ * co-moment matrix using Welford's update, which costs O(d<sup>2</sup>) and is numerically
+ * stable. Every {@code refitInterval} samples, or on an explicit call to {@link #fit()}, the
+ * covariance is diagonalized with the cyclic Jacobi eigenvalue algorithm and the leading
+ * eigenvectors become the projection basis. {@link #project(double[], double[])} then maps a
+ * sample onto that basis without allocating.
+ * <br><br>
+ * The full state, including the accumulated statistics, can be written with
+ * {@link #save(File)} and restored with {@link #load(File)}, so a basis trained in one session
+ * can be used for inference, or trained further, in another.
+ *
+ * @see DenseMatrix
+ */
+public class IncrementalPCA {
+
+  /** Identifies a saved PCA model ("MPCA"). */
+  private static final int MAGIC = 0x4D504341;
+
+  /** The maximum number of Jacobi sweeps; convergence normally takes fewer than 10. */
+  private static final int MAX_SWEEPS = 50;
+
+  /** The dimension of the input samples. */
+  private final int dimension;
+
+  /** The number of principal components kept. */
+  private final int components;
+
+  /** The number of samples between automatic refits, or 0 to refit only on request. */
+  private int refitInterval;
+
+  /** The number of samples seen. */
+  private long count;
+
+  /** Running mean of the samples. */
+  private final double[] mean;
+
+  /** Running co-moment matrix, d x d row-major; only the upper triangle is maintained. */
+  private final double[] comoment;
+
+  /** The result of the last fit, or null if not yet fitted. */
+  private volatile Basis basis;
+
+  /**
+   * A fitted basis. It is immutable and replaced as a whole on each fit, so a projection
+   * running concurrently with a refit always sees a consistent basis.
+   */
+  private static final class Basis {
+    /** The principal components, one per row. */
+    final DenseMatrix vectors;
+
+    /** Eigenvalues of the components, i.e. the variance along each. */
+    final double[] eigenvalues;
+
+    /** The components applied to the mean at fit time, subtracted from every projection. */
+    final double[] offset;
+
+    Basis(DenseMatrix vectors, double[] eigenvalues, double[] offset) {
+      this.vectors = vectors;
+      this.eigenvalues = eigenvalues;
+      this.offset = offset;
+    }
+  }
+
+  /**
+   * @param dimension     the dimension of the input samples.
+   * @param components    the number of principal components to keep.
+   * @param refitInterval the number of samples between automatic refits, or 0 to refit only on request.
+   */
+  public IncrementalPCA(int dimension, int components, int refitInterval) {
+    if (components <= 0 || components > dimension) {
+      throw new IllegalArgumentException("Components must be between 1 and the dimension.");
+    }
+    this.dimension = dimension;
+    this.components = components;
+    this.refitInterval = refitInterval;
+    this.mean = new double[dimension];
+    this.comoment = new double[dimension * dimension];
+  }
+
+  /**
+   * Returns the dimension of the input samples.
+   *
+   * @return d
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * Returns the number of principal components kept.
+   *
+   * @return k
+   */
+  public int getComponents() {
+    return components;
+  }
+
+  /**
+   * Returns the number of samples accumulated so far.
+   *
+   * @return the sample count.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Indicates whether a basis is available for projection.
+   *
+   * @return true if {@link #fit()} has succeeded at least once.
+   */
+  public boolean isFitted() {
+    return basis != null;
+  }
+
+  /**
+   * Returns the variance captured by each component of the current basis.
+   *
+   * @return the eigenvalues in decreasing order, or null if not fitted.
+   */
+  public double[] getEigenvalues() {
+    Basis b = basis;
+    return b == null ? null : b.eigenvalues.clone();
+  }
+
+  /**
+   * Sets the number of samples between automatic refits.
+   *
+   * @param refitInterval the interval, or 0 to refit only on request.
+   */
+  public void setRefitInterval(int refitInterval) {
+    this.refitInterval = refitInterval;
+  }
+
+  /**
+   * Folds a sample into the running statistics, refitting the basis if the refit
+   * interval has been reached.
+   *
+   * @param x a sample of length {@link #getDimension()}.
+   */
+  public void update(double[] x) {
+    if (x.length < dimension) {
+      throw new IllegalArgumentException("Expected " + dimension + " values but got " + x.length + ".");
+    }
+    count++;
+    final int d = dimension;
+    // Welford: delta against the old mean, times the residual against the new mean
+    for (int i = 0; i < d; i++) {
+      double delta = x[i] - mean[i];
+      mean[i] += delta / count;
+    }
+    if (count > 1) {
+      for (int i = 0; i < d; i++) {
+        double deltaOld = (x[i] - mean[i]) * count / (count - 1.0);
+        int row = i * d;
+        for (int j = i; j < d; j++) {
+          comoment[row + j] += deltaOld * (x[j] - mean[j]);
+        }
+      }
+    }
+    if (refitInterval > 0 && count % refitInterval == 0) {
+      fit();
+    }
+  }
+
+  /**
+   * Computes the principal components of the samples seen so far.
+   *
+   * @return true if at least two samples were available and a basis was computed.
+   */
+  public boolean fit() {
+    if (count < 2) {
+      return false;
+    }
+    final int d = dimension;
+    double[] a = new double[d * d];
+    double scale = 1.0 / (count - 1);
+    for (int i = 0; i < d; i++) {
+      for (int j = i; j < d; j++) {
+        double c = comoment[i * d + j] * scale;
+        a[i * d + j] = c;
+        a[j * d + i] = c;
+      }
+    }
+    double[] v = new double[d * d];
+    double[] w = new double[d];
+    jacobi(a, v, w, d);
+
+    // select the k largest eigenvalues
+    Integer[] order = new Integer[d];
+    for (int i = 0; i < d; i++) {
+      order[i] = i;
+    }
+    final double[] values = w;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i, Integer j) {
+        return Double.compare(values[j], values[i]);
+      }
+    });
+
+    DenseMatrix newBasis = new DenseMatrix(components, d);
+    double[] newEigenvalues = new double[components];
+    double[] newOffset = new double[components];
+    for (int c = 0; c < components; c++) {
+      int col = order[c];
+      newEigenvalues[c] = w[col];
+      double dot = 0;
+      for (int j = 0; j < d; j++) {
+        double value = v[j * d + col];
+        newBasis.data[c * d + j] = value;
+        dot += value * mean[j];
+      }
+      newOffset[c] = dot;
+    }
+    basis = new Basis(newBasis, newEigenvalues, newOffset);
+    return true;
+  }
+
+  /**
+   * Projects a sample onto the principal components, out = V<sup>T</sup>(x - mean),
+   * using the mean at the time of the last fit. This does not allocate.
+   *
+   * @param in  a sample of length {@link #getDimension()}.
+   * @param out the destination, of length at least {@link #getComponents()}.
+   * @throws IllegalStateException if no basis has been fitted.
+   */
+  public void project(double[] in, double[] out) {
+    Basis b = basis;
+    if (b == null) {
+      throw new IllegalStateException("The PCA basis has not been fitted.");
+    }
+    b.vectors.multiply(in, out);
+    for (int c = 0; c < components; c++) {
+      out[c] -= b.offset[c];
+    }
+  }
+
+  /**
+   * Writes the accumulated statistics and the fitted basis to a file.
+   *
+   * @param file the destination file.
+   * @throws IOException if the file cannot be written.
+   */
+  public void save(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(dimension);
+      out.writeInt(components);
+      out.writeInt(refitInterval);
+      out.writeLong(count);
+      writeArray(out, mean);
+      writeArray(out, comoment);
+      Basis b = basis;
+      out.writeBoolean(b != null);
+      if (b != null) {
+        writeArray(out, b.vectors.data);
+        writeArray(out, b.eigenvalues);
+        writeArray(out, b.offset);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Restores a model written by {@link #save(File)}.
+   *
+   * @param file the source file.
+   * @return the restored model.
+   * @throws IOException if the file cannot be read or is not a saved PCA model.
+   */
+  public static IncrementalPCA load(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a saved PCA model: " + file);
+      }
+      int dimension = in.readInt();
+      int components = in.readInt();
+      IncrementalPCA pca = new IncrementalPCA(dimension, components, in.readInt());
+      pca.count = in.readLong();
+      readArray(in, pca.mean);
+      readArray(in, pca.comoment);
+      if (in.readBoolean()) {
+        Basis b = new Basis(new DenseMatrix(components, dimension), new double[components], new double[components]);
+        readArray(in, b.vectors.data);
+        readArray(in, b.eigenvalues);
+        readArray(in, b.offset);
+        pca.basis = b;
+      }
+      return pca;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static void writeArray(DataOutputStream out, double[] values) throws IOException {
+    for (double value : values) {
+      out.writeDouble(value);
+    }
+  }
+
+  private static void readArray(DataInputStream in, double[] values) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readDouble();
+    }
+  }
+
+  /**
+   * Cyclic Jacobi eigenvalue algorithm for a symmetric matrix. Each rotation zeroes one
+   * off-diagonal pair; sweeps continue until the off-diagonal mass is negligible.
+   *
+   * @param a the symmetric n x n matrix, row-major; destroyed on return.
+   * @param v receives the eigenvectors as columns, n x n row-major.
+   * @param w receives the eigenvalues.
+   * @param n the matrix dimension.
+   */
+  static void jacobi(double[] a, double[] v, double[] w, int n) {
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        v[i * n + j] = i == j ? 1 : 0;
+      }
+    }
+    for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+      double off = 0, diag = 0;
+      for (int i = 0; i < n; i++) {
+        diag += a[i * n + i] * a[i * n + i];
+        for (int j = i + 1; j < n; j++) {
+          off += a[i * n + j] * a[i * n + j];
+        }
+      }
+      if (off <= 1e-22 * diag || off == 0) {
+        break;
+      }
+      for (int p = 0; p < n - 1; p++) {
+        for (int q = p + 1; q < n; q++) {
+          double apq = a[p * n + q];
+          if (apq == 0) {
+            continue;
+          }
+          double app = a[p * n + p], aqq = a[q * n + q];
+          double theta = (aqq - app) / (2 * apq);
+          double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+          if (theta == 0) {
+            t = 1;
+          }
+          double c = 1 / Math.sqrt(t * t + 1), s = t * c;
+          // A' = J^T A J, applied to rows and columns p and q
+          for (int k = 0; k < n; k++) {
+            double akp = a[k * n + p], akq = a[k * n + q];
+            a[k * n + p] = c * akp - s * akq;
+            a[k * n + q] = s * akp + c * akq;
+          }
+          for (int k = 0; k < n; k++) {
+            double apk = a[p * n + k], aqk = a[q * n + k];
+            a[p * n + k] = c * apk - s * aqk;
+            a[q * n + k] = s * apk + c * aqk;
+          }
+          for (int k = 0; k < n; k++) {
+            double vkp = v[k * n + p], vkq = v[k * n + q];
+            v[k * n + p] = c * vkp - s * vkq;
+            v[k * n + q] = s * vkp + c * vkq;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      w[i] = a[i * n + i];
+    }
+  }
+}
@@ -13,19 +13,24 @@ public class MFCC
         public Matrix dctMat = null;
         public double[] lifterWeights;
 
+        /** Row-major copies of {@link #melWeights} and {@link #dctMat} used by {@link #cepstrum}. */
+        private final DenseMatrix melDense, dctDense;
+
         public MFCC(int fftSize, int numCoeffs, int melBands, double sampleRate)
         {
-            // Precompute mel-scale auditory perceptual spectrum
-            melWeights = new Matrix(melBands, fftSize, 0);
-            
             // Number of non-redundant frequency bins
             numFreqs = fftSize/2 + 1;
             this.numCoeffs = numCoeffs;
             this.melBands = melBands;
             this.sampleRate = sampleRate;
-            
-            double fftFreqs[] = new double[fftSize];
-            for (int i = 0; i < fftSize; i ++)
+
+            // Precompute mel-scale auditory perceptual spectrum. Only the positive
+            // frequency part of the Fourier transform is kept, so there is no need
+            // to build the full melBands x fftSize matrix and slice it afterwards.
+            melWeights = new Matrix(melBands, numFreqs);
+
+            double fftFreqs[] = new double[numFreqs];
+            for (int i = 0; i < numFreqs; i ++)
             {
                 fftFreqs[i] = (double)i/(double)fftSize*this.sampleRate;
             }
@@ -41,7 +46,7 @@ public class MFCC
             
             for (int i = 0; i < melBands; i ++)
             {
-                for (int j = 0; j < fftSize; j ++)
+                for (int j = 0; j < numFreqs; j ++)
                 {
                         double loSlope = (fftFreqs[j] - binFreqs[i])/(binFreqs[i+1] - binFreqs[i]);
                         double hiSlope = (binFreqs[i+2] - fftFreqs[j])/(binFreqs[i+2] - binFreqs[i+1]);
@@ -49,9 +54,6 @@ public class MFCC
                 }
             }
             
-            // Keep only positive frequency parts of Fourier transform
-            melWeights = melWeights.getMatrix(0, melBands - 1, 0, numFreqs - 1);
-            
             // Precompute DCT matrix
             dctMat = new Matrix(numCoeffs, melBands, 0);
             double scale = Math.sqrt(2.0/melBands);
@@ -69,6 +71,9 @@ public class MFCC
                 dctMat.A[0][j] *= root2;
             }
             
+            melDense = DenseMatrix.fromMatrix(melWeights);
+            dctDense = DenseMatrix.fromMatrix(dctMat);
+
             // Precompute liftering vector
             lifterWeights = new double[numCoeffs];
             lifterWeights[0] = 1.0;
@@ -80,10 +85,10 @@ public class MFCC
         
         public double[] cepstrum(double[] re, double[] im)
         {
-                Matrix powerSpec = new Matrix(numFreqs, 1);
+                double[] powerSpec = new double[numFreqs];
                 for (int i = 0; i < numFreqs; i ++)
                 {
-                        powerSpec.A[i][0] = re[i]*re[i] + im[i]*im[i];
+                        powerSpec[i] = re[i]*re[i] + im[i]*im[i];
                 }
 
                 // melWeights - melBands x numFreqs
@@ -93,19 +98,18 @@ public class MFCC
                 // dctMat     - numCoeffs x melBands
                 // dctMat*log(aSpec) - numCoeffs x 1
                 
-                Matrix aSpec = melWeights.times(powerSpec);
-                Matrix logMelSpec = new Matrix(melBands, 1);
+                double[] logMelSpec = new double[melBands];
+                melDense.multiply(powerSpec, logMelSpec);
                 for (int i = 0; i < melBands; i ++)
                 {
-                        logMelSpec.A[i][0] = Math.log(aSpec.A[i][0]);
+                        logMelSpec[i] = Math.log(logMelSpec[i]);
                 }
 
-                Matrix melCeps = dctMat.times(logMelSpec);
-                        
                 double[] ceps = new double[numCoeffs];
+                dctDense.multiply(logMelSpec, ceps);
                 for (int i = 0; i < numCoeffs; i ++)
                 {
-                        ceps[i] = lifterWeights[i]*melCeps.A[i][0];
+                        ceps[i] *= lifterWeights[i];
                 }
 
                 return ceps;
@@ -1,23 +1,84 @@
 package cs.umass.edu.myactivitiestoolkit.audio;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import cs.umass.edu.myactivitiestoolkit.processing.FFT;
 
+/**
+ * Computes MFCC features over frames of 16-bit audio. The FFT tables, Hamming window and
+ * mel filterbank needed for a given configuration are expensive to build, so they are
+ * constructed lazily the first time a configuration is requested and memoized for the
+ * lifetime of the process. Since the cache is static, it survives the audio service
+ * being stopped and restarted.
+ *
+ * @see MFCC
+ * @see FFT
+ * @see HammingWindow
+ */
 public class MFCCFeatureExtractor {
 
-	
+
 	private static final int FFT_SIZE = 8192;
 	private static final int BITRATE = 8000;
     private static final int MFCCS_VALUE = 12;
     private static final int MEL_BANDS = 20;
-    
-    private static FFT featureFFT = new FFT(FFT_SIZE);
-    private static HammingWindow featureWin = new HammingWindow(BITRATE);
-    private static MFCC featureMFCC = new MFCC(FFT_SIZE, MFCCS_VALUE, MEL_BANDS, BITRATE);
 
     /**
-     * Computes the MFCC features over the specified frame of the given data buffer.
+     * Memoized extractors, keyed by (fftSize, melBands, numCoeffs, sampleRate).
+     */
+    private static final Map<String, MFCCFeatureExtractor> extractors = new HashMap<>();
+
+    private final int fftSize;
+    private final FFT featureFFT;
+    private final HammingWindow featureWin;
+    private final MFCC featureMFCC;
+
+    private MFCCFeatureExtractor(int fftSize, int melBands, int numCoeffs, int sampleRate)
+    {
+        this.fftSize = fftSize;
+        featureFFT = new FFT(fftSize);
+        featureWin = new HammingWindow(Math.min(sampleRate, fftSize));
+        featureMFCC = new MFCC(fftSize, numCoeffs, melBands, sampleRate);
+    }
+
+    /**
+     * Returns the feature extractor for the given configuration, building it if it has not
+     * been requested before. Construction is synchronized so that concurrent callers never
+     * build the same configuration twice.
+     * @param fftSize the FFT length, must be a power of 2.
+     * @param melBands the number of mel filterbank bands.
+     * @param numCoeffs the number of cepstral coefficients.
+     * @param sampleRate the audio sampling rate in Hz.
+     * @return the shared feature extractor for this configuration
+     */
+    public static MFCCFeatureExtractor getInstance(int fftSize, int melBands, int numCoeffs, int sampleRate)
+    {
+        String key = fftSize + ":" + melBands + ":" + numCoeffs + ":" + sampleRate;
+        synchronized (extractors) {
+            MFCCFeatureExtractor extractor = extractors.get(key);
+            if (extractor == null) {
+                extractor = new MFCCFeatureExtractor(fftSize, melBands, numCoeffs, sampleRate);
+                extractors.put(key, extractor);
+            }
+            return extractor;
+        }
+    }
+
+    /**
+     * Returns the feature extractor for the default configuration: an 8192-point FFT, 20 mel
+     * bands and 12 coefficients at 8 kHz.
+     * @return the shared default feature extractor
+     */
+    public static MFCCFeatureExtractor getDefaultInstance()
+    {
+        return getInstance(FFT_SIZE, MEL_BANDS, MFCCS_VALUE, BITRATE);
+    }
+
+    /**
+     * Computes the MFCC features over the specified frame of the given data buffer, using
+     * the default configuration.
      * @param data16bit the data buffer. Each data point is a 16-bit primitive (type short).
      * @param size the size of the frame
      * @param index The index into the data buffer indicating the start of the frame.
@@ -25,8 +86,20 @@ public class MFCCFeatureExtractor {
      */
     public static double[] computeFeaturesForFrame(short[] data16bit, int size, int index)
 	{
-		double[] fftBufferR = new double[FFT_SIZE];
-        double[] fftBufferI = new double[FFT_SIZE];
+		return getDefaultInstance().computeFeatures(data16bit, size, index);
+	}
+
+    /**
+     * Computes the MFCC features over the specified frame of the given data buffer.
+     * @param data16bit the data buffer. Each data point is a 16-bit primitive (type short).
+     * @param size the size of the frame
+     * @param index The index into the data buffer indicating the start of the frame.
+     * @return an array of MFCC features
+     */
+    public double[] computeFeatures(short[] data16bit, int size, int index)
+	{
+		double[] fftBufferR = new double[fftSize];
+        double[] fftBufferI = new double[fftSize];
         double[] featureCepstrum;
 
         // Frequency analysis
@@ -47,7 +120,7 @@ public class MFCCFeatureExtractor {
 
         // Get MFCCs
         featureCepstrum = featureMFCC.cepstrum(fftBufferR, fftBufferI);
-        
+
         return featureCepstrum;
 	}
 
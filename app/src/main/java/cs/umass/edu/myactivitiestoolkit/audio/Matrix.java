@@ -69,6 +69,10 @@ public class Matrix
    */
    private int m, n;
 
+   /** View of the whole matrix, created on first use.
+   */
+   private MatrixView view;
+
 /* ------------------------
    Constructors
  * ------------------------ */
@@ -281,6 +285,7 @@ public class Matrix
    @param j1   Final column index
    @return     A(i0:i1,j0:j1)
    @exception  ArrayIndexOutOfBoundsException Submatrix indices
+   @see        #view(int, int, int, int)
    */
 
    public Matrix getMatrix (int i0, int i1, int j0, int j1) {
@@ -298,6 +303,31 @@ public class Matrix
       return X;
    }
 
+   /** Get a view of the whole matrix. The same view is returned on every call,
+       so it can be used in hot loops without allocating.
+   @return     A view sharing this matrix's storage.
+   */
+
+   public MatrixView view () {
+      if (view == null || view.A != A) {
+         view = new MatrixView(A,0,0,m,n);
+      }
+      return view;
+   }
+
+   /** Get a view of a submatrix, without copying.
+   @param i0   Initial row index
+   @param i1   Final row index
+   @param j0   Initial column index
+   @param j1   Final column index
+   @return     A view of A(i0:i1,j0:j1) sharing this matrix's storage.
+   @exception  ArrayIndexOutOfBoundsException Submatrix indices
+   */
+
+   public MatrixView view (int i0, int i1, int j0, int j1) {
+      return view().view(i0,i1,j0,j1);
+   }
+
    /** Get a submatrix.
    @param r    Array of row indices.
    @param c    Array of column indices.
@@ -472,6 +502,16 @@ public class Matrix
       return X;
    }
 
+   /** Matrix transpose into a destination matrix.
+   @param C    destination, n-by-m. Must not be this matrix.
+   @return     C = A'
+   */
+
+   public Matrix transpose (Matrix C) {
+      view().transpose(C.view());
+      return C;
+   }
+
    /** One norm
    @return    maximum column sum.
    */
@@ -550,6 +590,17 @@ public class Matrix
       return X;
    }
    
+   /** C = A + B into a destination matrix
+   @param B    another matrix
+   @param C    destination of the same dimensions. May be A or B.
+   @return     C
+   */
+
+   public Matrix plus (Matrix B, Matrix C) {
+      view().plus(B.view(), C.view());
+      return C;
+   }
+
    /** A = A + B
    @param B    another matrix
    @return     A + B
@@ -582,6 +633,17 @@ public class Matrix
       return X;
    }
 
+   /** C = A - B into a destination matrix
+   @param B    another matrix
+   @param C    destination of the same dimensions. May be A or B.
+   @return     C
+   */
+
+   public Matrix minus (Matrix B, Matrix C) {
+      view().minus(B.view(), C.view());
+      return C;
+   }
+
    /** A = A - B
    @param B    another matrix
    @return     A - B
@@ -614,6 +676,17 @@ public class Matrix
       return X;
    }
 
+   /** Element-by-element multiplication into a destination matrix, C = A.*B
+   @param B    another matrix
+   @param C    destination of the same dimensions. May be A or B.
+   @return     C
+   */
+
+   public Matrix arrayTimes (Matrix B, Matrix C) {
+      view().arrayTimes(B.view(), C.view());
+      return C;
+   }
+
    /** Element-by-element multiplication in place, A = A.*B
    @param B    another matrix
    @return     A.*B
@@ -752,6 +825,18 @@ public class Matrix
       return X;
    }
 
+   /** Linear algebraic matrix multiplication into a destination matrix, C = A * B
+   @param B    another matrix
+   @param C    destination, m-by-B.n. Must not be A or B.
+   @return     C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   */
+
+   public Matrix times (Matrix B, Matrix C) {
+      view().times(B.view(), C.view());
+      return C;
+   }
+
    /** Matrix trace.
    @return     sum of the diagonal elements.
    */
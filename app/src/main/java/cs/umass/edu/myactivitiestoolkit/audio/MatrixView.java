@@ -0,0 +1,306 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+/**
+   A rectangular window onto the storage of a {@link Matrix}.
+<P>
+   A view shares the two-dimensional array of the matrix it was taken from, so
+   creating one copies no elements and writes through a view are visible in the
+   underlying matrix. Views replace {@link Matrix#getMatrix(int, int, int, int)}
+   where a submatrix is only read or written once.
+<P>
+   Every arithmetic operation writes its result into a caller-supplied destination
+   view and returns that destination, so chains of operations over preallocated
+   views run without allocating. Element-by-element operations may write into one
+   of their operands; {@link #times(MatrixView, MatrixView)} and
+   {@link #transpose(MatrixView)} may not.
+<DL>
+<DT><B>Example of use:</B></DT>
+<P>
+<DD>Multiply the top-left 2x2 block of A by B into a preallocated C.
+<P><PRE>
+      MatrixView block = A.view(0, 1, 0, 1);
+      block.times(B.view(), C.view());
+</PRE></DD>
+</DL>
+
+@see Matrix
+*/
+
+public class MatrixView
+{
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** The underlying storage, shared with the viewed matrix. */
+   final double[][] A;
+
+   /** Offset of the view within the underlying storage. */
+   private final int i0, j0;
+
+   /** Row and column dimensions of the view. */
+   private final int m, n;
+
+/* ------------------------
+   Constructors
+ * ------------------------ */
+
+   /** Construct a view onto part of a two-dimensional array.
+   @param A    Underlying storage.
+   @param i0   Initial row index.
+   @param j0   Initial column index.
+   @param m    Number of rows.
+   @param n    Number of columns.
+   */
+
+   MatrixView (double[][] A, int i0, int j0, int m, int n) {
+      this.A = A;
+      this.i0 = i0;
+      this.j0 = j0;
+      this.m = m;
+      this.n = n;
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Get row dimension.
+   @return     m, the number of rows.
+   */
+
+   public int getRowDimension () {
+      return m;
+   }
+
+   /** Get column dimension.
+   @return     n, the number of columns.
+   */
+
+   public int getColumnDimension () {
+      return n;
+   }
+
+   /** Get a single element.
+   @param i    Row index, relative to the view.
+   @param j    Column index, relative to the view.
+   @return     A(i0+i,j0+j)
+   */
+
+   public double get (int i, int j) {
+      return A[i0+i][j0+j];
+   }
+
+   /** Set a single element.
+   @param i    Row index, relative to the view.
+   @param j    Column index, relative to the view.
+   @param s    A(i0+i,j0+j).
+   */
+
+   public void set (int i, int j, double s) {
+      A[i0+i][j0+j] = s;
+   }
+
+   /** Get a view of part of this view, without copying.
+   @param r0   Initial row index, relative to this view.
+   @param r1   Final row index, relative to this view.
+   @param c0   Initial column index, relative to this view.
+   @param c1   Final column index, relative to this view.
+   @return     A view of this(r0:r1,c0:c1)
+   @exception  ArrayIndexOutOfBoundsException Submatrix indices
+   */
+
+   public MatrixView view (int r0, int r1, int c0, int c1) {
+      if (r0 < 0 || r1 >= m || c0 < 0 || c1 >= n || r1 < r0 - 1 || c1 < c0 - 1) {
+         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+      }
+      return new MatrixView(A, i0+r0, j0+c0, r1-r0+1, c1-c0+1);
+   }
+
+   /** Copy the elements of the view into a new matrix.
+   @return     A copy of the viewed elements.
+   */
+
+   public Matrix copy () {
+      Matrix X = new Matrix(m,n);
+      double[][] C = X.getArray();
+      for (int i = 0; i < m; i++) {
+         System.arraycopy(A[i0+i], j0, C[i], 0, n);
+      }
+      return X;
+   }
+
+   /** Copy the elements of B into this view.
+   @param B    another view of the same dimensions.
+   @return     this
+   */
+
+   public MatrixView assign (MatrixView B) {
+      checkDimensions(B, this);
+      for (int i = 0; i < m; i++) {
+         System.arraycopy(B.A[B.i0+i], B.j0, A[i0+i], j0, n);
+      }
+      return this;
+   }
+
+   /** Set every element of the view to a scalar.
+   @param s    the value.
+   @return     this
+   */
+
+   public MatrixView fill (double s) {
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i];
+         for (int j = j0; j < j0 + n; j++) {
+            Ai[j] = s;
+         }
+      }
+      return this;
+   }
+
+   /** C = A'
+   @param C    destination view, n-by-m. Must not share storage with this view.
+   @return     C
+   */
+
+   public MatrixView transpose (MatrixView C) {
+      if (C.m != n || C.n != m) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      checkNotAliased(C, this);
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i];
+         for (int j = 0; j < n; j++) {
+            C.A[C.i0+j][C.j0+i] = Ai[j0+j];
+         }
+      }
+      return C;
+   }
+
+   /** C = A + B
+   @param B    another view of the same dimensions.
+   @param C    destination view of the same dimensions. May be A or B.
+   @return     C
+   */
+
+   public MatrixView plus (MatrixView B, MatrixView C) {
+      checkDimensions(B, C);
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i], Bi = B.A[B.i0+i], Ci = C.A[C.i0+i];
+         for (int j = 0; j < n; j++) {
+            Ci[C.j0+j] = Ai[j0+j] + Bi[B.j0+j];
+         }
+      }
+      return C;
+   }
+
+   /** C = A - B
+   @param B    another view of the same dimensions.
+   @param C    destination view of the same dimensions. May be A or B.
+   @return     C
+   */
+
+   public MatrixView minus (MatrixView B, MatrixView C) {
+      checkDimensions(B, C);
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i], Bi = B.A[B.i0+i], Ci = C.A[C.i0+i];
+         for (int j = 0; j < n; j++) {
+            Ci[C.j0+j] = Ai[j0+j] - Bi[B.j0+j];
+         }
+      }
+      return C;
+   }
+
+   /** Element-by-element multiplication, C = A.*B
+   @param B    another view of the same dimensions.
+   @param C    destination view of the same dimensions. May be A or B.
+   @return     C
+   */
+
+   public MatrixView arrayTimes (MatrixView B, MatrixView C) {
+      checkDimensions(B, C);
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i], Bi = B.A[B.i0+i], Ci = C.A[C.i0+i];
+         for (int j = 0; j < n; j++) {
+            Ci[C.j0+j] = Ai[j0+j] * Bi[B.j0+j];
+         }
+      }
+      return C;
+   }
+
+   /** Multiply by a scalar, C = s*A
+   @param s    scalar
+   @param C    destination view of the same dimensions. May be A.
+   @return     C
+   */
+
+   public MatrixView times (double s, MatrixView C) {
+      if (C.m != m || C.n != n) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i], Ci = C.A[C.i0+i];
+         for (int j = 0; j < n; j++) {
+            Ci[C.j0+j] = s*Ai[j0+j];
+         }
+      }
+      return C;
+   }
+
+   /** Linear algebraic matrix multiplication, C = A * B. Rows of C are
+       accumulated from rows of B, so no column copy of B is needed.
+   @param B    another view, n-by-p.
+   @param C    destination view, m-by-p. Must not share storage with A or B.
+   @return     C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   */
+
+   public MatrixView times (MatrixView B, MatrixView C) {
+      if (B.m != n) {
+         throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+      }
+      if (C.m != m || C.n != B.n) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      checkNotAliased(C, this);
+      checkNotAliased(C, B);
+      final int p = B.n;
+      for (int i = 0; i < m; i++) {
+         double[] Ai = A[i0+i], Ci = C.A[C.i0+i];
+         final int cj = C.j0;
+         for (int j = 0; j < p; j++) {
+            Ci[cj+j] = 0;
+         }
+         for (int k = 0; k < n; k++) {
+            double a = Ai[j0+k];
+            double[] Bk = B.A[B.i0+k];
+            final int bj = B.j0;
+            for (int j = 0; j < p; j++) {
+               Ci[cj+j] += a*Bk[bj+j];
+            }
+         }
+      }
+      return C;
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Check if size(A) == size(B) == size(C) **/
+
+   private void checkDimensions (MatrixView B, MatrixView C) {
+      if (B.m != m || B.n != n || C.m != m || C.n != n) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+   }
+
+   /** Check that the destination does not share storage with an operand **/
+
+   private static void checkNotAliased (MatrixView C, MatrixView X) {
+      if (C.A == X.A) {
+         throw new IllegalArgumentException("Destination must not share storage with an operand.");
+      }
+   }
+}
@@ -0,0 +1,286 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import java.util.Arrays;
+
+/**
+ * Computes the A-weighted ambient sound level of a continuous microphone stream. Each
+ * sample is passed through an A-weighting filter, implemented as a cascade of three
+ * biquad sections obtained by the bilinear transform of the analog IEC 61672 weighting
+ * curve, and its energy is accumulated into one-second blocks. The equivalent continuous
+ * sound level (Leq) is maintained over 1 second, 1 minute and 15 minute windows using
+ * running sums over ring buffers of block energies, so each update costs O(1) regardless
+ * of the window length.
+ * <br><br>
+ * Levels are reported in dB relative to digital full scale plus a calibration offset. The
+ * microphone is not calibrated, so with the default offset of 0 the values are dBFS(A);
+ * setting the offset to the measured difference against a reference meter gives dB(A) SPL.
+ * At 8 kHz the bilinear transform compresses the 12.2 kHz pole towards Nyquist, so the
+ * weighting above 2 kHz reads slightly low (about 1.5 dB at 3 kHz).
+ *
+ * @see MicrophoneRecorder
+ * @see SoundLevelReading
+ */
+public class SoundLevelMeter {
+
+  /**
+   * Identifies the window over which a level is computed.
+   */
+  public enum Window {
+    /** The most recent complete second. */
+    ONE_SECOND(1),
+    /** The most recent minute. */
+    ONE_MINUTE(60),
+    /** The most recent 15 minutes. */
+    FIFTEEN_MINUTES(15 * 60);
+
+    /** The length of the window in seconds. */
+    private final int seconds;
+
+    Window(int seconds) {
+      this.seconds = seconds;
+    }
+  }
+
+  /**
+   * Level reported when no energy has been measured yet.
+   */
+  public static final double SILENCE_DB = -120.0;
+
+  /**
+   * The value of a full scale 16-bit sample.
+   */
+  private static final double FULL_SCALE = 32768.0;
+
+  /**
+   * Analog A-weighting pole frequencies in Hz.
+   */
+  private static final double F1 = 20.598997, F2 = 107.65265, F3 = 737.86223, F4 = 12194.217;
+
+  /**
+   * Biquad coefficients of the A-weighting cascade: {b0, b1, b2, a1, a2} for each section.
+   */
+  private final double[][] sections;
+
+  /**
+   * Filter state (Direct Form II transposed) for each section.
+   */
+  private final double[][] state;
+
+  /**
+   * Number of samples in one block, i.e. one second of audio.
+   */
+  private final int blockSize;
+
+  /**
+   * Sum of squared weighted samples in the current (incomplete) block.
+   */
+  private double blockEnergy;
+
+  /**
+   * Number of samples accumulated in the current block.
+   */
+  private int blockCount;
+
+  /**
+   * Running means of block energies, one for each {@link Window}.
+   */
+  private final RunningMean[] windows;
+
+  /**
+   * Offset in dB added to every reported level.
+   */
+  private double calibrationOffset;
+
+  /**
+   * @param sampleRate the sampling rate of the audio stream in Hz.
+   */
+  public SoundLevelMeter(int sampleRate) {
+    blockSize = sampleRate;
+    sections = designAWeighting(sampleRate);
+    state = new double[sections.length][2];
+    Window[] values = Window.values();
+    windows = new RunningMean[values.length];
+    for (int i = 0; i < values.length; i++) {
+      windows[i] = new RunningMean(values[i].seconds);
+    }
+  }
+
+  /**
+   * Sets the offset in dB added to every reported level, e.g. to convert dBFS to dB SPL.
+   *
+   * @param calibrationOffset the offset in dB.
+   */
+  public void setCalibrationOffset(double calibrationOffset) {
+    this.calibrationOffset = calibrationOffset;
+  }
+
+  /**
+   * Filters the given audio samples and updates the running levels. Buffers need not be
+   * aligned to one-second boundaries.
+   *
+   * @param buffer the raw 16-bit audio data.
+   * @param length the number of valid samples in the buffer.
+   * @return the number of one-second blocks completed by this buffer.
+   */
+  public int process(short[] buffer, int length) {
+    int completed = 0;
+    final int nSections = sections.length;
+    for (int i = 0; i < length; i++) {
+      double x = buffer[i] / FULL_SCALE;
+      for (int s = 0; s < nSections; s++) {
+        double[] c = sections[s];
+        double[] z = state[s];
+        double y = c[0] * x + z[0];
+        z[0] = c[1] * x - c[3] * y + z[1];
+        z[1] = c[2] * x - c[4] * y;
+        x = y;
+      }
+      blockEnergy += x * x;
+      if (++blockCount == blockSize) {
+        double meanSquare = blockEnergy / blockSize;
+        for (RunningMean window : windows) {
+          window.add(meanSquare);
+        }
+        blockEnergy = 0;
+        blockCount = 0;
+        completed++;
+      }
+    }
+    return completed;
+  }
+
+  /**
+   * Returns the A-weighted RMS amplitude over the given window, as a fraction of full scale.
+   *
+   * @param window the averaging window.
+   * @return the RMS amplitude in [0, 1], or 0 if no block has been completed yet.
+   */
+  public double getRms(Window window) {
+    return Math.sqrt(windows[window.ordinal()].mean());
+  }
+
+  /**
+   * Returns the A-weighted equivalent continuous sound level over the given window. If fewer
+   * blocks than the window length have been seen, the level is computed over those available.
+   *
+   * @param window the averaging window.
+   * @return the level in dB, including the calibration offset.
+   */
+  public double getLeq(Window window) {
+    double meanSquare = windows[window.ordinal()].mean();
+    if (meanSquare <= 0) {
+      return SILENCE_DB;
+    }
+    return 10 * Math.log10(meanSquare) + calibrationOffset;
+  }
+
+  /**
+   * Clears the filter state and all running levels.
+   */
+  public void reset() {
+    for (double[] z : state) {
+      z[0] = 0;
+      z[1] = 0;
+    }
+    blockEnergy = 0;
+    blockCount = 0;
+    for (RunningMean window : windows) {
+      window.clear();
+    }
+  }
+
+  /**
+   * Designs the digital A-weighting filter as three biquad sections,
+   * s^2/(s+w1)^2, s^2/((s+w2)(s+w3)) and 1/(s+w4)^2, each discretized with the bilinear
+   * transform. The cascade is normalized to unity gain at 1 kHz.
+   *
+   * @param sampleRate the sampling rate in Hz.
+   * @return the coefficients {b0, b1, b2, a1, a2} of each section.
+   */
+  private static double[][] designAWeighting(double sampleRate) {
+    double w1 = 2 * Math.PI * F1, w2 = 2 * Math.PI * F2, w3 = 2 * Math.PI * F3, w4 = 2 * Math.PI * F4;
+    double[][] result = new double[][]{
+      bilinear(new double[]{1, 0, 0}, new double[]{1, 2 * w1, w1 * w1}, sampleRate),
+      bilinear(new double[]{1, 0, 0}, new double[]{1, w2 + w3, w2 * w3}, sampleRate),
+      bilinear(new double[]{0, 0, 1}, new double[]{1, 2 * w4, w4 * w4}, sampleRate)
+    };
+
+    double gain = 1;
+    for (double[] c : result) {
+      gain *= magnitude(c, 1000.0, sampleRate);
+    }
+    result[0][0] /= gain;
+    result[0][1] /= gain;
+    result[0][2] /= gain;
+    return result;
+  }
+
+  /**
+   * Discretizes the analog section (b[0] s^2 + b[1] s + b[2]) / (a[0] s^2 + a[1] s + a[2]).
+   */
+  private static double[] bilinear(double[] b, double[] a, double sampleRate) {
+    double k = 2 * sampleRate;
+    double k2 = k * k;
+    double a0 = a[0] * k2 + a[1] * k + a[2];
+    return new double[]{
+      (b[0] * k2 + b[1] * k + b[2]) / a0,
+      2 * (b[2] - b[0] * k2) / a0,
+      (b[0] * k2 - b[1] * k + b[2]) / a0,
+      2 * (a[2] - a[0] * k2) / a0,
+      (a[0] * k2 - a[1] * k + a[2]) / a0
+    };
+  }
+
+  /**
+   * Returns the magnitude response of a biquad section at the given frequency.
+   */
+  private static double magnitude(double[] c, double frequency, double sampleRate) {
+    double w = 2 * Math.PI * frequency / sampleRate;
+    double cos1 = Math.cos(w), sin1 = Math.sin(w), cos2 = Math.cos(2 * w), sin2 = Math.sin(2 * w);
+    double numRe = c[0] + c[1] * cos1 + c[2] * cos2, numIm = -(c[1] * sin1 + c[2] * sin2);
+    double denRe = 1 + c[3] * cos1 + c[4] * cos2, denIm = -(c[3] * sin1 + c[4] * sin2);
+    return Math.sqrt((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+  }
+
+  /**
+   * Mean of the last n values, maintained as a running sum over a ring buffer. The sum is
+   * recomputed exactly each time the ring wraps around so that floating point error from
+   * repeated subtraction cannot accumulate.
+   */
+  private static class RunningMean {
+    private final double[] values;
+    private int next;
+    private int count;
+    private double sum;
+
+    RunningMean(int n) {
+      values = new double[n];
+    }
+
+    void add(double value) {
+      sum += value - values[next];
+      values[next] = value;
+      if (++next == values.length) {
+        next = 0;
+        sum = 0;
+        for (double v : values) {
+          sum += v;
+        }
+      }
+      if (count < values.length) {
+        count++;
+      }
+    }
+
+    double mean() {
+      return count == 0 ? 0 : Math.max(0, sum) / count;
+    }
+
+    void clear() {
+      Arrays.fill(values, 0);
+      next = 0;
+      count = 0;
+      sum = 0;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.MHLClient.sensors.SensorReading;
+
+/**
+ * Wraps the ambient sound level into a sensor reading to send to the server. Unlike
+ * {@link AudioBufferReading}, this carries only three numbers per second rather than
+ * the raw audio.
+ *
+ * @see SoundLevelMeter
+ * @see SensorReading
+ */
+public class SoundLevelReading extends SensorReading {
+
+  /**
+   * The A-weighted equivalent sound levels in dB over 1 second, 1 minute and 15 minutes.
+   */
+  private final double leq1s, leq1min, leq15min;
+
+  /**
+   * Instantiates a sound level reading.
+   *
+   * @param userID     a 10-byte hex string identifying the current user.
+   * @param deviceType describes the device.
+   * @param deviceID   unique device identifier.
+   * @param t          the timestamp at which the event occurred, in Unix time by convention.
+   * @param leq1s      the level over the last second.
+   * @param leq1min    the level over the last minute.
+   * @param leq15min   the level over the last 15 minutes.
+   */
+  public SoundLevelReading(String userID, String deviceType, String deviceID, long t, double leq1s, double leq1min, double leq15min) {
+    super(userID, deviceType, deviceID, "SENSOR_SOUND_LEVEL", t);
+    this.leq1s = leq1s;
+    this.leq1min = leq1min;
+    this.leq15min = leq15min;
+  }
+
+  @Override
+  protected JSONObject toJSONObject() {
+    JSONObject obj = getBaseJSONObject();
+    JSONObject data = new JSONObject();
+
+    try {
+      data.put("t", timestamp);
+      data.put("leq_1s", leq1s);
+      data.put("leq_1min", leq1min);
+      data.put("leq_15min", leq15min);
+      obj.put("data", data);
+    }
+    catch (JSONException e) {
+      e.printStackTrace();
+    }
+
+    return obj;
+  }
+}
@@ -0,0 +1,396 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+/**
+ * The rho-approximate DBScan of Gan and Tao (SIGMOD 2015), for location histories
+ * of millions of points, where even {@link GridDBScan} spends most of its time
+ * expanding clusters point by point.
+ * <p>
+ * The locations are projected like those of {@link GridDBScan}, with the
+ * east-west scale of the location farthest from the equator, so that a projected
+ * meter is at least a true meter, and east-west at most s true meters, where s is
+ * the ratio of the cosines of the latitudes of the locations nearest to and
+ * farthest from the equator. The projected points are bucketed into a
+ * {@link GridIndex} with cells of side eps / sqrt(1 + s * s), so that any two
+ * points of a cell are within eps of each other, and the points within eps of a
+ * cell are in the cells at most ceil(eps / side) columns and rows away.
+ * Core points are found exactly, by their true distances, and a cell with a core
+ * point is a core cell; all core points of a cell belong to the same cluster, so
+ * clusters are connected components of a graph over core cells rather than over
+ * points. Two nearby core cells are connected if some pair of their core points is
+ * within eps, which is decided approximately: each core cell is divided into
+ * sub-cells whose diagonal is at most eps * rho / 2, and the cells are connected if
+ * an occupied sub-cell of one is within eps of an occupied sub-cell of the other,
+ * with east-west distances stretched by the smallest scale of the two cells' points
+ * so that they are never overstated. Core points within eps are therefore always
+ * connected, and core points further apart than eps * (1 + rho) never are, up to
+ * the change of the east-west scale over the few eps between the cells, so the
+ * clusters are those of exact DBScan up to pairs of core points between eps and
+ * eps * (1 + rho) apart. The work per cell pair depends on rho but not on the
+ * number of points, so the clustering takes near-linear time.
+ * </p>
+ * <p>
+ * Locations spread over latitudes whose scales differ by more than
+ * {@link #MAX_STRETCH} would need very small cells, so they are clustered exactly
+ * by {@link GridDBScan} instead.
+ * </p>
+ * <p>
+ * Non-core points within eps of a core point are border points, which belong to
+ * the cluster of the first such core point found, so they may be assigned to a
+ * different cluster than {@link GridDBScan} would assign them to. Clusters are
+ * ordered by their first core point in input order, and the points of each
+ * cluster are in input order.
+ * </p>
+ *
+ * @see GridDBScan
+ */
+public class ApproximateDBScan {
+
+  /**
+   * The largest number of sub-cells along the side of a cell, which bounds the
+   * approximation for very small rho.
+   */
+  private static final int MAX_SUBDIVISIONS = 1 << 15;
+
+  /**
+   * The largest ratio of east-west scales over the locations, beyond which they are
+   * clustered exactly.
+   */
+  static final double MAX_STRETCH = 3;
+
+  /**
+   * Radius of the neighborhood for expanding clusters, in meters.
+   */
+  private final double eps;
+
+  /**
+   * Minimum number of points in a cluster.
+   */
+  private final int minPts;
+
+  /**
+   * The relative error allowed in the distance between core points.
+   */
+  private final double rho;
+
+  /**
+   * @param eps    radius of the neighborhood for expanding clusters, in meters
+   * @param minPts minimum number of points in a cluster
+   * @param rho    the relative error allowed in the distance between core points, e.g. 0.1
+   */
+  public ApproximateDBScan(final double eps, final int minPts, final double rho) {
+    if (!(eps > 0) || !(rho > 0)) {
+      throw new IllegalArgumentException("Eps and rho must be positive.");
+    }
+    this.eps = eps;
+    this.minPts = minPts;
+    this.rho = rho;
+  }
+
+  /**
+   * Returns the radius of the neighborhood for expanding clusters
+   *
+   * @return epsilon
+   */
+  public double getEps() {
+    return eps;
+  }
+
+  /**
+   * Returns the minimum number of points in a cluster
+   *
+   * @return minPts
+   */
+  public int getMinPts() {
+    return minPts;
+  }
+
+  /**
+   * Returns the relative error allowed in the distance between core points
+   *
+   * @return rho
+   */
+  public double getRho() {
+    return rho;
+  }
+
+  /**
+   * Clusters the given locations.
+   *
+   * @param points the locations we want to cluster
+   * @return a list of clusters
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points) {
+    return cluster(points, null);
+  }
+
+  /**
+   * Clusters the given locations as part of a clustering job.
+   *
+   * @param points   the locations we want to cluster
+   * @param progress the progress of the job, checked for cancellation, or null
+   * @return a list of clusters
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points,
+                                            final ClusteringJobExecutor.Progress progress) {
+    final GPSLocation[] locations = points.toArray(new GPSLocation[points.size()]);
+    final int n = locations.length;
+
+    // how many true meters a projected meter east-west is at most, near each location
+    double maxAbsLatitude = 0;
+    for (GPSLocation location : locations) {
+      maxAbsLatitude = Math.max(maxAbsLatitude, Math.abs(location.latitude));
+    }
+    final double minCos = Math.cos(Math.toRadians(maxAbsLatitude));
+    final double[] stretch = new double[n];
+    double maxStretch = 1;
+    for (int p = 0; p < n; p++) {
+      stretch[p] = Math.cos(Math.toRadians(locations[p].latitude)) / minCos;
+      maxStretch = Math.max(maxStretch, stretch[p]);
+    }
+    if (!(maxStretch <= MAX_STRETCH)) {
+      return new GridDBScan(eps, minPts).cluster(points, progress);
+    }
+
+    final double[] x = new double[n], y = new double[n];
+    GridDBScan.projectConservatively(locations, x, y);
+    final double side = eps / (Math.sqrt(1 + maxStretch * maxStretch) * (1 + GridDBScan.QUERY_SLACK));
+    final GridIndex index = new GridIndex(x, y, n, side);
+    final int cells = index.getCellCount();
+    final int[] order = index.getOrder();
+
+    // the occupied cells that may hold points within eps of each cell
+    final int[][] neighborCells = index.getNeighborCells((int) Math.ceil(eps * (1 + GridDBScan.QUERY_SLACK) / side));
+
+    // the smallest east-west scale of the points of each cell
+    final double[] cellStretch = new double[cells];
+    for (int c = 0; c < cells; c++) {
+      cellStretch[c] = Double.POSITIVE_INFINITY;
+      for (int k = index.getCellStart(c), end = index.getCellStart(c + 1); k < end; k++) {
+        cellStretch[c] = Math.min(cellStretch[c], stretch[order[k]]);
+      }
+    }
+
+    // core points, found exactly: every point of a cell with minPts points is core
+    final boolean[] core = new boolean[n];
+    final boolean[] coreCell = new boolean[cells];
+    for (int c = 0; c < cells; c++) {
+      ClusteringJobExecutor.checkCancelled(progress);
+      int start = index.getCellStart(c), end = index.getCellStart(c + 1);
+      for (int k = start; k < end; k++) {
+        int p = order[k];
+        int count = end - start;
+        for (int m = 0; m < neighborCells[c].length && count < minPts; m++) {
+          int d = neighborCells[c][m];
+          for (int l = index.getCellStart(d), dEnd = index.getCellStart(d + 1); l < dEnd && count < minPts; l++) {
+            if (within(locations, x, y, p, order[l])) {
+              count++;
+            }
+          }
+        }
+        if (count >= minPts) {
+          core[p] = true;
+          coreCell[c] = true;
+        }
+      }
+    }
+
+    // connect nearby core cells whose core points are approximately within eps
+    final int subdivisions = (int) Math.min(MAX_SUBDIVISIONS, Math.ceil(2 / rho));
+    final double subSide = side / subdivisions;
+    final int[][] subCells = new int[cells][];
+    final int[] parent = new int[cells];
+    for (int c = 0; c < cells; c++) {
+      parent[c] = c;
+    }
+    for (int c = 0; c < cells; c++) {
+      if (!coreCell[c]) {
+        continue;
+      }
+      ClusteringJobExecutor.checkCancelled(progress);
+      for (int d : neighborCells[c]) {
+        if (d < c || !coreCell[d] || find(parent, c) == find(parent, d)) {
+          continue;
+        }
+        if (subCells[c] == null) {
+          subCells[c] = occupiedSubCells(index, c, x, y, core, subdivisions, subSide);
+        }
+        if (subCells[d] == null) {
+          subCells[d] = occupiedSubCells(index, d, x, y, core, subdivisions, subSide);
+        }
+        double scale = Math.min(cellStretch[c], cellStretch[d]);
+        if (connected(index, c, d, subCells[c], subCells[d], subdivisions, subSide, side, scale)) {
+          parent[find(parent, c)] = find(parent, d);
+        }
+      }
+    }
+
+    // label the clusters by their first core point, then attach border points
+    final int[] roots = new int[cells];
+    for (int c = 0; c < cells; c++) {
+      roots[c] = find(parent, c);
+    }
+    final int[] labels = new int[n];
+    Arrays.fill(labels, -1);
+    final int[] componentLabels = new int[cells];
+    Arrays.fill(componentLabels, -1);
+    int clusterCount = 0;
+    for (int p = 0; p < n; p++) {
+      if (!core[p]) {
+        continue;
+      }
+      int root = roots[index.getCell(p)];
+      if (componentLabels[root] < 0) {
+        componentLabels[root] = clusterCount++;
+      }
+      labels[p] = componentLabels[root];
+    }
+    for (int p = 0; p < n; p++) {
+      if (core[p]) {
+        continue;
+      }
+      int c = index.getCell(p);
+      if (coreCell[c]) {
+        // every point of a cell is within eps of its core points
+        labels[p] = componentLabels[roots[c]];
+        continue;
+      }
+      search:
+      for (int d : neighborCells[c]) {
+        if (!coreCell[d]) {
+          continue;
+        }
+        for (int l = index.getCellStart(d), dEnd = index.getCellStart(d + 1); l < dEnd; l++) {
+          int q = order[l];
+          if (core[q] && within(locations, x, y, p, q)) {
+            labels[p] = componentLabels[roots[d]];
+            break search;
+          }
+        }
+      }
+    }
+    return GridDBScan.toClusters(locations, labels, clusterCount);
+  }
+
+  /**
+   * Decides whether two points are within eps, checking their projections before
+   * their true distance.
+   */
+  private boolean within(final GPSLocation[] locations, final double[] x, final double[] y, final int p,
+                         final int q) {
+    double dx = x[q] - x[p], dy = y[q] - y[p];
+    double query = eps * (1 + GridDBScan.QUERY_SLACK);
+    return dx * dx + dy * dy <= query * query && locations[p].squaredDistance(locations[q]) <= eps * eps;
+  }
+
+  /**
+   * Returns the sub-cells of a cell that hold core points, as {@code column * subdivisions + row}
+   * relative to the cell, without duplicates.
+   */
+  private static int[] occupiedSubCells(final GridIndex index, final int c, final double[] x, final double[] y,
+                                        final boolean[] core, final int subdivisions, final double subSide) {
+    long[] coordinates = index.getCellCoordinates(c);
+    double originX = index.getMinX() + coordinates[0] * index.getCellSize();
+    double originY = index.getMinY() + coordinates[1] * index.getCellSize();
+    int[] order = index.getOrder();
+    int start = index.getCellStart(c), end = index.getCellStart(c + 1);
+    int[] codes = new int[end - start];
+    int count = 0;
+    for (int k = start; k < end; k++) {
+      int p = order[k];
+      if (!core[p]) {
+        continue;
+      }
+      int sx = clamp((int) ((x[p] - originX) / subSide), subdivisions);
+      int sy = clamp((int) ((y[p] - originY) / subSide), subdivisions);
+      codes[count++] = sx * subdivisions + sy;
+    }
+    Arrays.sort(codes, 0, count);
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || codes[i] != codes[i - 1]) {
+        codes[unique++] = codes[i];
+      }
+    }
+    return Arrays.copyOf(codes, unique);
+  }
+
+  /**
+   * Decides whether an occupied sub-cell of cell c is within eps of an occupied
+   * sub-cell of cell d, with east-west distances multiplied by scale. Only the
+   * sub-cells within eps of the other cell can qualify, so the others are skipped
+   * first.
+   */
+  private boolean connected(final GridIndex index, final int c, final int d, final int[] subCellsC,
+                            final int[] subCellsD, final int subdivisions, final double subSide, final double side,
+                            final double scale) {
+    long[] cc = index.getCellCoordinates(c), dc = index.getCellCoordinates(d);
+    // work relative to the corner of cell c
+    double dOriginX = (dc[0] - cc[0]) * side, dOriginY = (dc[1] - cc[1]) * side;
+    int[] nearC = near(subCellsC, 0, 0, subdivisions, subSide, dOriginX, dOriginY, side, scale);
+    int[] nearD = near(subCellsD, dOriginX, dOriginY, subdivisions, subSide, 0, 0, side, scale);
+    double eps2 = eps * eps;
+    for (int a : nearC) {
+      double ax = (a / subdivisions) * subSide, ay = (a % subdivisions) * subSide;
+      for (int b : nearD) {
+        double bx = dOriginX + (b / subdivisions) * subSide, by = dOriginY + (b % subdivisions) * subSide;
+        if (boxDistanceSquared(scale, ax, ay, subSide, subSide, bx, by, subSide, subSide) <= eps2) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the sub-cells, of a cell with the given origin, that are within eps of
+   * the cell with the other origin, with east-west distances multiplied by scale.
+   */
+  private int[] near(final int[] subCells, final double originX, final double originY, final int subdivisions,
+                     final double subSide, final double otherX, final double otherY, final double side,
+                     final double scale) {
+    int[] near = new int[subCells.length];
+    int count = 0;
+    double eps2 = eps * eps;
+    for (int s : subCells) {
+      double sx = originX + (s / subdivisions) * subSide, sy = originY + (s % subdivisions) * subSide;
+      if (boxDistanceSquared(scale, sx, sy, subSide, subSide, otherX, otherY, side, side) <= eps2) {
+        near[count++] = s;
+      }
+    }
+    return Arrays.copyOf(near, count);
+  }
+
+  /**
+   * Returns the squared distance between two axis-aligned boxes, given by their
+   * lower-left corners and sizes, with the x distance multiplied by scale.
+   */
+  private static double boxDistanceSquared(final double scale, final double ax, final double ay, final double aw,
+                                           final double ah, final double bx, final double by, final double bw,
+                                           final double bh) {
+    double dx = scale * Math.max(0, Math.max(ax - (bx + bw), bx - (ax + aw)));
+    double dy = Math.max(0, Math.max(ay - (by + bh), by - (ay + ah)));
+    return dx * dx + dy * dy;
+  }
+
+  private static int clamp(final int value, final int subdivisions) {
+    return Math.max(0, Math.min(subdivisions - 1, value));
+  }
+
+  /**
+   * Returns the root of a cell in the union-find forest, halving the path to it.
+   */
+  private static int find(final int[] parent, int c) {
+    while (parent[c] != c) {
+      parent[c] = parent[parent[c]];
+      c = parent[c];
+    }
+    return c;
+  }
+}
@@ -0,0 +1,117 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches clustering results by algorithm, parameters and the version of the data
+ * set they were computed from, so that repeating a clustering of unchanged data,
+ * e.g. when switching back and forth between algorithms, returns at once.
+ * <p>
+ * The data set version must increase whenever the data changes, as
+ * {@link cs.umass.edu.myactivitiestoolkit.location.LocationDAO#getVersion()} does
+ * for the saved locations. Results of older versions can then never be returned
+ * again, so they are evicted as soon as a result of a newer version is stored;
+ * among the results of the current version, the least recently used are evicted
+ * once the cache is full.
+ * </p>
+ * <p>
+ * The cache is thread-safe, and may be kept in a static field so that it
+ * outlives the component using it.
+ * </p>
+ *
+ * @param <V> the type of the cached results
+ */
+public class ClusteringCache<V> {
+
+  /**
+   * Identifies a clustering result.
+   */
+  private static class Key {
+    private final String algorithm;
+    private final String parameters;
+    private final long version;
+
+    Key(final String algorithm, final String parameters, final long version) {
+      this.algorithm = algorithm;
+      this.parameters = parameters;
+      this.version = version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return version == other.version && algorithm.equals(other.algorithm) && parameters.equals(other.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = algorithm.hashCode();
+      hash = 31 * hash + parameters.hashCode();
+      return 31 * hash + (int) (version ^ (version >>> 32));
+    }
+  }
+
+  /**
+   * The results in order of access, least recently used first.
+   */
+  private final LinkedHashMap<Key, V> results;
+
+  /**
+   * @param capacity the maximum number of results kept
+   */
+  public ClusteringCache(final int capacity) {
+    this.results = new LinkedHashMap<Key, V>(capacity + 1, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Returns a cached result.
+   *
+   * @param algorithm  identifies the clustering algorithm
+   * @param parameters identifies the parameters of the algorithm
+   * @param version    the current version of the data set
+   * @return the result, or null if it is not cached
+   */
+  public synchronized V get(final String algorithm, final String parameters, final long version) {
+    return results.get(new Key(algorithm, parameters, version));
+  }
+
+  /**
+   * Caches a result, evicting the results of older versions of the data set.
+   *
+   * @param algorithm  identifies the clustering algorithm
+   * @param parameters identifies the parameters of the algorithm
+   * @param version    the version of the data set the result was computed from
+   * @param result     the result
+   */
+  public synchronized void put(final String algorithm, final String parameters, final long version, final V result) {
+    Iterator<Key> keys = results.keySet().iterator();
+    while (keys.hasNext()) {
+      long cached = keys.next().version;
+      if (cached > version) {
+        // a newer result is already cached, so this one is stale
+        return;
+      }
+      if (cached < version) {
+        keys.remove();
+      }
+    }
+    results.put(new Key(algorithm, parameters, version), result);
+  }
+
+  /**
+   * Removes all results.
+   */
+  public synchronized void clear() {
+    results.clear();
+  }
+}
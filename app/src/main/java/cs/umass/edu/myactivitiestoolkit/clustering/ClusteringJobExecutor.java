@@ -0,0 +1,237 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs clustering jobs, from loading the locations to computing what is drawn,
+ * on a background pool, where only the latest job matters. Submitting a job
+ * cancels the one before it, so that repeated requests, e.g. while the user
+ * edits the parameters, do not pile up behind each other.
+ * <p>
+ * Cancellation is cooperative: a job reports its progress through a
+ * {@link Progress}, which throws a {@link CancellationException} once the job
+ * has been superseded, so the job stops at its next report. Between reports,
+ * the clustering algorithms and the hull computation are given the progress
+ * too, and stop by {@link #checkCancelled(Progress)}. A superseded job that is
+ * still running keeps a pool thread busy until then, which is why the pool may
+ * have several threads.
+ * </p>
+ * <p>
+ * Progress, results and errors are handed to a {@link Callback} through the
+ * callback executor, typically one that posts to the UI thread. Whether the
+ * job is still current is checked again on that executor just before the
+ * callback is invoked, so a job that was cancelled from the UI thread never
+ * reaches its callback afterwards.
+ * </p>
+ */
+public class ClusteringJobExecutor {
+
+  /**
+   * A clustering job, producing a result ready to be rendered.
+   */
+  public interface Job<R> {
+    /**
+     * Runs the job on a pool thread. Anything it throws, unless the job was
+     * superseded, is reported to {@link Callback#onError(Throwable)}.
+     *
+     * @param progress receives the progress of the job
+     * @return the result
+     * @throws CancellationException if the job was superseded
+     */
+    R run(Progress progress);
+  }
+
+  /**
+   * Receives the progress of a running job.
+   */
+  public interface Progress {
+    /**
+     * Reports the progress of the job.
+     *
+     * @param stage   a description of the current stage
+     * @param percent the percentage of the job done
+     * @throws CancellationException if the job was superseded, to stop it
+     */
+    void report(String stage, int percent);
+
+    /**
+     * Indicates whether the job was superseded.
+     *
+     * @return true if the job should stop
+     */
+    boolean isCancelled();
+  }
+
+  /**
+   * Stops a job once it has been superseded. Long loops of the clustering and
+   * hull computations call this every so often, so that a superseded job does
+   * not hold on to its thread, or to a lock the next job needs, until its next
+   * report.
+   *
+   * @param progress the progress of the job, or null if the work is not part of a job
+   * @throws CancellationException if the job was superseded
+   */
+  public static void checkCancelled(final Progress progress) {
+    if (progress != null && progress.isCancelled()) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Receives the outcome of a job on the callback executor.
+   */
+  public interface Callback<R> {
+    void onProgress(String stage, int percent);
+
+    void onResult(R result);
+
+    void onError(Throwable error);
+  }
+
+  /**
+   * The state of one submitted job.
+   */
+  private class Ticket<R> implements Progress, Runnable {
+    private final Job<R> job;
+    private final Callback<R> callback;
+    private volatile boolean cancelled;
+    private Future<?> future;
+
+    Ticket(final Job<R> job, final Callback<R> callback) {
+      this.job = job;
+      this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+      try {
+        final R result = job.run(this);
+        finish(new Runnable() {
+          @Override
+          public void run() {
+            callback.onResult(result);
+          }
+        });
+      } catch (final Throwable e) {
+        if (cancelled) {
+          // superseded; nothing to deliver
+          return;
+        }
+        finish(new Runnable() {
+          @Override
+          public void run() {
+            callback.onError(e);
+          }
+        });
+      }
+    }
+
+    /**
+     * Delivers the outcome of the job, after which it is no longer current.
+     */
+    private void finish(final Runnable outcome) {
+      deliver(new Runnable() {
+        @Override
+        public void run() {
+          finished(Ticket.this);
+          outcome.run();
+        }
+      });
+    }
+
+    @Override
+    public void report(final String stage, final int percent) {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      deliver(new Runnable() {
+        @Override
+        public void run() {
+          callback.onProgress(stage, percent);
+        }
+      });
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    private void deliver(final Runnable delivery) {
+      if (cancelled) {
+        return;
+      }
+      callbackExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!cancelled) {
+            delivery.run();
+          }
+        }
+      });
+    }
+  }
+
+  private final ExecutorService pool;
+
+  private final Executor callbackExecutor;
+
+  /**
+   * The latest job, or null once its outcome was delivered or it was cancelled.
+   */
+  private Ticket<?> current;
+
+  /**
+   * @param threads          the number of pool threads
+   * @param callbackExecutor runs the callbacks, e.g. on the UI thread
+   */
+  public ClusteringJobExecutor(final int threads, final Executor callbackExecutor) {
+    this.pool = Executors.newFixedThreadPool(threads);
+    this.callbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Cancels the current job, if any, and starts the given one.
+   *
+   * @param job      the job
+   * @param callback receives the progress and outcome of the job
+   */
+  public synchronized <R> void submit(final Job<R> job, final Callback<R> callback) {
+    cancel();
+    Ticket<R> ticket = new Ticket<>(job, callback);
+    current = ticket;
+    ticket.future = pool.submit(ticket);
+  }
+
+  /**
+   * Cancels the current job, if any. A job that has not started yet never runs.
+   */
+  public synchronized void cancel() {
+    if (current != null) {
+      current.cancelled = true;
+      current.future.cancel(false);
+      current = null;
+    }
+  }
+
+  /**
+   * Clears the current job once its outcome is delivered, unless it was superseded.
+   */
+  private synchronized void finished(final Ticket<?> ticket) {
+    if (current == ticket) {
+      current = null;
+    }
+  }
+
+  /**
+   * Cancels the current job and stops the pool.
+   */
+  public synchronized void shutdown() {
+    cancel();
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,262 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+import cs.umass.edu.myactivitiestoolkit.location.LocalProjection;
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * DBScan clustering of GPS locations backed by a spatial grid. It produces the
+ * same kind of result as {@link DBScan}, but scales to the hundreds of
+ * thousands of locations that {@code LocationService} collects over a few weeks.
+ * <p>
+ * The locations are first projected to meters with a
+ * {@link LocalProjection#conservative(GPSLocation[]) conservative} equirectangular
+ * projection, whose east-west scale is that of the location farthest from the
+ * equator, so that projected distances never exceed true distances however far
+ * the locations spread north and south. The projected points are bucketed into a
+ * {@link GridIndex} with cells of size {@link #eps}, so a region query only
+ * examines the 3x3 block of cells around a point rather than every point; the
+ * candidates found there are then checked with
+ * {@link GPSLocation#squaredDistance(GPSLocation)}, so the neighborhoods are
+ * exactly those of {@link DBScan}.
+ * The visited state of each point and the expansion queue are kept in primitive
+ * arrays indexed by point, so no per-point objects or hash lookups are needed.
+ * </p>
+ * <p>
+ * As in {@link DBScan}, a point's neighborhood includes the point itself, and a
+ * point is a core point if its neighborhood contains at least {@link #minPts}
+ * points. A border point reachable from more than one cluster belongs to the
+ * first cluster that reaches it. Clusters are returned in the order they are
+ * discovered, and the points of each cluster in the order they were given.
+ * </p>
+ *
+ * @see DBScan
+ * @see GridIndex
+ */
+public class GridDBScan {
+
+  /**
+   * The point has not yet been visited.
+   */
+  static final byte UNVISITED = 0;
+
+  /**
+   * The point has been visited and is not a core point, nor yet reached from one.
+   */
+  static final byte NOISE = 1;
+
+  /**
+   * The point has been assigned to a cluster.
+   */
+  static final byte CLUSTERED = 2;
+
+  /**
+   * Relative amount by which radius queries in the projection are widened, so that
+   * rounding cannot drop a location at exactly eps before its true distance is checked.
+   */
+  static final double QUERY_SLACK = 1e-9;
+
+  /**
+   * Radius of the neighborhood for expanding clusters, in meters.
+   */
+  private final double eps;
+
+  /**
+   * Minimum number of points in a cluster.
+   */
+  private final int minPts;
+
+  /**
+   * @param eps    radius of the neighborhood for expanding clusters, in meters
+   * @param minPts minimum number of points in a cluster
+   */
+  public GridDBScan(final double eps, final int minPts) {
+    if (!(eps > 0)) {
+      throw new IllegalArgumentException("Eps must be positive.");
+    }
+    this.eps = eps;
+    this.minPts = minPts;
+  }
+
+  /**
+   * Returns the radius of the neighborhood for expanding clusters
+   *
+   * @return epsilon
+   */
+  public double getEps() {
+    return eps;
+  }
+
+  /**
+   * Returns the minimum number of points in a cluster
+   *
+   * @return minPts
+   */
+  public int getMinPts() {
+    return minPts;
+  }
+
+  /**
+   * Clusters the given locations.
+   *
+   * @param points the locations we want to cluster
+   * @return a list of clusters
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points) {
+    return cluster(points, null);
+  }
+
+  /**
+   * Clusters the given locations as part of a clustering job.
+   *
+   * @param points   the locations we want to cluster
+   * @param progress the progress of the job, checked for cancellation, or null
+   * @return a list of clusters
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points,
+                                            final ClusteringJobExecutor.Progress progress) {
+    final GPSLocation[] locations = points.toArray(new GPSLocation[points.size()]);
+    final int n = locations.length;
+    final double[] x = new double[n], y = new double[n];
+    projectConservatively(locations, x, y);
+    final GridIndex index = new GridIndex(x, y, n, eps);
+
+    final byte[] states = new byte[n];
+    final int[] labels = new int[n];
+    final IntList neighbors = new IntList();
+    final IntList queue = new IntList();
+    int clusterCount = 0;
+
+    for (int i = 0; i < n; i++) {
+      if (states[i] != UNVISITED) {
+        continue;
+      }
+      ClusteringJobExecutor.checkCancelled(progress);
+      neighbors.clear();
+      if (regionQuery(index, locations, i, eps, neighbors) < minPts) {
+        states[i] = NOISE;
+        labels[i] = -1;
+        continue;
+      }
+      final int label = clusterCount++;
+      states[i] = CLUSTERED;
+      labels[i] = label;
+
+      // breadth-first expansion; a point is queued at most once, when it is
+      // first claimed by the cluster
+      queue.clear();
+      int head = 0;
+      while (true) {
+        for (int k = 0; k < neighbors.size(); k++) {
+          int q = neighbors.get(k);
+          if (states[q] == CLUSTERED) {
+            continue;
+          }
+          // noise points were already found not to be core points
+          if (states[q] == UNVISITED) {
+            queue.add(q);
+          }
+          states[q] = CLUSTERED;
+          labels[q] = label;
+        }
+        if (head == queue.size()) {
+          break;
+        }
+        ClusteringJobExecutor.checkCancelled(progress);
+        neighbors.clear();
+        if (regionQuery(index, locations, queue.get(head++), eps, neighbors) < minPts) {
+          neighbors.clear();
+        }
+      }
+    }
+    return toClusters(locations, labels, clusterCount);
+  }
+
+  /**
+   * Collects the locations within eps of a location, including the location itself.
+   * The candidates come from the grid, over a {@link #projectConservatively conservative}
+   * projection, and only those whose true distance is within eps are kept.
+   *
+   * @param index     the grid over the projected locations
+   * @param locations the locations
+   * @param i         the index of the location
+   * @param eps       the radius, in meters
+   * @param out       receives the indices of the locations found; it is not cleared first
+   * @return the number of locations found
+   */
+  static int regionQuery(final GridIndex index, final GPSLocation[] locations, final int i, final double eps,
+                         final IntList out) {
+    final int start = out.size();
+    index.neighbors(i, eps * (1 + QUERY_SLACK), out);
+    final double eps2 = eps * eps;
+    int kept = start;
+    for (int k = start; k < out.size(); k++) {
+      int q = out.get(k);
+      if (locations[i].squaredDistance(locations[q]) <= eps2) {
+        out.set(kept++, q);
+      }
+    }
+    out.truncate(kept);
+    return kept - start;
+  }
+
+  /**
+   * Groups locations into clusters by label. Points are added to their
+   * cluster in input order.
+   *
+   * @param locations    the clustered locations
+   * @param labels       the cluster of each location, or -1 for noise
+   * @param clusterCount the number of clusters
+   * @return the clusters, ordered by label
+   */
+  static List<Cluster<GPSLocation>> toClusters(final GPSLocation[] locations, final int[] labels,
+                                               final int clusterCount) {
+    final List<Cluster<GPSLocation>> clusters = new ArrayList<>(clusterCount);
+    for (int c = 0; c < clusterCount; c++) {
+      clusters.add(new Cluster<GPSLocation>());
+    }
+    for (int i = 0; i < locations.length; i++) {
+      if (labels[i] >= 0) {
+        clusters.get(labels[i]).addPoint(locations[i]);
+      }
+    }
+    return clusters;
+  }
+
+  /**
+   * Projects locations to planar coordinates in meters with a
+   * {@link LocalProjection} centered on their centroid. The x axis points east
+   * and the y axis north.
+   *
+   * @param locations the locations to project
+   * @param x         receives the easting of each location
+   * @param y         receives the northing of each location
+   */
+  static void project(final GPSLocation[] locations, final double[] x, final double[] y) {
+    if (locations.length > 0) {
+      LocalProjection.centeredOn(locations).project(locations, x, y);
+    }
+  }
+
+  /**
+   * Projects locations to planar coordinates in meters with a
+   * {@link LocalProjection#conservative(GPSLocation[]) conservative} projection,
+   * in which no two locations are farther apart than they really are. A grid
+   * over these coordinates finds every location within a radius, but also some
+   * farther ones, which must be filtered by their true distance.
+   *
+   * @param locations the locations to project
+   * @param x         receives the easting of each location
+   * @param y         receives the northing of each location
+   */
+  static void projectConservatively(final GPSLocation[] locations, final double[] x, final double[] y) {
+    if (locations.length > 0) {
+      LocalProjection.conservative(locations).project(locations, x, y);
+    }
+  }
+}
@@ -0,0 +1,342 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.Arrays;
+
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * A uniform grid over points in a planar coordinate system, such as locations projected
+ * to meters. Points are bucketed into square cells of a fixed size, so a query for all
+ * points within radius r of a location only has to inspect the cells overlapping the
+ * query disc; when r does not exceed the cell size, that is the 3 x 3 block of cells
+ * around it.
+ * <br><br>
+ * The index is built once in O(n log n): the occupied cells are sorted by key and the
+ * points are bucketed by cell with a counting sort, so points of a cell are contiguous
+ * in {@link #getOrder()}. Only primitive arrays are allocated.
+ *
+ * @see GridDBScan
+ */
+public class GridIndex {
+
+  /**
+   * The largest number of cells in the grid, so that cell keys fit in a long.
+   */
+  private static final double MAX_CELLS = 1L << 62;
+
+  /**
+   * Point coordinates.
+   */
+  private final double[] x, y;
+
+  /**
+   * Number of indexed points.
+   */
+  private final int n;
+
+  /**
+   * Edge length of a cell, in the units of the coordinates.
+   */
+  private final double cellSize;
+
+  /**
+   * Lower-left corner of the grid.
+   */
+  private final double minX, minY;
+
+  /**
+   * Number of cell rows; cell (cx, cy) has key {@code cx * rows + cy}.
+   */
+  private final long rows;
+
+  /**
+   * Number of cell columns.
+   */
+  private final long columns;
+
+  /**
+   * Keys of the occupied cells, in increasing order.
+   */
+  private final long[] cellKeys;
+
+  /**
+   * Points of cell c are {@code order[cellStart[c]]} to {@code order[cellStart[c + 1] - 1]}.
+   */
+  private final int[] cellStart;
+
+  /**
+   * Point indices grouped by cell.
+   */
+  private final int[] order;
+
+  /**
+   * The cell of each point, as an index into {@link #cellKeys}.
+   */
+  private final int[] cellOf;
+
+  /**
+   * Builds an index over the first n points.
+   *
+   * @param x        the x coordinate of each point.
+   * @param y        the y coordinate of each point.
+   * @param n        the number of points.
+   * @param cellSize the edge length of a cell, which must be positive.
+   * @throws IllegalArgumentException if the cell size is not positive, or so small
+   *                                  compared to the extent of the points that the
+   *                                  cell keys would overflow.
+   */
+  public GridIndex(double[] x, double[] y, int n, double cellSize) {
+    if (!(cellSize > 0)) {
+      throw new IllegalArgumentException("Cell size must be positive.");
+    }
+    this.x = x;
+    this.y = y;
+    this.n = n;
+    this.cellSize = cellSize;
+
+    double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY;
+    double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      loX = Math.min(loX, x[i]);
+      loY = Math.min(loY, y[i]);
+      hiX = Math.max(hiX, x[i]);
+      hiY = Math.max(hiY, y[i]);
+    }
+    minX = n == 0 ? 0 : loX;
+    minY = n == 0 ? 0 : loY;
+    double spanX = n == 0 ? 1 : Math.floor((hiX - loX) / cellSize) + 1;
+    double spanY = n == 0 ? 1 : Math.floor((hiY - loY) / cellSize) + 1;
+    if (!(spanX * spanY <= MAX_CELLS)) {
+      throw new IllegalArgumentException("Cell size " + cellSize + " is too small for the extent of the points.");
+    }
+    columns = (long)spanX;
+    rows = (long)spanY;
+
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = key(column(x[i]), row(y[i]));
+    }
+    long[] sorted = keys.clone();
+    Arrays.sort(sorted);
+    int cells = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[cells++] = sorted[i];
+      }
+    }
+    cellKeys = Arrays.copyOf(sorted, cells);
+
+    cellOf = new int[n];
+    cellStart = new int[cells + 1];
+    for (int i = 0; i < n; i++) {
+      cellOf[i] = Arrays.binarySearch(cellKeys, keys[i]);
+      cellStart[cellOf[i] + 1]++;
+    }
+    for (int c = 0; c < cells; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    order = new int[n];
+    int[] next = Arrays.copyOf(cellStart, cells);
+    for (int i = 0; i < n; i++) {
+      order[next[cellOf[i]]++] = i;
+    }
+  }
+
+  /**
+   * Returns the number of indexed points.
+   *
+   * @return n
+   */
+  public int size() {
+    return n;
+  }
+
+  /**
+   * Returns the edge length of a cell.
+   *
+   * @return the cell size.
+   */
+  public double getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Returns the x coordinate of the left edge of column 0.
+   *
+   * @return the smallest x coordinate of the points.
+   */
+  public double getMinX() {
+    return minX;
+  }
+
+  /**
+   * Returns the y coordinate of the bottom edge of row 0.
+   *
+   * @return the smallest y coordinate of the points.
+   */
+  public double getMinY() {
+    return minY;
+  }
+
+  /**
+   * Returns the number of occupied cells.
+   *
+   * @return the cell count.
+   */
+  public int getCellCount() {
+    return cellKeys.length;
+  }
+
+  /**
+   * Returns the cell containing the given point.
+   *
+   * @param i the point index.
+   * @return the cell index, in [0, {@link #getCellCount()}).
+   */
+  public int getCell(int i) {
+    return cellOf[i];
+  }
+
+  /**
+   * Returns the position in {@link #getOrder()} of the first point of a cell. The points of
+   * cell c occupy positions {@code getCellStart(c)} to {@code getCellStart(c + 1) - 1}.
+   *
+   * @param c the cell index, in [0, {@link #getCellCount()}].
+   * @return the start position.
+   */
+  public int getCellStart(int c) {
+    return cellStart[c];
+  }
+
+  /**
+   * Returns the point indices grouped by cell. The array must not be modified.
+   *
+   * @return the point order.
+   */
+  public int[] getOrder() {
+    return order;
+  }
+
+  /**
+   * Returns the column and row of a cell in the grid.
+   *
+   * @param c the cell index.
+   * @return {column, row}
+   */
+  public long[] getCellCoordinates(int c) {
+    return new long[]{cellKeys[c] / rows, cellKeys[c] % rows};
+  }
+
+  /**
+   * Returns the occupied cell at the given column and row.
+   *
+   * @param cx the column.
+   * @param cy the row.
+   * @return the cell index, or -1 if the cell is empty or outside the grid.
+   */
+  public int findCell(long cx, long cy) {
+    if (cx < 0 || cy < 0 || cx >= columns || cy >= rows) {
+      return -1;
+    }
+    int c = Arrays.binarySearch(cellKeys, key(cx, cy));
+    return c < 0 ? -1 : c;
+  }
+
+  /**
+   * Finds, for every occupied cell, the other occupied cells at most span columns and
+   * span rows away. Since the cells are sorted by key, the cells of each column offset
+   * are found by a pointer that only moves forward, so this takes linear time in the
+   * number of cells rather than a binary search per neighbor.
+   *
+   * @param span the largest column or row offset.
+   * @return the neighboring cells of each cell, ordered by column offset.
+   */
+  public int[][] getNeighborCells(int span) {
+    int cells = cellKeys.length;
+    int[][] neighbors = new int[cells][];
+    int[] pointers = new int[2 * span + 1];
+    int[] found = new int[(2 * span + 1) * (2 * span + 1)];
+    for (int c = 0; c < cells; c++) {
+      long cx = cellKeys[c] / rows, cy = cellKeys[c] % rows;
+      long minRow = Math.max(0, cy - span), maxRow = Math.min(rows - 1, cy + span);
+      int count = 0;
+      for (int k = 0; k < pointers.length; k++) {
+        long column = cx + k - span;
+        if (column < 0 || column >= columns) {
+          continue;
+        }
+        long lo = key(column, minRow), hi = key(column, maxRow);
+        int p = pointers[k];
+        while (p < cells && cellKeys[p] < lo) {
+          p++;
+        }
+        pointers[k] = p;
+        for (; p < cells && cellKeys[p] <= hi; p++) {
+          if (p != c) {
+            found[count++] = p;
+          }
+        }
+      }
+      neighbors[c] = Arrays.copyOf(found, count);
+    }
+    return neighbors;
+  }
+
+  /**
+   * Collects all points within the given radius of a location, in no particular order.
+   *
+   * @param qx     the x coordinate of the location.
+   * @param qy     the y coordinate of the location.
+   * @param radius the query radius; points at exactly this distance are included.
+   * @param out    receives the indices of the points found; it is not cleared first.
+   * @return the number of points found.
+   */
+  public int query(double qx, double qy, double radius, IntList out) {
+    int found = 0;
+    long span = (long)Math.ceil(radius / cellSize);
+    long cx = column(qx), cy = row(qy);
+    double r2 = radius * radius;
+    for (long i = cx - span; i <= cx + span; i++) {
+      for (long j = cy - span; j <= cy + span; j++) {
+        int c = findCell(i, j);
+        if (c < 0) {
+          continue;
+        }
+        for (int k = cellStart[c], end = cellStart[c + 1]; k < end; k++) {
+          int p = order[k];
+          double dx = x[p] - qx, dy = y[p] - qy;
+          if (dx * dx + dy * dy <= r2) {
+            out.add(p);
+            found++;
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Collects all points within the given radius of an indexed point, including the point
+   * itself.
+   *
+   * @param i      the point index.
+   * @param radius the query radius.
+   * @param out    receives the indices of the points found; it is not cleared first.
+   * @return the number of points found.
+   */
+  public int neighbors(int i, double radius, IntList out) {
+    return query(x[i], y[i], radius, out);
+  }
+
+  private long column(double px) {
+    return (long)Math.floor((px - minX) / cellSize);
+  }
+
+  private long row(double py) {
+    return (long)Math.floor((py - minY) / cellSize);
+  }
+
+  private long key(long cx, long cy) {
+    return cx * rows + cy;
+  }
+}
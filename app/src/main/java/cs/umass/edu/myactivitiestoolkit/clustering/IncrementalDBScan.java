@@ -0,0 +1,706 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+import cs.umass.edu.myactivitiestoolkit.location.LocalProjection;
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * DBScan clustering of GPS locations that is maintained as locations are
+ * inserted and deleted, so that the clusters are available at any time
+ * without reclustering every saved location.
+ * <p>
+ * For every location the engine keeps the size of its eps-neighborhood and its
+ * cluster. An insertion or deletion only updates the counts of the points in
+ * the neighborhood of the changed location; the cluster assignments change only
+ * where a point gains or loses core status:
+ * <ul>
+ * <li>A point that becomes a core point creates a new cluster, joins the
+ * cluster of its core neighbors or, if those belong to several clusters,
+ * merges them. Its unclustered neighbors become border points of the cluster.</li>
+ * <li>When a core point is deleted or loses core status, its cluster may split.
+ * Searches through the cluster's core points, started from the core points
+ * next to the lost one, establish whether it is still connected; only if it is
+ * not are its core points regrouped into components and its border points
+ * reassigned.</li>
+ * </ul>
+ * Deletions of border and noise points, and insertions that do not create core
+ * points, cost a single neighborhood query.
+ * </p>
+ * <p>
+ * Locations are identified by {@link GPSLocation#id}, so they must have been
+ * saved before they are inserted. The engine keeps a copy of each location, so a
+ * location moved after it was inserted is clustered where it was until it is
+ * deleted and inserted again, which is how
+ * {@link cs.umass.edu.myactivitiestoolkit.location.LocationDAO#update(GPSLocation)}
+ * notifies a change. Coordinates are projected to meters about
+ * the first location inserted, with longitudes scaled for a latitude a little
+ * farther from the equator than any location seen, so that no two locations
+ * look farther apart than they are; when a location beyond that latitude
+ * arrives, the points are projected again. The grid therefore finds every
+ * neighbor, and candidates are checked by their true distance, as in
+ * {@link GridDBScan}. As with {@link GridDBScan}, a border
+ * point reachable from several clusters belongs to one of them, but which one
+ * may depend on the order of updates.
+ * </p>
+ * <p>
+ * All methods are synchronized, so updates may arrive from a service thread
+ * while clusters are read on the UI thread.
+ * </p>
+ *
+ * @see GridDBScan
+ */
+public class IncrementalDBScan {
+
+  /**
+   * Label of a point that belongs to no cluster.
+   */
+  private static final int NOISE = -1;
+
+  /**
+   * How far, in degrees, the latitude of the projection's east-west scale is set
+   * beyond the locations seen, so that the points are rarely projected again.
+   */
+  private static final double SCALE_MARGIN = 1;
+
+  /**
+   * Radius of the neighborhood for expanding clusters, in meters.
+   */
+  private final double eps;
+
+  /**
+   * Minimum number of points in a cluster.
+   */
+  private final int minPts;
+
+  /**
+   * Projection reference, set by the first insertion, and the latitude whose
+   * east-west scale it uses, at least as far from the equator as any location.
+   */
+  private LocalProjection projection;
+  private double scaleLatitude;
+
+  /**
+   * Per-slot state. Slots of deleted locations are reused.
+   */
+  private double[] x = new double[16], y = new double[16];
+  private int[] counts = new int[16];
+  private int[] labels = new int[16];
+  private GPSLocation[] locations = new GPSLocation[16];
+
+  /**
+   * The number of slots ever allocated, and the slots free for reuse.
+   */
+  private int slotCount;
+  private final IntList freeSlots = new IntList();
+
+  /**
+   * Maps a location ID to its slot.
+   */
+  private final Map<Integer, Integer> slotOfId = new HashMap<>();
+
+  /**
+   * Maps a grid cell, of size eps, to the slots of the points it contains.
+   */
+  private final Map<Long, IntList> cells = new HashMap<>();
+
+  /**
+   * Maps a cluster label to the slots of its points. Labels increase in order
+   * of creation, so iteration returns the oldest clusters first.
+   */
+  private final TreeMap<Integer, Set<Integer>> clusters = new TreeMap<>();
+
+  /**
+   * The label given to the next new cluster.
+   */
+  private int nextLabel;
+
+  /**
+   * Scratch lists for neighborhood queries.
+   */
+  private final IntList neighbors = new IntList(), promoted = new IntList();
+
+  /**
+   * @param eps    radius of the neighborhood for expanding clusters, in meters
+   * @param minPts minimum number of points in a cluster
+   */
+  public IncrementalDBScan(final double eps, final int minPts) {
+    if (!(eps > 0)) {
+      throw new IllegalArgumentException("Eps must be positive.");
+    }
+    this.eps = eps;
+    this.minPts = minPts;
+  }
+
+  /**
+   * Returns the radius of the neighborhood for expanding clusters
+   *
+   * @return epsilon
+   */
+  public double getEps() {
+    return eps;
+  }
+
+  /**
+   * Returns the minimum number of points in a cluster
+   *
+   * @return minPts
+   */
+  public int getMinPts() {
+    return minPts;
+  }
+
+  /**
+   * Returns the number of locations currently clustered.
+   *
+   * @return the location count
+   */
+  public synchronized int size() {
+    return slotOfId.size();
+  }
+
+  /**
+   * Returns the current clusters, oldest first.
+   *
+   * @return a list of clusters
+   */
+  public synchronized List<Cluster<GPSLocation>> getClusters() {
+    List<Cluster<GPSLocation>> result = new ArrayList<>(clusters.size());
+    for (Set<Integer> members : clusters.values()) {
+      Cluster<GPSLocation> cluster = new Cluster<>();
+      for (int slot : members) {
+        cluster.addPoint(locations[slot]);
+      }
+      result.add(cluster);
+    }
+    return result;
+  }
+
+  /**
+   * Inserts several locations. If none are present yet, the clusters are built
+   * in one pass, as in {@link GridDBScan}, rather than by single insertions.
+   *
+   * @param points the saved locations to insert
+   */
+  public synchronized void insertAll(final Collection<GPSLocation> points) {
+    insertAll(points, null);
+  }
+
+  /**
+   * Inserts several locations as part of a clustering job. If the job is
+   * superseded, the insertion stops part way and leaves the clusters
+   * inconsistent, so the engine must then be discarded.
+   *
+   * @param points   the saved locations to insert
+   * @param progress the progress of the job, checked for cancellation, or null
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public synchronized void insertAll(final Collection<GPSLocation> points,
+                                     final ClusteringJobExecutor.Progress progress) {
+    if (!slotOfId.isEmpty()) {
+      for (GPSLocation point : points) {
+        ClusteringJobExecutor.checkCancelled(progress);
+        insert(point);
+      }
+      return;
+    }
+    for (GPSLocation point : points) {
+      if (point.id < 0) {
+        throw new IllegalArgumentException("Location must have an ID.");
+      }
+      if (slotOfId.isEmpty()) {
+        startProjection(point);
+      }
+      if (slotOfId.containsKey(point.id)) {
+        continue;
+      }
+      int s = allocate(point);
+      slotOfId.put(point.id, s);
+      cellAt(x[s], y[s], true).add(s);
+      labels[s] = NOISE;
+    }
+    for (int s = 0; s < slotCount; s++) {
+      ClusteringJobExecutor.checkCancelled(progress);
+      neighbors.clear();
+      neighborhood(s, neighbors);
+      counts[s] = neighbors.size();
+    }
+    final IntList stack = new IntList();
+    for (int s = 0; s < slotCount; s++) {
+      if (counts[s] < minPts || labels[s] != NOISE) {
+        continue;
+      }
+      ClusteringJobExecutor.checkCancelled(progress);
+      int label = nextLabel++;
+      clusters.put(label, new HashSet<Integer>());
+      setLabel(s, label);
+      stack.add(s);
+      while (!stack.isEmpty()) {
+        int c = stack.removeLast();
+        neighbors.clear();
+        neighborhood(c, neighbors);
+        for (int k = 0; k < neighbors.size(); k++) {
+          int q = neighbors.get(k);
+          if (labels[q] == NOISE) {
+            setLabel(q, label);
+            if (counts[q] >= minPts) {
+              stack.add(q);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds a location and updates the clusters around it.
+   *
+   * @param location a saved location, with a non-negative ID
+   * @return false if a location with the same ID is already present
+   */
+  public synchronized boolean insert(final GPSLocation location) {
+    if (location.id < 0) {
+      throw new IllegalArgumentException("Location must have an ID.");
+    }
+    if (slotOfId.containsKey(location.id)) {
+      return false;
+    }
+    if (slotOfId.isEmpty()) {
+      startProjection(location);
+    }
+    final int s = allocate(location);
+    slotOfId.put(location.id, s);
+    cellAt(x[s], y[s], true).add(s);
+
+    neighbors.clear();
+    neighborhood(s, neighbors);
+    counts[s] = neighbors.size();
+    labels[s] = NOISE;
+    promoted.clear();
+    for (int k = 0; k < neighbors.size(); k++) {
+      int q = neighbors.get(k);
+      if (q != s && ++counts[q] == minPts) {
+        promoted.add(q);
+      }
+    }
+    if (counts[s] >= minPts) {
+      promoted.add(s);
+    }
+    for (int k = 0; k < promoted.size(); k++) {
+      promote(promoted.get(k));
+    }
+    if (labels[s] == NOISE) {
+      attachBorder(s);
+    }
+    return true;
+  }
+
+  /**
+   * Removes a location, by ID, and updates the clusters around it.
+   *
+   * @param location the location to remove
+   * @return false if no location with that ID is present
+   */
+  public synchronized boolean delete(final GPSLocation location) {
+    final Integer slot = slotOfId.remove(location.id);
+    if (slot == null) {
+      return false;
+    }
+    final int s = slot;
+    // core points lost by this deletion, grouped by their cluster
+    final Map<Integer, IntList> lost = new HashMap<>();
+    if (counts[s] >= minPts && labels[s] != NOISE) {
+      addLost(lost, labels[s], s);
+    }
+    neighbors.clear();
+    neighborhood(s, neighbors);
+    for (int k = 0; k < neighbors.size(); k++) {
+      int q = neighbors.get(k);
+      if (q != s && counts[q]-- == minPts && labels[q] != NOISE) {
+        addLost(lost, labels[q], q);
+      }
+    }
+    removeFromCell(s);
+    setLabel(s, NOISE);
+    if (slotOfId.isEmpty()) {
+      clear();
+      return true;
+    }
+    for (Map.Entry<Integer, IntList> entry : lost.entrySet()) {
+      repair(entry.getKey(), entry.getValue());
+    }
+    // the slot's coordinates are needed by repair(), so it is only freed now
+    locations[s] = null;
+    freeSlots.add(s);
+    return true;
+  }
+
+  private static void addLost(final Map<Integer, IntList> lost, final int label, final int s) {
+    IntList points = lost.get(label);
+    if (points == null) {
+      points = new IntList(4);
+      lost.put(label, points);
+    }
+    points.add(s);
+  }
+
+  /**
+   * Removes all locations.
+   */
+  public synchronized void clear() {
+    slotOfId.clear();
+    cells.clear();
+    clusters.clear();
+    freeSlots.clear();
+    Arrays.fill(locations, null);
+    slotCount = 0;
+    nextLabel = 0;
+  }
+
+  /**
+   * Handles a point that has just become a core point: it merges the clusters
+   * of its core neighbors, or starts a new cluster, and claims its unclustered
+   * neighbors as border points.
+   */
+  private void promote(final int c) {
+    final IntList nb = new IntList();
+    neighborhood(c, nb);
+    // a border point's cluster is reachable through the core neighbor that claimed it
+    int target = labels[c];
+    for (int k = 0; k < nb.size(); k++) {
+      int q = nb.get(k);
+      if (q != c && counts[q] >= minPts && labels[q] != NOISE) {
+        target = target == NOISE ? labels[q] : merge(target, labels[q]);
+      }
+    }
+    if (target == NOISE) {
+      target = nextLabel++;
+      clusters.put(target, new HashSet<Integer>());
+    }
+    setLabel(c, target);
+    for (int k = 0; k < nb.size(); k++) {
+      int q = nb.get(k);
+      if (labels[q] == NOISE) {
+        setLabel(q, target);
+      }
+    }
+  }
+
+  /**
+   * Merges two clusters, moving the points of the smaller into the larger.
+   *
+   * @return the label of the merged cluster
+   */
+  private int merge(final int a, final int b) {
+    if (a == b) {
+      return a;
+    }
+    Set<Integer> membersA = clusters.get(a), membersB = clusters.get(b);
+    int keep = membersA.size() >= membersB.size() ? a : b;
+    int drop = keep == a ? b : a;
+    Set<Integer> dropped = clusters.remove(drop);
+    Set<Integer> kept = clusters.get(keep);
+    for (int slot : dropped) {
+      labels[slot] = keep;
+      kept.add(slot);
+    }
+    return keep;
+  }
+
+  /**
+   * Restores the clusters after some core points of a cluster were deleted or
+   * lost core status, which may have split it.
+   * <br><br>
+   * The remaining core points of the cluster next to the lost ones are the
+   * seeds. Breadth-first searches through the cluster's core points start from
+   * all seeds at once, and searches that meet are joined. If all searches
+   * join, the cluster is still connected, which in a dense cluster is usually
+   * found after visiting a few neighborhoods; only the border points near the
+   * lost points need to be checked. Otherwise the searches run to completion,
+   * each set of joined searches becomes a cluster, the largest keeping the old
+   * label, and the cluster's border points are reassigned.
+   *
+   * @param label      the cluster that lost core points
+   * @param lostPoints the points that were core points of the cluster
+   */
+  private void repair(final int label, final IntList lostPoints) {
+    final IntList seeds = new IntList();
+    final Set<Integer> seen = new HashSet<>();
+    final Set<Integer> borders = new HashSet<>();
+    final IntList nb = new IntList();
+    for (int k = 0; k < lostPoints.size(); k++) {
+      nb.clear();
+      neighborhood(lostPoints.get(k), nb);
+      for (int j = 0; j < nb.size(); j++) {
+        int q = nb.get(j);
+        if (labels[q] != label) {
+          continue;
+        }
+        if (counts[q] >= minPts) {
+          if (seen.add(q)) {
+            seeds.add(q);
+          }
+        } else {
+          borders.add(q);
+        }
+      }
+    }
+
+    if (seeds.isEmpty()) {
+      // the cluster has no core points left
+      Set<Integer> members = clusters.remove(label);
+      for (int m : members) {
+        labels[m] = NOISE;
+      }
+      for (int m : members) {
+        attachBorder(m);
+      }
+      return;
+    }
+
+    // owner maps each core point reached to the seed whose search reached it
+    final Map<Integer, Integer> owner = new HashMap<>();
+    final int[] parent = new int[seeds.size()];
+    final IntList queue = new IntList();
+    for (int i = 0; i < seeds.size(); i++) {
+      parent[i] = i;
+      owner.put(seeds.get(i), i);
+      queue.add(seeds.get(i));
+    }
+    int components = seeds.size();
+    for (int head = 0; components > 1 && head < queue.size(); head++) {
+      int c = queue.get(head);
+      int root = find(parent, owner.get(c));
+      nb.clear();
+      neighborhood(c, nb);
+      for (int k = 0; k < nb.size(); k++) {
+        int q = nb.get(k);
+        if (labels[q] != label || counts[q] < minPts) {
+          continue;
+        }
+        Integer other = owner.get(q);
+        if (other == null) {
+          owner.put(q, root);
+          queue.add(q);
+        } else {
+          int otherRoot = find(parent, other);
+          if (otherRoot != root) {
+            parent[otherRoot] = root;
+            components--;
+          }
+        }
+      }
+    }
+
+    if (components == 1) {
+      for (int b : borders) {
+        if (!hasCoreNeighbor(b, label)) {
+          setLabel(b, NOISE);
+          attachBorder(b);
+        }
+      }
+      return;
+    }
+
+    final int[] sizes = new int[seeds.size()];
+    for (int seed : owner.values()) {
+      sizes[find(parent, seed)]++;
+    }
+    int largest = 0;
+    for (int i = 1; i < sizes.length; i++) {
+      if (sizes[i] > sizes[largest]) {
+        largest = i;
+      }
+    }
+    final Map<Integer, Integer> labelOfRoot = new HashMap<>();
+    for (Map.Entry<Integer, Integer> entry : owner.entrySet()) {
+      int root = find(parent, entry.getValue());
+      if (root == largest) {
+        continue;
+      }
+      Integer component = labelOfRoot.get(root);
+      if (component == null) {
+        component = nextLabel++;
+        clusters.put(component, new HashSet<Integer>());
+        labelOfRoot.put(root, component);
+      }
+      setLabel(entry.getKey(), component);
+    }
+    for (int m : new ArrayList<>(clusters.get(label))) {
+      if (counts[m] < minPts && !hasCoreNeighbor(m, label)) {
+        setLabel(m, NOISE);
+        attachBorder(m);
+      }
+    }
+  }
+
+  private static int find(final int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Indicates whether a point has a core neighbor in the given cluster.
+   */
+  private boolean hasCoreNeighbor(final int s, final int label) {
+    final IntList nb = new IntList();
+    neighborhood(s, nb);
+    for (int k = 0; k < nb.size(); k++) {
+      int q = nb.get(k);
+      if (q != s && counts[q] >= minPts && labels[q] == label) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Assigns a non-core point to the cluster of any core neighbor, if it has one.
+   */
+  private void attachBorder(final int s) {
+    final IntList nb = new IntList();
+    neighborhood(s, nb);
+    for (int k = 0; k < nb.size(); k++) {
+      int q = nb.get(k);
+      if (q != s && counts[q] >= minPts && labels[q] != NOISE) {
+        setLabel(s, labels[q]);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Moves a point to a cluster, or to noise.
+   */
+  private void setLabel(final int s, final int label) {
+    if (labels[s] != NOISE) {
+      clusters.get(labels[s]).remove(s);
+    }
+    labels[s] = label;
+    if (label != NOISE) {
+      clusters.get(label).add(s);
+    }
+  }
+
+  /**
+   * Collects the points within eps of a point, including the point itself
+   * while it is indexed. Candidates from the grid are checked by their true
+   * distance.
+   */
+  private void neighborhood(final int s, final IntList out) {
+    final long cx = (long)Math.floor(x[s] / eps), cy = (long)Math.floor(y[s] / eps);
+    final double eps2 = eps * eps;
+    final double query2 = eps2 * (1 + GridDBScan.QUERY_SLACK) * (1 + GridDBScan.QUERY_SLACK);
+    for (long i = cx - 1; i <= cx + 1; i++) {
+      for (long j = cy - 1; j <= cy + 1; j++) {
+        IntList cell = cells.get(key(i, j));
+        if (cell == null) {
+          continue;
+        }
+        for (int k = 0; k < cell.size(); k++) {
+          int q = cell.get(k);
+          double dx = x[q] - x[s], dy = y[q] - y[s];
+          if (dx * dx + dy * dy <= query2 && locations[s].squaredDistance(locations[q]) <= eps2) {
+            out.add(q);
+          }
+        }
+      }
+    }
+  }
+
+  private IntList cellAt(final double px, final double py, final boolean create) {
+    Long key = key((long)Math.floor(px / eps), (long)Math.floor(py / eps));
+    IntList cell = cells.get(key);
+    if (cell == null && create) {
+      cell = new IntList(4);
+      cells.put(key, cell);
+    }
+    return cell;
+  }
+
+  private void removeFromCell(final int s) {
+    IntList cell = cellAt(x[s], y[s], false);
+    for (int k = 0; k < cell.size(); k++) {
+      if (cell.get(k) == s) {
+        cell.set(k, cell.get(cell.size() - 1));
+        cell.removeLast();
+        break;
+      }
+    }
+    if (cell.isEmpty()) {
+      cells.remove(key((long)Math.floor(x[s] / eps), (long)Math.floor(y[s] / eps)));
+    }
+  }
+
+  private static long key(final long cx, final long cy) {
+    return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Sets the origin of the projection at the first location inserted.
+   */
+  private void startProjection(final GPSLocation location) {
+    scaleLatitude = Math.min(90, Math.abs(location.latitude) + SCALE_MARGIN);
+    projection = new LocalProjection(location.latitude, location.longitude, scaleLatitude);
+  }
+
+  /**
+   * Moves the latitude of the projection's east-west scale beyond a location
+   * farther from the equator than it, and projects the indexed points again.
+   * Neighborhoods do not change, so neither do the counts and clusters.
+   */
+  private void rescale(final GPSLocation location) {
+    scaleLatitude = Math.min(90, Math.abs(location.latitude) + SCALE_MARGIN);
+    projection = new LocalProjection(projection.getOriginLatitude(), projection.getOriginLongitude(),
+      scaleLatitude);
+    cells.clear();
+    for (int s = 0; s < slotCount; s++) {
+      if (locations[s] != null) {
+        x[s] = projection.east(locations[s]);
+        y[s] = projection.north(locations[s]);
+        cellAt(x[s], y[s], true).add(s);
+      }
+    }
+  }
+
+  /**
+   * Stores a location in a free slot, projecting it about the origin.
+   */
+  private int allocate(final GPSLocation location) {
+    if (Math.abs(location.latitude) > scaleLatitude) {
+      rescale(location);
+    }
+    final int s;
+    if (!freeSlots.isEmpty()) {
+      s = freeSlots.removeLast();
+    } else {
+      if (slotCount == locations.length) {
+        int capacity = slotCount * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        labels = Arrays.copyOf(labels, capacity);
+        locations = Arrays.copyOf(locations, capacity);
+      }
+      s = slotCount++;
+    }
+    x[s] = projection.east(location);
+    y[s] = projection.north(location);
+    // a copy, so that the point cannot move away from its cell
+    locations[s] = new GPSLocation(location.id, location.timestamp, location.latitude, location.longitude,
+      location.accuracy);
+    return s;
+  }
+}
@@ -0,0 +1,403 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+/**
+ * On-device k-means clustering of GPS locations, so that the locations need
+ * not be sent to the server.
+ * <p>
+ * Locations are projected to meters as in {@link GridDBScan} and stored in
+ * primitive coordinate arrays. The initial centers are chosen by k-means++
+ * seeding, which picks each new center with probability proportional to its
+ * squared distance from the nearest center already chosen; this spreads the
+ * centers out and makes the result far less sensitive to the seed than
+ * uniform initialization.
+ * </p>
+ * <p>
+ * {@link #cluster(Collection)} runs Lloyd's algorithm: every iteration assigns
+ * each location to its nearest center and moves each center to the mean of its
+ * locations. Large inputs are split into chunks whose assignments and partial
+ * sums are computed on a thread pool. {@link #clusterMiniBatch(Collection, int)}
+ * instead moves the centers using small random batches of locations, with a
+ * per-center learning rate that decays as the center absorbs more locations
+ * (Sculley, 2010). Each of its iterations costs O(batch size * k) rather than
+ * O(n * k), at the price of a slightly worse fit.
+ * </p>
+ *
+ * @see Cluster
+ */
+public class KMeans {
+
+  /**
+   * Below this many locations the assignment step runs on the calling thread.
+   */
+  private static final int MIN_PARALLEL_SIZE = 8192;
+
+  /**
+   * Lloyd's algorithm stops once no center moves by more than this, in meters.
+   */
+  private static final double TOLERANCE = 1e-3;
+
+  /**
+   * The number of clusters.
+   */
+  private final int k;
+
+  /**
+   * The maximum number of iterations.
+   */
+  private final int maxIterations;
+
+  /**
+   * Seed of the random number generator, so that results are reproducible.
+   */
+  private final long seed;
+
+  /**
+   * The number of worker threads used for the assignment step.
+   */
+  private final int threads;
+
+  /**
+   * @param k the number of clusters
+   */
+  public KMeans(final int k) {
+    this(k, 300, 0, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param k             the number of clusters
+   * @param maxIterations the maximum number of iterations
+   * @param seed          seed of the random number generator
+   * @param threads       the number of worker threads
+   */
+  public KMeans(final int k, final int maxIterations, final long seed, final int threads) {
+    if (k < 1) {
+      throw new IllegalArgumentException("At least one cluster is required.");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is required.");
+    }
+    this.k = k;
+    this.maxIterations = maxIterations;
+    this.seed = seed;
+    this.threads = threads;
+  }
+
+  /**
+   * Returns the number of clusters
+   *
+   * @return k
+   */
+  public int getK() {
+    return k;
+  }
+
+  /**
+   * Clusters the given locations with Lloyd's algorithm.
+   *
+   * @param points the locations we want to cluster
+   * @return the non-empty clusters
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points) {
+    return cluster(points, null);
+  }
+
+  /**
+   * Clusters the given locations with Lloyd's algorithm as part of a clustering job.
+   *
+   * @param points   the locations we want to cluster
+   * @param progress the progress of the job, checked for cancellation, or null
+   * @return the non-empty clusters
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points,
+                                            final ClusteringJobExecutor.Progress progress) {
+    final GPSLocation[] locations = points.toArray(new GPSLocation[points.size()]);
+    final int n = locations.length;
+    if (n == 0) {
+      return new ArrayList<>();
+    }
+    final double[] x = new double[n], y = new double[n];
+    GridDBScan.project(locations, x, y);
+    final int clusters = Math.min(k, n);
+    final double[] cx = new double[clusters], cy = new double[clusters];
+    seed(x, y, cx, cy, new Random(seed));
+
+    final int[] assignments = new int[n];
+    final Assigner assigner = new Assigner(x, y, assignments, cx, cy);
+    try {
+      for (int iteration = 0; iteration < maxIterations; iteration++) {
+        ClusteringJobExecutor.checkCancelled(progress);
+        assigner.assign();
+        double moved = 0;
+        for (int c = 0; c < clusters; c++) {
+          // an empty cluster keeps its center
+          if (assigner.count[c] == 0) {
+            continue;
+          }
+          double nx = assigner.sumX[c] / assigner.count[c], ny = assigner.sumY[c] / assigner.count[c];
+          moved = Math.max(moved, Math.hypot(nx - cx[c], ny - cy[c]));
+          cx[c] = nx;
+          cy[c] = ny;
+        }
+        if (moved <= TOLERANCE) {
+          break;
+        }
+      }
+      assigner.assign();
+    }
+    finally {
+      assigner.shutdown();
+    }
+    return toClusters(locations, assignments, clusters);
+  }
+
+  /**
+   * Clusters the given locations with mini-batch k-means.
+   *
+   * @param points    the locations we want to cluster
+   * @param batchSize the number of locations sampled in each iteration
+   * @return the non-empty clusters
+   */
+  public List<Cluster<GPSLocation>> clusterMiniBatch(final Collection<GPSLocation> points, final int batchSize) {
+    return clusterMiniBatch(points, batchSize, null);
+  }
+
+  /**
+   * Clusters the given locations with mini-batch k-means as part of a clustering job.
+   *
+   * @param points    the locations we want to cluster
+   * @param batchSize the number of locations sampled in each iteration
+   * @param progress  the progress of the job, checked for cancellation, or null
+   * @return the non-empty clusters
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public List<Cluster<GPSLocation>> clusterMiniBatch(final Collection<GPSLocation> points, final int batchSize,
+                                                     final ClusteringJobExecutor.Progress progress) {
+    final GPSLocation[] locations = points.toArray(new GPSLocation[points.size()]);
+    final int n = locations.length;
+    if (n == 0) {
+      return new ArrayList<>();
+    }
+    final double[] x = new double[n], y = new double[n];
+    GridDBScan.project(locations, x, y);
+    final int clusters = Math.min(k, n);
+    final double[] cx = new double[clusters], cy = new double[clusters];
+    final Random random = new Random(seed);
+    seed(x, y, cx, cy, random);
+
+    final long[] absorbed = new long[clusters];
+    final int[] batch = new int[batchSize];
+    final int[] batchAssignments = new int[batchSize];
+    for (int iteration = 0; iteration < maxIterations; iteration++) {
+      ClusteringJobExecutor.checkCancelled(progress);
+      // assign the whole batch to the current centers before moving any of them
+      for (int b = 0; b < batchSize; b++) {
+        batch[b] = random.nextInt(n);
+        batchAssignments[b] = nearest(x[batch[b]], y[batch[b]], cx, cy);
+      }
+      for (int b = 0; b < batchSize; b++) {
+        int c = batchAssignments[b];
+        double rate = 1.0 / ++absorbed[c];
+        cx[c] += rate * (x[batch[b]] - cx[c]);
+        cy[c] += rate * (y[batch[b]] - cy[c]);
+      }
+    }
+
+    final int[] assignments = new int[n];
+    final Assigner assigner = new Assigner(x, y, assignments, cx, cy);
+    try {
+      assigner.assign();
+    }
+    finally {
+      assigner.shutdown();
+    }
+    return toClusters(locations, assignments, clusters);
+  }
+
+  /**
+   * k-means++ seeding: the first center is a random point, and each further
+   * center is a point drawn with probability proportional to its squared
+   * distance from the nearest center so far.
+   */
+  private static void seed(final double[] x, final double[] y, final double[] cx, final double[] cy,
+                           final Random random) {
+    final int n = x.length;
+    final double[] d2 = new double[n];
+    int first = random.nextInt(n);
+    cx[0] = x[first];
+    cy[0] = y[first];
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      double dx = x[i] - cx[0], dy = y[i] - cy[0];
+      d2[i] = dx * dx + dy * dy;
+      total += d2[i];
+    }
+    for (int c = 1; c < cx.length; c++) {
+      int chosen = n - 1;
+      if (total > 0) {
+        double target = random.nextDouble() * total;
+        for (int i = 0; i < n; i++) {
+          target -= d2[i];
+          if (target < 0) {
+            chosen = i;
+            break;
+          }
+        }
+      } else {
+        // all points coincide with a center already
+        chosen = random.nextInt(n);
+      }
+      cx[c] = x[chosen];
+      cy[c] = y[chosen];
+      total = 0;
+      for (int i = 0; i < n; i++) {
+        double dx = x[i] - cx[c], dy = y[i] - cy[c];
+        d2[i] = Math.min(d2[i], dx * dx + dy * dy);
+        total += d2[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the center nearest to a point.
+   */
+  private static int nearest(final double px, final double py, final double[] cx, final double[] cy) {
+    int best = 0;
+    double bestD2 = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < cx.length; c++) {
+      double dx = px - cx[c], dy = py - cy[c];
+      double d2 = dx * dx + dy * dy;
+      if (d2 < bestD2) {
+        bestD2 = d2;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Groups locations into clusters by assignment, dropping empty clusters.
+   */
+  private static List<Cluster<GPSLocation>> toClusters(final GPSLocation[] locations, final int[] assignments,
+                                                       final int clusterCount) {
+    final List<Cluster<GPSLocation>> clusters = new ArrayList<>(clusterCount);
+    for (int c = 0; c < clusterCount; c++) {
+      clusters.add(new Cluster<GPSLocation>());
+    }
+    for (int i = 0; i < locations.length; i++) {
+      clusters.get(assignments[i]).addPoint(locations[i]);
+    }
+    final List<Cluster<GPSLocation>> nonEmpty = new ArrayList<>(clusterCount);
+    for (Cluster<GPSLocation> cluster : clusters) {
+      if (cluster.size() > 0) {
+        nonEmpty.add(cluster);
+      }
+    }
+    return nonEmpty;
+  }
+
+  /**
+   * The assignment step. Each chunk of points is assigned to the nearest
+   * centers into its own partial sums, which are then added up, so the threads
+   * share nothing but the read-only centers.
+   */
+  private class Assigner {
+    private final double[] x, y, cx, cy;
+    private final int[] assignments;
+    private final ExecutorService executor;
+    private final List<Callable<double[]>> tasks = new ArrayList<>();
+
+    /**
+     * Sums of the coordinates of the points assigned to each center, and their number.
+     */
+    final double[] sumX, sumY;
+    final int[] count;
+
+    Assigner(final double[] x, final double[] y, final int[] assignments, final double[] cx, final double[] cy) {
+      this.x = x;
+      this.y = y;
+      this.assignments = assignments;
+      this.cx = cx;
+      this.cy = cy;
+      this.sumX = new double[cx.length];
+      this.sumY = new double[cx.length];
+      this.count = new int[cx.length];
+      final int n = x.length;
+      final int chunks = n < MIN_PARALLEL_SIZE ? 1 : threads;
+      this.executor = chunks == 1 ? null : Executors.newFixedThreadPool(threads);
+      for (int t = 0; t < chunks; t++) {
+        final int start = (int)((long)n * t / chunks), end = (int)((long)n * (t + 1) / chunks);
+        tasks.add(new Callable<double[]>() {
+          @Override
+          public double[] call() {
+            return assignRange(start, end);
+          }
+        });
+      }
+    }
+
+    /**
+     * Assigns points [start, end) and returns their partial sums, laid out as
+     * sumX, sumY and count for each center in turn.
+     */
+    private double[] assignRange(final int start, final int end) {
+      final int clusters = cx.length;
+      final double[] partial = new double[3 * clusters];
+      for (int i = start; i < end; i++) {
+        int c = nearest(x[i], y[i], cx, cy);
+        assignments[i] = c;
+        partial[3 * c] += x[i];
+        partial[3 * c + 1] += y[i];
+        partial[3 * c + 2]++;
+      }
+      return partial;
+    }
+
+    void assign() {
+      Arrays.fill(sumX, 0);
+      Arrays.fill(sumY, 0);
+      Arrays.fill(count, 0);
+      if (executor == null) {
+        add(assignRange(0, x.length));
+        return;
+      }
+      try {
+        for (Future<double[]> future : executor.invokeAll(tasks)) {
+          add(future.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Clustering was interrupted.", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    private void add(final double[] partial) {
+      for (int c = 0; c < cx.length; c++) {
+        sumX[c] += partial[3 * c];
+        sumY[c] += partial[3 * c + 1];
+        count[c] += (int)partial[3 * c + 2];
+      }
+    }
+
+    void shutdown() {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.Collection;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * Finds the locations near a location with a {@link GridIndex}, so that
+ * {@link OPTICS} need not compare every pair of locations.
+ * <p>
+ * The grid is built over the locations projected to meters, as in
+ * {@link GridDBScan}, with the east-west scale of the location farthest from
+ * the equator, so that projected distances never exceed the distances measured
+ * by {@link GPSLocation#distance(GPSLocation)}. Every location within the
+ * requested distance is therefore among the candidates, however far apart in
+ * latitude the locations are.
+ * </p>
+ *
+ * @see OPTICS
+ */
+public class LocationCandidateSearch implements OPTICS.CandidateSearch {
+
+  private final GridIndex index;
+
+  /**
+   * @param locations the locations, in the order they will be given to {@link OPTICS}
+   * @param radius    the largest radius that will be searched, in meters
+   */
+  public LocationCandidateSearch(final Collection<GPSLocation> locations, final double radius) {
+    final GPSLocation[] points = locations.toArray(new GPSLocation[locations.size()]);
+    final int n = points.length;
+    final double[] x = new double[n], y = new double[n];
+    GridDBScan.projectConservatively(points, x, y);
+    index = new GridIndex(x, y, n, widen(radius));
+  }
+
+  @Override
+  public void candidates(int i, double radius, IntList out) {
+    index.neighbors(i, widen(radius), out);
+  }
+
+  /**
+   * Widens a radius by the rounding slack of {@link GridDBScan}.
+   */
+  private static double widen(double radius) {
+    return radius * (1 + GridDBScan.QUERY_SLACK);
+  }
+}
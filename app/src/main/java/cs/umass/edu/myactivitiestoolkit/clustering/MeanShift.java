@@ -0,0 +1,292 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * On-device mean-shift clustering of GPS locations, so that the locations need
+ * not be sent to the server. Unlike k-means, the number of clusters is not
+ * given; it follows from the bandwidth, which is the scale at which locations
+ * are considered part of the same place.
+ * <p>
+ * Locations are projected to meters as in {@link GridDBScan} and indexed in a
+ * {@link GridIndex}. Rather than shifting every location, the shifts start
+ * from the centroids of the occupied cells of a bandwidth-sized grid ("bin
+ * seeding"), which gives the same modes with far fewer starting points. Each
+ * seed is moved repeatedly to the kernel-weighted mean of the locations around
+ * it until it stops moving. A {@link Kernel#FLAT} kernel weighs all locations
+ * within the bandwidth equally; a {@link Kernel#GAUSSIAN} kernel weighs them by
+ * distance and is cut off at three bandwidths. The neighbors of a seed are
+ * found in the grid, so a shift only examines nearby locations.
+ * </p>
+ * <p>
+ * Converged seeds closer than one bandwidth to a mode with more locations
+ * around it are discarded, and each location is assigned to its nearest
+ * remaining mode.
+ * </p>
+ *
+ * @see Cluster
+ */
+public class MeanShift {
+
+  /**
+   * The weighting of locations around the current mean.
+   */
+  public enum Kernel {
+    /** All locations within the bandwidth count equally. */
+    FLAT,
+    /** Locations are weighted by exp(-d<sup>2</sup> / 2h<sup>2</sup>), up to 3h away. */
+    GAUSSIAN
+  }
+
+  /**
+   * A shift stops once the mean moves by less than this fraction of the bandwidth.
+   */
+  private static final double TOLERANCE = 1e-3;
+
+  /**
+   * The maximum number of shifts per seed.
+   */
+  private static final int MAX_ITERATIONS = 300;
+
+  /**
+   * The number of locations sampled by {@link #estimateBandwidth(Collection)}.
+   */
+  private static final int BANDWIDTH_SAMPLES = 500;
+
+  /**
+   * The kernel bandwidth, in meters.
+   */
+  private final double bandwidth;
+
+  /**
+   * The kernel shape.
+   */
+  private final Kernel kernel;
+
+  /**
+   * @param bandwidth the kernel bandwidth, in meters
+   * @param kernel    the kernel shape
+   */
+  public MeanShift(final double bandwidth, final Kernel kernel) {
+    if (!(bandwidth > 0)) {
+      throw new IllegalArgumentException("Bandwidth must be positive.");
+    }
+    this.bandwidth = bandwidth;
+    this.kernel = kernel;
+  }
+
+  /**
+   * Returns the kernel bandwidth
+   *
+   * @return the bandwidth, in meters
+   */
+  public double getBandwidth() {
+    return bandwidth;
+  }
+
+  /**
+   * Returns the kernel shape
+   *
+   * @return the kernel
+   */
+  public Kernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Clusters the given locations.
+   *
+   * @param points the locations we want to cluster
+   * @return a list of clusters, those around the strongest modes first
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points) {
+    return cluster(points, null);
+  }
+
+  /**
+   * Clusters the given locations as part of a clustering job.
+   *
+   * @param points   the locations we want to cluster
+   * @param progress the progress of the job, checked for cancellation, or null
+   * @return a list of clusters, those around the strongest modes first
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points,
+                                            final ClusteringJobExecutor.Progress progress) {
+    final GPSLocation[] locations = points.toArray(new GPSLocation[points.size()]);
+    final int n = locations.length;
+    final List<Cluster<GPSLocation>> clusters = new ArrayList<>();
+    if (n == 0) {
+      return clusters;
+    }
+    final double[] x = new double[n], y = new double[n];
+    GridDBScan.project(locations, x, y);
+    final double radius = kernel == Kernel.GAUSSIAN ? 3 * bandwidth : bandwidth;
+    final GridIndex index = new GridIndex(x, y, n, radius);
+
+    // seed from the centroid of each bandwidth-sized bin
+    final GridIndex bins = radius == bandwidth ? index : new GridIndex(x, y, n, bandwidth);
+    final int seedCount = bins.getCellCount();
+    final double[] mx = new double[seedCount], my = new double[seedCount];
+    final int[] order = bins.getOrder();
+    for (int c = 0; c < seedCount; c++) {
+      int start = bins.getCellStart(c), end = bins.getCellStart(c + 1);
+      for (int k = start; k < end; k++) {
+        mx[c] += x[order[k]];
+        my[c] += y[order[k]];
+      }
+      mx[c] /= end - start;
+      my[c] /= end - start;
+    }
+
+    // shift each seed to its mode, and record how many locations support it
+    final int[] support = new int[seedCount];
+    final IntList neighbors = new IntList();
+    for (int s = 0; s < seedCount; s++) {
+      ClusteringJobExecutor.checkCancelled(progress);
+      for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+        neighbors.clear();
+        index.query(mx[s], my[s], radius, neighbors);
+        double sx = 0, sy = 0, weight = 0;
+        for (int k = 0; k < neighbors.size(); k++) {
+          int i = neighbors.get(k);
+          double w = weight(x[i] - mx[s], y[i] - my[s]);
+          sx += w * x[i];
+          sy += w * y[i];
+          weight += w;
+        }
+        if (weight == 0) {
+          break;
+        }
+        double nx = sx / weight, ny = sy / weight;
+        boolean converged = Math.hypot(nx - mx[s], ny - my[s]) < TOLERANCE * bandwidth;
+        mx[s] = nx;
+        my[s] = ny;
+        if (converged) {
+          break;
+        }
+      }
+      neighbors.clear();
+      support[s] = index.query(mx[s], my[s], bandwidth, neighbors);
+    }
+
+    // keep the best supported modes, discarding any within a bandwidth of a better one
+    Integer[] bySupport = new Integer[seedCount];
+    for (int s = 0; s < seedCount; s++) {
+      bySupport[s] = s;
+    }
+    Arrays.sort(bySupport, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return support[a] != support[b] ? support[b] - support[a] : a - b;
+      }
+    });
+    final IntList modes = new IntList();
+    final double bandwidth2 = bandwidth * bandwidth;
+    for (int s : bySupport) {
+      if (support[s] == 0) {
+        continue;
+      }
+      boolean duplicate = false;
+      for (int k = 0; k < modes.size() && !duplicate; k++) {
+        double dx = mx[s] - mx[modes.get(k)], dy = my[s] - my[modes.get(k)];
+        duplicate = dx * dx + dy * dy < bandwidth2;
+      }
+      if (!duplicate) {
+        modes.add(s);
+      }
+    }
+
+    // assign every location to its nearest mode
+    final int modeCount = modes.size();
+    final double[] modeX = new double[modeCount], modeY = new double[modeCount];
+    for (int k = 0; k < modeCount; k++) {
+      modeX[k] = mx[modes.get(k)];
+      modeY[k] = my[modes.get(k)];
+      clusters.add(new Cluster<GPSLocation>());
+    }
+    for (int i = 0; i < n; i++) {
+      int best = 0;
+      double bestD2 = Double.POSITIVE_INFINITY;
+      for (int k = 0; k < modeCount; k++) {
+        double dx = x[i] - modeX[k], dy = y[i] - modeY[k];
+        double d2 = dx * dx + dy * dy;
+        if (d2 < bestD2) {
+          bestD2 = d2;
+          best = k;
+        }
+      }
+      clusters.get(best).addPoint(locations[i]);
+    }
+    final List<Cluster<GPSLocation>> nonEmpty = new ArrayList<>(modeCount);
+    for (Cluster<GPSLocation> cluster : clusters) {
+      if (cluster.size() > 0) {
+        nonEmpty.add(cluster);
+      }
+    }
+    return nonEmpty;
+  }
+
+  /**
+   * Returns the kernel weight of a location at the given offset from the mean.
+   */
+  private double weight(final double dx, final double dy) {
+    if (kernel == Kernel.FLAT) {
+      return 1;
+    }
+    return Math.exp(-(dx * dx + dy * dy) / (2 * bandwidth * bandwidth));
+  }
+
+  /**
+   * Estimates a bandwidth for the given locations as the average, over a
+   * sample of locations, of the distance to the nearest 30% of the sample.
+   * This is the heuristic used by scikit-learn, which the server uses.
+   *
+   * @param points the locations to be clustered
+   * @return the estimated bandwidth in meters, or 0 if there are fewer than two locations
+   */
+  public static double estimateBandwidth(final Collection<GPSLocation> points) {
+    final GPSLocation[] all = points.toArray(new GPSLocation[points.size()]);
+    if (all.length < 2) {
+      return 0;
+    }
+    final GPSLocation[] sample;
+    if (all.length <= BANDWIDTH_SAMPLES) {
+      sample = all;
+    } else {
+      // partial Fisher-Yates shuffle with a fixed seed, so the estimate is reproducible
+      Random random = new Random(0);
+      sample = new GPSLocation[BANDWIDTH_SAMPLES];
+      GPSLocation[] copy = all.clone();
+      for (int i = 0; i < BANDWIDTH_SAMPLES; i++) {
+        int j = i + random.nextInt(copy.length - i);
+        GPSLocation t = copy[i];
+        copy[i] = copy[j];
+        copy[j] = t;
+        sample[i] = copy[i];
+      }
+    }
+    final int m = sample.length;
+    final double[] x = new double[m], y = new double[m];
+    GridDBScan.project(sample, x, y);
+    final int neighbor = Math.max(1, (int)(0.3 * m)) - 1;
+    final double[] d = new double[m];
+    double total = 0;
+    for (int i = 0; i < m; i++) {
+      for (int j = 0; j < m; j++) {
+        d[j] = Math.hypot(x[i] - x[j], y[i] - y[j]);
+      }
+      Arrays.sort(d);
+      total += d[neighbor];
+    }
+    return total / m;
+  }
+}
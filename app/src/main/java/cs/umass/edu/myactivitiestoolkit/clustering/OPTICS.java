@@ -0,0 +1,454 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * OPTICS (Ordering Points To Identify the Clustering Structure), after Ankerst
+ * et al., 1999. Where {@link DBScan} produces one clustering for one eps,
+ * OPTICS computes a single ordering of the points, together with a core
+ * distance and a reachability distance for each, from which the DBScan
+ * clustering for any eps up to the generating distance can be read off in one
+ * linear scan. Exploring eps therefore costs one ordering per data set and
+ * minPts, followed by a cheap {@link Ordering#extractDBScan(double)} per value.
+ * <p>
+ * As in {@link DBScan}, a point's neighborhood includes the point itself, so
+ * the core distance of a point is the distance to its minPts-th nearest
+ * neighbor counting the point itself. The extracted clusters contain the same
+ * points as DBScan with the same eps and minPts; only a border point that is
+ * within eps of several clusters may be assigned to a different one of them.
+ * </p>
+ * <p>
+ * Neighborhoods are found by comparing each point with every other point
+ * unless a {@link CandidateSearch} is given that narrows the comparison down,
+ * such as {@link LocationCandidateSearch} for GPS locations.
+ * </p>
+ *
+ * @see DBScan
+ * @see Clusterable
+ */
+public class OPTICS<T extends Clusterable<T>> {
+
+  /**
+   * Reachability or core distance of a point for which it is undefined.
+   */
+  public static final double UNDEFINED = Double.POSITIVE_INFINITY;
+
+  /**
+   * Finds a superset of the points within some distance of a point. The
+   * candidates are filtered with {@link Clusterable#distance(Object)}.
+   */
+  public interface CandidateSearch {
+    /**
+     * @param i      the index of the point, in the order the points were given
+     * @param radius the search radius, at most the generating distance
+     * @param out    receives the indices of the candidates
+     */
+    void candidates(int i, double radius, IntList out);
+  }
+
+  /**
+   * The largest eps that clusterings can be extracted for.
+   */
+  private final double generatingDistance;
+
+  /**
+   * Minimum number of points in a cluster.
+   */
+  private final int minPts;
+
+  /**
+   * @param generatingDistance the largest eps that clusterings will be extracted for
+   * @param minPts             minimum number of points in a cluster
+   */
+  public OPTICS(final double generatingDistance, final int minPts) {
+    this.generatingDistance = generatingDistance;
+    this.minPts = minPts;
+  }
+
+  /**
+   * Returns the largest eps that clusterings can be extracted for
+   *
+   * @return the generating distance
+   */
+  public double getGeneratingDistance() {
+    return generatingDistance;
+  }
+
+  /**
+   * Returns the minimum number of points in a cluster
+   *
+   * @return minPts
+   */
+  public int getMinPts() {
+    return minPts;
+  }
+
+  /**
+   * Computes the cluster ordering of the given points, comparing each point
+   * with every other.
+   *
+   * @param points the points to order
+   * @return the ordering
+   */
+  public Ordering<T> order(final Collection<T> points) {
+    return order(points, null);
+  }
+
+  /**
+   * Computes the cluster ordering of the given points.
+   *
+   * @param points the points to order
+   * @param search finds the neighbors of a point by its index in {@code points},
+   *               or null to compare all pairs of points
+   * @return the ordering
+   */
+  public Ordering<T> order(final Collection<T> points, final CandidateSearch search) {
+    return order(points, search, null);
+  }
+
+  /**
+   * Computes the cluster ordering of the given points as part of a clustering job.
+   *
+   * @param points   the points to order
+   * @param search   finds the neighbors of a point by its index in {@code points},
+   *                 or null to compare all pairs of points
+   * @param progress the progress of the job, checked for cancellation, or null
+   * @return the ordering
+   * @throws java.util.concurrent.CancellationException if the job was superseded
+   */
+  public Ordering<T> order(final Collection<T> points, final CandidateSearch search,
+                           final ClusteringJobExecutor.Progress progress) {
+    final List<T> input = new ArrayList<>(points);
+    final int n = input.size();
+
+    final boolean[] processed = new boolean[n];
+    final double[] reachability = new double[n];
+    Arrays.fill(reachability, UNDEFINED);
+    // the smallest reachability of each point from any core neighbor, processed or
+    // not, and that neighbor; used to recover border points when extracting
+    final double[] borderReachability = new double[n];
+    final int[] borderCore = new int[n];
+    Arrays.fill(borderReachability, UNDEFINED);
+    final int[] position = new int[n];
+
+    final List<T> ordered = new ArrayList<>(n);
+    final double[] orderedReachability = new double[n];
+    final double[] orderedCoreDistance = new double[n];
+
+    final IntList neighbors = new IntList();
+    final IntList candidates = new IntList();
+    double[] distances = new double[16];
+    final SeedQueue seeds = new SeedQueue(n, reachability);
+
+    for (int start = 0; start < n; start++) {
+      if (processed[start]) {
+        continue;
+      }
+      int p = start;
+      while (p >= 0) {
+        ClusteringJobExecutor.checkCancelled(progress);
+        // gather the neighborhood of p together with the distance to each neighbor
+        neighbors.clear();
+        candidates.clear();
+        if (search == null) {
+          for (int j = 0; j < n; j++) {
+            candidates.add(j);
+          }
+        } else {
+          search.candidates(p, generatingDistance, candidates);
+        }
+        final T point = input.get(p);
+        for (int k = 0; k < candidates.size(); k++) {
+          int q = candidates.get(k);
+          double d = q == p ? 0 : point.distance(input.get(q));
+          if (d <= generatingDistance) {
+            if (neighbors.size() == distances.length) {
+              distances = Arrays.copyOf(distances, distances.length * 2);
+            }
+            distances[neighbors.size()] = d;
+            neighbors.add(q);
+          }
+        }
+
+        processed[p] = true;
+        position[p] = ordered.size();
+        final double coreDistance = coreDistance(distances, neighbors.size());
+        orderedReachability[ordered.size()] = reachability[p];
+        orderedCoreDistance[ordered.size()] = coreDistance;
+        ordered.add(point);
+
+        if (coreDistance != UNDEFINED) {
+          for (int k = 0; k < neighbors.size(); k++) {
+            int q = neighbors.get(k);
+            double r = Math.max(coreDistance, distances[k]);
+            if (q != p && r < borderReachability[q]) {
+              borderReachability[q] = r;
+              borderCore[q] = p;
+            }
+            if (processed[q]) {
+              continue;
+            }
+            if (r < reachability[q]) {
+              reachability[q] = r;
+              seeds.update(q);
+            }
+          }
+        }
+        p = seeds.poll();
+      }
+    }
+    final double[] orderedBorderReachability = new double[n];
+    final int[] orderedBorderCore = new int[n];
+    for (int i = 0; i < n; i++) {
+      orderedBorderReachability[position[i]] = borderReachability[i];
+      orderedBorderCore[position[i]] = borderReachability[i] == UNDEFINED ? -1 : position[borderCore[i]];
+    }
+    return new Ordering<>(generatingDistance, minPts, ordered, orderedReachability, orderedCoreDistance,
+                          orderedBorderReachability, orderedBorderCore);
+  }
+
+  /**
+   * Returns the minPts-th smallest of the first n distances, or
+   * {@link #UNDEFINED} if there are fewer than minPts.
+   */
+  private double coreDistance(final double[] distances, final int n) {
+    if (n < minPts) {
+      return UNDEFINED;
+    }
+    if (minPts <= 1) {
+      return 0;
+    }
+    double[] copy = Arrays.copyOf(distances, n);
+    Arrays.sort(copy);
+    return copy[minPts - 1];
+  }
+
+  /**
+   * The result of {@link OPTICS#order(Collection)}: the points in cluster
+   * order, with the reachability and core distance of each.
+   */
+  public static class Ordering<T extends Clusterable<T>> {
+
+    private final double generatingDistance;
+    private final int minPts;
+    private final List<T> points;
+    private final double[] reachability;
+    private final double[] coreDistance;
+
+    /**
+     * The smallest reachability of each point from any of its core neighbors,
+     * and the position of that neighbor.
+     */
+    private final double[] borderReachability;
+    private final int[] borderCore;
+
+    Ordering(double generatingDistance, int minPts, List<T> points, double[] reachability, double[] coreDistance,
+             double[] borderReachability, int[] borderCore) {
+      this.generatingDistance = generatingDistance;
+      this.minPts = minPts;
+      this.points = points;
+      this.reachability = reachability;
+      this.coreDistance = coreDistance;
+      this.borderReachability = borderReachability;
+      this.borderCore = borderCore;
+    }
+
+    /**
+     * Returns the largest eps that clusterings can be extracted for
+     *
+     * @return the generating distance
+     */
+    public double getGeneratingDistance() {
+      return generatingDistance;
+    }
+
+    /**
+     * Returns the minimum number of points in a cluster
+     *
+     * @return minPts
+     */
+    public int getMinPts() {
+      return minPts;
+    }
+
+    /**
+     * Returns the number of points ordered.
+     *
+     * @return n
+     */
+    public int size() {
+      return points.size();
+    }
+
+    /**
+     * Returns the point at the given position in the cluster order.
+     *
+     * @param i the position
+     * @return the point
+     */
+    public T getPoint(int i) {
+      return points.get(i);
+    }
+
+    /**
+     * Returns the reachability distance of the point at the given position,
+     * which is plotted against the position in a reachability plot.
+     *
+     * @param i the position
+     * @return the reachability distance, or {@link #UNDEFINED}
+     */
+    public double getReachability(int i) {
+      return reachability[i];
+    }
+
+    /**
+     * Returns the core distance of the point at the given position.
+     *
+     * @param i the position
+     * @return the core distance, or {@link #UNDEFINED} if the point is not a
+     * core point at the generating distance
+     */
+    public double getCoreDistance(int i) {
+      return coreDistance[i];
+    }
+
+    /**
+     * Extracts the DBScan clustering for the given eps in two linear passes
+     * over the ordering.
+     * <br><br>
+     * The first pass is ExtractDBSCAN-Clustering from the OPTICS paper: a point
+     * whose reachability exceeds eps starts a new cluster if it is a core point
+     * at eps and is noise otherwise; any other point belongs to the current
+     * cluster. That pass labels some border points as noise, namely those
+     * ordered before the core point they are within eps of, so the second pass
+     * assigns each such point to the cluster of its nearest-reaching core point.
+     *
+     * @param eps radius of the neighborhood, at most the generating distance
+     * @return a list of clusters, in cluster order
+     */
+    public List<Cluster<T>> extractDBScan(double eps) {
+      if (eps > generatingDistance) {
+        throw new IllegalArgumentException("Eps " + eps + " exceeds the generating distance " + generatingDistance + ".");
+      }
+      final int n = points.size();
+      final int[] labels = new int[n];
+      int clusterCount = 0;
+      for (int i = 0; i < n; i++) {
+        if (reachability[i] > eps) {
+          labels[i] = coreDistance[i] <= eps ? clusterCount++ : -1;
+        } else {
+          labels[i] = clusterCount - 1;
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        if (labels[i] < 0 && borderReachability[i] <= eps) {
+          labels[i] = labels[borderCore[i]];
+        }
+      }
+      List<Cluster<T>> clusters = new ArrayList<>(clusterCount);
+      for (int c = 0; c < clusterCount; c++) {
+        clusters.add(new Cluster<T>());
+      }
+      for (int i = 0; i < n; i++) {
+        if (labels[i] >= 0) {
+          clusters.get(labels[i]).addPoint(points.get(i));
+        }
+      }
+      return clusters;
+    }
+  }
+
+  /**
+   * Binary min-heap of point indices keyed by their current reachability,
+   * supporting decrease-key. Ties are broken by index, so the ordering is
+   * deterministic.
+   */
+  private static class SeedQueue {
+    private final int[] heap;
+    private final int[] position;
+    private final double[] keys;
+    private int size;
+
+    SeedQueue(int n, double[] keys) {
+      this.heap = new int[n];
+      this.position = new int[n];
+      this.keys = keys;
+      Arrays.fill(position, -1);
+    }
+
+    /**
+     * Inserts a point, or moves it up after its key decreased.
+     */
+    void update(int i) {
+      if (position[i] < 0) {
+        heap[size] = i;
+        position[i] = size;
+        size++;
+      }
+      siftUp(position[i]);
+    }
+
+    /**
+     * Removes and returns the point with the smallest key, or -1 if empty.
+     */
+    int poll() {
+      if (size == 0) {
+        return -1;
+      }
+      int top = heap[0];
+      position[top] = -1;
+      size--;
+      if (size > 0) {
+        heap[0] = heap[size];
+        position[heap[0]] = 0;
+        siftDown(0);
+      }
+      return top;
+    }
+
+    private boolean less(int a, int b) {
+      return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    private void siftUp(int k) {
+      int i = heap[k];
+      while (k > 0) {
+        int parent = (k - 1) >>> 1;
+        if (!less(i, heap[parent])) {
+          break;
+        }
+        heap[k] = heap[parent];
+        position[heap[k]] = k;
+        k = parent;
+      }
+      heap[k] = i;
+      position[i] = k;
+    }
+
+    private void siftDown(int k) {
+      int i = heap[k];
+      while (true) {
+        int child = 2 * k + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && less(heap[child + 1], heap[child])) {
+          child++;
+        }
+        if (!less(heap[child], i)) {
+          break;
+        }
+        heap[k] = heap[child];
+        position[heap[k]] = k;
+        k = child;
+      }
+      heap[k] = i;
+      position[i] = k;
+    }
+  }
+}
@@ -0,0 +1,317 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+import cs.umass.edu.myactivitiestoolkit.util.IntList;
+
+/**
+ * Multi-threaded DBScan clustering of GPS locations. The result is identical
+ * to that of {@link GridDBScan} for the same eps and minPts: the same clusters
+ * in the same order, each holding the same points in the same order.
+ * <p>
+ * The locations are projected and indexed as in {@link GridDBScan}, and the
+ * neighborhoods are found by the same region query, which checks the true
+ * distance of the grid's candidates. The grid cells are split into contiguous
+ * partitions that are processed by a thread pool in three passes:
+ * <ol>
+ * <li>Each point's neighbors are counted to decide whether it is a core point.</li>
+ * <li>Each core point is joined with its core neighbors in a concurrent
+ * union-find, which merges clusters that span partition boundaries. Roots are
+ * always linked under the smaller index, so the root of each set is its
+ * lowest-indexed core point.</li>
+ * <li>Each remaining point with a core neighbor is assigned to the cluster
+ * with the lowest root among those neighbors.</li>
+ * </ol>
+ * The sequential algorithm discovers clusters in order of their lowest-indexed
+ * core point, and each cluster claims its unclaimed border points before the
+ * next is discovered, so numbering the sets by root and assigning border
+ * points to the lowest root reproduces its labeling exactly.
+ * </p>
+ * <p>
+ * Android only provides {@code ForkJoinPool} from API level 21, so the passes
+ * run on a fixed-size {@link ExecutorService}. Small inputs, or a single
+ * thread, are handed to {@link GridDBScan} instead.
+ * </p>
+ *
+ * @author CS390MB
+ * @see GridDBScan
+ */
+public class ParallelDBScan {
+
+  /**
+   * Below this many points the locations are clustered by {@link GridDBScan}
+   * on the calling thread.
+   */
+  private static final int MIN_PARALLEL_SIZE = 4096;
+
+  /**
+   * The number of partitions created per thread, so that threads which finish
+   * early can take over work from dense regions.
+   */
+  private static final int PARTITIONS_PER_THREAD = 4;
+
+  /**
+   * Radius of the neighborhood for expanding clusters, in meters.
+   */
+  private final double eps;
+
+  /**
+   * Minimum number of points in a cluster.
+   */
+  private final int minPts;
+
+  /**
+   * The number of worker threads.
+   */
+  private final int threads;
+
+  /**
+   * Uses one thread per available processor.
+   *
+   * @param eps    radius of the neighborhood for expanding clusters, in meters
+   * @param minPts minimum number of points in a cluster
+   */
+  public ParallelDBScan(final double eps, final int minPts) {
+    this(eps, minPts, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param eps     radius of the neighborhood for expanding clusters, in meters
+   * @param minPts  minimum number of points in a cluster
+   * @param threads the number of worker threads
+   */
+  public ParallelDBScan(final double eps, final int minPts, final int threads) {
+    if (!(eps > 0)) {
+      throw new IllegalArgumentException("Eps must be positive.");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is required.");
+    }
+    this.eps = eps;
+    this.minPts = minPts;
+    this.threads = threads;
+  }
+
+  /**
+   * Returns the radius of the neighborhood for expanding clusters
+   *
+   * @return epsilon
+   */
+  public double getEps() {
+    return eps;
+  }
+
+  /**
+   * Returns the minimum number of points in a cluster
+   *
+   * @return minPts
+   */
+  public int getMinPts() {
+    return minPts;
+  }
+
+  /**
+   * Clusters the given locations.
+   *
+   * @param points the locations we want to cluster
+   * @return a list of clusters
+   */
+  public List<Cluster<GPSLocation>> cluster(final Collection<GPSLocation> points) {
+    // the passes repeat some region queries, which only pays off with several threads
+    if (threads == 1 || points.size() < MIN_PARALLEL_SIZE) {
+      return new GridDBScan(eps, minPts).cluster(points);
+    }
+    final GPSLocation[] locations = points.toArray(new GPSLocation[points.size()]);
+    final int n = locations.length;
+    final double[] x = new double[n], y = new double[n];
+    GridDBScan.projectConservatively(locations, x, y);
+    final GridIndex index = new GridIndex(x, y, n, eps);
+
+    final boolean[] core = new boolean[n];
+    final AtomicIntegerArray parent = new AtomicIntegerArray(n);
+    for (int i = 0; i < n; i++) {
+      parent.set(i, i);
+    }
+    // root of the set each point belongs to, or -1 for noise
+    final int[] roots = new int[n];
+
+    final List<int[]> partitions = partition(index, threads * PARTITIONS_PER_THREAD);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      run(executor, partitions, index, new Pass() {
+        @Override
+        public void visit(int p, IntList neighbors) {
+          core[p] = GridDBScan.regionQuery(index, locations, p, eps, neighbors) >= minPts;
+        }
+      });
+      run(executor, partitions, index, new Pass() {
+        @Override
+        public void visit(int p, IntList neighbors) {
+          if (!core[p]) {
+            return;
+          }
+          GridDBScan.regionQuery(index, locations, p, eps, neighbors);
+          for (int k = 0; k < neighbors.size(); k++) {
+            int q = neighbors.get(k);
+            // each edge between core points is visited from both ends; one is enough
+            if (q < p && core[q]) {
+              union(parent, p, q);
+            }
+          }
+        }
+      });
+      run(executor, partitions, index, new Pass() {
+        @Override
+        public void visit(int p, IntList neighbors) {
+          if (core[p]) {
+            roots[p] = find(parent, p);
+            return;
+          }
+          int best = -1;
+          GridDBScan.regionQuery(index, locations, p, eps, neighbors);
+          for (int k = 0; k < neighbors.size(); k++) {
+            int q = neighbors.get(k);
+            if (core[q]) {
+              int root = find(parent, q);
+              if (best < 0 || root < best) {
+                best = root;
+              }
+            }
+          }
+          roots[p] = best;
+        }
+      });
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    // number the sets in order of their roots, i.e. in order of discovery
+    final int[] labelOfRoot = new int[n];
+    int clusterCount = 0;
+    for (int i = 0; i < n; i++) {
+      if (core[i] && roots[i] == i) {
+        labelOfRoot[i] = clusterCount++;
+      }
+    }
+    final int[] labels = new int[n];
+    for (int i = 0; i < n; i++) {
+      labels[i] = roots[i] < 0 ? -1 : labelOfRoot[roots[i]];
+    }
+    return GridDBScan.toClusters(locations, labels, clusterCount);
+  }
+
+  /**
+   * Work done for a single point during one pass.
+   */
+  private interface Pass {
+    /**
+     * @param p         the point index
+     * @param neighbors an empty scratch list owned by the calling thread
+     */
+    void visit(int p, IntList neighbors);
+  }
+
+  /**
+   * Splits the grid cells into contiguous ranges holding roughly equal numbers
+   * of points. Each range is given as {first position, end position} in
+   * {@link GridIndex#getOrder()}, and always covers whole cells.
+   */
+  private static List<int[]> partition(final GridIndex index, final int count) {
+    final List<int[]> partitions = new ArrayList<>(count);
+    final int n = index.size();
+    final int cells = index.getCellCount();
+    final int target = Math.max(1, (n + count - 1) / count);
+    int start = 0;
+    for (int c = 1; c <= cells; c++) {
+      int end = index.getCellStart(c);
+      if (end - start >= target || c == cells) {
+        partitions.add(new int[]{start, end});
+        start = end;
+      }
+    }
+    return partitions;
+  }
+
+  /**
+   * Applies a pass to every point, one task per partition, and waits for all
+   * tasks to finish.
+   */
+  private static void run(final ExecutorService executor, final List<int[]> partitions,
+                          final GridIndex index, final Pass pass) {
+    final int[] order = index.getOrder();
+    final List<Callable<Void>> tasks = new ArrayList<>(partitions.size());
+    for (final int[] range : partitions) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          IntList neighbors = new IntList();
+          for (int k = range[0]; k < range[1]; k++) {
+            neighbors.clear();
+            pass.visit(order[k], neighbors);
+          }
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Clustering was interrupted.", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns the root of the set containing x, halving the path as it goes.
+   * Safe to call concurrently with {@link #union(AtomicIntegerArray, int, int)}.
+   */
+  private static int find(final AtomicIntegerArray parent, int x) {
+    while (true) {
+      int p = parent.get(x);
+      if (p == x) {
+        return x;
+      }
+      int grandparent = parent.get(p);
+      if (grandparent != p) {
+        parent.compareAndSet(x, p, grandparent);
+      }
+      x = p;
+    }
+  }
+
+  /**
+   * Merges the sets containing a and b, linking the larger root under the
+   * smaller. Retries if another thread relinks the root in the meantime.
+   */
+  private static void union(final AtomicIntegerArray parent, int a, int b) {
+    while (true) {
+      a = find(parent, a);
+      b = find(parent, b);
+      if (a == b) {
+        return;
+      }
+      if (a < b) {
+        int t = a;
+        a = b;
+        b = t;
+      }
+      if (parent.compareAndSet(a, a, b)) {
+        return;
+      }
+    }
+  }
+}
@@ -22,6 +22,7 @@ public class Constants {
     String BROADCAST_LOCAL_STEP_COUNT = "edu.umass.cs.my-activities-toolkit.action.broadcast-local-step-count";
     String BROADCAST_SERVER_STEP_COUNT = "edu.umass.cs.my-activities-toolkit.action.broadcast-server-step-count";
     String BROADCAST_SPEAKER = "edu.umass.cs.my-activities-toolkit.action.broadcast-speaker";
+    String BROADCAST_SOUND_LEVEL = "edu.umass.cs.my-activities-toolkit.action.broadcast-sound-level";
     String BROADCAST_ACTIVITY = "edu.umass.cs.my-activities-toolkit.action.broadcast-activity";
     String BROADCAST_PPG = "edu.umass.cs.my-activities-toolkit.action.broadcast-ppg";
     String BROADCAST_PPG_PEAK = "edu.umass.cs.my-activities-toolkit.action.broadcast-ppg-peak";
@@ -59,6 +60,7 @@ public class Constants {
     String PPG_DATA = "edu.umass.cs.my-activities-toolkit.key.ppg-value";
     String HEART_RATE = "edu.umass.cs.my-activities-toolkit.key.heart-rate";
     String SPEAKER = "edu.umass.cs.my-activities-toolkit.key.speaker";
+    String SOUND_LEVEL = "edu.umass.cs.my-activities-toolkit.key.sound-level";
     String STEP_COUNT = "edu.umass.cs.my-activities-toolkit.key.step-count";
     String PPG_PEAK_TIMESTAMP = "edu.umass.cs.my-activities-toolkit.key.ppg-peak-timestamp";
     String PPG_PEAK_VALUE = "edu.umass.cs.my-activities-toolkit.key.ppg-peak-value";
@@ -0,0 +1,266 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cs.umass.edu.myactivitiestoolkit.clustering.ClusteringJobExecutor;
+
+/**
+ * Computes convex hulls of locations with Andrew's monotone chain algorithm,
+ * working on primitive coordinate arrays. The points are ordered by a merge
+ * sort of their indices, so no objects are boxed or copied, and the hull is
+ * returned as indices into the coordinate arrays.
+ * <br><br>
+ * Hulls are computed in the plane of longitude and latitude, which is what a
+ * map draws between the vertices of a polygon. Longitudes are taken relative to
+ * the first location, so that the hull of a group straddling the antimeridian
+ * spans the short way across it rather than around the globe. The hulls of
+ * several clusters can be computed together on a thread pool by
+ * {@link #computeAll(List, int, int)}, which can also cap the number of
+ * vertices of each polygon sent to the map.
+ */
+public class ConvexHull {
+
+    /** Below this many points in total, {@link #computeAll(List, int, int)} runs on the calling thread */
+    private static final int MIN_PARALLEL_SIZE = 20000;
+
+    /**
+     * A hull as a polygon, with its vertices in counter-clockwise order.
+     */
+    public static class Polygon {
+        public final double[] latitudes, longitudes;
+
+        Polygon(double[] latitudes, double[] longitudes) {
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+        }
+
+        /**
+         * Returns the number of vertices.
+         * @return the number of vertices.
+         */
+        public int size() {
+            return latitudes.length;
+        }
+    }
+
+    /**
+     * Computes the convex hull of points. Collinear points on the boundary are not
+     * part of the hull, and neither are duplicates.
+     * @param x the x coordinates, e.g. longitudes.
+     * @param y the y coordinates, e.g. latitudes.
+     * @param n the number of points.
+     * @param hull receives the indices of the vertices in counter-clockwise order,
+     *             and must have room for 2n indices.
+     * @return the number of vertices.
+     */
+    public static int compute(double[] x, double[] y, int n, int[] hull) {
+        if (n == 0) {
+            return 0;
+        }
+        int[] order = sort(x, y, n);
+        int size = 0;
+        // lower hull, left to right
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            while (size >= 2 && cross(x, y, hull[size - 2], hull[size - 1], i) <= 0) {
+                size--;
+            }
+            hull[size++] = i;
+        }
+        // upper hull, right to left, stopping short of the first point
+        int lower = size + 1;
+        for (int k = n - 2; k >= 0; k--) {
+            int i = order[k];
+            while (size >= lower && cross(x, y, hull[size - 2], hull[size - 1], i) <= 0) {
+                size--;
+            }
+            hull[size++] = i;
+        }
+        // the last point is the first point again
+        size = size > 1 ? size - 1 : size;
+        if (size == 2 && x[hull[0]] == x[hull[1]] && y[hull[0]] == y[hull[1]]) {
+            // all points coincide
+            return 1;
+        }
+        return size;
+    }
+
+    /**
+     * Removes vertices from a hull until it has at most maxVertices, always removing
+     * the vertex that spans the triangle of least area with its neighbors
+     * (Visvalingam and Whyatt, 1993). This keeps the shape of the hull while
+     * shrinking it as little as possible.
+     * @param x the x coordinates.
+     * @param y the y coordinates.
+     * @param hull the indices of the vertices, which are removed in place.
+     * @param size the number of vertices.
+     * @param maxVertices the maximum number of vertices, at least 3.
+     * @return the new number of vertices.
+     */
+    public static int simplify(double[] x, double[] y, int[] hull, int size, int maxVertices) {
+        while (size > Math.max(3, maxVertices)) {
+            int smallest = 0;
+            double smallestArea = Double.POSITIVE_INFINITY;
+            for (int k = 0; k < size; k++) {
+                double area = Math.abs(cross(x, y, hull[(k + size - 1) % size], hull[k], hull[(k + 1) % size]));
+                if (area < smallestArea) {
+                    smallestArea = area;
+                    smallest = k;
+                }
+            }
+            System.arraycopy(hull, smallest + 1, hull, smallest, size - smallest - 1);
+            size--;
+        }
+        return size;
+    }
+
+    /**
+     * Computes the hull of each group of locations, in parallel if there are many.
+     * @param groups the groups of locations, e.g. the points of each cluster.
+     * @param maxVertices the maximum number of vertices of a polygon, or 0 for no limit.
+     * @param threads the number of worker threads.
+     * @return the hull of each group, in the same order.
+     */
+    public static List<Polygon> computeAll(final List<GPSLocation[]> groups, final int maxVertices, int threads) {
+        return computeAll(groups, maxVertices, threads, null);
+    }
+
+    /**
+     * Computes the hull of each group of locations as part of a clustering job,
+     * stopping before the next group once the job has been superseded.
+     * @param groups the groups of locations, e.g. the points of each cluster.
+     * @param maxVertices the maximum number of vertices of a polygon, or 0 for no limit.
+     * @param threads the number of worker threads.
+     * @param progress the progress of the job, checked for cancellation, or null.
+     * @return the hull of each group, in the same order.
+     * @throws CancellationException if the job was superseded.
+     */
+    public static List<Polygon> computeAll(final List<GPSLocation[]> groups, final int maxVertices, int threads,
+                                           final ClusteringJobExecutor.Progress progress) {
+        long total = 0;
+        for (GPSLocation[] group : groups) {
+            total += group.length;
+        }
+        List<Polygon> polygons = new ArrayList<>(groups.size());
+        if (threads <= 1 || groups.size() <= 1 || total < MIN_PARALLEL_SIZE) {
+            for (GPSLocation[] group : groups) {
+                ClusteringJobExecutor.checkCancelled(progress);
+                polygons.add(compute(group, maxVertices));
+            }
+            return polygons;
+        }
+        List<Callable<Polygon>> tasks = new ArrayList<>(groups.size());
+        for (final GPSLocation[] group : groups) {
+            tasks.add(new Callable<Polygon>() {
+                @Override
+                public Polygon call() {
+                    ClusteringJobExecutor.checkCancelled(progress);
+                    return compute(group, maxVertices);
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, groups.size()));
+        try {
+            for (Future<Polygon> future : executor.invokeAll(tasks)) {
+                polygons.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Hull computation was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                throw (CancellationException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return polygons;
+    }
+
+    /**
+     * Computes the hull of a group of locations as a polygon.
+     * @param locations the locations.
+     * @param maxVertices the maximum number of vertices, or 0 for no limit.
+     * @return the polygon.
+     */
+    public static Polygon compute(GPSLocation[] locations, int maxVertices) {
+        int n = locations.length;
+        double[] x = new double[n], y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = locations[0].longitude + wrapDegrees(locations[i].longitude - locations[0].longitude);
+            y[i] = locations[i].latitude;
+        }
+        int[] hull = new int[2 * n];
+        int size = compute(x, y, n, hull);
+        if (maxVertices > 0) {
+            size = simplify(x, y, hull, size, maxVertices);
+        }
+        double[] latitudes = new double[size], longitudes = new double[size];
+        for (int k = 0; k < size; k++) {
+            latitudes[k] = y[hull[k]];
+            longitudes[k] = wrapDegrees(x[hull[k]]);
+        }
+        return new Polygon(latitudes, longitudes);
+    }
+
+    /**
+     * Wraps an angle in degrees into [-180, 180).
+     */
+    private static double wrapDegrees(double degrees) {
+        double wrapped = (degrees + 180) % 360;
+        if (wrapped < 0) {
+            wrapped += 360;
+        }
+        return wrapped - 180;
+    }
+
+    /**
+     * Returns twice the signed area of the triangle a, b, c: positive if the
+     * points turn counter-clockwise.
+     */
+    private static double cross(double[] x, double[] y, int a, int b, int c) {
+        return (x[b] - x[a]) * (y[c] - y[a]) - (y[b] - y[a]) * (x[c] - x[a]);
+    }
+
+    /**
+     * Returns the indices of the points ordered by x, then by y, using a bottom-up
+     * merge sort.
+     */
+    private static int[] sort(double[] x, double[] y, int n) {
+        int[] order = new int[n], buffer = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int width = 1; width < n; width *= 2) {
+            for (int start = 0; start < n; start += 2 * width) {
+                int middle = Math.min(start + width, n), end = Math.min(start + 2 * width, n);
+                int a = start, b = middle, k = start;
+                while (a < middle && b < end) {
+                    buffer[k++] = less(x, y, order[b], order[a]) ? order[b++] : order[a++];
+                }
+                while (a < middle) {
+                    buffer[k++] = order[a++];
+                }
+                while (b < end) {
+                    buffer[k++] = order[b++];
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private static boolean less(double[] x, double[] y, int i, int j) {
+        return x[i] < x[j] || (x[i] == x[j] && y[i] < y[j]);
+    }
+}
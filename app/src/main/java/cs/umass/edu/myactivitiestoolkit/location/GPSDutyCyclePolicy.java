@@ -0,0 +1,177 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+/**
+ * Decides how often GPS fixes are requested, from the accelerometer and from the
+ * fixes themselves. Requesting fixes at a fixed rate keeps the GPS receiver on
+ * while the phone lies on a desk; this policy instead suspends GPS while the
+ * accelerometer shows that the phone is stationary, resumes at the fastest rate
+ * as soon as it moves, and while moving spaces the fixes about
+ * {@code distancePerFix} meters apart, based on the speed estimated from the
+ * recent fixes.
+ * <br><br>
+ * The phone is stationary once, for {@link #STILL_DURATION}, no acceleration
+ * sample deviated from the running mean magnitude by more than
+ * {@link #MOTION_THRESHOLD} and the running deviation stayed below
+ * {@link #STILL_THRESHOLD}, which also catches the steady vibration of a vehicle.
+ * <br><br>
+ * The policy does not depend on Android, so it can be replayed on recorded
+ * traces by {@link GPSDutyCycleReplay}. Timestamps are in milliseconds; those of
+ * the acceleration samples and those of the fixes need only be consistent among
+ * themselves, so sensor and GPS clocks may be passed as they are.
+ */
+public class GPSDutyCyclePolicy {
+
+    /** The deviation from the mean acceleration magnitude, in m/s^2, of a sample that shows motion */
+    public static final double MOTION_THRESHOLD = 1.5;
+
+    /** The running deviation of the acceleration magnitude, in m/s^2, below which the phone may be still */
+    public static final double STILL_THRESHOLD = 0.3;
+
+    /** How long, in milliseconds, the phone must show no motion before GPS is suspended */
+    public static final long STILL_DURATION = 60000;
+
+    /** The time constant, in milliseconds, of the running mean and deviation of the acceleration */
+    private static final double ACCELERATION_TIME_CONSTANT = 2000;
+
+    /** The weight of a new speed measurement in the speed estimate */
+    private static final double SPEED_SMOOTHING = 0.5;
+
+    /** The relative change of the interval below which the current request is kept */
+    private static final double MIN_RELATIVE_CHANGE = 0.25;
+
+    private final long minInterval, maxInterval, stationaryInterval;
+    private final double distancePerFix;
+
+    /** Whether the phone is considered stationary */
+    private boolean stationary;
+
+    /** The current interval between fixes, in milliseconds */
+    private long interval;
+
+    /** Running mean and variance of the acceleration magnitude */
+    private double meanMagnitude, varianceMagnitude;
+    private long lastAccelerationTime = -1;
+
+    /** The time of the last acceleration sample that showed motion */
+    private long lastMotionTime = -1;
+
+    /** The previous fix and the estimated speed in m/s, negative if unknown */
+    private GPSLocation previous;
+    private double speed = -1;
+
+    /**
+     * @param minInterval the interval between fixes, in milliseconds, at high speed or when the speed is unknown.
+     * @param maxInterval the longest interval between fixes, in milliseconds, while moving.
+     * @param distancePerFix the distance, in meters, that should be covered between fixes.
+     * @param stationaryInterval the interval between fixes, in milliseconds, while stationary,
+     *                           or 0 to suspend GPS.
+     */
+    public GPSDutyCyclePolicy(long minInterval, long maxInterval, double distancePerFix, long stationaryInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.distancePerFix = distancePerFix;
+        this.stationaryInterval = stationaryInterval;
+        this.interval = minInterval;
+    }
+
+    /**
+     * Returns whether GPS should be off.
+     * @return true if no fixes should be requested.
+     */
+    public boolean isSuspended() {
+        return stationary && stationaryInterval <= 0;
+    }
+
+    /**
+     * Returns the interval at which fixes should be requested, unless suspended.
+     * @return the interval in milliseconds.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns whether the phone is considered stationary.
+     * @return true if the phone is stationary.
+     */
+    public boolean isStationary() {
+        return stationary;
+    }
+
+    /**
+     * Returns the estimated speed.
+     * @return the speed in m/s, or a negative value if unknown.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Adds an accelerometer sample.
+     * @param timestamp the time of the sample, in milliseconds.
+     * @param x the acceleration along x, in m/s^2.
+     * @param y the acceleration along y, in m/s^2.
+     * @param z the acceleration along z, in m/s^2.
+     * @return true if the request for fixes should change.
+     */
+    public boolean onAcceleration(long timestamp, float x, float y, float z) {
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        if (lastAccelerationTime < 0) {
+            meanMagnitude = magnitude;
+            varianceMagnitude = 0;
+            lastAccelerationTime = timestamp;
+            lastMotionTime = timestamp;
+            return false;
+        }
+        double weight = 1 - Math.exp(-Math.max(0, timestamp - lastAccelerationTime) / ACCELERATION_TIME_CONSTANT);
+        lastAccelerationTime = timestamp;
+        double deviation = magnitude - meanMagnitude;
+        meanMagnitude += weight * deviation;
+        varianceMagnitude += weight * (deviation * deviation - varianceMagnitude);
+
+        if (Math.abs(deviation) > MOTION_THRESHOLD || varianceMagnitude > STILL_THRESHOLD * STILL_THRESHOLD) {
+            lastMotionTime = timestamp;
+            if (stationary) {
+                // resume at the fastest rate, since the speed is not known yet
+                stationary = false;
+                interval = minInterval;
+                previous = null;
+                speed = -1;
+                return true;
+            }
+        } else if (!stationary && timestamp - lastMotionTime >= STILL_DURATION) {
+            stationary = true;
+            if (stationaryInterval > 0) {
+                interval = stationaryInterval;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a fix, updating the speed estimate.
+     * @param location the fix.
+     * @return true if the request for fixes should change.
+     */
+    public boolean onLocation(GPSLocation location) {
+        if (previous != null && location.timestamp > previous.timestamp) {
+            double measured = location.distance(previous) * 1000 / (location.timestamp - previous.timestamp);
+            speed = speed < 0 ? measured : speed + SPEED_SMOOTHING * (measured - speed);
+        }
+        previous = location;
+        if (stationary || speed < 0) {
+            return false;
+        }
+        long target = speed * maxInterval <= distancePerFix * 1000
+                ? maxInterval
+                : Math.max(minInterval, Math.min(maxInterval, (long) (distancePerFix * 1000 / speed)));
+        // small changes are not worth a new request, except to reach either bound
+        boolean small = Math.abs(target - interval) <= MIN_RELATIVE_CHANGE * interval;
+        if (target == interval || (small && target != minInterval && target != maxInterval)) {
+            return false;
+        }
+        interval = target;
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+/**
+ * Replays a recorded trace through a {@link GPSDutyCyclePolicy}, to measure how
+ * many fixes it saves and how much accuracy it costs compared with requesting
+ * fixes at a fixed rate.
+ * <br><br>
+ * The trace consists of accelerometer samples and of the fixes recorded at the
+ * fixed rate, the baseline, on the same clock. The policy is fed both streams in
+ * time order, and a baseline fix is taken, as if the policy had requested it,
+ * when GPS is not suspended and the policy's interval has elapsed since the last
+ * fix taken, up to half the baseline period of slack. The trajectory of the fixes
+ * taken is reconstructed by linear interpolation in time, like a compressed
+ * trajectory, and its error is the distance from each baseline fix to the
+ * reconstructed position at the same time.
+ */
+public class GPSDutyCycleReplay {
+
+    /**
+     * The outcome of a replay.
+     */
+    public static class Result {
+        /** The number of baseline fixes and the number taken by the policy */
+        public final int baselineCount, fixCount;
+
+        /** The mean and maximum distance, in meters, of the baseline fixes from the reconstruction */
+        public final double meanError, maxError;
+
+        Result(int baselineCount, int fixCount, double meanError, double maxError) {
+            this.baselineCount = baselineCount;
+            this.fixCount = fixCount;
+            this.meanError = meanError;
+            this.maxError = maxError;
+        }
+
+        /**
+         * Returns the fraction of the baseline fixes that the policy took.
+         * @return the duty ratio, between 0 and 1.
+         */
+        public double getDutyRatio() {
+            return baselineCount == 0 ? 0 : (double) fixCount / baselineCount;
+        }
+    }
+
+    /**
+     * Replays a trace.
+     * @param policy a new policy.
+     * @param accelerationTimes the times of the accelerometer samples, in milliseconds, in order.
+     * @param x the acceleration along x of each sample, in m/s^2.
+     * @param y the acceleration along y of each sample, in m/s^2.
+     * @param z the acceleration along z of each sample, in m/s^2.
+     * @param baseline the fixes recorded at a fixed rate, in timestamp order.
+     * @return the number of fixes taken and the error of the reconstructed trajectory.
+     */
+    public static Result replay(GPSDutyCyclePolicy policy, long[] accelerationTimes, float[] x, float[] y, float[] z,
+                                GPSLocation[] baseline) {
+        int n = baseline.length;
+        if (n == 0) {
+            return new Result(0, 0, 0, 0);
+        }
+        long slack = n > 1 ? (baseline[n - 1].timestamp - baseline[0].timestamp) / (n - 1) / 2 : 0;
+        boolean[] taken = new boolean[n];
+        int fixCount = 0;
+        long lastTaken = Long.MIN_VALUE;
+        int a = 0;
+        for (int i = 0; i < n; i++) {
+            GPSLocation fix = baseline[i];
+            while (a < accelerationTimes.length && accelerationTimes[a] <= fix.timestamp) {
+                if (policy.onAcceleration(accelerationTimes[a], x[a], y[a], z[a]) && !policy.isSuspended()) {
+                    // a new request delivers its first fix right away
+                    lastTaken = Long.MIN_VALUE;
+                }
+                a++;
+            }
+            if (policy.isSuspended()
+                    || (lastTaken != Long.MIN_VALUE && fix.timestamp - lastTaken < policy.getInterval() - slack)) {
+                continue;
+            }
+            taken[i] = true;
+            fixCount++;
+            lastTaken = fix.timestamp;
+            policy.onLocation(fix);
+        }
+
+        // compare each baseline fix with the trajectory interpolated between the fixes taken
+        double sumError = 0, maxError = 0;
+        int before = -1, after = 0;
+        for (int i = 0; i < n; i++) {
+            if (taken[i]) {
+                before = i;
+                continue;
+            }
+            if (after <= i) {
+                after = i + 1;
+                while (after < n && !taken[after]) {
+                    after++;
+                }
+            }
+            double error;
+            if (before < 0 && after >= n) {
+                error = 0; // nothing was taken at all, so there is no trajectory to compare
+            } else if (before < 0) {
+                error = baseline[i].distance(baseline[after]);
+            } else if (after >= n) {
+                error = baseline[i].distance(baseline[before]);
+            } else {
+                error = baseline[i].distance(interpolate(baseline[before], baseline[after], baseline[i].timestamp));
+            }
+            sumError += error;
+            maxError = Math.max(maxError, error);
+        }
+        return new Result(n, fixCount, sumError / n, maxError);
+    }
+
+    /**
+     * Returns the position between two fixes at the given time.
+     */
+    private static GPSLocation interpolate(GPSLocation from, GPSLocation to, long timestamp) {
+        double t = (double) (timestamp - from.timestamp) / (to.timestamp - from.timestamp);
+        return new GPSLocation(timestamp, from.latitude + t * (to.latitude - from.latitude),
+                from.longitude + t * (to.longitude - from.longitude), 0);
+    }
+}
@@ -11,6 +11,14 @@ public class GPSLocation implements Clusterable<GPSLocation> {
 
     public static final int RADIUS_OF_EARTH_IN_METERS = 6371000;
 
+	/** The longest distance, in meters, measured with the equirectangular fast path */
+	public static final double FAST_PATH_MAX_DISTANCE = 50000;
+
+	private static final double FAST_PATH_MAX_ANGLE = FAST_PATH_MAX_DISTANCE / RADIUS_OF_EARTH_IN_METERS;
+
+	/** The fast path is only taken between latitudes within 80 degrees of the equator */
+	private static final double MIN_FAST_PATH_COS_LATITUDE = Math.cos(Math.toRadians(80));
+
 	/** Report id */
 	public int id = -1;
 	
@@ -25,6 +33,9 @@ public class GPSLocation implements Clusterable<GPSLocation> {
 	
 	/** accuracy */
 	public float accuracy;
+
+	/** The coordinates in radians, cached for distance computations */
+	private transient Radians radians;
 		
 	/**
 	 * Constructor without id
@@ -106,35 +117,105 @@ public class GPSLocation implements Clusterable<GPSLocation> {
 	}
 
 	/**
-	 * The distance between two GPS coordinates can be computed using the
-	 * <a href = https://en.wikipedia.org/wiki/Haversine_formula>Haversine</a> formula.
+	 * The distance between two GPS coordinates, in meters. Nearby coordinates,
+	 * which are all that clustering compares in practice, take an equirectangular
+	 * fast path that needs no trigonometric calls; others are measured with the
+	 * exact {@link #haversineDistance(GPSLocation)}.
+	 * <br><br>
+	 * The fast path treats the earth as flat around the two points, scaling the
+	 * longitude difference by the mean of the cosines of their latitudes. It is
+	 * taken for distances up to {@link #FAST_PATH_MAX_DISTANCE} between latitudes
+	 * within 80 degrees of the equator, where its relative error is below 1e-4
+	 * (about 1e-6 at 10 km).
 	 * @param other the other GPS coordinate we're measuring distance to
 	 * @return the distance between the two coordinates
 	 */
 	@Override
 	public double distance(GPSLocation other) {
-		double deltaLatitude = other.latitude - this.latitude;
-		double deltaLongitude = other.longitude - this.longitude;
+		return Math.sqrt(squaredDistance(other));
+	}
 
-		//convert change in latitude and longitude to radians
-		double dLat = Math.toRadians(deltaLatitude);
-		double dLng = Math.toRadians(deltaLongitude);
+	/**
+	 * Returns the square of {@link #distance(GPSLocation)}, in square meters.
+	 * Comparing it with a squared radius avoids the square root in neighborhood
+	 * queries.
+	 * @param other the other GPS coordinate we're measuring distance to
+	 * @return the squared distance between the two coordinates
+	 */
+	public double squaredDistance(GPSLocation other) {
+		Radians a = radians(), b = other.radians();
+		if (a.cosLatitude >= MIN_FAST_PATH_COS_LATITUDE && b.cosLatitude >= MIN_FAST_PATH_COS_LATITUDE) {
+			double dLat = b.latitude - a.latitude;
+			double dLng = wrap(b.longitude - a.longitude) * (a.cosLatitude + b.cosLatitude) / 2;
+			double angle2 = dLat * dLat + dLng * dLng;
+			if (angle2 <= FAST_PATH_MAX_ANGLE * FAST_PATH_MAX_ANGLE) {
+				return (double) RADIUS_OF_EARTH_IN_METERS * RADIUS_OF_EARTH_IN_METERS * angle2;
+			}
+		}
+		double d = haversineDistance(other);
+		return d * d;
+	}
+
+	/**
+	 * The exact great-circle distance between two GPS coordinates, computed using the
+	 * <a href = https://en.wikipedia.org/wiki/Haversine_formula>Haversine</a> formula.
+	 * This is the reference against which the fast path of {@link #distance(GPSLocation)}
+	 * is validated.
+	 * @param other the other GPS coordinate we're measuring distance to
+	 * @return the distance between the two coordinates
+	 */
+	public double haversineDistance(GPSLocation other) {
+		Radians a = radians(), b = other.radians();
 
 		//compute the haversine of the latitude and longitude deltas
-		double haversinLat = (1 - Math.cos(dLat))/2; // = Math.sin(dLat/2)*Math.sin(dLat/2);
-		double haversinLng = (1 - Math.cos(dLng))/2;
+		double sinLat = Math.sin((b.latitude - a.latitude) / 2);
+		double sinLng = Math.sin(wrap(b.longitude - a.longitude) / 2);
 
 		//compute the haversine of the central angle between the two points
-		double haversinCentralAngle = haversinLat + Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(other.longitude)) *  haversinLng;
+		double haversinCentralAngle = sinLat * sinLat + a.cosLatitude * b.cosLatitude * sinLng * sinLng;
 
 		//inverse the haversine function using the arctan to get the distance as a measure of the angle difference
-		double d = 2 * Math.atan2(Math.sqrt(haversinCentralAngle), Math.sqrt(1-haversinCentralAngle));
+		double d = 2 * Math.atan2(Math.sqrt(haversinCentralAngle), Math.sqrt(1 - haversinCentralAngle));
 
 		//We want to compute the arc length s=r*d, so simply multiply by the radius
 		return RADIUS_OF_EARTH_IN_METERS * d;
 	}
 
-	/*double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-		Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(other.longitude)) *
-				Math.sin(dLng/2) * Math.sin(dLng/2);*/
-}
\ No newline at end of file
+	/**
+	 * Returns the coordinates in radians, computing them if the location has changed.
+	 */
+	private Radians radians() {
+		Radians r = radians;
+		if (r == null || r.latitudeDegrees != latitude || r.longitudeDegrees != longitude) {
+			r = new Radians(latitude, longitude);
+			radians = r;
+		}
+		return r;
+	}
+
+	/**
+	 * Wraps a longitude difference in radians into [-pi, pi].
+	 */
+	private static double wrap(double dLng) {
+		if (dLng > Math.PI) return dLng - 2 * Math.PI;
+		if (dLng < -Math.PI) return dLng + 2 * Math.PI;
+		return dLng;
+	}
+
+	/**
+	 * The coordinates of a location in radians, with the cosine of the latitude.
+	 * Instances are immutable, so a location may be shared between threads.
+	 */
+	private static final class Radians {
+		final double latitudeDegrees, longitudeDegrees;
+		final double latitude, longitude, cosLatitude;
+
+		Radians(double latitudeDegrees, double longitudeDegrees) {
+			this.latitudeDegrees = latitudeDegrees;
+			this.longitudeDegrees = longitudeDegrees;
+			this.latitude = Math.toRadians(latitudeDegrees);
+			this.longitude = Math.toRadians(longitudeDegrees);
+			this.cosLatitude = Math.cos(latitude);
+		}
+	}
+}
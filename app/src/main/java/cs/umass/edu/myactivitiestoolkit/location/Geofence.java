@@ -0,0 +1,123 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+/**
+ * A known place, such as home or work, as a circle or a polygon on the map.
+ * Fences are watched by a {@link GeofenceEngine}, which reports when the user
+ * enters, dwells in and leaves them.
+ * <br><br>
+ * Each fence is projected about its own center with a {@link LocalProjection},
+ * so testing a location against it takes no trigonometry, and the distortion is
+ * negligible over the size of a place.
+ */
+public class Geofence {
+
+    /** Identifies the fence, e.g. "home" */
+    public final String id;
+
+    /** The projection about the center of the fence */
+    private final LocalProjection projection;
+
+    /** The radius of a circle in meters, or 0 for a polygon */
+    private final double radius;
+
+    /** The vertices of a polygon in projected meters, or null for a circle */
+    private final double[] x, y;
+
+    /** The bounding box of the fence, in degrees; maxLongitude may exceed 180 */
+    final double minLatitude, maxLatitude, minLongitude, maxLongitude;
+
+    private Geofence(String id, LocalProjection projection, double radius, double[] x, double[] y) {
+        this.id = id;
+        this.projection = projection;
+        this.radius = radius;
+        this.x = x;
+        this.y = y;
+        double minX = -radius, maxX = radius, minY = -radius, maxY = radius;
+        if (x != null) {
+            for (int i = 0; i < x.length; i++) {
+                minX = Math.min(minX, x[i]);
+                maxX = Math.max(maxX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+        }
+        minLatitude = Math.max(-90, projection.latitude(minY));
+        maxLatitude = Math.min(90, projection.latitude(maxY));
+        double degreesPerMeterEast = Math.toDegrees(1 / (GPSLocation.RADIUS_OF_EARTH_IN_METERS
+                * Math.cos(Math.toRadians(projection.getOriginLatitude()))));
+        double span = Math.min(360, (maxX - minX) * degreesPerMeterEast);
+        minLongitude = projection.getOriginLongitude() + minX * degreesPerMeterEast;
+        maxLongitude = minLongitude + span;
+    }
+
+    /**
+     * Creates a circular fence.
+     * @param id identifies the fence.
+     * @param latitude the latitude of the center.
+     * @param longitude the longitude of the center.
+     * @param radius the radius in meters.
+     * @return the fence.
+     */
+    public static Geofence circle(String id, double latitude, double longitude, double radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("The radius must be positive.");
+        }
+        return new Geofence(id, new LocalProjection(latitude, longitude), radius, null, null);
+    }
+
+    /**
+     * Creates a polygonal fence.
+     * @param id identifies the fence.
+     * @param latitudes the latitudes of the vertices, in order around the polygon.
+     * @param longitudes the longitudes of the vertices.
+     * @return the fence.
+     */
+    public static Geofence polygon(String id, double[] latitudes, double[] longitudes) {
+        int n = latitudes.length;
+        if (n < 3 || longitudes.length != n) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices.");
+        }
+        GPSLocation[] vertices = new GPSLocation[n];
+        for (int i = 0; i < n; i++) {
+            vertices[i] = new GPSLocation(0, latitudes[i], longitudes[i], 0);
+        }
+        LocalProjection projection = LocalProjection.centeredOn(vertices);
+        double[] x = new double[n], y = new double[n];
+        projection.project(vertices, x, y);
+        return new Geofence(id, projection, 0, x, y);
+    }
+
+    /**
+     * Returns the distance of a location from the boundary of the fence.
+     * @param location the location.
+     * @return the distance in meters, negative inside the fence.
+     */
+    public double signedDistance(GPSLocation location) {
+        double px = projection.east(location), py = projection.north(location);
+        if (x == null) {
+            return Math.sqrt(px * px + py * py) - radius;
+        }
+        boolean inside = false;
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0, j = x.length - 1; i < x.length; j = i++) {
+            if ((y[i] > py) != (y[j] > py) && px < x[j] + (py - y[j]) * (x[i] - x[j]) / (y[i] - y[j])) {
+                inside = !inside;
+            }
+            nearest = Math.min(nearest, segmentDistanceSquared(px, py, x[j], y[j], x[i], y[i]));
+        }
+        nearest = Math.sqrt(nearest);
+        return inside ? -nearest : nearest;
+    }
+
+    /**
+     * Returns the squared distance from a point to a segment.
+     */
+    private static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = ax + t * dx - px, ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
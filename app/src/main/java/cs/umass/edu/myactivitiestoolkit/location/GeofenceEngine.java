@@ -0,0 +1,226 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports when the user enters, dwells in and leaves known places, by testing
+ * each GPS fix against a set of {@link Geofence}s on the device.
+ * <br><br>
+ * The fences are indexed in a spatial hash: the world is divided into cells of
+ * a fixed size in degrees, and each fence is listed in the cells its bounding
+ * box overlaps. A fix is then tested only against the fences of its own cell and
+ * the fences the user is currently in, so the cost of a fix does not depend on
+ * the number of fences, as long as the cells are not much smaller than the
+ * fences.
+ * <br><br>
+ * To keep noisy fixes near a boundary from producing a burst of events, a fence
+ * is entered as soon as a fix falls inside it, but only left once a fix is more
+ * than the hysteresis distance, or its own accuracy if larger, outside it. A
+ * dwell event follows the entry once the user has stayed in the fence for the
+ * dwell time.
+ * <br><br>
+ * The engine is not thread-safe; fixes are expected to arrive on one thread.
+ */
+public class GeofenceEngine {
+
+    /** The default size of a cell of the spatial hash, about a kilometer */
+    public static final double DEFAULT_CELL_DEGREES = 0.01;
+
+    /**
+     * A transition of the user with respect to a fence.
+     */
+    public static class Event {
+        public enum Type { ENTER, DWELL, EXIT }
+
+        public final Type type;
+        public final Geofence fence;
+
+        /** The fix that caused the transition */
+        public final GPSLocation location;
+
+        Event(Type type, Geofence fence, GPSLocation location) {
+            this.type = type;
+            this.fence = fence;
+            this.location = location;
+        }
+    }
+
+    /**
+     * The state of the user in a fence they are in.
+     */
+    private static class Visit {
+        final long enterTime;
+        boolean dwelled;
+
+        Visit(long enterTime) {
+            this.enterTime = enterTime;
+        }
+    }
+
+    private final double cellDegrees;
+
+    /** The number of cell columns around the world; longitudes wrap around */
+    private final long columns;
+
+    private final double hysteresis;
+    private final long dwellTime;
+
+    /** The fences by id, and by the keys of the cells they overlap */
+    private final Map<String, Geofence> fences = new HashMap<>();
+    private final Map<Long, List<Geofence>> cells = new HashMap<>();
+
+    /** The fences the user is in */
+    private final Map<Geofence, Visit> visits = new LinkedHashMap<>();
+
+    /**
+     * @param hysteresis the distance in meters that a fix must be outside a fence to leave it.
+     * @param dwellTime the time in milliseconds after entering a fence at which the dwell event is reported.
+     */
+    public GeofenceEngine(double hysteresis, long dwellTime) {
+        this(hysteresis, dwellTime, DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * @param hysteresis the distance in meters that a fix must be outside a fence to leave it.
+     * @param dwellTime the time in milliseconds after entering a fence at which the dwell event is reported.
+     * @param cellDegrees the size of a cell of the spatial hash, in degrees, which should divide 360
+     *                    and be about the size of the typical fence.
+     */
+    public GeofenceEngine(double hysteresis, long dwellTime, double cellDegrees) {
+        this.hysteresis = hysteresis;
+        this.dwellTime = dwellTime;
+        this.cellDegrees = cellDegrees;
+        this.columns = (long) Math.ceil(360 / cellDegrees);
+    }
+
+    /**
+     * Adds a fence, replacing any fence with the same id. The user is not considered
+     * to be in the new fence until the next fix.
+     * @param fence the fence.
+     */
+    public void add(Geofence fence) {
+        remove(fence.id);
+        fences.put(fence.id, fence);
+        for (long key : cellKeys(fence)) {
+            List<Geofence> cell = cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>(2);
+                cells.put(key, cell);
+            }
+            cell.add(fence);
+        }
+    }
+
+    /**
+     * Removes a fence, without reporting an exit.
+     * @param id the id of the fence.
+     * @return the removed fence, or null if there was none.
+     */
+    public Geofence remove(String id) {
+        Geofence fence = fences.remove(id);
+        if (fence == null) {
+            return null;
+        }
+        for (long key : cellKeys(fence)) {
+            List<Geofence> cell = cells.get(key);
+            if (cell != null && cell.remove(fence) && cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+        visits.remove(fence);
+        return fence;
+    }
+
+    /**
+     * Returns the number of fences.
+     * @return the number of fences.
+     */
+    public int size() {
+        return fences.size();
+    }
+
+    /**
+     * Returns whether the user is in a fence.
+     * @param id the id of the fence.
+     * @return true if the user entered the fence and has not left it.
+     */
+    public boolean isInside(String id) {
+        Geofence fence = fences.get(id);
+        return fence != null && visits.containsKey(fence);
+    }
+
+    /**
+     * Tests a fix against the fences.
+     * @param location the fix, at or after the previous one in time.
+     * @return the events caused by the fix, exits first.
+     */
+    public List<Event> update(GPSLocation location) {
+        List<Event> events = new ArrayList<>(0);
+        double exitDistance = Math.max(hysteresis, location.accuracy);
+        Iterator<Map.Entry<Geofence, Visit>> it = visits.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Geofence, Visit> entry = it.next();
+            if (entry.getKey().signedDistance(location) > exitDistance) {
+                it.remove();
+                events.add(new Event(Event.Type.EXIT, entry.getKey(), location));
+            }
+        }
+        for (Map.Entry<Geofence, Visit> entry : visits.entrySet()) {
+            Visit visit = entry.getValue();
+            if (!visit.dwelled && location.timestamp - visit.enterTime >= dwellTime) {
+                visit.dwelled = true;
+                events.add(new Event(Event.Type.DWELL, entry.getKey(), location));
+            }
+        }
+        List<Geofence> cell = cells.get(key(row(location.latitude), column(location.longitude)));
+        if (cell != null) {
+            for (Geofence fence : cell) {
+                if (!visits.containsKey(fence) && fence.signedDistance(location) <= 0) {
+                    visits.put(fence, new Visit(location.timestamp));
+                    events.add(new Event(Event.Type.ENTER, fence, location));
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Returns the keys of the cells overlapped by the bounding box of a fence.
+     */
+    private List<Long> cellKeys(Geofence fence) {
+        long minRow = row(fence.minLatitude), maxRow = row(fence.maxLatitude);
+        long minColumn = column(fence.minLongitude);
+        long columnCount = Math.min(columns, column(fence.maxLongitude) - minColumn + 1);
+        List<Long> keys = new ArrayList<>();
+        for (long r = minRow; r <= maxRow; r++) {
+            for (long c = minColumn; c < minColumn + columnCount; c++) {
+                keys.add(key(r, c));
+            }
+        }
+        return keys;
+    }
+
+    private long row(double latitude) {
+        return (long) Math.floor(latitude / cellDegrees);
+    }
+
+    private long column(double longitude) {
+        return (long) Math.floor(longitude / cellDegrees);
+    }
+
+    /**
+     * Returns the key of a cell, wrapping columns around the antimeridian.
+     */
+    private long key(long row, long column) {
+        long c = column % columns;
+        if (c < 0) {
+            c += columns;
+        }
+        return row * columns + c;
+    }
+}
@@ -0,0 +1,121 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes coordinates as <a href = https://en.wikipedia.org/wiki/Geohash>geohashes</a>:
+ * strings in which each character halves the cell of the previous ones alternately in
+ * longitude and latitude, five times over. Every location in a cell has the cell's hash
+ * as a prefix, so a cell is a contiguous range of an index on the hashes, which lets
+ * the database answer bounding box queries from a few index ranges.
+ */
+public class Geohash {
+
+    /** The geohash alphabet, in increasing order */
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /**
+     * A character sorting after every character of the alphabet, so that the hashes
+     * starting with a prefix p are those in [p, p + UPPER_BOUND).
+     */
+    public static final char UPPER_BOUND = '{';
+
+    /** The maximum precision, in characters, at which the cell indices fit in an int */
+    public static final int MAX_PRECISION = 12;
+
+    /**
+     * Returns the geohash of a location.
+     * @param latitude the latitude, in [-90, 90].
+     * @param longitude the longitude, in [-180, 180].
+     * @param precision the number of characters, at most {@link #MAX_PRECISION}.
+     * @return the geohash.
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        return encodeCell(latitudeIndex(latitude, precision), longitudeIndex(longitude, precision), precision);
+    }
+
+    /**
+     * Returns the prefixes of the geohashes of all locations in a bounding box. The
+     * prefixes are the cells of the longest precision at which at most maxCells cells
+     * cover the box, so the box is covered by at most maxCells prefixes; for a box too
+     * large for any precision this is the empty prefix. A box whose minimum longitude
+     * exceeds its maximum crosses the antimeridian.
+     * @param minLatitude the southern edge of the box.
+     * @param minLongitude the western edge of the box.
+     * @param maxLatitude the northern edge of the box.
+     * @param maxLongitude the eastern edge of the box.
+     * @param maxPrecision the longest prefix wanted.
+     * @param maxCells the maximum number of prefixes.
+     * @return the prefixes.
+     */
+    public static List<String> cover(double minLatitude, double minLongitude, double maxLatitude,
+                                     double maxLongitude, int maxPrecision, int maxCells) {
+        List<String> prefixes = new ArrayList<>();
+        for (int precision = Math.min(maxPrecision, MAX_PRECISION); precision > 0; precision--) {
+            int minLat = latitudeIndex(minLatitude, precision), maxLat = latitudeIndex(maxLatitude, precision);
+            int minLng = longitudeIndex(minLongitude, precision), maxLng = longitudeIndex(maxLongitude, precision);
+            int columns = 1 << longitudeBits(precision);
+            int width = minLng <= maxLng ? maxLng - minLng + 1 : columns - minLng + maxLng + 1;
+            if ((long) width * (maxLat - minLat + 1) > maxCells) {
+                continue;
+            }
+            for (int i = 0; i < width; i++) {
+                for (int lat = minLat; lat <= maxLat; lat++) {
+                    prefixes.add(encodeCell(lat, (minLng + i) % columns, precision));
+                }
+            }
+            return prefixes;
+        }
+        prefixes.add("");
+        return prefixes;
+    }
+
+    /**
+     * Interleaves the bits of a cell's indices, longitude first, into a geohash.
+     */
+    private static String encodeCell(int latIndex, int lngIndex, int precision) {
+        int lngBits = longitudeBits(precision), latBits = latitudeBits(precision);
+        char[] hash = new char[precision];
+        int value = 0;
+        for (int bit = 0; bit < 5 * precision; bit++) {
+            value <<= 1;
+            if (bit % 2 == 0) {
+                value |= (lngIndex >>> --lngBits) & 1;
+            } else {
+                value |= (latIndex >>> --latBits) & 1;
+            }
+            if (bit % 5 == 4) {
+                hash[bit / 5] = BASE32[value];
+                value = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    private static int longitudeBits(int precision) {
+        return (5 * precision + 1) / 2;
+    }
+
+    private static int latitudeBits(int precision) {
+        return 5 * precision / 2;
+    }
+
+    private static int longitudeIndex(double longitude, int precision) {
+        return index((longitude + 180) / 360, longitudeBits(precision));
+    }
+
+    private static int latitudeIndex(double latitude, int precision) {
+        return index((latitude + 90) / 180, latitudeBits(precision));
+    }
+
+    /**
+     * Returns the index of the cell containing a fraction of the range, when the range
+     * is split into 2^bits cells.
+     */
+    private static int index(double fraction, int bits) {
+        long cells = 1L << bits;
+        long index = (long) Math.floor(fraction * cells);
+        return (int) Math.max(0, Math.min(cells - 1, index));
+    }
+}
@@ -0,0 +1,167 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+/**
+ * Projects GPS locations to planar east-north coordinates in meters about an
+ * origin, on which distances are plain Euclidean distances. This lets clustering
+ * and indexing code convert each location once and then compare coordinates
+ * without any trigonometry.
+ * <br><br>
+ * The projection is equirectangular: longitude differences are scaled by the
+ * cosine of the origin's latitude. East-west distances are therefore off by a
+ * factor of about cos(latitude) / cos(origin latitude), which is well under a
+ * percent over the extent of a city at moderate latitudes, but grows with the
+ * latitude range: between 40 and 46 degrees it is about ten percent. Where
+ * distances have to be accurate over larger areas, use
+ * {@link GPSLocation#distance(GPSLocation)}, and index locations with a
+ * {@link #conservative(GPSLocation[])} projection, which never overstates the
+ * distance between them.
+ */
+public class LocalProjection {
+
+    /** The origin, in degrees */
+    private final double originLatitude, originLongitude;
+
+    /** Meters per degree of longitude and of latitude */
+    private final double metersPerDegreeEast, metersPerDegreeNorth;
+
+    /**
+     * Creates a projection about the given origin.
+     * @param originLatitude the latitude of the origin.
+     * @param originLongitude the longitude of the origin.
+     */
+    public LocalProjection(double originLatitude, double originLongitude) {
+        this(originLatitude, originLongitude, originLatitude);
+    }
+
+    /**
+     * Creates a projection about the given origin that scales longitude differences
+     * by the cosine of another latitude.
+     * @param originLatitude the latitude of the origin.
+     * @param originLongitude the longitude of the origin.
+     * @param scaleLatitude the latitude at which east-west distances are exact.
+     */
+    public LocalProjection(double originLatitude, double originLongitude, double scaleLatitude) {
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.metersPerDegreeNorth = Math.toRadians(GPSLocation.RADIUS_OF_EARTH_IN_METERS);
+        this.metersPerDegreeEast = metersPerDegreeNorth * Math.cos(Math.toRadians(scaleLatitude));
+    }
+
+    /**
+     * Creates a projection about the centroid of the given locations, which keeps
+     * the distortion smallest over the set. Longitudes are averaged as offsets from
+     * the first location, so that a set straddling the antimeridian is not centered
+     * on the opposite side of the earth.
+     * @param locations a non-empty array of locations.
+     * @return the projection.
+     */
+    public static LocalProjection centeredOn(GPSLocation[] locations) {
+        return centeredOn(locations, false);
+    }
+
+    /**
+     * Creates a projection about the centroid of the given locations that never
+     * overstates the distance between two of them: longitude differences are scaled
+     * by the cosine of the latitude farthest from the equator, where a degree of
+     * longitude is shortest. A query for the locations within some radius of a
+     * projected point therefore finds every location within that radius of it, along
+     * with some that are farther away east-west, which the caller removes by checking
+     * {@link GPSLocation#distance(GPSLocation)}.
+     * @param locations a non-empty array of locations.
+     * @return the projection.
+     */
+    public static LocalProjection conservative(GPSLocation[] locations) {
+        return centeredOn(locations, true);
+    }
+
+    private static LocalProjection centeredOn(GPSLocation[] locations, boolean conservative) {
+        if (locations.length == 0) {
+            throw new IllegalArgumentException("At least one location is required.");
+        }
+        double sumLat = 0, sumLng = 0, maxAbsLat = 0;
+        double lng0 = locations[0].longitude;
+        for (GPSLocation location : locations) {
+            sumLat += location.latitude;
+            sumLng += wrapDegrees(location.longitude - lng0);
+            maxAbsLat = Math.max(maxAbsLat, Math.abs(location.latitude));
+        }
+        double latitude = sumLat / locations.length, longitude = lng0 + sumLng / locations.length;
+        return new LocalProjection(latitude, longitude, conservative ? maxAbsLat : latitude);
+    }
+
+    /**
+     * Returns the latitude of the origin.
+     * @return the origin's latitude.
+     */
+    public double getOriginLatitude() {
+        return originLatitude;
+    }
+
+    /**
+     * Returns the longitude of the origin.
+     * @return the origin's longitude.
+     */
+    public double getOriginLongitude() {
+        return originLongitude;
+    }
+
+    /**
+     * Returns the distance of a location east of the origin.
+     * @param location the location.
+     * @return the easting in meters, negative to the west.
+     */
+    public double east(GPSLocation location) {
+        return metersPerDegreeEast * wrapDegrees(location.longitude - originLongitude);
+    }
+
+    /**
+     * Returns the distance of a location north of the origin.
+     * @param location the location.
+     * @return the northing in meters, negative to the south.
+     */
+    public double north(GPSLocation location) {
+        return metersPerDegreeNorth * (location.latitude - originLatitude);
+    }
+
+    /**
+     * Projects an array of locations.
+     * @param locations the locations to project.
+     * @param x receives the easting of each location.
+     * @param y receives the northing of each location.
+     */
+    public void project(GPSLocation[] locations, double[] x, double[] y) {
+        for (int i = 0; i < locations.length; i++) {
+            x[i] = east(locations[i]);
+            y[i] = north(locations[i]);
+        }
+    }
+
+    /**
+     * Returns the latitude of a projected point.
+     * @param north the northing in meters.
+     * @return the latitude.
+     */
+    public double latitude(double north) {
+        return originLatitude + north / metersPerDegreeNorth;
+    }
+
+    /**
+     * Returns the longitude of a projected point.
+     * @param east the easting in meters.
+     * @return the longitude, in [-180, 180).
+     */
+    public double longitude(double east) {
+        return wrapDegrees(originLongitude + east / metersPerDegreeEast);
+    }
+
+    /**
+     * Wraps an angle in degrees into [-180, 180).
+     */
+    private static double wrapDegrees(double degrees) {
+        double wrapped = (degrees + 180) % 360;
+        if (wrapped < 0) {
+            wrapped += 360;
+        }
+        return wrapped - 180;
+    }
+}
@@ -0,0 +1,50 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+/**
+ * GPS locations stored column by column in primitive arrays, as returned by the
+ * columnar queries of {@link LocationDAO}. Loading a large history this way takes
+ * five arrays instead of one object per location, and the coordinate arrays can be
+ * handed to clustering and drawing code directly.
+ */
+public class LocationColumns {
+
+    /** The number of locations */
+    public final int size;
+
+    /** Report ids */
+    public final int[] ids;
+
+    /** Timestamps of the events */
+    public final long[] timestamps;
+
+    /** Latitudes */
+    public final double[] latitudes;
+
+    /** Longitudes */
+    public final double[] longitudes;
+
+    /** Accuracies */
+    public final float[] accuracies;
+
+    /**
+     * Allocates columns for the given number of locations.
+     * @param size the number of locations.
+     */
+    public LocationColumns(int size) {
+        this.size = size;
+        this.ids = new int[size];
+        this.timestamps = new long[size];
+        this.latitudes = new double[size];
+        this.longitudes = new double[size];
+        this.accuracies = new float[size];
+    }
+
+    /**
+     * Creates a {@link GPSLocation} from one row, for code that needs objects.
+     * @param i the index of the location.
+     * @return the location.
+     */
+    public GPSLocation getLocation(int i) {
+        return new GPSLocation(ids[i], timestamps[i], latitudes[i], longitudes[i], accuracies[i]);
+    }
+}
@@ -1,12 +1,21 @@
 package cs.umass.edu.myactivitiestoolkit.location;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import cs.umass.edu.myactivitiestoolkit.storage.GeneralDAO;
@@ -31,6 +40,10 @@ public class LocationDAO extends GeneralDAO {
 	public static final String CNAME_LATITUDE = "latitude";
 	public static final String CNAME_LONGITUDE = "longitude";
 	public static final String CNAME_ACCURACY = "accuracy";
+	public static final String CNAME_GEOHASH = "geohash";
+
+	/** The precision of the stored geohashes, about 38 by 19 meters */
+	public static final int GEOHASH_PRECISION = 8;
 	
 
 	public static final String[] PROJECTION = {
@@ -53,24 +66,111 @@ public class LocationDAO extends GeneralDAO {
 			CNAME_TIMESTAMP + " LONG, " +
 			CNAME_LATITUDE + " REAL, " +
 			CNAME_LONGITUDE + " REAL, " +
-			CNAME_ACCURACY + " REAL " +
+			CNAME_ACCURACY + " REAL, " +
+			CNAME_GEOHASH + " TEXT " +
 			");";
 
+	/** Added in database version 2, and filled in by {@link #fillGeohashes(SQLiteDatabase)} */
+	public static final String GEOHASH_COLUMN_ADD = "ALTER TABLE " + TABLE_NAME +
+			" ADD COLUMN " + CNAME_GEOHASH + " TEXT;";
+
+	public static final String TIMESTAMP_INDEX_CREATE = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" +
+			CNAME_TIMESTAMP + " ON " + TABLE_NAME + " (" + CNAME_TIMESTAMP + ");";
+
+	public static final String GEOHASH_INDEX_CREATE = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" +
+			CNAME_GEOHASH + " ON " + TABLE_NAME + " (" + CNAME_GEOHASH + ");";
+
 	// --------------------------------------------
 	// QUERIES
 	// --------------------------------------------
 
 	private final static String WHERE_ID = CNAME_ID + "=?";
+	private final static String INSERT = "INSERT INTO " + TABLE_NAME + " (" + CNAME_TIMESTAMP + ", " +
+			CNAME_LATITUDE + ", " + CNAME_LONGITUDE + ", " + CNAME_ACCURACY + ", " + CNAME_GEOHASH +
+			") VALUES (?, ?, ?, ?, ?)";
 	private final static String WHERE_TIME_RANGE = CNAME_TIMESTAMP + ">=?"+" AND "+CNAME_TIMESTAMP + "<=?";
+	private final static String WHERE_GEOHASH_PREFIX = "(" + CNAME_GEOHASH + ">=? AND " + CNAME_GEOHASH + "<?)";
+	private final static String WHERE_LATITUDE_RANGE = CNAME_LATITUDE + ">=? AND " + CNAME_LATITUDE + "<=?";
+	private final static String WHERE_LONGITUDE_RANGE = CNAME_LONGITUDE + ">=? AND " + CNAME_LONGITUDE + "<=?";
+	private final static String WHERE_LONGITUDE_WRAPPED = "(" + CNAME_LONGITUDE + ">=? OR " + CNAME_LONGITUDE + "<=?)";
+
+	/** A bounding box is looked up in at most this many geohash ranges */
+	private final static int MAX_GEOHASH_RANGES = 16;
+
+	/** The number of locations inserted per transaction when importing a history */
+	private final static int IMPORT_BATCH_SIZE = 1000;
+
+	// --------------------------------------------
+	// CHANGE NOTIFICATION
+	// --------------------------------------------
+
+	/**
+	 * Receives the changes made to the locations table through any LocationDAO,
+	 * on the thread that made them. This lets derived data, such as incrementally
+	 * maintained clusters, be kept up to date without reloading the table.
+	 */
+	public interface OnLocationsChangedListener {
+		/**
+		 * @param location the inserted location, with its new {@link GPSLocation#id}
+		 */
+		void onLocationInserted(GPSLocation location);
+
+		/**
+		 * @param location the deleted location
+		 */
+		void onLocationDeleted(GPSLocation location);
+
+		/**
+		 * Called when all locations have been deleted.
+		 */
+		void onLocationsCleared();
+	}
+
+	private static final List<OnLocationsChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+	public static void addOnLocationsChangedListener(OnLocationsChangedListener listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeOnLocationsChangedListener(OnLocationsChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	/** Incremented by every change to the locations table made through a LocationDAO */
+	private static final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Returns the version of the locations table, which changes whenever locations
+	 * are inserted, updated or deleted. Results derived from the table, such as
+	 * clusterings, remain valid as long as the version they were computed at is
+	 * current. Read the version before reading the table, so that a change made
+	 * in between is seen as a new version.
+	 * @return the version of the locations table in this process.
+	 */
+	public static long getVersion() {
+		return version.get();
+	}
 
 	// --------------------------------------------
 	// LIVECYCLE
 	// --------------------------------------------
 
+	/** Compiled on the first batch insert and kept until the DAO is closed */
+	private SQLiteStatement insertStatement;
+
 	public LocationDAO(Context context) {
 		super(context);
 	}
 
+	@Override
+	public void close() {
+		if (insertStatement != null) {
+			insertStatement.close();
+			insertStatement = null;
+		}
+		super.close();
+	}
+
 	// --------------------------------------------
 	// QUERY IMPLEMENTATIONS
 	// --------------------------------------------
@@ -98,6 +198,86 @@ public class LocationDAO extends GeneralDAO {
 				null);
 		return cursor2locations(c);
 	}
+
+	/**
+	 * Returns all locations in columns, most recent first.
+	 */
+	public LocationColumns getAllLocationColumns() {
+		Cursor c = db.query(
+				TABLE_NAME,
+				PROJECTION,
+				null,
+				null,
+				null,
+				null,
+				CNAME_TIMESTAMP+" DESC");
+		return cursor2columns(c);
+	}
+
+	/**
+	 * Returns the locations recorded in a time window in columns, in chronological
+	 * order. The window is found with the timestamp index.
+	 */
+	public LocationColumns getLocationColumnsByTimeRange(long startTime, long endTime) {
+		Cursor c = db.query(
+				TABLE_NAME,
+				PROJECTION,
+				WHERE_TIME_RANGE,
+				new String[]{startTime+"",endTime+""},
+				null,
+				null,
+				CNAME_TIMESTAMP);
+		return cursor2columns(c);
+	}
+
+	/**
+	 * Returns the locations in a bounding box in columns, in chronological order.
+	 * A box whose minimum longitude exceeds its maximum crosses the antimeridian.
+	 */
+	public LocationColumns getLocationColumnsInBox(double minLatitude, double minLongitude,
+												   double maxLatitude, double maxLongitude) {
+		return getLocationColumnsInBox(minLatitude, minLongitude, maxLatitude, maxLongitude,
+				Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the locations in a bounding box that were recorded in a time window,
+	 * in columns and in chronological order. The box is looked up as a few ranges
+	 * of the geohash index that cover it, and the rows in those ranges are then
+	 * filtered by their exact coordinates and timestamps.
+	 */
+	public LocationColumns getLocationColumnsInBox(double minLatitude, double minLongitude,
+												   double maxLatitude, double maxLongitude,
+												   long startTime, long endTime) {
+		List<String> prefixes = Geohash.cover(minLatitude, minLongitude, maxLatitude, maxLongitude,
+				GEOHASH_PRECISION, MAX_GEOHASH_RANGES);
+		StringBuilder where = new StringBuilder("(");
+		List<String> args = new ArrayList<>();
+		for (String prefix : prefixes) {
+			if (args.size() > 0) where.append(" OR ");
+			where.append(WHERE_GEOHASH_PREFIX);
+			args.add(prefix);
+			args.add(prefix + Geohash.UPPER_BOUND);
+		}
+		where.append(") AND ").append(WHERE_LATITUDE_RANGE);
+		args.add(minLatitude+"");
+		args.add(maxLatitude+"");
+		where.append(" AND ").append(minLongitude <= maxLongitude ? WHERE_LONGITUDE_RANGE : WHERE_LONGITUDE_WRAPPED);
+		args.add(minLongitude+"");
+		args.add(maxLongitude+"");
+		where.append(" AND ").append(WHERE_TIME_RANGE);
+		args.add(startTime+"");
+		args.add(endTime+"");
+		Cursor c = db.query(
+				TABLE_NAME,
+				PROJECTION,
+				where.toString(),
+				args.toArray(new String[args.size()]),
+				null,
+				null,
+				CNAME_TIMESTAMP);
+		return cursor2columns(c);
+	}
 	
 	public GPSLocation[] getAllLocations() {
 		Cursor c = db.query(
@@ -116,24 +296,167 @@ public class LocationDAO extends GeneralDAO {
 	// --------------------------------------------
 		
 	
+	/**
+	 * Inserts a location and sets its id to the id of the new row.
+	 */
 	public void insert(GPSLocation r) {
 		ContentValues cv = location2ContentValues(r);
-		db.insert(TABLE_NAME, null, cv);
+		long rowId = db.insert(TABLE_NAME, null, cv);
+		if (rowId == -1) return;
+		r.id = (int) rowId;
+		version.incrementAndGet();
+		for (OnLocationsChangedListener listener : listeners) {
+			listener.onLocationInserted(r);
+		}
 	}
 
+	/**
+	 * Inserts locations in a single transaction through a precompiled statement,
+	 * and sets the id of each to the id of its new row. Listeners are notified
+	 * once the transaction has been committed.
+	 */
+	public void insertAll(List<GPSLocation> locations) {
+		if (insertStatement == null) {
+			insertStatement = db.compileStatement(INSERT);
+		}
+		boolean committed = false;
+		db.beginTransaction();
+		try {
+			for (GPSLocation r : locations) {
+				insertStatement.bindLong(1, r.timestamp);
+				insertStatement.bindDouble(2, r.latitude);
+				insertStatement.bindDouble(3, r.longitude);
+				insertStatement.bindDouble(4, r.accuracy);
+				insertStatement.bindString(5, Geohash.encode(r.latitude, r.longitude, GEOHASH_PRECISION));
+				r.id = (int) insertStatement.executeInsert();
+			}
+			db.setTransactionSuccessful();
+			committed = true;
+		} finally {
+			db.endTransaction();
+			if (!committed) {
+				// the rows were rolled back
+				for (GPSLocation r : locations) {
+					r.id = -1;
+				}
+			}
+		}
+		version.incrementAndGet();
+		for (GPSLocation r : locations) {
+			for (OnLocationsChangedListener listener : listeners) {
+				listener.onLocationInserted(r);
+			}
+		}
+	}
+
+	/**
+	 * Updates the row of a location. Listeners see the row as it was before being
+	 * deleted and the location being inserted, so that whatever was derived from
+	 * the old coordinates can be taken back. Nothing is notified if there is no row.
+	 * @param r the location, with the id of its row.
+	 */
 	public void update(GPSLocation r) {
-		ContentValues values = location2ContentValues(r);
-		db.update(TABLE_NAME, values , WHERE_ID, new String[]{r.id+""});
+		String[] args = new String[]{r.id+""};
+		GPSLocation[] old;
+		db.beginTransaction();
+		try {
+			// read in the same transaction, so that the row cannot change in between
+			old = cursor2locations(db.query(TABLE_NAME, PROJECTION, WHERE_ID, args, null, null, null));
+			if (old.length == 0 || db.update(TABLE_NAME, location2ContentValues(r), WHERE_ID, args) == 0) return;
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		version.incrementAndGet();
+		for (OnLocationsChangedListener listener : listeners) {
+			listener.onLocationDeleted(old[0]);
+			listener.onLocationInserted(r);
+		}
 	}
 
+	/**
+	 * Deletes the row of a location. Nothing is notified if there is no row.
+	 * @param r the location, with the id of its row.
+	 */
 	public void delete(GPSLocation r) {
 		Log.d(TAG,"delete report " + r.id);
-		db.delete(TABLE_NAME, WHERE_ID, new String[]{r.id+""});
+		if (db.delete(TABLE_NAME, WHERE_ID, new String[]{r.id+""}) == 0) return;
+		version.incrementAndGet();
+		for (OnLocationsChangedListener listener : listeners) {
+			listener.onLocationDeleted(r);
+		}
 	}
 
 	public void deleteAll() {
 		Log.d(TAG,"delete all from " + TABLE_NAME);
 		db.delete(TABLE_NAME, null, null);
+		version.incrementAndGet();
+		for (OnLocationsChangedListener listener : listeners) {
+			listener.onLocationsCleared();
+		}
+	}
+
+	// --------------------------------------------
+	// EXPORT AND IMPORT
+	// --------------------------------------------
+
+	/**
+	 * Writes all locations to a binary {@link LocationHistory} file, which is far
+	 * smaller than the table and can be loaded off the phone by a
+	 * {@link LocationHistoryReader}.
+	 * @param file the file to write, replaced if it exists.
+	 * @return the number of locations written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public long exportHistory(File file) throws IOException {
+		LocationColumns columns = getLocationColumnsByTimeRange(Long.MIN_VALUE, Long.MAX_VALUE);
+		LocationHistoryWriter writer = new LocationHistoryWriter(file);
+		try {
+			writer.append(columns);
+		} finally {
+			writer.close();
+		}
+		return writer.getCount();
+	}
+
+	/**
+	 * Inserts the locations of a {@link LocationHistory} file, in addition to those
+	 * already saved, in transactions of {@link #IMPORT_BATCH_SIZE} locations. A
+	 * location with the same timestamp as one already saved, or as an earlier one in
+	 * the file, is skipped, so importing the same file twice inserts nothing the
+	 * second time.
+	 * @param file the file to read.
+	 * @return the number of locations inserted.
+	 * @throws IOException if the file cannot be read or is not a location history.
+	 */
+	public int importHistory(File file) throws IOException {
+		LocationColumns columns = new LocationHistoryReader(file).readAll();
+		if (columns.size == 0) {
+			return 0;
+		}
+		long startTime = Long.MAX_VALUE, endTime = Long.MIN_VALUE;
+		for (int i = 0; i < columns.size; i++) {
+			startTime = Math.min(startTime, columns.timestamps[i]);
+			endTime = Math.max(endTime, columns.timestamps[i]);
+		}
+		LocationColumns saved = getLocationColumnsByTimeRange(startTime, endTime);
+		Set<Long> timestamps = new HashSet<>(saved.size + columns.size);
+		for (int i = 0; i < saved.size; i++) {
+			timestamps.add(saved.timestamps[i]);
+		}
+		int inserted = 0;
+		List<GPSLocation> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+		for (int i = 0; i < columns.size; i++) {
+			if (timestamps.add(columns.timestamps[i])) {
+				batch.add(columns.getLocation(i));
+			}
+			if (batch.size() == IMPORT_BATCH_SIZE || (i == columns.size - 1 && !batch.isEmpty())) {
+				insertAll(batch);
+				inserted += batch.size();
+				batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+			}
+		}
+		return inserted;
 	}
 
 	// --------------------------------------------
@@ -153,18 +476,70 @@ public class LocationDAO extends GeneralDAO {
 
 	public static GPSLocation[] cursor2locations(Cursor c) {
 		c.moveToFirst();
-		LinkedList<GPSLocation> locations = new LinkedList<GPSLocation>();
-		while(!c.isAfterLast()){
+		GPSLocation[] locations = new GPSLocation[c.getCount()];
+		for (int i = 0; i < locations.length; i++) {
 			GPSLocation r = new GPSLocation();
 			r.id = c.getInt(CNUM_ID); 
 			r.timestamp =c.getLong(CNUM_TIMESTAMP);
 			r.latitude = c.getDouble(CNUM_LATITUDE);
 			r.longitude = c.getDouble(CNUM_LONGITUDE);
 			r.accuracy = c.getFloat(CNUM_ACCURACY);
-			locations.add(r);
+			locations[i] = r;
 			c.moveToNext();
 		}
-		return locations.toArray(new GPSLocation[locations.size()]);
+		c.close();
+		return locations;
+	}
+
+	/**
+	 * Reads the rows of a cursor over {@link #PROJECTION} into columns sized from
+	 * the row count, creating no objects per row, and closes the cursor.
+	 */
+	public static LocationColumns cursor2columns(Cursor c) {
+		try {
+			LocationColumns columns = new LocationColumns(c.getCount());
+			c.moveToFirst();
+			for (int i = 0; i < columns.size; i++) {
+				columns.ids[i] = c.getInt(CNUM_ID);
+				columns.timestamps[i] = c.getLong(CNUM_TIMESTAMP);
+				columns.latitudes[i] = c.getDouble(CNUM_LATITUDE);
+				columns.longitudes[i] = c.getDouble(CNUM_LONGITUDE);
+				columns.accuracies[i] = c.getFloat(CNUM_ACCURACY);
+				c.moveToNext();
+			}
+			return columns;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Computes the geohash of every location that lacks one, as when upgrading a
+	 * database created before the geohash column existed. This is called by
+	 * {@link cs.umass.edu.myactivitiestoolkit.storage.MyDBHelper#onUpgrade(SQLiteDatabase, int, int)},
+	 * which runs in a transaction.
+	 */
+	public static void fillGeohashes(SQLiteDatabase db) {
+		Cursor c = db.query(
+				TABLE_NAME,
+				new String[]{CNAME_ID, CNAME_LATITUDE, CNAME_LONGITUDE},
+				CNAME_GEOHASH + " IS NULL",
+				null,
+				null,
+				null,
+				null);
+		SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_NAME + " SET " +
+				CNAME_GEOHASH + "=? WHERE " + WHERE_ID);
+		try {
+			while (c.moveToNext()) {
+				update.bindString(1, Geohash.encode(c.getDouble(1), c.getDouble(2), GEOHASH_PRECISION));
+				update.bindLong(2, c.getLong(0));
+				update.execute();
+			}
+		} finally {
+			update.close();
+			c.close();
+		}
 	}
 
 	private static ContentValues location2ContentValues(GPSLocation r) {
@@ -173,6 +548,7 @@ public class LocationDAO extends GeneralDAO {
 		cv.put(CNAME_LATITUDE, r.latitude);
 		cv.put(CNAME_LONGITUDE, r.longitude);
 		cv.put(CNAME_ACCURACY, r.accuracy);
+		cv.put(CNAME_GEOHASH, Geohash.encode(r.latitude, r.longitude, GEOHASH_PRECISION));
 		return cv;
 	}
 
@@ -0,0 +1,413 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates the density of locations at every zoom level of the map, and renders
+ * it as heat-map tiles, so that the number of locations only affects how long the
+ * density takes to build, not how long a tile takes to draw.
+ * <br><br>
+ * Level L of the pyramid divides the world into 2^L x 2^L cells in the Web Mercator
+ * projection used by Google Maps; the finest level, {@link #MAX_LEVEL}, has cells of
+ * about 10 meters at the equator. Each location is splatted into the four nearest
+ * cells of the finest level with bilinear weights, and each cell of a coarser level
+ * holds the sum of its four children, so a location adds the same weight to every
+ * level and the pyramid can be updated one location at a time. Levels are sparse:
+ * cells are stored in blocks of {@link #BLOCK_SIZE} x {@link #BLOCK_SIZE}, and only
+ * blocks that have received a location exist.
+ * <br><br>
+ * A tile at zoom z is drawn from level z + 6, at 4 pixels per cell. The cells under
+ * the tile are smoothed by repeated box filters computed from a summed-area table,
+ * so the cost per cell does not depend on the filter radius, then sampled bilinearly
+ * for each pixel. Intensities are scaled logarithmically against the densest cell of
+ * the level, rounded up to a power of two so that the scale, and so every tile of the
+ * level, only changes when that maximum doubles.
+ * <br><br>
+ * Updates and rendering may come from different threads.
+ */
+public class LocationDensityPyramid {
+
+    /** The size of a tile, in pixels */
+    public static final int TILE_SIZE = 256;
+
+    /** The finest level of the pyramid */
+    public static final int MAX_LEVEL = 22;
+
+    /** The number of cells along the side of a block, as a power of two */
+    private static final int BLOCK_BITS = 4;
+
+    /** The number of cells along the side of a block */
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    /** The number of cells along the side of a tile, as a power of two: 64 cells of 4 pixels */
+    private static final int TILE_CELL_BITS = 6;
+
+    /** log2 of {@link #TILE_SIZE} */
+    private static final int TILE_SIZE_BITS = 8;
+
+    /** The radius, in cells, of the box filter smoothing the density */
+    private static final int BLUR_RADIUS = 2;
+
+    /** The number of box filters applied, which together approximate a Gaussian */
+    private static final int BLUR_PASSES = 2;
+
+    /** The smoothed density of a single location spread over the filter */
+    private static final float DENSITY_UNIT = 1f / ((2 * BLUR_RADIUS + 1) * (2 * BLUR_RADIUS + 1));
+
+    /**
+     * The smallest smoothed density drawn, relative to {@link #DENSITY_UNIT}, which
+     * trims the faint edges of isolated locations and the rounding errors left by removals.
+     */
+    private static final float MIN_VISIBLE_DENSITY = 0.25f;
+
+    /** The latitude limit of the Web Mercator projection */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /** The colors of the intensities, from transparent to red */
+    private static final int[] PALETTE = createPalette();
+
+    /** The blocks of each level, by {@link #blockKey(int, int)} */
+    private final List<Map<Long, float[]>> levels = new ArrayList<>(MAX_LEVEL + 1);
+
+    /** The largest cell density of each level since the pyramid was last cleared */
+    private final float[] maxDensities = new float[MAX_LEVEL + 1];
+
+    private int size;
+
+    public LocationDensityPyramid() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new HashMap<Long, float[]>());
+        }
+    }
+
+    /**
+     * Adds locations, splatting them into the finest level and then rebuilding the
+     * coarser levels from it, which is faster than {@link #add(GPSLocation) adding}
+     * each location to every level.
+     * @param locations the locations.
+     */
+    public synchronized void addAll(GPSLocation[] locations) {
+        for (GPSLocation location : locations) {
+            splat(location, 1, false);
+        }
+        size += locations.length;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            downsample(level);
+        }
+        maxDensities[MAX_LEVEL] = maxDensity(levels.get(MAX_LEVEL));
+    }
+
+    /**
+     * Adds a location to every level.
+     * @param location the location.
+     */
+    public synchronized void add(GPSLocation location) {
+        splat(location, 1, true);
+        size++;
+    }
+
+    /**
+     * Removes a location that was added before. The scale of the intensities is not
+     * reduced, so the remaining tiles do not change.
+     * @param location the location.
+     */
+    public synchronized void remove(GPSLocation location) {
+        if (--size == 0) {
+            clear();
+            return;
+        }
+        splat(location, -1, true);
+    }
+
+    /**
+     * Removes all locations.
+     */
+    public synchronized void clear() {
+        for (Map<Long, float[]> blocks : levels) {
+            blocks.clear();
+        }
+        Arrays.fill(maxDensities, 0);
+        size = 0;
+    }
+
+    /**
+     * Returns the number of locations.
+     * @return the number of locations.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Identifies the scale of the intensities at a zoom level. Tiles rendered at the
+     * same scale exponent remain valid unless a location was added nearby.
+     * @param zoom the zoom level.
+     * @return the exponent of the scale.
+     */
+    public synchronized int getScaleExponent(int zoom) {
+        return Math.getExponent(maxDensities[level(zoom)]);
+    }
+
+    /**
+     * Returns how far a location affects the tiles of a zoom level, which is the
+     * distance within which cached tiles are stale after it is added or removed.
+     * @param zoom the zoom level.
+     * @return the distance in the units of {@link #mercatorX(double)}.
+     */
+    public static double getInfluenceRadius(int zoom) {
+        // one cell of bilinear splatting and one of bilinear sampling besides the filter
+        return Math.scalb(BLUR_RADIUS * BLUR_PASSES + 2.0, -level(zoom));
+    }
+
+    /**
+     * Renders the density in a map tile.
+     * @param zoom the zoom level of the tile.
+     * @param tileX the column of the tile, from the antimeridian eastwards.
+     * @param tileY the row of the tile, from the north.
+     * @param pixels receives the {@link #TILE_SIZE} x {@link #TILE_SIZE} ARGB pixels, row by row.
+     * @return false if no location is near the tile, in which case the pixels are left unchanged.
+     */
+    public boolean renderTile(int zoom, int tileX, int tileY, int[] pixels) {
+        int level = level(zoom);
+        double cellsPerPixel = Math.scalb(1.0, level - zoom - TILE_SIZE_BITS);
+        // cell coordinates of the pixel centers, relative to the cell centers
+        double first = (tileX * (double) TILE_SIZE + 0.5) * cellsPerPixel - 0.5;
+        double top = (tileY * (double) TILE_SIZE + 0.5) * cellsPerPixel - 0.5;
+        int margin = BLUR_RADIUS * BLUR_PASSES;
+        int x0 = (int) Math.floor(first) - margin;
+        int y0 = (int) Math.floor(top) - margin;
+        int width = (int) Math.floor(first + (TILE_SIZE - 1) * cellsPerPixel) + 1 + margin - x0 + 1;
+        int height = (int) Math.floor(top + (TILE_SIZE - 1) * cellsPerPixel) + 1 + margin - y0 + 1;
+
+        float[] grid;
+        float scale;
+        synchronized (this) {
+            grid = window(level, x0, y0, width, height);
+            scale = Math.scalb(1f, Math.getExponent(maxDensities[level]) + 1);
+        }
+        if (grid == null) {
+            return false;
+        }
+        for (int pass = 0; pass < BLUR_PASSES; pass++) {
+            grid = boxFilter(grid, width, height, BLUR_RADIUS);
+        }
+
+        double normalization = 1 / Math.log1p(scale / DENSITY_UNIT);
+        boolean visible = false;
+        for (int py = 0; py < TILE_SIZE; py++) {
+            double v = top + py * cellsPerPixel - y0;
+            int j = (int) v;
+            double fv = v - j;
+            for (int px = 0; px < TILE_SIZE; px++) {
+                double u = first + px * cellsPerPixel - x0;
+                int i = (int) u;
+                double fu = u - i;
+                int k = j * width + i;
+                double density = (1 - fv) * ((1 - fu) * grid[k] + fu * grid[k + 1])
+                        + fv * ((1 - fu) * grid[k + width] + fu * grid[k + width + 1]);
+                int color = 0;
+                if (density > DENSITY_UNIT * MIN_VISIBLE_DENSITY) {
+                    double intensity = Math.log1p(density / DENSITY_UNIT) * normalization;
+                    color = PALETTE[1 + (int) (Math.min(1, intensity) * (PALETTE.length - 2))];
+                    visible = true;
+                }
+                pixels[py * TILE_SIZE + px] = color;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Returns the horizontal Web Mercator coordinate of a longitude, from 0 at the
+     * antimeridian to 1 eastwards.
+     * @param longitude the longitude.
+     * @return the coordinate.
+     */
+    public static double mercatorX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * Returns the vertical Web Mercator coordinate of a latitude, from 0 in the
+     * north to 1 in the south.
+     * @param latitude the latitude.
+     * @return the coordinate.
+     */
+    public static double mercatorY(double latitude) {
+        double phi = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(phi) + 1 / Math.cos(phi)) / Math.PI) / 2;
+    }
+
+    /**
+     * Returns the level of the pyramid from which tiles of a zoom level are drawn.
+     */
+    private static int level(int zoom) {
+        return Math.max(0, Math.min(MAX_LEVEL, zoom + TILE_CELL_BITS));
+    }
+
+    /**
+     * Adds a weight to the four cells of the finest level nearest to a location, and
+     * optionally to their ancestors in every coarser level.
+     */
+    private void splat(GPSLocation location, float weight, boolean propagate) {
+        int cells = 1 << MAX_LEVEL;
+        double u = mercatorX(location.longitude) * cells - 0.5;
+        double v = mercatorY(location.latitude) * cells - 0.5;
+        int i = (int) Math.floor(u), j = (int) Math.floor(v);
+        float fu = (float) (u - i), fv = (float) (v - j);
+        add(i, j, weight * (1 - fu) * (1 - fv), propagate);
+        add(i + 1, j, weight * fu * (1 - fv), propagate);
+        add(i, j + 1, weight * (1 - fu) * fv, propagate);
+        add(i + 1, j + 1, weight * fu * fv, propagate);
+    }
+
+    private void add(int x, int y, float weight, boolean propagate) {
+        int cells = 1 << MAX_LEVEL;
+        if (weight == 0 || x < 0 || y < 0 || x >= cells || y >= cells) {
+            return;
+        }
+        for (int level = MAX_LEVEL; level >= (propagate ? 0 : MAX_LEVEL); level--) {
+            int shift = MAX_LEVEL - level;
+            int cx = x >> shift, cy = y >> shift;
+            Map<Long, float[]> blocks = levels.get(level);
+            Long key = blockKey(cx >> BLOCK_BITS, cy >> BLOCK_BITS);
+            float[] block = blocks.get(key);
+            if (block == null) {
+                block = new float[BLOCK_SIZE * BLOCK_SIZE];
+                blocks.put(key, block);
+            }
+            int k = (cy & (BLOCK_SIZE - 1)) * BLOCK_SIZE + (cx & (BLOCK_SIZE - 1));
+            block[k] += weight;
+            if (propagate) {
+                maxDensities[level] = Math.max(maxDensities[level], block[k]);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a level by summing the cells of the next finer level.
+     */
+    private void downsample(int level) {
+        Map<Long, float[]> blocks = levels.get(level);
+        blocks.clear();
+        for (Map.Entry<Long, float[]> entry : levels.get(level + 1).entrySet()) {
+            long childKey = entry.getKey();
+            int bx = (int) (childKey >> 32), by = (int) childKey;
+            float[] child = entry.getValue();
+            Long key = blockKey(bx >> 1, by >> 1);
+            float[] block = blocks.get(key);
+            if (block == null) {
+                block = new float[BLOCK_SIZE * BLOCK_SIZE];
+                blocks.put(key, block);
+            }
+            // the child block covers one quadrant of its parent block
+            int offsetX = (bx & 1) * BLOCK_SIZE / 2, offsetY = (by & 1) * BLOCK_SIZE / 2;
+            for (int y = 0; y < BLOCK_SIZE; y++) {
+                for (int x = 0; x < BLOCK_SIZE; x++) {
+                    block[(offsetY + (y >> 1)) * BLOCK_SIZE + offsetX + (x >> 1)] += child[y * BLOCK_SIZE + x];
+                }
+            }
+        }
+        maxDensities[level] = maxDensity(blocks);
+    }
+
+    private static float maxDensity(Map<Long, float[]> blocks) {
+        float max = 0;
+        for (float[] block : blocks.values()) {
+            for (float density : block) {
+                max = Math.max(max, density);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Copies a rectangle of cells of a level into a dense grid, row by row.
+     * @return the grid, or null if no block overlaps the rectangle.
+     */
+    private float[] window(int level, int x0, int y0, int width, int height) {
+        Map<Long, float[]> blocks = levels.get(level);
+        int cells = 1 << level;
+        int minX = Math.max(0, x0), maxX = Math.min(cells - 1, x0 + width - 1);
+        int minY = Math.max(0, y0), maxY = Math.min(cells - 1, y0 + height - 1);
+        float[] grid = null;
+        for (int by = minY >> BLOCK_BITS; by <= maxY >> BLOCK_BITS; by++) {
+            for (int bx = minX >> BLOCK_BITS; bx <= maxX >> BLOCK_BITS; bx++) {
+                float[] block = blocks.get(blockKey(bx, by));
+                if (block == null) {
+                    continue;
+                }
+                if (grid == null) {
+                    grid = new float[width * height];
+                }
+                int fromX = Math.max(minX, bx << BLOCK_BITS), toX = Math.min(maxX, ((bx + 1) << BLOCK_BITS) - 1);
+                int fromY = Math.max(minY, by << BLOCK_BITS), toY = Math.min(maxY, ((by + 1) << BLOCK_BITS) - 1);
+                for (int y = fromY; y <= toY; y++) {
+                    int source = (y & (BLOCK_SIZE - 1)) * BLOCK_SIZE + (fromX & (BLOCK_SIZE - 1));
+                    System.arraycopy(block, source, grid, (y - y0) * width + fromX - x0, toX - fromX + 1);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Averages each cell of a grid over the square of the given radius around it,
+     * treating cells outside the grid as empty, in constant time per cell using a
+     * summed-area table.
+     */
+    private static float[] boxFilter(float[] grid, int width, int height, int radius) {
+        int stride = width + 1;
+        // sums[(y + 1) * stride + x + 1] is the sum of the cells above and left of (x, y), inclusive
+        double[] sums = new double[stride * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            double row = 0;
+            for (int x = 0; x < width; x++) {
+                row += grid[y * width + x];
+                sums[(y + 1) * stride + x + 1] = sums[y * stride + x + 1] + row;
+            }
+        }
+        float[] filtered = new float[width * height];
+        float area = (2 * radius + 1) * (2 * radius + 1);
+        for (int y = 0; y < height; y++) {
+            int top = Math.max(0, y - radius), bottom = Math.min(height, y + radius + 1);
+            for (int x = 0; x < width; x++) {
+                int left = Math.max(0, x - radius), right = Math.min(width, x + radius + 1);
+                double sum = sums[bottom * stride + right] - sums[top * stride + right]
+                        - sums[bottom * stride + left] + sums[top * stride + left];
+                filtered[y * width + x] = (float) (sum / area);
+            }
+        }
+        return filtered;
+    }
+
+    private static Long blockKey(int bx, int by) {
+        return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Interpolates from blue through cyan, green and yellow to red, fading in from
+     * transparent so that the edges of sparse areas blend into the map. The first
+     * entry is left transparent for empty pixels.
+     */
+    private static int[] createPalette() {
+        float[][] stops = {{0, 0, 255}, {0, 255, 255}, {0, 255, 0}, {255, 255, 0}, {255, 0, 0}};
+        int[] palette = new int[256];
+        for (int i = 1; i < palette.length; i++) {
+            float t = (i - 1f) / (palette.length - 2);
+            float position = t * (stops.length - 1);
+            int stop = Math.min(stops.length - 2, (int) position);
+            float f = position - stop;
+            int alpha = Math.round(255 * (float) Math.sqrt(t));
+            int red = Math.round(stops[stop][0] + f * (stops[stop + 1][0] - stops[stop][0]));
+            int green = Math.round(stops[stop][1] + f * (stops[stop + 1][1] - stops[stop][1]));
+            int blue = Math.round(stops[stop][2] + f * (stops[stop + 1][2] - stops[stop][2]));
+            palette[i] = alpha << 24 | red << 16 | green << 8 | blue;
+        }
+        return palette;
+    }
+}
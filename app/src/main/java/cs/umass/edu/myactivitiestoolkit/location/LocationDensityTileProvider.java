@@ -0,0 +1,188 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import android.graphics.Bitmap;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Supplies a tile overlay of the map with heat-map tiles of the saved locations,
+ * rendered from a {@link LocationDensityPyramid} and kept as PNG images in a
+ * least-recently-used cache of at most {@link #MAX_CACHE_BYTES} bytes.
+ * <br><br>
+ * Locations are added and removed as they are saved and deleted, and only the
+ * cached tiles near each change are dropped, so that the next
+ * {@link com.google.android.gms.maps.model.TileOverlay#clearTileCache() refresh} of the
+ * overlay re-renders those tiles and serves the others from the cache. A cached
+ * tile is also re-rendered once the intensity scale of its zoom level changes.
+ * <br><br>
+ * Tiles are requested by the map on its own background threads, and changes may
+ * come from any thread.
+ */
+public class LocationDensityTileProvider implements TileProvider {
+
+    /** The maximum size of the cached tiles, in bytes */
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /** The bytes counted for each cached tile on top of its image, so that empty tiles count too */
+    private static final int ENTRY_BYTES = 64;
+
+    /** The highest zoom level whose tiles are dropped when locations change */
+    private static final int MAX_ZOOM = 21;
+
+    /**
+     * A rendered tile, with the intensity scale it was rendered at.
+     */
+    private static class CachedTile {
+        final Tile tile;
+        final int scaleExponent;
+
+        CachedTile(Tile tile, int scaleExponent) {
+            this.tile = tile;
+            this.scaleExponent = scaleExponent;
+        }
+
+        int getByteCount() {
+            return ENTRY_BYTES + (tile.data == null ? 0 : tile.data.length);
+        }
+    }
+
+    private final LocationDensityPyramid pyramid;
+
+    /** The rendered tiles by {@link #tileKey(int, int, int)}, least recently used first */
+    private final LinkedHashMap<Long, CachedTile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private int cacheBytes;
+
+    /** Incremented whenever cached tiles are dropped, so that tiles rendered meanwhile are not cached */
+    private long invalidations;
+
+    /**
+     * @param pyramid the density of the saved locations.
+     */
+    public LocationDensityTileProvider(LocationDensityPyramid pyramid) {
+        this.pyramid = pyramid;
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        long key = tileKey(x, y, zoom);
+        int scaleExponent = pyramid.getScaleExponent(zoom);
+        long invalidationsBefore;
+        synchronized (this) {
+            CachedTile cached = tiles.get(key);
+            if (cached != null && cached.scaleExponent == scaleExponent) {
+                return cached.tile;
+            }
+            invalidationsBefore = invalidations;
+        }
+        // rendering is slow, so other tiles may be served meanwhile
+        int[] pixels = new int[LocationDensityPyramid.TILE_SIZE * LocationDensityPyramid.TILE_SIZE];
+        Tile tile = pyramid.renderTile(zoom, x, y, pixels) ? encode(pixels) : NO_TILE;
+        synchronized (this) {
+            if (invalidations == invalidationsBefore) {
+                put(key, new CachedTile(tile, scaleExponent));
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Adds saved locations to the heat map at once, dropping every cached tile.
+     * @param locations the locations.
+     */
+    public void addAll(GPSLocation[] locations) {
+        pyramid.addAll(locations);
+        synchronized (this) {
+            tiles.clear();
+            cacheBytes = 0;
+            invalidations++;
+        }
+    }
+
+    /**
+     * Adds a saved location to the heat map.
+     * @param location the location.
+     */
+    public void add(GPSLocation location) {
+        pyramid.add(location);
+        invalidate(location);
+    }
+
+    /**
+     * Removes a deleted location from the heat map.
+     * @param location the location.
+     */
+    public void remove(GPSLocation location) {
+        pyramid.remove(location);
+        invalidate(location);
+    }
+
+    /**
+     * Removes all locations from the heat map.
+     */
+    public synchronized void clear() {
+        pyramid.clear();
+        tiles.clear();
+        cacheBytes = 0;
+        invalidations++;
+    }
+
+    /**
+     * Drops the cached tiles of every zoom level that a location affects.
+     */
+    private synchronized void invalidate(GPSLocation location) {
+        double x = LocationDensityPyramid.mercatorX(location.longitude);
+        double y = LocationDensityPyramid.mercatorY(location.latitude);
+        invalidations++;
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            double radius = LocationDensityPyramid.getInfluenceRadius(zoom);
+            int tilesPerSide = 1 << zoom;
+            int minX = Math.max(0, (int) Math.floor((x - radius) * tilesPerSide));
+            int maxX = Math.min(tilesPerSide - 1, (int) Math.floor((x + radius) * tilesPerSide));
+            int minY = Math.max(0, (int) Math.floor((y - radius) * tilesPerSide));
+            int maxY = Math.min(tilesPerSide - 1, (int) Math.floor((y + radius) * tilesPerSide));
+            for (int tileY = minY; tileY <= maxY; tileY++) {
+                for (int tileX = minX; tileX <= maxX; tileX++) {
+                    CachedTile cached = tiles.remove(tileKey(tileX, tileY, zoom));
+                    if (cached != null) {
+                        cacheBytes -= cached.getByteCount();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches a tile, evicting the least recently used tiles once the cache is full.
+     */
+    private void put(long key, CachedTile tile) {
+        CachedTile previous = tiles.put(key, tile);
+        if (previous != null) {
+            cacheBytes -= previous.getByteCount();
+        }
+        cacheBytes += tile.getByteCount();
+        Iterator<Map.Entry<Long, CachedTile>> it = tiles.entrySet().iterator();
+        while (cacheBytes > MAX_CACHE_BYTES && it.hasNext()) {
+            cacheBytes -= it.next().getValue().getByteCount();
+            it.remove();
+        }
+    }
+
+    private static Tile encode(int[] pixels) {
+        int size = LocationDensityPyramid.TILE_SIZE;
+        Bitmap bitmap = Bitmap.createBitmap(pixels, size, size, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return new Tile(size, size, out.toByteArray());
+    }
+
+    private static long tileKey(int x, int y, int zoom) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+}
@@ -0,0 +1,108 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes the binary format of a location history file, a compact export of the
+ * saved locations that can be copied off the phone and loaded by desktop tools. The
+ * fixes are stored in chronological order, in blocks of up to {@link #BLOCK_SIZE}
+ * fixes, followed by an index of the blocks:
+ * <pre>
+ *   header: int magic, int version, int blockCount, int blockSize,
+ *           long fixCount, long indexOffset
+ *   block:  per fix: varint timestamp delta, zigzag varint latitude delta,
+ *           zigzag varint longitude delta, unsigned byte accuracy
+ *   index:  per block: long firstTimestamp, long lastTimestamp, long offset,
+ *           int fixCount, int length
+ * </pre>
+ * Latitudes and longitudes are fixed-point integers in units of
+ * 1 / {@link #COORDINATE_SCALE} degrees, about a centimeter, and accuracies are
+ * quantized to steps of {@link #ACCURACY_STEP} meters. Each value is stored as the
+ * difference from the previous fix of its block, starting from zero, so that
+ * consecutive fixes take a few bytes each and every block can be decoded on its
+ * own. The block index lets a time range be read without decoding the blocks
+ * outside it. Fixed-size values are big-endian.
+ *
+ * @see LocationHistoryWriter
+ * @see LocationHistoryReader
+ */
+public final class LocationHistory {
+
+    /** Identifies a location history file ("MLHF") */
+    static final int MAGIC = 0x4D4C4846;
+
+    /** The current version of the format */
+    static final int VERSION = 1;
+
+    /** Size of the file header in bytes */
+    static final int HEADER_SIZE = 32;
+
+    /** Size of a block index entry in bytes */
+    static final int INDEX_ENTRY_SIZE = 32;
+
+    /** The maximum number of fixes in a block */
+    public static final int BLOCK_SIZE = 4096;
+
+    /** Fixed-point units per degree of latitude or longitude */
+    public static final double COORDINATE_SCALE = 1e7;
+
+    /** The size, in meters, of a quantization step of the accuracy */
+    public static final float ACCURACY_STEP = 0.5f;
+
+    /** The largest encoded size of a fix in bytes */
+    static final int MAX_FIX_SIZE = 10 + 5 + 5 + 1;
+
+    private LocationHistory() {
+    }
+
+    static int toFixedPoint(double degrees) {
+        return (int) Math.round(degrees * COORDINATE_SCALE);
+    }
+
+    static double fromFixedPoint(int units) {
+        return units / COORDINATE_SCALE;
+    }
+
+    static int quantizeAccuracy(float accuracy) {
+        return Math.max(0, Math.min(255, Math.round(accuracy / ACCURACY_STEP)));
+    }
+
+    static float dequantizeAccuracy(int quantized) {
+        return quantized * ACCURACY_STEP;
+    }
+
+    /**
+     * Writes an unsigned value in 7-bit groups, least significant first.
+     */
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Writes a signed value, mapping small magnitudes to small unsigned values.
+     */
+    static void putZigZag(ByteBuffer buffer, int value) {
+        putVarLong(buffer, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    static int getZigZag(ByteBuffer buffer) {
+        int value = (int) getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,163 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads fixes from a {@link LocationHistory} file by time range. The file is
+ * memory-mapped read-only and the block index is loaded into primitive arrays, so
+ * a query finds its blocks by binary search and decodes only those, touching
+ * only the pages that hold them. Results are returned as {@link LocationColumns},
+ * whose ids are -1 since the history does not store them.
+ * <br><br>
+ * This class has no Android dependencies, so histories copied off the phone can be
+ * loaded directly by desktop tools, e.g. for offline clustering. Queries may come
+ * from several threads.
+ *
+ * @see LocationHistoryWriter
+ */
+public class LocationHistoryReader {
+
+    private final MappedByteBuffer buffer;
+    private final long fixCount;
+
+    /** The block index */
+    private final long[] firstTimestamps, lastTimestamps;
+    private final int[] offsets, counts;
+
+    /**
+     * Maps a history file.
+     * @param file the file.
+     * @throws IOException if the file cannot be mapped, or is not a complete location history.
+     */
+    public LocationHistoryReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Location histories cannot exceed 2 GB.");
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.capacity() < LocationHistory.HEADER_SIZE || buffer.getInt(0) != LocationHistory.MAGIC) {
+            throw new IOException("Not a location history.");
+        }
+        if (buffer.getInt(4) != LocationHistory.VERSION) {
+            throw new IOException("Unsupported location history version " + buffer.getInt(4) + ".");
+        }
+        int blocks = buffer.getInt(8);
+        fixCount = buffer.getLong(16);
+        long indexOffset = buffer.getLong(24);
+        if (indexOffset < LocationHistory.HEADER_SIZE
+                || indexOffset + (long) blocks * LocationHistory.INDEX_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("The location history is incomplete.");
+        }
+        firstTimestamps = new long[blocks];
+        lastTimestamps = new long[blocks];
+        offsets = new int[blocks];
+        counts = new int[blocks];
+        int position = (int) indexOffset;
+        for (int b = 0; b < blocks; b++) {
+            firstTimestamps[b] = buffer.getLong(position);
+            lastTimestamps[b] = buffer.getLong(position + 8);
+            offsets[b] = (int) buffer.getLong(position + 16);
+            counts[b] = buffer.getInt(position + 24);
+            position += LocationHistory.INDEX_ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * Returns the number of fixes in the history.
+     * @return the number of fixes.
+     */
+    public long getCount() {
+        return fixCount;
+    }
+
+    /**
+     * Returns the number of blocks in the history.
+     * @return the number of blocks.
+     */
+    public int getBlockCount() {
+        return counts.length;
+    }
+
+    /**
+     * Reads the fixes whose timestamps fall within the given range.
+     * @param startTime the start of the range, inclusive.
+     * @param endTime the end of the range, inclusive.
+     * @return the fixes in chronological order.
+     */
+    public LocationColumns read(long startTime, long endTime) {
+        // blocks are in chronological order, so both bounds are found by binary search
+        int from = lowerBound(lastTimestamps, startTime);
+        int to = endTime == Long.MAX_VALUE ? counts.length : lowerBound(firstTimestamps, endTime + 1);
+        int capacity = 0;
+        for (int b = from; b < to; b++) {
+            capacity += counts[b];
+        }
+        LocationColumns columns = new LocationColumns(capacity);
+        ByteBuffer view = buffer.duplicate();
+        int size = 0;
+        for (int b = from; b < to; b++) {
+            view.position(offsets[b]);
+            long timestamp = 0;
+            int lat = 0, lng = 0;
+            for (int i = 0; i < counts[b]; i++) {
+                timestamp += LocationHistory.getVarLong(view);
+                lat += LocationHistory.getZigZag(view);
+                lng += LocationHistory.getZigZag(view);
+                int accuracy = view.get() & 0xFF;
+                if (timestamp < startTime || timestamp > endTime) {
+                    continue;
+                }
+                columns.ids[size] = -1;
+                columns.timestamps[size] = timestamp;
+                columns.latitudes[size] = LocationHistory.fromFixedPoint(lat);
+                columns.longitudes[size] = LocationHistory.fromFixedPoint(lng);
+                columns.accuracies[size] = LocationHistory.dequantizeAccuracy(accuracy);
+                size++;
+            }
+        }
+        return size == capacity ? columns : trim(columns, size);
+    }
+
+    /**
+     * Reads every fix in the history.
+     * @return all fixes in chronological order.
+     */
+    public LocationColumns readAll() {
+        return read(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static LocationColumns trim(LocationColumns columns, int size) {
+        LocationColumns trimmed = new LocationColumns(size);
+        System.arraycopy(columns.ids, 0, trimmed.ids, 0, size);
+        System.arraycopy(columns.timestamps, 0, trimmed.timestamps, 0, size);
+        System.arraycopy(columns.latitudes, 0, trimmed.latitudes, 0, size);
+        System.arraycopy(columns.longitudes, 0, trimmed.longitudes, 0, size);
+        System.arraycopy(columns.accuracies, 0, trimmed.accuracies, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * Returns the index of the first value that is at least the given one.
+     */
+    private static int lowerBound(long[] values, long value) {
+        int i = Arrays.binarySearch(values, value);
+        if (i < 0) {
+            return -i - 1;
+        }
+        // step back over equal values, since binarySearch returns any of them
+        while (i > 0 && values[i - 1] == value) {
+            i--;
+        }
+        return i;
+    }
+}
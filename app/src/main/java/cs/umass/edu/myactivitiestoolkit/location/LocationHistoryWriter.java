@@ -0,0 +1,172 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a {@link LocationHistory} file. Fixes are encoded into a block buffer,
+ * and each full block is written to the file channel in one call; the block index
+ * and the final header are written when the writer is closed, so a file that was
+ * not closed is rejected by the {@link LocationHistoryReader}.
+ * <br><br>
+ * The writer is not thread-safe.
+ */
+public class LocationHistoryWriter implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /** The block being encoded */
+    private final ByteBuffer block = ByteBuffer.allocate(LocationHistory.BLOCK_SIZE * LocationHistory.MAX_FIX_SIZE);
+    private int blockCount;
+    private long blockFirstTimestamp;
+
+    /** The previous fix of the block, in encoded units */
+    private long previousTimestamp;
+    private int previousLatitude, previousLongitude;
+
+    /** The index entries of the blocks written so far */
+    private ByteBuffer index = ByteBuffer.allocate(64 * LocationHistory.INDEX_ENTRY_SIZE);
+    private int blocks;
+
+    private long fixCount;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Creates the file, replacing any existing file.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be created.
+     */
+    public LocationHistoryWriter(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        channel.position(LocationHistory.HEADER_SIZE);
+    }
+
+    /**
+     * Appends a fix.
+     * @param timestamp the time of the fix, which must not precede the previous fix.
+     * @param latitude the latitude.
+     * @param longitude the longitude.
+     * @param accuracy the accuracy in meters.
+     * @throws IOException if a block cannot be written.
+     */
+    public void append(long timestamp, double latitude, double longitude, float accuracy) throws IOException {
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("Fixes must be appended in timestamp order.");
+        }
+        if (blockCount == 0) {
+            blockFirstTimestamp = timestamp;
+            previousTimestamp = 0;
+            previousLatitude = 0;
+            previousLongitude = 0;
+        }
+        int lat = LocationHistory.toFixedPoint(latitude), lng = LocationHistory.toFixedPoint(longitude);
+        LocationHistory.putVarLong(block, timestamp - previousTimestamp);
+        LocationHistory.putZigZag(block, lat - previousLatitude);
+        LocationHistory.putZigZag(block, lng - previousLongitude);
+        block.put((byte) LocationHistory.quantizeAccuracy(accuracy));
+        previousTimestamp = timestamp;
+        previousLatitude = lat;
+        previousLongitude = lng;
+        lastTimestamp = timestamp;
+        fixCount++;
+        if (++blockCount == LocationHistory.BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Appends a fix.
+     * @param location the fix, which must not precede the previous fix.
+     * @throws IOException if a block cannot be written.
+     */
+    public void append(GPSLocation location) throws IOException {
+        append(location.timestamp, location.latitude, location.longitude, location.accuracy);
+    }
+
+    /**
+     * Appends locations loaded in columns.
+     * @param columns the locations, in chronological order.
+     * @throws IOException if a block cannot be written.
+     */
+    public void append(LocationColumns columns) throws IOException {
+        for (int i = 0; i < columns.size; i++) {
+            append(columns.timestamps[i], columns.latitudes[i], columns.longitudes[i], columns.accuracies[i]);
+        }
+    }
+
+    /**
+     * Returns the number of fixes appended.
+     * @return the number of fixes.
+     */
+    public long getCount() {
+        return fixCount;
+    }
+
+    /**
+     * Writes the last block, the block index and the header, and closes the file.
+     * @throws IOException if the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            if (blockCount > 0) {
+                writeBlock();
+            }
+            long indexOffset = channel.position();
+            index.flip();
+            writeFully(index);
+
+            ByteBuffer header = ByteBuffer.allocate(LocationHistory.HEADER_SIZE);
+            header.putInt(LocationHistory.MAGIC);
+            header.putInt(LocationHistory.VERSION);
+            header.putInt(blocks);
+            header.putInt(LocationHistory.BLOCK_SIZE);
+            header.putLong(fixCount);
+            header.putLong(indexOffset);
+            header.flip();
+            channel.position(0);
+            writeFully(header);
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        long offset = channel.position();
+        block.flip();
+        int length = block.remaining();
+        writeFully(block);
+        block.clear();
+
+        if (index.remaining() < LocationHistory.INDEX_ENTRY_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+            index.flip();
+            larger.put(index);
+            index = larger;
+        }
+        index.putLong(blockFirstTimestamp);
+        index.putLong(previousTimestamp);
+        index.putLong(offset);
+        index.putInt(blockCount);
+        index.putInt(length);
+        blocks++;
+        blockCount = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates locations into zoom-dependent buckets for display on a map, so that
+ * the number of markers depends on the size of the screen rather than on the
+ * number of locations. At each zoom level of the map, the world is divided into
+ * square cells of {@link #BUCKET_PIXELS} screen pixels in the Web Mercator
+ * projection used by Google Maps, and the locations in a cell form one bucket,
+ * drawn at their centroid.
+ * <br><br>
+ * The locations are sorted once by the Morton (Z-order) code of their cell at
+ * the finest level. The cell of a location at any coarser level is a prefix of
+ * that code, so the buckets of every level are runs of consecutive locations,
+ * and a level is built in one linear pass without sorting. The few levels used
+ * most recently are cached.
+ * <br><br>
+ * Building and querying may take a while for large histories, so they should
+ * run off the UI thread. Queries may come from several threads.
+ */
+public class LocationLevelOfDetail {
+
+    /** The highest zoom level of the map */
+    public static final int MAX_ZOOM = 21;
+
+    /** The size of a bucket on the screen, in pixels */
+    public static final int BUCKET_PIXELS = 64;
+
+    /** Bits per axis of the cell index at zoom level 0: 256 px tiles, 64 px buckets */
+    private static final int LEVEL_0_BITS = 2;
+
+    /** Bits per axis of the cell index at the finest level */
+    private static final int BITS = MAX_ZOOM + LEVEL_0_BITS;
+
+    /** The number of levels kept in the cache */
+    private static final int CACHED_LEVELS = 4;
+
+    /** The latitude limit of the Web Mercator projection */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /**
+     * A group of nearby locations, drawn as one marker.
+     */
+    public static class Bucket {
+        /** Identifies the bucket across levels, so markers can be matched with buckets */
+        public final long key;
+
+        /** The centroid of the locations */
+        public final double latitude, longitude;
+
+        /** The number of locations */
+        public final int count;
+
+        /** The timestamp of one of the locations, which is the only one if count is 1 */
+        public final long timestamp;
+
+        Bucket(long key, double latitude, double longitude, int count, long timestamp) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.count = count;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The buckets of one level: bucket b holds the locations in [start[b], start[b + 1]).
+     */
+    private static class Level {
+        int[] start;
+        long[] codes;
+        double[] latitudes, longitudes;
+    }
+
+    /** The locations in Morton order, and their codes at the finest level */
+    private final double[] latitudes, longitudes;
+    private final long[] timestamps;
+    private final long[] codes;
+
+    private final Map<Integer, Level> levels = new LinkedHashMap<Integer, Level>(CACHED_LEVELS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Level> eldest) {
+            return size() > CACHED_LEVELS;
+        }
+    };
+
+    /**
+     * Sorts the locations for aggregation.
+     * @param locations the locations to display.
+     */
+    public LocationLevelOfDetail(GPSLocation[] locations) {
+        int n = locations.length;
+        long[] unsorted = new long[n];
+        for (int i = 0; i < n; i++) {
+            unsorted[i] = interleave(cellX(locations[i].longitude, BITS), cellY(locations[i].latitude, BITS));
+        }
+        int[] order = sortByCode(unsorted);
+        latitudes = new double[n];
+        longitudes = new double[n];
+        timestamps = new long[n];
+        codes = new long[n];
+        for (int k = 0; k < n; k++) {
+            GPSLocation location = locations[order[k]];
+            latitudes[k] = location.latitude;
+            longitudes[k] = location.longitude;
+            timestamps[k] = location.timestamp;
+            codes[k] = unsorted[order[k]];
+        }
+    }
+
+    /**
+     * Returns the number of locations.
+     * @return the number of locations.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Returns the buckets visible in a viewport. If there are more than maxBuckets
+     * of them at the given zoom level, coarser levels are used until there are not;
+     * in the unlikely case that even level 0 has too many, the largest are returned.
+     * @param minLatitude the southern edge of the viewport.
+     * @param minLongitude the western edge of the viewport, which exceeds the eastern edge
+     *                     if the viewport crosses the antimeridian.
+     * @param maxLatitude the northern edge of the viewport.
+     * @param maxLongitude the eastern edge of the viewport.
+     * @param zoom the zoom level of the map.
+     * @param maxBuckets the maximum number of buckets.
+     * @return the visible buckets.
+     */
+    public List<Bucket> query(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                              float zoom, int maxBuckets) {
+        List<Bucket> visible = new ArrayList<>();
+        for (int z = Math.max(0, Math.min(MAX_ZOOM, (int) zoom)); z >= 0; z--) {
+            visible.clear();
+            int bits = LEVEL_0_BITS + z;
+            int minX = cellX(minLongitude, bits), maxX = cellX(maxLongitude, bits);
+            int minY = cellY(maxLatitude, bits), maxY = cellY(minLatitude, bits);
+            Level level = level(z);
+            for (int b = 0; b < level.codes.length; b++) {
+                int x = deinterleave(level.codes[b]), y = deinterleave(level.codes[b] >>> 1);
+                boolean insideX = minX <= maxX ? x >= minX && x <= maxX : x >= minX || x <= maxX;
+                if (insideX && y >= minY && y <= maxY) {
+                    int count = level.start[b + 1] - level.start[b];
+                    visible.add(new Bucket(((long) z << 56) | level.codes[b], level.latitudes[b], level.longitudes[b],
+                            count, timestamps[level.start[b]]));
+                }
+            }
+            if (visible.size() <= maxBuckets) {
+                return visible;
+            }
+        }
+        // keep the largest buckets of level 0
+        Collections.sort(visible, new Comparator<Bucket>() {
+            @Override
+            public int compare(Bucket a, Bucket b) {
+                return b.count - a.count;
+            }
+        });
+        return new ArrayList<>(visible.subList(0, maxBuckets));
+    }
+
+    /**
+     * Returns the buckets of a zoom level, building them if they are not cached.
+     */
+    private synchronized Level level(int z) {
+        Level level = levels.get(z);
+        if (level != null) {
+            return level;
+        }
+        int shift = 2 * (BITS - LEVEL_0_BITS - z);
+        int n = codes.length;
+        int buckets = 0;
+        for (int k = 0; k < n; k++) {
+            if (k == 0 || codes[k] >>> shift != codes[k - 1] >>> shift) {
+                buckets++;
+            }
+        }
+        level = new Level();
+        level.start = new int[buckets + 1];
+        level.codes = new long[buckets];
+        level.latitudes = new double[buckets];
+        level.longitudes = new double[buckets];
+        int b = -1;
+        for (int k = 0; k < n; k++) {
+            if (k == 0 || codes[k] >>> shift != codes[k - 1] >>> shift) {
+                b++;
+                level.start[b] = k;
+                level.codes[b] = codes[k] >>> shift;
+            }
+            level.latitudes[b] += latitudes[k];
+            level.longitudes[b] += longitudes[k];
+        }
+        level.start[buckets] = n;
+        for (b = 0; b < buckets; b++) {
+            int count = level.start[b + 1] - level.start[b];
+            level.latitudes[b] /= count;
+            level.longitudes[b] /= count;
+        }
+        levels.put(z, level);
+        return level;
+    }
+
+    /**
+     * Returns the column of the cell containing a longitude, with 2^bits columns.
+     */
+    private static int cellX(double longitude, int bits) {
+        return clamp((longitude + 180) / 360, bits);
+    }
+
+    /**
+     * Returns the row of the cell containing a latitude, with 2^bits rows, counting
+     * from the north as in Web Mercator.
+     */
+    private static int cellY(double latitude, int bits) {
+        double phi = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1 - Math.log(Math.tan(phi) + 1 / Math.cos(phi)) / Math.PI) / 2;
+        return clamp(y, bits);
+    }
+
+    private static int clamp(double fraction, int bits) {
+        int cells = 1 << bits;
+        return Math.max(0, Math.min(cells - 1, (int) Math.floor(fraction * cells)));
+    }
+
+    /**
+     * Interleaves the bits of x into the even bits and those of y into the odd bits.
+     */
+    private static long interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Gathers the even bits of a code, the inverse of {@link #spread(int)}.
+     */
+    private static int deinterleave(long code) {
+        long x = code & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    /**
+     * Returns the indices of the codes in increasing order of code, by a least
+     * significant digit radix sort over the 2 * {@link #BITS} bits of the codes.
+     */
+    private static int[] sortByCode(long[] codes) {
+        int n = codes.length;
+        int[] order = new int[n], next = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int[] counts = new int[1 << 16];
+        for (int shift = 0; shift < 2 * BITS; shift += 16) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (codes[i] >>> shift) & 0xFFFF]++;
+            }
+            int total = 0;
+            for (int d = 0; d < counts.length; d++) {
+                int c = counts[d];
+                counts[d] = total;
+                total += c;
+            }
+            for (int k = 0; k < n; k++) {
+                int i = order[k];
+                next[counts[(int) (codes[i] >>> shift) & 0xFFFF]++] = i;
+            }
+            int[] swap = order;
+            order = next;
+            next = swap;
+        }
+        return order;
+    }
+}
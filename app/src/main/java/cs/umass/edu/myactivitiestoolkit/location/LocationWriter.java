@@ -0,0 +1,134 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Saves GPS locations in the background. Locations are buffered in memory and
+ * written in batches by {@link LocationDAO#insertAll(List)}, in one transaction
+ * through a precompiled statement, on a dedicated thread that keeps the database
+ * open for the lifetime of the writer. A batch is written once
+ * {@link #MAX_BUFFERED_LOCATIONS} locations are buffered, or
+ * {@link #MAX_FLUSH_DELAY} milliseconds after the first of them arrived,
+ * whichever comes first, and when the writer is closed.
+ * <br><br>
+ * Locations are therefore not in the database, and listeners of
+ * {@link LocationDAO} do not see them, until their batch has been written; at
+ * one fix every few seconds that is at most half a minute later.
+ */
+public class LocationWriter {
+
+    private static final String TAG = LocationWriter.class.getName();
+
+    /** The number of buffered locations that triggers a write */
+    public static final int MAX_BUFFERED_LOCATIONS = 16;
+
+    /** The longest time, in milliseconds, that a location stays in the buffer */
+    public static final long MAX_FLUSH_DELAY = 30000;
+
+    private final HandlerThread thread;
+
+    private final Handler handler;
+
+    /** Only used on the writer thread */
+    private final LocationDAO dao;
+
+    /** Locations waiting to be written, guarded by itself */
+    private final List<GPSLocation> buffer = new ArrayList<>();
+
+    private boolean closed;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushBuffer();
+        }
+    };
+
+    /**
+     * Starts the writer thread, which opens the database.
+     * @param context the context of the database.
+     */
+    public LocationWriter(Context context) {
+        dao = new LocationDAO(context);
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                dao.openWrite();
+            }
+        });
+    }
+
+    /**
+     * Buffers a location to be saved. This returns immediately, so it may be
+     * called on the main thread.
+     * @param location the location, whose id is set once it has been written.
+     */
+    public void write(GPSLocation location) {
+        synchronized (buffer) {
+            if (closed) {
+                throw new IllegalStateException("The writer has been closed.");
+            }
+            buffer.add(location);
+            if (buffer.size() == 1) {
+                handler.postDelayed(flush, MAX_FLUSH_DELAY);
+            } else if (buffer.size() == MAX_BUFFERED_LOCATIONS) {
+                handler.removeCallbacks(flush);
+                handler.post(flush);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered locations, then closes the database and stops the
+     * writer thread. This returns immediately; the writes complete in the
+     * background.
+     */
+    public void close() {
+        synchronized (buffer) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            handler.removeCallbacks(flush);
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushBuffer();
+                dao.close();
+                thread.quit();
+            }
+        });
+    }
+
+    /**
+     * Writes the buffered locations. Runs on the writer thread.
+     */
+    private void flushBuffer() {
+        List<GPSLocation> batch;
+        synchronized (buffer) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(buffer);
+            buffer.clear();
+            handler.removeCallbacks(flush);
+        }
+        try {
+            dao.insertAll(batch);
+        }
+        catch (RuntimeException e) {
+            Log.e(TAG, "Failed to save " + batch.size() + " locations", e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+/**
+ * A period during which the user stayed in one place, as found by the
+ * {@link StayPointDetector}. The coordinates are the centroid of the fixes
+ * recorded during the stay, and the {@link #timestamp} is the arrival time.
+ * Being a {@link GPSLocation}, a stay point can be clustered into significant
+ * places like any location.
+ */
+public class StayPoint extends GPSLocation {
+
+    /** departure time */
+    public long departureTime;
+
+    /** number of fixes recorded during the stay */
+    public int count;
+
+    /**
+     * @param arrivalTime the timestamp of the first fix of the stay.
+     * @param departureTime the timestamp of the last fix of the stay.
+     * @param lat the latitude of the centroid.
+     * @param lng the longitude of the centroid.
+     * @param accuracy the mean accuracy of the fixes.
+     * @param count the number of fixes.
+     */
+    public StayPoint(long arrivalTime, long departureTime, double lat, double lng, float accuracy, int count) {
+        super(arrivalTime, lat, lng, accuracy);
+        this.departureTime = departureTime;
+        this.count = count;
+    }
+
+    /**
+     * Returns the time at which the stay began.
+     * @return the arrival time.
+     */
+    public long getArrivalTime() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the time at which the stay ended.
+     * @return the departure time.
+     */
+    public long getDepartureTime() {
+        return departureTime;
+    }
+
+    /**
+     * Returns the length of the stay.
+     * @return the duration in milliseconds.
+     */
+    public long getDuration() {
+        return departureTime - timestamp;
+    }
+
+    /**
+     * Returns the number of fixes recorded during the stay.
+     * @return the number of fixes.
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,172 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the places where the user stayed in a stream of GPS fixes, as they
+ * arrive. Clustering the resulting {@link StayPoint}s into significant places
+ * is far cheaper than clustering every fix, since a stay of hours becomes a
+ * single point, and fixes recorded while travelling are left out altogether.
+ * <br><br>
+ * The detector follows Li et al. (2008): the first fix of a candidate stay is
+ * its anchor, and the stay extends over the following fixes as long as they
+ * are within the distance threshold of the anchor. At the first fix beyond it,
+ * the candidate is reported as a stay if it lasted at least the time threshold,
+ * and that fix becomes the anchor of the next candidate. Otherwise, the fix
+ * after the anchor becomes the anchor, and the fixes after it are checked again.
+ * The fixes of a candidate are only kept until it lasts the time threshold;
+ * from then on it is certain to be a stay and only running sums of the fixes
+ * are kept, so an open stay takes constant memory however long it is.
+ */
+public class StayPointDetector {
+
+    /** The maximum distance, in meters, of the fixes of a stay from its first fix */
+    private final double distanceThreshold;
+
+    /** The minimum duration, in milliseconds, of a stay */
+    private final long timeThreshold;
+
+    /** The first and last fixes of the open candidate */
+    private GPSLocation anchor;
+    private long lastTimestamp;
+
+    /** Sums over the fixes of the candidate, of coordinates relative to the anchor */
+    private double sumLat, sumLng, sumAccuracy;
+    private int count;
+
+    /** The fixes of the candidate after the anchor, while it is too short to be a stay */
+    private final List<GPSLocation> followers = new ArrayList<>();
+
+    /** The fixes left to add, when a candidate is dropped and its fixes are checked again */
+    private final ArrayDeque<GPSLocation> pending = new ArrayDeque<>();
+
+    /**
+     * @param distanceThreshold the maximum distance, in meters, of the fixes of a stay from its first fix.
+     * @param timeThreshold the minimum duration, in milliseconds, of a stay.
+     */
+    public StayPointDetector(double distanceThreshold, long timeThreshold) {
+        this.distanceThreshold = distanceThreshold;
+        this.timeThreshold = timeThreshold;
+    }
+
+    /**
+     * Detects the stays in a chronological sequence of fixes.
+     * @param locations the fixes, in timestamp order.
+     * @param distanceThreshold the maximum distance, in meters, of the fixes of a stay from its first fix.
+     * @param timeThreshold the minimum duration, in milliseconds, of a stay.
+     * @return the stays, in chronological order.
+     */
+    public static List<StayPoint> detect(GPSLocation[] locations, double distanceThreshold, long timeThreshold) {
+        StayPointDetector detector = new StayPointDetector(distanceThreshold, timeThreshold);
+        List<StayPoint> stays = new ArrayList<>();
+        for (GPSLocation location : locations) {
+            StayPoint stay = detector.add(location);
+            if (stay != null) {
+                stays.add(stay);
+            }
+        }
+        StayPoint stay = detector.flush();
+        if (stay != null) {
+            stays.add(stay);
+        }
+        return stays;
+    }
+
+    /**
+     * Adds the next fix.
+     * @param location the fix, at or after the previous one in time.
+     * @return the stay that the fix ended, or null if it did not end one.
+     */
+    public StayPoint add(GPSLocation location) {
+        StayPoint stay = null;
+        pending.add(location);
+        while (!pending.isEmpty()) {
+            GPSLocation next = pending.poll();
+            if (anchor != null && next.distance(anchor) <= distanceThreshold) {
+                extend(next);
+            } else if (anchor == null || lastTimestamp - anchor.timestamp >= timeThreshold) {
+                StayPoint closed = close();
+                if (closed != null) {
+                    stay = closed;
+                }
+                start(next);
+            } else {
+                // too short: re-anchor at the fix after the anchor
+                pending.addFirst(next);
+                for (int i = followers.size() - 1; i >= 0; i--) {
+                    pending.addFirst(followers.get(i));
+                }
+                followers.clear();
+                anchor = null;
+            }
+        }
+        return stay;
+    }
+
+    /**
+     * Opens a candidate anchored at the given fix.
+     */
+    private void start(GPSLocation location) {
+        anchor = location;
+        lastTimestamp = location.timestamp;
+        sumLat = 0;
+        sumLng = 0;
+        sumAccuracy = location.accuracy;
+        count = 1;
+        followers.clear();
+    }
+
+    /**
+     * Adds a fix within the distance threshold of the anchor to the candidate.
+     */
+    private void extend(GPSLocation location) {
+        sumLat += location.latitude - anchor.latitude;
+        sumLng += wrapDegrees(location.longitude - anchor.longitude);
+        sumAccuracy += location.accuracy;
+        count++;
+        lastTimestamp = location.timestamp;
+        if (lastTimestamp - anchor.timestamp >= timeThreshold) {
+            followers.clear();
+        } else {
+            followers.add(location);
+        }
+    }
+
+    /**
+     * Ends the stream, as when recording stops.
+     * @return the open stay, if it already lasted long enough, or null.
+     */
+    public StayPoint flush() {
+        StayPoint stay = close();
+        anchor = null;
+        followers.clear();
+        return stay;
+    }
+
+    /**
+     * Returns the open candidate as a stay point, or null if there is none or it
+     * is too short.
+     */
+    private StayPoint close() {
+        if (anchor == null || lastTimestamp - anchor.timestamp < timeThreshold) {
+            return null;
+        }
+        return new StayPoint(anchor.timestamp, lastTimestamp,
+                anchor.latitude + sumLat / count,
+                wrapDegrees(anchor.longitude + sumLng / count),
+                (float) (sumAccuracy / count), count);
+    }
+
+    /**
+     * Wraps an angle in degrees into [-180, 180).
+     */
+    private static double wrapDegrees(double degrees) {
+        double wrapped = (degrees + 180) % 360;
+        if (wrapped < 0) {
+            wrapped += 360;
+        }
+        return wrapped - 180;
+    }
+}
@@ -0,0 +1,187 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import java.util.Arrays;
+
+/**
+ * Drops redundant GPS fixes from a stream as they arrive, so that only the fixes
+ * needed to reconstruct the trajectory within a tolerance are saved.
+ * <br><br>
+ * This is the opening window algorithm with the synchronized Euclidean distance
+ * (Meratnia and de By, 2004). The last kept fix anchors a window of pending
+ * fixes. A new fix is tentatively the end of a segment from the anchor, and each
+ * pending fix is compared with the position on that segment at the fix's own
+ * timestamp, assuming constant speed. While every pending fix is within the
+ * tolerance the window keeps opening; once one is not, the previous fix is kept
+ * and becomes the new anchor. Because positions are compared at equal times,
+ * the kept fixes reproduce not just the path but also when each part of it was
+ * travelled.
+ * <br><br>
+ * A segment never spans more than the maximum interval. A stay thus keeps one
+ * fix per interval rather than one per reading: each kept fix stands for the
+ * same duration, so the number of fixes at a place stays proportional to the
+ * time spent there, which is what density-based clustering counts.
+ * <br><br>
+ * Coordinates are projected to meters about each anchor, which is accurate to
+ * well under a meter over the extent of a window.
+ */
+public class TrajectoryCompressor {
+
+    /** The maximum number of pending fixes, in case timestamps stop advancing */
+    private static final int MAX_WINDOW = 256;
+
+    /** The maximum distance, in meters, of a dropped fix from the kept trajectory */
+    private final double tolerance;
+
+    /** The maximum time, in milliseconds, between kept fixes */
+    private final long maxInterval;
+
+    /** The last kept fix, and the projection about it */
+    private GPSLocation anchor;
+    private LocalProjection projection;
+
+    /** The pending fixes since the anchor, projected, with their timestamps relative to the anchor */
+    private GPSLocation[] window = new GPSLocation[16];
+    private double[] x = new double[16], y = new double[16];
+    private long[] t = new long[16];
+    private int windowSize;
+
+    /** The largest error of a pending fix with respect to the segment to the last pending fix */
+    private double windowError;
+
+    private long inputCount, outputCount;
+    private double maxError;
+
+    /**
+     * @param tolerance the maximum distance, in meters, of a dropped fix from the kept trajectory.
+     * @param maxInterval the maximum time, in milliseconds, between kept fixes.
+     */
+    public TrajectoryCompressor(double tolerance, long maxInterval) {
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("Tolerance must not be negative.");
+        }
+        this.tolerance = tolerance;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Adds the next fix of the trajectory.
+     * @param location the fix, at or after the previous one in time.
+     * @return the fix that should be saved as a result, which is an earlier fix
+     * or the first fix itself, or null if no fix is to be saved yet.
+     */
+    public GPSLocation add(GPSLocation location) {
+        inputCount++;
+        if (anchor == null) {
+            return keep(location);
+        }
+        double px = projection.east(location), py = projection.north(location);
+        long pt = location.timestamp - anchor.timestamp;
+        if (pt > maxInterval && windowSize > 0) {
+            // the pending segment is as long as it may get
+            return keepLastAndPend(location);
+        }
+        double error = 0;
+        for (int i = 0; i < windowSize && error <= tolerance; i++) {
+            error = Math.max(error, synchronizedDistance(i, px, py, pt));
+        }
+        if (error > tolerance || windowSize == MAX_WINDOW) {
+            return keepLastAndPend(location);
+        }
+        windowError = error;
+        pend(location, px, py, pt);
+        return null;
+    }
+
+    /**
+     * Ends the trajectory, as when recording stops.
+     * @return the last pending fix, which should be saved, or null if there is none.
+     */
+    public GPSLocation flush() {
+        if (windowSize == 0) {
+            return null;
+        }
+        GPSLocation last = window[windowSize - 1];
+        maxError = Math.max(maxError, windowError);
+        windowSize = 0;
+        windowError = 0;
+        return keep(last);
+    }
+
+    /**
+     * Returns the number of fixes added.
+     * @return the number of fixes added.
+     */
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Returns the number of fixes kept.
+     * @return the number of fixes kept.
+     */
+    public long getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Returns the number of fixes added per fix kept.
+     * @return the compression ratio, or 1 if no fix has been kept.
+     */
+    public double getCompressionRatio() {
+        return outputCount == 0 ? 1 : (double) inputCount / outputCount;
+    }
+
+    /**
+     * Returns the largest distance of a dropped fix from the kept trajectory at
+     * the same time, which is at most the tolerance.
+     * @return the maximum error in meters.
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Returns the distance of pending fix i from the point at its timestamp on the
+     * segment from the anchor to (px, py) at time pt.
+     */
+    private double synchronizedDistance(int i, double px, double py, long pt) {
+        double fraction = pt > 0 ? (double) t[i] / pt : 1;
+        return Math.hypot(x[i] - fraction * px, y[i] - fraction * py);
+    }
+
+    /**
+     * Keeps the last pending fix, which ends the current segment, and starts a
+     * new window from it with the given fix.
+     */
+    private GPSLocation keepLastAndPend(GPSLocation location) {
+        GPSLocation last = window[windowSize - 1];
+        maxError = Math.max(maxError, windowError);
+        windowSize = 0;
+        windowError = 0;
+        keep(last);
+        pend(location, projection.east(location), projection.north(location), location.timestamp - anchor.timestamp);
+        return last;
+    }
+
+    private GPSLocation keep(GPSLocation location) {
+        anchor = location;
+        projection = new LocalProjection(location.latitude, location.longitude);
+        outputCount++;
+        return location;
+    }
+
+    private void pend(GPSLocation location, double px, double py, long pt) {
+        if (windowSize == window.length) {
+            int capacity = windowSize * 2;
+            window = Arrays.copyOf(window, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            t = Arrays.copyOf(t, capacity);
+        }
+        window[windowSize] = location;
+        x[windowSize] = px;
+        y[windowSize] = py;
+        t[windowSize] = pt;
+        windowSize++;
+    }
+}
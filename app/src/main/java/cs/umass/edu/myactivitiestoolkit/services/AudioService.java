@@ -8,10 +8,16 @@ import org.imirsel.m2k.util.Window;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+
 import at.tuwien.ifs.feature.extraction.audio.spectrum.Spectrogram;
 import cs.umass.edu.myactivitiestoolkit.R;
 import cs.umass.edu.myactivitiestoolkit.audio.AudioBufferReading;
+import cs.umass.edu.myactivitiestoolkit.audio.FeatureArchiveWriter;
 import cs.umass.edu.myactivitiestoolkit.audio.MicrophoneRecorder;
+import cs.umass.edu.myactivitiestoolkit.audio.SoundLevelMeter;
+import cs.umass.edu.myactivitiestoolkit.audio.SoundLevelReading;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
 import cs.umass.edu.myactivitiestoolkit.view.fragments.AudioFragment;
 import edu.umass.cs.MHLClient.client.MessageReceiver;
@@ -52,6 +58,27 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
    */
   private MicrophoneRecorder mMicrophoneRecorder;
 
+  /**
+   * Computes the A-weighted ambient sound level from the microphone buffers.
+   */
+  private SoundLevelMeter mSoundLevelMeter;
+
+  /**
+   * The number of sound levels in each archive segment, about 18 hours at one level per second.
+   */
+  private static final int SOUND_LEVEL_SEGMENT_CAPACITY = FeatureArchiveWriter.DEFAULT_SEGMENT_CAPACITY;
+
+  /**
+   * The number of archive segments kept, about 10 days or 18 MB of sound levels.
+   */
+  private static final int SOUND_LEVEL_SEGMENTS_KEPT = 14;
+
+  /**
+   * Persists the sound levels for offline model training. The archive files are only
+   * created on the first append, on the recording thread.
+   */
+  private FeatureArchiveWriter mSoundLevelArchive;
+
   @Override
   protected void onServiceStarted() {
     broadcastMessage(Constants.MESSAGE.AUDIO_SERVICE_STARTED);
@@ -64,6 +91,10 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
 
   protected void registerSensors() {
     mMicrophoneRecorder = MicrophoneRecorder.getInstance(this);
+    mSoundLevelMeter = new SoundLevelMeter(MicrophoneRecorder.frequency);
+    File directory = new File(new File(getFilesDir(), "features"), "sound-level");
+    mSoundLevelArchive = new FeatureArchiveWriter(directory, MicrophoneRecorder.frequency, 3,
+      SOUND_LEVEL_SEGMENT_CAPACITY, SOUND_LEVEL_SEGMENTS_KEPT);
 
     Log.d(TAG, "Starting microphone.");
     mMicrophoneRecorder.registerListener(this);
@@ -76,6 +107,14 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
       mMicrophoneRecorder.unregisterListener(this);
       mMicrophoneRecorder.stopRecording();
     }
+    if (mSoundLevelArchive != null) {
+      try {
+        mSoundLevelArchive.close();
+      }
+      catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
   }
 
   @Override
@@ -128,6 +167,21 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
     manager.sendBroadcast(intent);
   }
 
+  /**
+   * Broadcasts the A-weighted ambient sound level.
+   *
+   * @param timestamp the time at which the level was computed
+   * @param levels    the equivalent sound level in dB over 1 second, 1 minute and 15 minutes
+   */
+  public void broadcastSoundLevel(final long timestamp, double[] levels) {
+    Intent intent = new Intent();
+    intent.putExtra(Constants.KEY.TIMESTAMP, timestamp);
+    intent.putExtra(Constants.KEY.SOUND_LEVEL, levels);
+    intent.setAction(Constants.ACTION.BROADCAST_SOUND_LEVEL);
+    LocalBroadcastManager manager = LocalBroadcastManager.getInstance(this);
+    manager.sendBroadcast(intent);
+  }
+
   // Broadcast the speaker of the audio data
   public void broadcastSpeaker(final long timestamp, String speaker) {
     Intent intent = new Intent();
@@ -167,6 +221,26 @@ public class AudioService extends SensorService implements MicrophoneRecorder.Mi
       buffer
     ));
 
+    //update the ambient sound level and publish it once per second
+    if (mSoundLevelMeter.process(buffer, window_size) > 0) {
+      long timestamp = System.currentTimeMillis();
+      double leq1s = mSoundLevelMeter.getLeq(SoundLevelMeter.Window.ONE_SECOND);
+      double leq1min = mSoundLevelMeter.getLeq(SoundLevelMeter.Window.ONE_MINUTE);
+      double leq15min = mSoundLevelMeter.getLeq(SoundLevelMeter.Window.FIFTEEN_MINUTES);
+      mClient.sendSensorReading(new SoundLevelReading(mUserID, "MOBILE", "", timestamp, leq1s, leq1min, leq15min));
+      double[] levels = new double[]{leq1s, leq1min, leq15min};
+      broadcastSoundLevel(timestamp, levels);
+      if (mSoundLevelArchive != null) {
+        try {
+          mSoundLevelArchive.append(timestamp, levels);
+        }
+        catch (IOException | IllegalArgumentException e) {
+          // the system clock may have been set back, in which case the frame is dropped
+          e.printStackTrace();
+        }
+      }
+    }
+
     //convert short[] to double[] for computing spectrogram
     double[] dBuffer = new double[buffer.length];
     for (int j = 0; j < buffer.length; j++) {
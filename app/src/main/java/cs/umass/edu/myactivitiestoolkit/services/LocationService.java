@@ -3,24 +3,36 @@ package cs.umass.edu.myactivitiestoolkit.services;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.ActivityCompat;
 import android.util.Log;
 
 import cs.umass.edu.myactivitiestoolkit.R;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
+import cs.umass.edu.myactivitiestoolkit.location.GPSDutyCyclePolicy;
 import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
-import cs.umass.edu.myactivitiestoolkit.location.LocationDAO;
+import cs.umass.edu.myactivitiestoolkit.location.LocationWriter;
+import cs.umass.edu.myactivitiestoolkit.location.TrajectoryCompressor;
 import edu.umass.cs.MHLClient.sensors.GPSReading;
 
 /**
  * The location service collects GPS data, stores the readings in a local database
- * and sends them to the server.
+ * and sends them to the server. To save battery, the interval between readings
+ * grows as the user slows down, and while the accelerometer shows that the phone
+ * is stationary, GPS is only woken once per {@link #MAX_STORAGE_INTERVAL}; see
+ * {@link GPSDutyCyclePolicy}. GPS is not suspended altogether, since the stored
+ * trajectory represents time spent in one place by one reading per interval, and
+ * clustering relies on that to find the places where the user stays.
  */
-public class LocationService extends SensorService implements LocationListener {
+public class LocationService extends SensorService implements LocationListener, SensorEventListener {
 
   /**
    * Used during debugging to identify logs by class
@@ -28,20 +40,70 @@ public class LocationService extends SensorService implements LocationListener {
   private static final String TAG = LocationService.class.getName();
 
   /**
-   * The minimum duration in milliseconds between sensor readings.
+   * The minimum duration in milliseconds between sensor readings, used when moving fast
+   * or when the speed is not known yet.
    */
   private static final int MIN_TIME = 5000;
 
+  /**
+   * The maximum duration in milliseconds between sensor readings while moving.
+   */
+  private static final int MAX_TIME = 60000;
+
+  /**
+   * The distance in meters the user should have moved between sensor readings.
+   */
+  private static final double DISTANCE_PER_READING = 25;
+
   /**
    * Defines the minimum distance in meters between sequential sensor readings.
    */
   private static final float MIN_DISTANCE = 0f;
 
+  /**
+   * The maximum distance in meters of a dropped reading from the stored trajectory.
+   */
+  private static final double COMPRESSION_TOLERANCE = 15;
+
+  /**
+   * The maximum duration in milliseconds between stored readings, so that time
+   * spent in one place is still represented by one reading per interval. This is
+   * also the interval between readings while the phone is stationary.
+   */
+  private static final long MAX_STORAGE_INTERVAL = 60000;
+
   /**
    * Manages the GPS sensor.
    */
   private LocationManager locationManager;
 
+  /**
+   * Saves the readings in batches on a background thread.
+   */
+  private LocationWriter locationWriter;
+
+  /**
+   * Drops the readings that are not needed to reconstruct the trajectory.
+   */
+  private TrajectoryCompressor trajectoryCompressor;
+
+  /**
+   * Manages the accelerometer, which tells whether the phone is moving.
+   */
+  private SensorManager sensorManager;
+
+  /**
+   * Decides when GPS readings are requested.
+   */
+  private GPSDutyCyclePolicy dutyCyclePolicy;
+
+  /**
+   * The number of readings received and the time the service started, to compare
+   * against requesting readings every {@link #MIN_TIME}.
+   */
+  private int readingCount;
+  private long startTime;
+
   @Override
   protected void onServiceStarted() {
     broadcastMessage(Constants.MESSAGE.LOCATION_SERVICE_STARTED);
@@ -61,9 +123,37 @@ public class LocationService extends SensorService implements LocationListener {
       return;
     }
     Log.d(TAG, "Starting location manager");
+    locationWriter = new LocationWriter(getApplicationContext());
+    trajectoryCompressor = new TrajectoryCompressor(COMPRESSION_TOLERANCE, MAX_STORAGE_INTERVAL);
+    dutyCyclePolicy = new GPSDutyCyclePolicy(MIN_TIME, MAX_TIME, DISTANCE_PER_READING, MAX_STORAGE_INTERVAL);
+    readingCount = 0;
+    startTime = SystemClock.elapsedRealtime();
+    requestLocationUpdates();
+
+    sensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
+    Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+    if (accelerometer != null) {
+      sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+    }
+  }
+
+  /**
+   * Requests GPS readings as the {@link #dutyCyclePolicy} currently asks, replacing
+   * the previous request.
+   */
+  private void requestLocationUpdates() {
+    if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED && ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+      return;
+    }
+    locationManager.removeUpdates(this);
+    if (dutyCyclePolicy.isSuspended()) {
+      Log.d(TAG, "Suspending location updates while stationary");
+      return;
+    }
+    Log.d(TAG, "Requesting location updates every " + dutyCyclePolicy.getInterval() + " ms");
     locationManager.requestLocationUpdates(
       LocationManager.GPS_PROVIDER,
-      MIN_TIME,
+      dutyCyclePolicy.getInterval(),
       MIN_DISTANCE,
       this,
       getMainLooper()
@@ -77,6 +167,24 @@ public class LocationService extends SensorService implements LocationListener {
       return;
     }
     locationManager.removeUpdates(this);
+    if (sensorManager != null) {
+      sensorManager.unregisterListener(this);
+      sensorManager = null;
+    }
+    // save the end of the trajectory and the readings still buffered
+    if (locationWriter != null) {
+      GPSLocation last = trajectoryCompressor.flush();
+      if (last != null) {
+        locationWriter.write(last);
+      }
+      Log.d(TAG, String.format("Stored %d of %d readings (compression ratio %.1f, max error %.1f m)",
+        trajectoryCompressor.getOutputCount(), trajectoryCompressor.getInputCount(),
+        trajectoryCompressor.getCompressionRatio(), trajectoryCompressor.getMaxError()));
+      Log.d(TAG, String.format("Received %d readings, %d at a fixed rate",
+        readingCount, (SystemClock.elapsedRealtime() - startTime) / MIN_TIME));
+      locationWriter.close();
+      locationWriter = null;
+    }
   }
 
   @Override
@@ -97,16 +205,22 @@ public class LocationService extends SensorService implements LocationListener {
   @Override
   public void onLocationChanged(Location location) {
     Log.d(TAG, location.toString());
-    LocationDAO dao = new LocationDAO(getApplicationContext());
-    dao.openWrite();
-    dao.insert(new GPSLocation(
-      location.getTime(),
-      location.getLatitude(),
-      location.getLongitude(),
-      location.getAccuracy()
-    ));
-
-    dao.close();
+    if (locationWriter != null) {
+      GPSLocation reading = new GPSLocation(
+        location.getTime(),
+        location.getLatitude(),
+        location.getLongitude(),
+        location.getAccuracy()
+      );
+      readingCount++;
+      if (dutyCyclePolicy.onLocation(reading)) {
+        requestLocationUpdates();
+      }
+      GPSLocation stored = trajectoryCompressor.add(reading);
+      if (stored != null) {
+        locationWriter.write(stored);
+      }
+    }
 
     mClient.sendSensorReading(new GPSReading(
       mUserID,
@@ -118,6 +232,21 @@ public class LocationService extends SensorService implements LocationListener {
     ));
   }
 
+  @Override
+  public void onSensorChanged(SensorEvent event) {
+    if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER && dutyCyclePolicy != null) {
+      long timestamp = event.timestamp / Constants.TIMESTAMPS.NANOSECONDS_PER_MILLISECOND;
+      if (dutyCyclePolicy.onAcceleration(timestamp, event.values[0], event.values[1], event.values[2])) {
+        requestLocationUpdates();
+      }
+    }
+  }
+
+  @Override
+  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+  }
+
   @Override
   public void onStatusChanged(String s, int i, Bundle bundle) {
 
@@ -16,7 +16,11 @@ import cs.umass.edu.myactivitiestoolkit.storage.GeneralDAO;
  */
 public class MyDBHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
+    /**
+     * Version 2 adds the timestamp and geohash indices and the geohash column of
+     * the locations table.
+     */
+    private static final int DATABASE_VERSION = 2;
 	private static final String DATABASE_NAME = "eventreports";
 	private static final String TAG = "MyDBHelper";
 
@@ -32,6 +36,8 @@ public class MyDBHelper extends SQLiteOpenHelper {
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(LocationDAO.TABLE_CREATE);
+		db.execSQL(LocationDAO.TIMESTAMP_INDEX_CREATE);
+		db.execSQL(LocationDAO.GEOHASH_INDEX_CREATE);
 		Log.d(TAG,"table " + LocationDAO.TABLE_NAME + " was created");
 
 				
@@ -39,6 +45,13 @@ public class MyDBHelper extends SQLiteOpenHelper {
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (oldVersion < 2) {
+			db.execSQL(LocationDAO.GEOHASH_COLUMN_ADD);
+			LocationDAO.fillGeohashes(db);
+			db.execSQL(LocationDAO.TIMESTAMP_INDEX_CREATE);
+			db.execSQL(LocationDAO.GEOHASH_INDEX_CREATE);
+			Log.d(TAG,"table " + LocationDAO.TABLE_NAME + " was upgraded to version 2");
+		}
 		
 		//Utils.d(this, "===========DROPPING DBs====== old: "+oldVersion+"====new: "+newVersion+"=========");
 
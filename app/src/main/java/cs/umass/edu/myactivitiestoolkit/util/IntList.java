@@ -0,0 +1,116 @@
+package cs.umass.edu.myactivitiestoolkit.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints. Used in place of {@code List<Integer>} where
+ * point indices are collected in tight loops, e.g. neighborhood queries during
+ * clustering, so that no boxing takes place.
+ */
+public class IntList {
+
+    /** The backing array; only the first {@link #size} entries are valid. */
+    private int[] values;
+
+    /** The number of valid entries. */
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the initial capacity.
+     */
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends a value to the end of the list.
+     * @param value the value to add.
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the value at the given position.
+     * @param index the position, in [0, size).
+     * @return the value.
+     */
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * Replaces the value at the given position.
+     * @param index the position, in [0, size).
+     * @param value the new value.
+     */
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Returns the number of values in the list.
+     * @return the size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Indicates whether the list is empty.
+     * @return true if the list holds no values.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values, keeping the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Removes the values from the given position to the end of the list.
+     * @param size the new size, in [0, size].
+     */
+    public void truncate(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException("Size " + size + " out of bounds for size " + this.size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Removes and returns the last value.
+     * @return the last value.
+     */
+    public int removeLast() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("The list is empty.");
+        }
+        return values[--size];
+    }
+
+    /**
+     * Returns a copy of the values as an array.
+     * @return an array of length {@link #size()}.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -11,9 +11,10 @@ import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v4.content.LocalBroadcastManager;
-import android.support.v4.util.ArrayMap;
 import android.view.LayoutInflater;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -23,6 +24,7 @@ import android.view.WindowManager;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
 import android.widget.PopupMenu;
+import android.widget.ProgressBar;
 import android.widget.RadioGroup;
 import android.widget.Toast;
 
@@ -38,34 +40,51 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.PolygonOptions;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
 
 import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Calendar;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import cs.umass.edu.myactivitiestoolkit.R;
+import cs.umass.edu.myactivitiestoolkit.clustering.ApproximateDBScan;
 import cs.umass.edu.myactivitiestoolkit.clustering.Cluster;
 import cs.umass.edu.myactivitiestoolkit.clustering.Clusterable;
-import cs.umass.edu.myactivitiestoolkit.clustering.ClusteringRequest;
+import cs.umass.edu.myactivitiestoolkit.clustering.ClusteringCache;
+import cs.umass.edu.myactivitiestoolkit.clustering.ClusteringJobExecutor;
 import cs.umass.edu.myactivitiestoolkit.clustering.DBScan;
+import cs.umass.edu.myactivitiestoolkit.clustering.IncrementalDBScan;
+import cs.umass.edu.myactivitiestoolkit.clustering.KMeans;
+import cs.umass.edu.myactivitiestoolkit.clustering.LocationCandidateSearch;
+import cs.umass.edu.myactivitiestoolkit.clustering.MeanShift;
+import cs.umass.edu.myactivitiestoolkit.clustering.OPTICS;
 import cs.umass.edu.myactivitiestoolkit.constants.Constants;
-import cs.umass.edu.myactivitiestoolkit.location.FastConvexHull;
+import cs.umass.edu.myactivitiestoolkit.location.ConvexHull;
 import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
 import cs.umass.edu.myactivitiestoolkit.location.LocationDAO;
+import cs.umass.edu.myactivitiestoolkit.location.LocationDensityPyramid;
+import cs.umass.edu.myactivitiestoolkit.location.LocationDensityTileProvider;
+import cs.umass.edu.myactivitiestoolkit.location.LocationLevelOfDetail;
 import cs.umass.edu.myactivitiestoolkit.services.AccelerometerService;
 import cs.umass.edu.myactivitiestoolkit.services.LocationService;
 import cs.umass.edu.myactivitiestoolkit.services.ServiceManager;
 import cs.umass.edu.myactivitiestoolkit.util.PermissionsUtil;
-import edu.umass.cs.MHLClient.client.MessageReceiver;
-import edu.umass.cs.MHLClient.client.MobileIOClient;
 
 /**
  * Fragment which visualizes the stored locations along with their clusters and allows
@@ -78,14 +97,17 @@ import edu.umass.cs.MHLClient.client.MobileIOClient;
  * You will be implementing several clustering algorithms:
  * <ol>
  * <li> You will implement DBScan for generic-typed {@link Clusterable} points. See {@link DBScan}.</li>
- * <li> You will cluster locations using k-means in scikit-learn </li>
- * <li> You will cluster locations using mean-shift in scikit-learn </li>
+ * <li> You will cluster locations using k-means on the device. See {@link KMeans}.</li>
+ * <li> You will cluster locations using mean-shift on the device. See {@link MeanShift}.</li>
  * </ol>
  * <p>
  * <br><br>
- * In this file, you will be implementing {@link #runDBScan(GPSLocation[], float, int)},
- * {@link #runKMeans(GPSLocation[], int)}, {@link #runMeanShift(GPSLocation[])} and
- * {@link #drawClusters(Collection)}.
+ * In this file, you will be implementing {@link #runDBScan}, {@link #runKMeans},
+ * {@link #runMeanShift} and {@link #drawClusters(ClusteringResult)}.
+ * <br><br>
+ * Loading the locations, clustering them and computing the hulls run as one job on
+ * a {@link ClusteringJobExecutor}, so the UI stays responsive; only the finished
+ * polygons and markers are drawn on the UI thread.
  *
  * @author CS390MB
  * @see GoogleMap
@@ -95,7 +117,6 @@ import edu.umass.cs.MHLClient.client.MobileIOClient;
  * @see DBScan
  * @see Clusterable
  * @see Cluster
- * @see ClusteringRequest
  */
 public class LocationsFragment extends Fragment {
 
@@ -118,20 +139,363 @@ public class LocationsFragment extends Fragment {
   private GoogleMap map;
 
   /**
-   * The list of visual map markers representing saved locations.
+   * The visual map markers representing saved locations, by the key of the
+   * {@link LocationLevelOfDetail.Bucket} of locations each stands for. Only the
+   * buckets in the visible part of the map have markers.
+   */
+  private final Map<Long, Marker> locationMarkers;
+
+  /**
+   * The maximum number of location markers on the map at any time.
+   */
+  private static final int MAX_LOCATION_MARKERS = 300;
+
+  /**
+   * The maximum number of vertices of a cluster's hull polygon.
+   */
+  private static final int MAX_HULL_VERTICES = 64;
+
+  /**
+   * Groups the saved locations into buckets by zoom level, so that the number of
+   * markers depends on the size of the screen rather than on the number of locations.
+   */
+  private LocationLevelOfDetail levelOfDetail;
+
+  /**
+   * The bounds of the saved locations, to which the map zooms after an update.
+   */
+  private LatLngBounds locationBounds;
+
+  /**
+   * Builds and queries {@link #levelOfDetail} off the UI thread.
+   */
+  private final ExecutorService markerExecutor = Executors.newSingleThreadExecutor();
+
+  /**
+   * Posts the results of {@link #markerExecutor} back to the UI thread.
+   */
+  private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+  /**
+   * Incremented whenever the saved locations are reloaded, so that markers computed
+   * for the previous locations are dropped.
+   */
+  private int markerGeneration;
+
+  /**
+   * The number of threads clustering jobs run on. A superseded job may still run
+   * until its next progress report, so there is a spare thread for its successor.
+   */
+  private static final int CLUSTERING_THREADS = 2;
+
+  /**
+   * Loads, clusters and computes the hulls of the saved locations off the UI thread,
+   * cancelling the previous job whenever the user asks for a new clustering.
+   */
+  private final ClusteringJobExecutor clusteringExecutor = new ClusteringJobExecutor(CLUSTERING_THREADS,
+    new Executor() {
+      @Override
+      public void execute(@NonNull Runnable command) {
+        uiHandler.post(command);
+      }
+    });
+
+  /**
+   * Shows the progress of the running clustering job.
+   */
+  private ProgressBar progressClustering;
+
+  /**
+   * The number of clustering results kept in the {@link #clusteringCache}.
+   */
+  private static final int CLUSTERING_CACHE_SIZE = 8;
+
+  /**
+   * Recent clustering results by algorithm, parameters and {@link LocationDAO#getVersion()},
+   * so that repeating a clustering of unchanged locations draws it at once. It outlives
+   * the fragment, like {@link #incrementalDBScan}.
+   */
+  private static final ClusteringCache<ClusteringResult> clusteringCache =
+    new ClusteringCache<>(CLUSTERING_CACHE_SIZE);
+
+  /**
+   * The saved locations as last loaded, shared by the cached results of the same version.
    */
-  private final List<Marker> locationMarkers;
+  private static GPSLocation[] savedLocations;
+
+  /**
+   * The {@link LocationDAO#getVersion() version} of {@link #savedLocations}.
+   */
+  private static long savedLocationsVersion = -1;
+
+  /**
+   * The outcome of a clustering job, ready to be drawn: the members, the hull and
+   * the centers of each cluster, in the same order.
+   */
+  private static class ClusteringResult {
+    GPSLocation[] locations;
+    List<GPSLocation[]> members;
+    List<ConvexHull.Polygon> hulls;
+    List<double[]> averageCenters;
+    List<double[]> geographicCenters;
+  }
 
   /**
    * The list of visual map markers representing cluster centers.
    */
   private final List<Marker> clusterMarkers;
 
+  /**
+   * DBScan clusters of the saved locations, kept up to date as the {@link LocationService}
+   * saves new locations. It outlives the fragment, so that reopening the map does not
+   * recluster every saved location.
+   */
+  private static IncrementalDBScan incrementalDBScan;
+
+  /**
+   * The {@link LocationDAO#getVersion() version} of the locations {@link #incrementalDBScan}
+   * was seeded from. Later changes are applied to it, but only while the version is
+   * unchanged does it hold the same locations as a job loading that version.
+   */
+  private static long incrementalDBScanVersion = -1;
+
+  /**
+   * Forwards changes to the saved locations to {@link #incrementalDBScan}.
+   */
+  private static LocationDAO.OnLocationsChangedListener incrementalDBScanUpdater;
+
+  /**
+   * Above this many locations, DBScan is run in its rho-approximate mode, see {@link ApproximateDBScan}.
+   */
+  private static final int APPROXIMATE_DBSCAN_THRESHOLD = 500000;
+
+  /**
+   * The relative error in eps allowed between core points in approximate DBScan.
+   */
+  private static final double APPROXIMATE_DBSCAN_RHO = 0.1;
+
+  /**
+   * Above this many locations, k-means is run in mini-batch mode.
+   */
+  private static final int MINI_BATCH_THRESHOLD = 20000;
+
+  /**
+   * The number of locations sampled per mini-batch k-means iteration.
+   */
+  private static final int MINI_BATCH_SIZE = 1024;
+
+  /**
+   * Lower bound on the mean-shift bandwidth, in meters, for when all locations coincide.
+   */
+  private static final double MIN_MEAN_SHIFT_BANDWIDTH = 10;
+
+  /**
+   * The smallest generating distance used for {@link #opticsOrdering}, in meters.
+   * Clusterings for any eps up to this value are extracted without reordering.
+   */
+  private static final double OPTICS_GENERATING_DISTANCE = 100;
+
+  /**
+   * Cluster ordering of the saved locations, computed when the DBScan radius is changed,
+   * so that further changes to the radius are answered by a linear scan over it.
+   */
+  private static OPTICS.Ordering<GPSLocation> opticsOrdering;
+
+  /**
+   * The {@link LocationDAO#getVersion() version} of the locations {@link #opticsOrdering} was computed from.
+   */
+  private static long opticsOrderingVersion = -1;
+
   /**
    * Indicates whether map markers, excluding cluster centers, should be displayed.
    **/
   private boolean hideMarkers = false;
 
+  /**
+   * Indicates whether the heat map of the saved locations should be displayed.
+   **/
+  private boolean showHeatMap = false;
+
+  /**
+   * Heat-map tiles of the saved locations, kept up to date as the {@link LocationService}
+   * saves new locations. Like {@link #incrementalDBScan}, it outlives the fragment, so
+   * that reopening the map does not rebuild the density of every saved location.
+   */
+  private static LocationDensityTileProvider densityTiles;
+
+  /**
+   * Forwards changes to the saved locations to {@link #densityTiles}.
+   */
+  private static LocationDAO.OnLocationsChangedListener densityTilesUpdater;
+
+  /**
+   * Guards the building of {@link #densityTiles}, which is kept apart from the class
+   * lock so that clustering is not blocked while the density is built.
+   */
+  private static final Object densityTilesLock = new Object();
+
+  /**
+   * Forwards changes to the saved locations to the heat-map tiles. It is registered
+   * before the saved locations are read to build the tiles, so that no change is
+   * missed; the changes notified until the tiles are built are held back, then
+   * applied unless the locations read already reflect them.
+   */
+  private static class DensityTilesUpdater implements LocationDAO.OnLocationsChangedListener {
+
+    /**
+     * An insertion or deletion of a location, or the clearing of all locations if
+     * the location is null.
+     */
+    private static class Change {
+      final GPSLocation location;
+      final boolean inserted;
+
+      Change(GPSLocation location, boolean inserted) {
+        this.location = location;
+        this.inserted = inserted;
+      }
+    }
+
+    private final LocationDensityTileProvider tiles;
+
+    /**
+     * The changes held back while the tiles are built, or null once they are built.
+     */
+    private List<Change> pending = new ArrayList<>();
+
+    DensityTilesUpdater(LocationDensityTileProvider tiles) {
+      this.tiles = tiles;
+    }
+
+    @Override
+    public synchronized void onLocationInserted(GPSLocation location) {
+      if (pending != null) {
+        pending.add(new Change(location, true));
+      }
+      else {
+        tiles.add(location);
+      }
+    }
+
+    @Override
+    public synchronized void onLocationDeleted(GPSLocation location) {
+      if (pending != null) {
+        pending.add(new Change(location, false));
+      }
+      else {
+        tiles.remove(location);
+      }
+    }
+
+    @Override
+    public synchronized void onLocationsCleared() {
+      if (pending != null) {
+        pending.add(new Change(null, false));
+      }
+      else {
+        tiles.clear();
+      }
+    }
+
+    /**
+     * Applies the changes held back, once the tiles have been built from the given
+     * locations. Whether a location is in the tiles is followed through the changes,
+     * starting from whether it was read, so that each change is applied only if it
+     * changes the tiles.
+     *
+     * @param read the saved locations the tiles were built from.
+     */
+    synchronized void onTilesBuilt(GPSLocation[] read) {
+      Map<Integer, Boolean> present = new HashMap<>();
+      for (Change change : pending) {
+        if (change.location != null) {
+          present.put(change.location.id, false);
+        }
+      }
+      for (GPSLocation location : read) {
+        if (present.containsKey(location.id)) {
+          present.put(location.id, true);
+        }
+      }
+      for (Change change : pending) {
+        if (change.location == null) {
+          tiles.clear();
+          for (Map.Entry<Integer, Boolean> entry : present.entrySet()) {
+            entry.setValue(false);
+          }
+        }
+        else if (present.get(change.location.id) != change.inserted) {
+          if (change.inserted) {
+            tiles.add(change.location);
+          }
+          else {
+            tiles.remove(change.location);
+          }
+          present.put(change.location.id, change.inserted);
+        }
+      }
+      pending = null;
+    }
+  }
+
+  /**
+   * The overlay drawing {@link #densityTiles}, or null if the heat map is hidden.
+   */
+  private TileOverlay densityOverlay;
+
+  /**
+   * The delay, in milliseconds, after which the heat map shows newly saved locations,
+   * so that a burst of saved locations redraws the changed tiles once.
+   */
+  private static final long DENSITY_REFRESH_DELAY = 2000;
+
+  /**
+   * Whether a refresh of the {@link #densityOverlay} has been posted and not yet run.
+   */
+  private final AtomicBoolean densityRefreshPending = new AtomicBoolean();
+
+  /**
+   * Redraws the tiles of the {@link #densityOverlay} that changed since they were drawn;
+   * the others are served from the cache of {@link #densityTiles}.
+   */
+  private final Runnable densityRefresh = new Runnable() {
+    @Override
+    public void run() {
+      densityRefreshPending.set(false);
+      if (densityOverlay != null) {
+        densityOverlay.clearTileCache();
+      }
+    }
+  };
+
+  /**
+   * Schedules a {@link #densityRefresh} when the saved locations change, while the
+   * fragment is started. It is called on the thread that changed the locations.
+   */
+  private final LocationDAO.OnLocationsChangedListener densityOverlayRefresher =
+    new LocationDAO.OnLocationsChangedListener() {
+      @Override
+      public void onLocationInserted(GPSLocation location) {
+        scheduleDensityRefresh();
+      }
+
+      @Override
+      public void onLocationDeleted(GPSLocation location) {
+        scheduleDensityRefresh();
+      }
+
+      @Override
+      public void onLocationsCleared() {
+        scheduleDensityRefresh();
+      }
+
+      private void scheduleDensityRefresh() {
+        if (densityRefreshPending.compareAndSet(false, true)) {
+          uiHandler.postDelayed(densityRefresh, DENSITY_REFRESH_DELAY);
+        }
+      }
+    };
+
   /**
    * The location services icon which functions as a button to toggle the {@link LocationService}.
    **/
@@ -157,16 +521,6 @@ public class LocationsFragment extends Fragment {
    **/
   private ServiceManager serviceManager;
 
-  /**
-   * Responsible for communicating with the data collection server.
-   */
-  protected MobileIOClient client;
-
-  /**
-   * The user ID required to authenticate the server connection.
-   */
-  protected String userID;
-
   /**
    * We listen for text input, so that we can decide how the UI is modified when the keyboard appears.
    */
@@ -181,7 +535,7 @@ public class LocationsFragment extends Fragment {
   };
 
   public LocationsFragment() {
-    locationMarkers = new ArrayList<>();
+    locationMarkers = new HashMap<>();
     clusterMarkers = new ArrayList<>();
   }
 
@@ -189,8 +543,6 @@ public class LocationsFragment extends Fragment {
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     serviceManager = ServiceManager.getInstance(getActivity());
-    userID = getString(R.string.mobile_health_client_user_id);
-    client = MobileIOClient.getInstance(getActivity(), userID);
   }
 
   @Override
@@ -231,6 +583,8 @@ public class LocationsFragment extends Fragment {
     txtMinPts = (EditText)rootView.findViewById(R.id.txtMinPts);
     txtMinPts.setOnFocusChangeListener(textLostFocusListener);
 
+    progressClustering = (ProgressBar)rootView.findViewById(R.id.progressClustering);
+
     mapView = (MapView)rootView.findViewById(R.id.mapView);
     mapView.onCreate(savedInstanceState);
 
@@ -248,6 +602,13 @@ public class LocationsFragment extends Fragment {
       @Override
       public void onMapReady(GoogleMap mMap) {
         LocationsFragment.this.map = mMap;
+        // draw the markers of the buckets that come into view once the camera settles
+        mMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+          @Override
+          public void onCameraIdle() {
+            refreshLocationMarkers();
+          }
+        });
       }
     });
 
@@ -255,41 +616,101 @@ public class LocationsFragment extends Fragment {
     btnUpdate.setOnClickListener(new View.OnClickListener() {
       @Override
       public void onClick(View view) {
-        GPSLocation[] locations = getSavedLocations();
-        if (locations.length == 0) {
-          Toast.makeText(getActivity(), "No locations to cluster.", Toast.LENGTH_LONG).show();
-          return;
-        }
-        //Place a marker at each point and also adds it to the global list of markers
-        map.clear();
-        locationMarkers.clear();
-        if (!hideMarkers) {
-          for (GPSLocation loc : locations) {
-            Marker marker = map.addMarker(new MarkerOptions().position(new LatLng(loc.latitude, loc.longitude)) //sets the latitude & longitude
-              .title("At " + LocationDAO.getISOTimeString(loc.timestamp))); //display the time it occurred when clicked
-            locationMarkers.add(marker);
-          }
-        }
-        switch (clusterAlgorithmOpts.getCheckedRadioButtonId()) {
-          case R.id.radioButtonDBScan:
-            float eps = Float.parseFloat(txtEps.getText().toString());
-            int minPts = Integer.parseInt(txtMinPts.getText().toString());
-            runDBScan(locations, eps, minPts);
+        // The parameters are read now, so that the job does not touch the views
+        final int algorithm = clusterAlgorithmOpts.getCheckedRadioButtonId();
+        final float eps = algorithm == R.id.radioButtonDBScan ? Float.parseFloat(txtEps.getText().toString()) : 0;
+        final int minPts = algorithm == R.id.radioButtonDBScan ? Integer.parseInt(txtMinPts.getText().toString()) : 0;
+        final int k = algorithm == R.id.radioButtonKMeans ? Integer.parseInt(txtKClusters.getText().toString()) : 0;
+        final String algorithmName = algorithm == R.id.radioButtonDBScan ? "DBScan"
+          : algorithm == R.id.radioButtonKMeans ? "k-means" : "mean-shift";
+        final String parameters = algorithm == R.id.radioButtonDBScan ? eps + "," + minPts
+          : algorithm == R.id.radioButtonKMeans ? String.valueOf(k) : "";
+        final Context context = getActivity().getApplicationContext();
+        progressClustering.setProgress(0);
+        progressClustering.setVisibility(View.VISIBLE);
+        clusteringExecutor.submit(new ClusteringJobExecutor.Job<ClusteringResult>() {
+          @Override
+          public ClusteringResult run(ClusteringJobExecutor.Progress progress) {
+            // the version is read first, so that locations saved meanwhile make a new version
+            long version = LocationDAO.getVersion();
+            ClusteringResult result = clusteringCache.get(algorithmName, parameters, version);
+            if (result != null) {
+              return result;
+            }
+            progress.report("Loading locations", 0);
+            result = new ClusteringResult();
+            result.locations = getSavedLocations(context, version);
+            if (result.locations.length == 0) {
+              return result;
+            }
+            progress.report("Clustering", 20);
+            Collection<Cluster<GPSLocation>> clusters;
+            switch (algorithm) {
+              case R.id.radioButtonDBScan:
+                clusters = runDBScan(context, result.locations, version, eps, minPts, progress);
+                break;
 
-            break;
+              case R.id.radioButtonKMeans:
+                clusters = runKMeans(result.locations, k, progress);
+                break;
 
-          case R.id.radioButtonKMeans:
-            int k = Integer.parseInt(txtKClusters.getText().toString());
-            runKMeans(locations, k);
+              case R.id.radioButtonMeanShift:
+                clusters = runMeanShift(result.locations, progress);
+                break;
 
-            break;
+              default:
+                clusters = new ArrayList<>();
+                break;
+            }
+            progress.report("Computing hulls", 70);
+            computeClusterShapes(clusters, result, progress);
+            clusteringCache.put(algorithmName, parameters, version, result);
+            progress.report("Drawing", 100);
+            return result;
+          }
+        }, new ClusteringJobExecutor.Callback<ClusteringResult>() {
+          @Override
+          public void onProgress(String stage, int percent) {
+            if (!isAdded()) {
+              return;
+            }
+            progressClustering.setProgress(percent);
+          }
 
-          case R.id.radioButtonMeanShift:
-            runMeanShift(locations);
+          @Override
+          public void onResult(ClusteringResult result) {
+            // the fragment may have been detached while the job ran
+            if (!isAdded() || map == null) {
+              return;
+            }
+            progressClustering.setVisibility(View.GONE);
+            if (result.locations.length == 0) {
+              Toast.makeText(getActivity(), "No locations to cluster.", Toast.LENGTH_LONG).show();
+              return;
+            }
+            //Place markers for the locations in view, which are added once they have been bucketed
+            map.clear();
+            locationMarkers.clear();
+            clusterMarkers.clear();
+            densityOverlay = null;
+            if (showHeatMap) {
+              showDensityOverlay();
+            }
+            showLocations(result.locations);
+            drawClusters(result);
+            zoomInOnMarkers(100); // zoom to clusters automatically
+          }
 
-            break;
-        }
-        zoomInOnMarkers(100); // zoom to clusters automatically
+          @Override
+          public void onError(Throwable error) {
+            error.printStackTrace();
+            if (!isAdded()) {
+              return;
+            }
+            progressClustering.setVisibility(View.GONE);
+            Toast.makeText(getActivity(), "Clustering failed.", Toast.LENGTH_LONG).show();
+          }
+        });
       }
     });
 
@@ -302,13 +723,23 @@ public class LocationsFragment extends Fragment {
         inflater.inflate(R.menu.menu_maps, popup.getMenu());
         popup.show();
         popup.getMenu().getItem(0).setTitle(hideMarkers ? "Show Markers" : "Hide Markers");
+        popup.getMenu().findItem(R.id.action_heat_map).setTitle(showHeatMap ? "Hide Heat Map" : "Show Heat Map");
         popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
           @Override
           public boolean onMenuItemClick(MenuItem item) {
             if (item.getItemId() == R.id.action_hide_markers) {
               hideMarkers = !hideMarkers;
-              for (Marker marker : locationMarkers) {
-                marker.setVisible(!hideMarkers);
+              refreshLocationMarkers();
+              return true;
+            }
+            else if (item.getItemId() == R.id.action_heat_map) {
+              showHeatMap = !showHeatMap;
+              if (showHeatMap) {
+                showDensityOverlay();
+              }
+              else if (densityOverlay != null) {
+                densityOverlay.remove();
+                densityOverlay = null;
               }
               return true;
             }
@@ -356,6 +787,7 @@ public class LocationsFragment extends Fragment {
     IntentFilter filter = new IntentFilter();
     filter.addAction(Constants.ACTION.BROADCAST_MESSAGE);
     broadcastManager.registerReceiver(receiver, filter);
+    LocationDAO.addOnLocationsChangedListener(densityOverlayRefresher);
   }
 
   /**
@@ -364,6 +796,9 @@ public class LocationsFragment extends Fragment {
    */
   @Override
   public void onStop() {
+    LocationDAO.removeOnLocationsChangedListener(densityOverlayRefresher);
+    uiHandler.removeCallbacks(densityRefresh);
+    densityRefreshPending.set(false);
     LocalBroadcastManager broadcastManager = LocalBroadcastManager.getInstance(getActivity());
     try {
       broadcastManager.unregisterReceiver(receiver);
@@ -375,25 +810,182 @@ public class LocationsFragment extends Fragment {
   }
 
   /**
-   * Retrieves all locations saved in the local database.
+   * Retrieves all locations saved in the local database, unless they were already
+   * loaded at the same version. This may be called off the UI thread.
    *
+   * @param context the application context
+   * @param version the current {@link LocationDAO#getVersion() version} of the locations
    * @return a list of {@link GPSLocation}s.
    */
-  private GPSLocation[] getSavedLocations() {
-    LocationDAO dao = new LocationDAO(getActivity());
+  private static synchronized GPSLocation[] getSavedLocations(Context context, long version) {
+    if (savedLocations != null && savedLocationsVersion == version) {
+      return savedLocations;
+    }
+    LocationDAO dao = new LocationDAO(context);
     try {
       dao.openRead();
-      return dao.getAllLocations();
+      savedLocations = dao.getAllLocations();
+      savedLocationsVersion = version;
+      return savedLocations;
     }
     finally {
       dao.close();
     }
   }
 
+  /**
+   * Buckets the locations for display in the background, then draws the markers
+   * of the buckets in view.
+   *
+   * @param locations the saved locations.
+   */
+  private void showLocations(final GPSLocation[] locations) {
+    double minLat = 90, maxLat = -90, minLng = 180, maxLng = -180;
+    for (GPSLocation loc : locations) {
+      minLat = Math.min(minLat, loc.latitude);
+      maxLat = Math.max(maxLat, loc.latitude);
+      minLng = Math.min(minLng, loc.longitude);
+      maxLng = Math.max(maxLng, loc.longitude);
+    }
+    locationBounds = new LatLngBounds(new LatLng(minLat, minLng), new LatLng(maxLat, maxLng));
+    levelOfDetail = null;
+    final int generation = ++markerGeneration;
+    markerExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final LocationLevelOfDetail lod = new LocationLevelOfDetail(locations);
+        uiHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (generation == markerGeneration) {
+              levelOfDetail = lod;
+              refreshLocationMarkers();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Builds the density of the saved locations in the background, unless it was built
+   * before, then draws it over the map as a heat map.
+   */
+  private void showDensityOverlay() {
+    if (map == null || densityOverlay != null) {
+      return;
+    }
+    final Context context = getActivity().getApplicationContext();
+    markerExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final LocationDensityTileProvider tiles = getDensityTiles(context);
+        uiHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (showHeatMap && densityOverlay == null && map != null) {
+              densityOverlay = map.addTileOverlay(new TileOverlayOptions().tileProvider(tiles));
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Returns the heat-map tiles of the saved locations, building the density of every
+   * saved location the first time, after which it is updated as locations are saved.
+   * This may be called off the UI thread.
+   *
+   * @param context the application context
+   * @return the heat-map tiles.
+   */
+  private static LocationDensityTileProvider getDensityTiles(Context context) {
+    synchronized (densityTilesLock) {
+      if (densityTiles == null) {
+        LocationDensityTileProvider tiles = new LocationDensityTileProvider(new LocationDensityPyramid());
+        DensityTilesUpdater updater = new DensityTilesUpdater(tiles);
+        LocationDAO.addOnLocationsChangedListener(updater);
+        GPSLocation[] locations = getSavedLocations(context, LocationDAO.getVersion());
+        tiles.addAll(locations);
+        updater.onTilesBuilt(locations);
+        densityTilesUpdater = updater;
+        densityTiles = tiles;
+      }
+      return densityTiles;
+    }
+  }
+
+  /**
+   * Finds the buckets of locations in the visible part of the map in the background,
+   * then updates the markers to match.
+   */
+  private void refreshLocationMarkers() {
+    if (map == null || levelOfDetail == null) {
+      return;
+    }
+    if (hideMarkers) {
+      updateLocationMarkers(new ArrayList<LocationLevelOfDetail.Bucket>());
+      return;
+    }
+    final LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+    final float zoom = map.getCameraPosition().zoom;
+    final LocationLevelOfDetail lod = levelOfDetail;
+    final int generation = markerGeneration;
+    markerExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final List<LocationLevelOfDetail.Bucket> buckets = lod.query(bounds.southwest.latitude,
+          bounds.southwest.longitude, bounds.northeast.latitude, bounds.northeast.longitude, zoom,
+          MAX_LOCATION_MARKERS);
+        uiHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (generation == markerGeneration && !hideMarkers) {
+              updateLocationMarkers(buckets);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Removes the markers of buckets that are no longer visible and adds markers for
+   * the buckets that are, leaving the markers of the others in place.
+   *
+   * @param buckets the visible buckets.
+   */
+  private void updateLocationMarkers(final List<LocationLevelOfDetail.Bucket> buckets) {
+    Set<Long> visible = new HashSet<>();
+    for (LocationLevelOfDetail.Bucket bucket : buckets) {
+      visible.add(bucket.key);
+    }
+    Iterator<Map.Entry<Long, Marker>> markers = locationMarkers.entrySet().iterator();
+    while (markers.hasNext()) {
+      Map.Entry<Long, Marker> entry = markers.next();
+      if (!visible.contains(entry.getKey())) {
+        entry.getValue().remove();
+        markers.remove();
+      }
+    }
+    for (LocationLevelOfDetail.Bucket bucket : buckets) {
+      if (locationMarkers.containsKey(bucket.key)) {
+        continue;
+      }
+      String title = bucket.count == 1
+        ? "At " + LocationDAO.getISOTimeString(bucket.timestamp) //display the time it occurred when clicked
+        : bucket.count + " locations";
+      locationMarkers.put(bucket.key, map.addMarker(new MarkerOptions()
+        .position(new LatLng(bucket.latitude, bucket.longitude))
+        .title(title)));
+    }
+  }
+
   /**
    * Here you should draw clusters on the map. We have given you
-   * {@link #drawHullFromPoints(GPSLocation[], int)}, which draws a convex hull
-   * around the specified points, in the given color. For each cluster, you
+   * {@link #drawHull(ConvexHull.Polygon, int)}, which draws a convex hull
+   * computed by {@link ConvexHull}, in the given color. For each cluster, you
    * should draw the convex hull in a unique color (it's OK if it's not unique
    * after several clusters, as long as we can distinguish clusters that are
    * close or overlap). We provided you with an array of colors you can index
@@ -473,7 +1065,30 @@ public class LocationsFragment extends Fragment {
     return new double[] {center_lat, center_lon};
   }
 
-  private void drawClusters(final Collection<Cluster<GPSLocation>> clusters) {
+  /**
+   * Computes the hull and the centers of each cluster into the result, off the UI thread.
+   *
+   * @param clusters the clusters
+   * @param result   receives the hulls and centers
+   * @param progress the progress of the job, which stops once it is superseded
+   */
+  private void computeClusterShapes(final Collection<Cluster<GPSLocation>> clusters, ClusteringResult result,
+                                    ClusteringJobExecutor.Progress progress) {
+    // The hulls of all clusters are computed together, in parallel for large clusterings
+    result.members = new ArrayList<>(clusters.size());
+    result.averageCenters = new ArrayList<>(clusters.size());
+    result.geographicCenters = new ArrayList<>(clusters.size());
+    for (Cluster<GPSLocation> c : clusters) {
+      int size = c.getPoints().size();
+      result.members.add(c.getPoints().toArray(new GPSLocation[size]));
+      result.averageCenters.add(findAverageCenter(c));
+      result.geographicCenters.add(findGeologicalCenter(c));
+    }
+    result.hulls = ConvexHull.computeAll(result.members, MAX_HULL_VERTICES, Runtime.getRuntime().availableProcessors(),
+      progress);
+  }
+
+  private void drawClusters(final ClusteringResult result) {
     final int[] colors = new int[]{
       Color.RED,
       Color.BLUE,
@@ -485,25 +1100,22 @@ public class LocationsFragment extends Fragment {
 
     // TODO: For each cluster, draw a convex hull around the points in a
     // sufficiently distinct color
-    int index = 0;
-    for (Cluster<GPSLocation> c : clusters) {
-      int size = c.getPoints().size();
-      GPSLocation[] points = c.getPoints().toArray(new GPSLocation[size]);
-      drawHullFromPoints(points, colors[index++ % colors.length]);
+    for (int index = 0; index < result.hulls.size(); index++) {
+      drawHull(result.hulls.get(index), colors[index % colors.length]);
 
       // Draw the average cluster center marker
-      double[] coords = findAverageCenter(c);
+      double[] coords = result.averageCenters.get(index);
       float centerMarkerColor = BitmapDescriptorFactory.HUE_YELLOW;
-      locationMarkers.add(map.addMarker(new MarkerOptions()
+      clusterMarkers.add(map.addMarker(new MarkerOptions()
         .position(new LatLng(coords[0], coords[1]))
         .title("Average Cluster Center")
         .icon(BitmapDescriptorFactory.defaultMarker(centerMarkerColor))
       ));
 
       // Draw the geological cluster center marker
-      double[] geo_coords = findGeologicalCenter(c);
+      double[] geo_coords = result.geographicCenters.get(index);
       float geoMarkerColor = BitmapDescriptorFactory.HUE_AZURE;
-      locationMarkers.add(map.addMarker(new MarkerOptions()
+      clusterMarkers.add(map.addMarker(new MarkerOptions()
         .position(new LatLng(geo_coords[0], geo_coords[1]))
         .title("Geolographic Cluster Center")
         .icon(BitmapDescriptorFactory.defaultMarker(geoMarkerColor))
@@ -512,181 +1124,133 @@ public class LocationsFragment extends Fragment {
   }
 
   /**
-   * Here you will call your DBScan algorithm, with the given parameters. Then
-   * call {@link #drawClusters(Collection)} in order to visualize your output.
+   * Here you will call your DBScan algorithm, with the given parameters. The
+   * clusters are drawn by {@link #drawClusters(ClusteringResult)} once the job
+   * finishes. This runs on a clustering thread; the clusterings kept across
+   * jobs are guarded by the class lock.
    *
+   * @param context   the application context, from which the incremental clusters are seeded.
    * @param locations the list of locations to be clustered.
+   * @param version   the {@link LocationDAO#getVersion() version} of the locations.
    * @param eps       the neighborhood radius parameter.
    * @param minPts    the minimum number of points in a neighborhood.
+   * @param progress  the progress of the job, which stops once it is superseded, so
+   *                  that it does not hold the class lock the next job is waiting for.
+   * @return the clusters.
    */
-  private void runDBScan(GPSLocation[] locations, float eps, int minPts) {
-    //TODO: Cluster the locations by calling DBScan.
-    DBScan<GPSLocation> dbScan = new DBScan<>(eps, minPts);
-    List<GPSLocation> locationsList = new ArrayList<>(Arrays.asList(locations));
-
-    // Draw clusters returned from DBScan
-    List<Cluster<GPSLocation>> clusters = dbScan.cluster(locationsList);
-    drawClusters(clusters);
+  private static Collection<Cluster<GPSLocation>> runDBScan(Context context, GPSLocation[] locations, long version,
+                                                            float eps, int minPts,
+                                                            ClusteringJobExecutor.Progress progress) {
+    synchronized (LocationsFragment.class) {
+      // the job may have been superseded while it waited for the lock
+      ClusteringJobExecutor.checkCancelled(progress);
+      return runDBScanLocked(context, locations, version, eps, minPts, progress);
+    }
   }
 
-  /**
-   * Here you will request to cluster your n locations using k-means clustering.
-   * We have registered a listener for you and have parsed the JSON string that
-   * comes back from the server. The result is a list of n integers associating
-   * each location with one of the k clusters. Generate a list of k clusters and
-   * then call {@link #drawClusters(Collection)}, passing in the list of
-   * clusters.
-   * <br><br>
-   * One way you may do this is by using a map. We've provided one for you if
-   * you would like to do it this way. Each cluster index should be associated
-   * with a cluster. If it is not yet, then instantiate a new cluster and add
-   * the association to the map. If it's already associated with a cluster, then
-   * all you need to do it update that cluster with the current GPS location
-   * in the loop iteration.
-   *
-   * @param locations the list of locations to be clustered.
-   * @param k         the number of clusters.
-   */
-  private void runKMeans(final GPSLocation[] locations, final int k) {
-    client.registerMessageReceiver(new MessageReceiver() {
-      @Override
-      protected void onMessageReceived(JSONObject json) {
-        final Map<Integer, Cluster<GPSLocation>> clusters = new ArrayMap<>();
-        try {
-          // These few lines of code parse the String object containing
-          // the indexes.
-          String str = json.getString("indexes");
-          String[] indexList = str.substring(1, str.length() - 1).split(",");
-          int[] indexes = new int[indexList.length];
-          for (int i = 0; i < indexList.length; i++) {
-            indexes[i] = Integer.parseInt(indexList[i].replace("\"", "").trim());
-          }
+  private static Collection<Cluster<GPSLocation>> runDBScanLocked(Context context, GPSLocation[] locations,
+                                                                  long version, float eps, int minPts,
+                                                                  ClusteringJobExecutor.Progress progress) {
+    // Multi-month histories are clustered approximately, which only differs from
+    // exact DBScan for points near the eps boundary
+    if (locations.length > APPROXIMATE_DBSCAN_THRESHOLD) {
+      return new ApproximateDBScan(eps, minPts, APPROXIMATE_DBSCAN_RHO).cluster(Arrays.asList(locations), progress);
+    }
 
-          // TODO: Using the index of each location, generate a list of k
-          // clusters, then call drawClusters().
-          // You may choose to use the Map defined above or find a different
-          // way of doing it.
-          for (int i = 0; i < indexes.length; i++) {
-            int key = indexes[i];
-            GPSLocation value = locations[i];
-
-            // if it has the key
-            if (clusters.get(key) != null) {
-              clusters.get(key).addPoint(value);
-            }
-            // key not found
-            else {
-              Cluster<GPSLocation> newCluster = new Cluster<>();
-              newCluster.addPoint(value);
-              clusters.put(key, newCluster);
-            }
-          }
+    // When only the radius has changed and no locations have been saved since,
+    // the clusters are extracted from an OPTICS ordering of the locations
+    if (incrementalDBScan != null && incrementalDBScan.getEps() != eps
+      && incrementalDBScan.getMinPts() == minPts && incrementalDBScanVersion == version) {
+      if (opticsOrdering == null || opticsOrdering.getMinPts() != minPts
+        || opticsOrderingVersion != version || opticsOrdering.getGeneratingDistance() < eps) {
+        double generatingDistance = Math.max(eps, OPTICS_GENERATING_DISTANCE);
+        List<GPSLocation> locationsList = Arrays.asList(locations);
+        opticsOrdering = new OPTICS<GPSLocation>(generatingDistance, minPts)
+          .order(locationsList, new LocationCandidateSearch(locationsList, generatingDistance), progress);
+        opticsOrderingVersion = version;
+      }
+      return opticsOrdering.extractDBScan(eps);
+    }
 
-          // We are only allowed to manipulate the map on the main (UI) thread:
-          getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-              drawClusters(clusters.values());
-            }
-          });
+    // Otherwise the clusters are built once per set of parameters and then updated
+    // as locations are saved, instead of reclustering every saved location
+    if (incrementalDBScan == null || incrementalDBScan.getEps() != eps || incrementalDBScan.getMinPts() != minPts) {
+      if (incrementalDBScanUpdater != null) {
+        LocationDAO.removeOnLocationsChangedListener(incrementalDBScanUpdater);
+      }
+      // no longer updated, so it must not be reused if seeding the next one is cancelled
+      incrementalDBScan = null;
+      final IncrementalDBScan dbScan = new IncrementalDBScan(eps, minPts);
+      incrementalDBScanUpdater = new LocationDAO.OnLocationsChangedListener() {
+        @Override
+        public void onLocationInserted(GPSLocation location) {
+          dbScan.insert(location);
+        }
 
+        @Override
+        public void onLocationDeleted(GPSLocation location) {
+          dbScan.delete(location);
         }
-        catch (JSONException e) {
-          e.printStackTrace();
+
+        @Override
+        public void onLocationsCleared() {
+          dbScan.clear();
         }
-        finally {
-          client.unregisterMessageReceiver(this);
+      };
+      // The updater is registered before the locations are read, so that no change is
+      // missed. Changes notified while the clusters are seeded wait for the lock of
+      // dbScan, and locations both read and notified are only inserted once, by id.
+      synchronized (dbScan) {
+        LocationDAO.addOnLocationsChangedListener(incrementalDBScanUpdater);
+        try {
+          incrementalDBScanVersion = LocationDAO.getVersion();
+          dbScan.insertAll(Arrays.asList(getSavedLocations(context, incrementalDBScanVersion)), progress);
+        } catch (CancellationException e) {
+          // the clusters were left half built
+          LocationDAO.removeOnLocationsChangedListener(incrementalDBScanUpdater);
+          incrementalDBScanUpdater = null;
+          throw e;
         }
       }
-    });
-    client.connect();
-    client.sendSensorReading(new ClusteringRequest(
-      userID,
-      "",
-      "",
-      System.currentTimeMillis(),
-      locations,
-      "k_means",
-      k
-    ));
+      incrementalDBScan = dbScan;
+    }
+
+    // Return clusters from DBScan
+    return incrementalDBScan.getClusters();
   }
 
   /**
-   * Here you will request to cluster your n locations using mean-shift
-   * clustering. We have registered a listener for you and have parsed the JSON
-   * string that comes back from the server. The result is a list of n integers
-   * associating each location with one of the an arbitrary number of clusters.
-   * Generate a list of clusters and then call
-   * {@link #drawClusters(Collection)}, passing in the list of clusters.
-   * <br><br>
-   * You may do this the same way you did for k-means. The only difference is
-   * that we do not know the number of clusters ahead of time, but that
-   * shouldn't be a problem.
+   * Clusters the locations using k-means clustering on the device. Large
+   * histories are clustered with mini-batch k-means, whose cost does not grow
+   * with the number of locations until the final assignment.
    *
    * @param locations the list of locations to be clustered.
+   * @param k         the number of clusters.
+   * @param progress  the progress of the job, which stops once it is superseded.
+   * @return the clusters.
    */
-  private void runMeanShift(final GPSLocation[] locations) {
-    client.registerMessageReceiver(new MessageReceiver() {
-      @Override
-      protected void onMessageReceived(JSONObject json) {
-        final Map<Integer, Cluster<GPSLocation>> clusters = new ArrayMap<>();
-        try {
-          // These few lines of code parse the String object containing
-          // the indexes.
-          String str = json.getString("indexes");
-          String[] indexList = str.substring(1, str.length() - 1).split(",");
-          int[] indexes = new int[indexList.length];
-          for (int i = 0; i < indexList.length; i++) {
-            indexes[i] = Integer.parseInt(indexList[i].replace("\"", "").trim());
-          }
-
-          // TODO: Using the index of each location, generate clusters,
-          // then call drawClusters().
-          // You may choose to use the Map defined above or find a different
-          // way of doing it.
-          for (int i = 0; i < indexes.length; i++) {
-            int key = indexes[i];
-            GPSLocation value = locations[i];
-
-            // if it has the key
-            if (clusters.get(key) != null) {
-              clusters.get(key).addPoint(value);
-            }
-            // key not found
-            else {
-              Cluster<GPSLocation> newCluster = new Cluster<>();
-              newCluster.addPoint(value);
-              clusters.put(key, newCluster);
-            }
-          }
-
-          // We are only allowed to manipulate the map on the main (UI) thread:
-          getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-              drawClusters(clusters.values());
-            }
-          });
+  private static Collection<Cluster<GPSLocation>> runKMeans(final GPSLocation[] locations, final int k,
+                                                            final ClusteringJobExecutor.Progress progress) {
+    KMeans kMeans = new KMeans(k);
+    List<GPSLocation> locationsList = Arrays.asList(locations);
+    return locations.length > MINI_BATCH_THRESHOLD
+      ? kMeans.clusterMiniBatch(locationsList, MINI_BATCH_SIZE, progress)
+      : kMeans.cluster(locationsList, progress);
+  }
 
-        }
-        catch (JSONException e) {
-          e.printStackTrace();
-        }
-        finally {
-          client.unregisterMessageReceiver(this);
-        }
-      }
-    });
-    client.connect();
-    client.sendSensorReading(new ClusteringRequest(
-      userID,
-      "",
-      "",
-      System.currentTimeMillis(),
-      locations,
-      "mean_shift",
-      -1
-    ));
+  /**
+   * Clusters the locations using mean-shift clustering on the device. The
+   * bandwidth is estimated from the locations, as the server did.
+   *
+   * @param locations the list of locations to be clustered.
+   * @param progress  the progress of the job, which stops once it is superseded.
+   * @return the clusters.
+   */
+  private static Collection<Cluster<GPSLocation>> runMeanShift(final GPSLocation[] locations,
+                                                               final ClusteringJobExecutor.Progress progress) {
+    List<GPSLocation> locationsList = Arrays.asList(locations);
+    double bandwidth = Math.max(MeanShift.estimateBandwidth(locationsList), MIN_MEAN_SHIFT_BANDWIDTH);
+    return new MeanShift(bandwidth, MeanShift.Kernel.FLAT).cluster(locationsList, progress);
   }
 
   /**
@@ -697,12 +1261,13 @@ public class LocationsFragment extends Fragment {
    * @param padding the number of pixels padding the ege of the map layout between markers
    */
   public void zoomInOnMarkers(int padding) {
-    if (locationMarkers.size() + clusterMarkers.size() == 0) {
+    if (locationBounds == null && clusterMarkers.size() == 0) {
       return;
     }
     LatLngBounds.Builder builder = new LatLngBounds.Builder();
-    for (Marker marker : locationMarkers) {
-      builder.include(marker.getPosition());
+    if (locationBounds != null) {
+      builder.include(locationBounds.southwest);
+      builder.include(locationBounds.northeast);
     }
     for (Marker marker : clusterMarkers) {
       builder.include(marker.getPosition());
@@ -713,18 +1278,18 @@ public class LocationsFragment extends Fragment {
   }
 
   /**
-   * Draws a convex hull around a set of points - this will be great for visualizing clusters
+   * Draws a hull computed by {@link ConvexHull}, unless it has fewer than three vertices.
    *
-   * @param locations the set of locations contained in the convex hull
+   * @param hull  the hull polygon
+   * @param color the stroke and fill color
    */
-  private void drawHullFromPoints(GPSLocation[] locations, int color) {
-    if (locations.length <= 2) {
+  private void drawHull(ConvexHull.Polygon hull, int color) {
+    if (hull.size() <= 2) {
       return;
     }
-    ArrayList<GPSLocation> hull = FastConvexHull.execute(locations);
     PolygonOptions options = new PolygonOptions();
-    for (GPSLocation loc : hull) {
-      options.add(new LatLng(loc.latitude, loc.longitude));
+    for (int k = 0; k < hull.size(); k++) {
+      options.add(new LatLng(hull.latitudes[k], hull.longitudes[k]));
     }
     options = options.strokeColor(color).fillColor(color);
     map.addPolygon(options); // draw a polygon
@@ -767,6 +1332,8 @@ public class LocationsFragment extends Fragment {
   @Override
   public void onDestroy() {
     super.onDestroy();
+    markerExecutor.shutdownNow();
+    clusteringExecutor.shutdown();
     mapView.onDestroy();
   }
 
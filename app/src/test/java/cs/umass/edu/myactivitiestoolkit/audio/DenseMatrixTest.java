@@ -0,0 +1,84 @@
+package cs.umass.edu.myactivitiestoolkit.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DenseMatrixTest {
+
+  @Test
+  public void productsMatchMatrix() {
+    // shapes on both sides of the column kernel's limits, with ragged tails
+    int[][] shapes = {
+      {100, 20, 12}, {1, 20, 12}, {3, 5, 7}, {4, 1, 1}, {4, 3, 9}, {129, 7, 2},
+      {300, 64, 5}, {17, 65, 13}, {70, 130, 66}, {5, 200, 3},
+    };
+    Random random = new Random(1);
+    for (int[] shape : shapes) {
+      Matrix a = random(random, shape[0], shape[1]), b = random(random, shape[1], shape[2]);
+      assertClose(a.times(b), DenseMatrix.fromMatrix(a).times(DenseMatrix.fromMatrix(b)));
+    }
+  }
+
+  @Test
+  public void reusedDestinationsGiveTheSameProduct() {
+    Random random = new Random(2);
+    DenseMatrix c = new DenseMatrix(100, 12);
+    for (int k : new int[]{20, 3, 40}) {
+      Matrix a = random(random, 100, k), b = random(random, k, 12);
+      DenseMatrix.multiply(DenseMatrix.fromMatrix(a), DenseMatrix.fromMatrix(b), c);
+      assertClose(a.times(b), c);
+    }
+  }
+
+  @Test
+  public void emptyInnerDimensionGivesZeros() {
+    DenseMatrix c = new DenseMatrix(new double[]{1, 2, 3, 4}, 2, 2);
+    DenseMatrix.multiply(new DenseMatrix(2, 0), new DenseMatrix(0, 2), c);
+    assertArrayEquals(new double[4], c.data, 0);
+  }
+
+  @Test
+  public void matrixVectorProductsMatchMatrix() {
+    Random random = new Random(3);
+    Matrix a = random(random, 13, 9);
+    double[] x = new double[9];
+    for (int j = 0; j < x.length; j++) {
+      x[j] = random.nextGaussian();
+    }
+    double[] y = DenseMatrix.fromMatrix(a).times(x);
+    Matrix expected = a.times(new Matrix(x, x.length));
+    for (int i = 0; i < y.length; i++) {
+      assertEquals(expected.get(i, 0), y[i], 1e-12);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsAliasedDestinations() {
+    DenseMatrix a = new DenseMatrix(4, 4);
+    DenseMatrix.multiply(a, new DenseMatrix(4, 4), a);
+  }
+
+  private static Matrix random(Random random, int rows, int cols) {
+    Matrix matrix = new Matrix(rows, cols);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        matrix.set(i, j, random.nextGaussian());
+      }
+    }
+    return matrix;
+  }
+
+  private static void assertClose(Matrix expected, DenseMatrix actual) {
+    assertEquals(expected.getRowDimension(), actual.rows);
+    assertEquals(expected.getColumnDimension(), actual.cols);
+    for (int i = 0; i < actual.rows; i++) {
+      for (int j = 0; j < actual.cols; j++) {
+        assertEquals(expected.get(i, j), actual.get(i, j), 1e-10);
+      }
+    }
+  }
+}
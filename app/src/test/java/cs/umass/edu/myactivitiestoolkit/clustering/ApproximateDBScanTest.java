@@ -0,0 +1,125 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobAndChain;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobs;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.cancelledAfter;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApproximateDBScanTest {
+
+  private static final double EPS = 30;
+
+  private static final int MIN_PTS = 3;
+
+  private static final double RHO = 0.1;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    assertTrue(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(Collections.<GPSLocation>emptyList()).isEmpty());
+  }
+
+  @Test
+  public void matchesGridDBScanOnSeparatedClusters() {
+    for (long seed = 1; seed <= 5; seed++) {
+      List<GPSLocation> locations = blobs(seed, 6, 15, 10, EPS);
+      assertEquals(ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)),
+        ids(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations)));
+    }
+  }
+
+  @Test
+  public void keepsNeighborsFarFromTheCentroidLatitude() {
+    List<GPSLocation> locations = blobAndChain(1);
+    assertEquals(ranges(0, 299, 300, 329), ids(new ApproximateDBScan(100, 2, RHO).cluster(locations)));
+  }
+
+  @Test
+  public void clustersLocationsFarApartInLatitudeExactly() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 6; id++) {
+      locations.add(at(id, 0, 0, 10 * id, 0));
+      locations.add(at(id + 6, 80, 0, 10 * id, 0));
+    }
+    assertEquals(ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)),
+      ids(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations)));
+    assertEquals(ranges(0, 5, 6, 11), ids(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations)));
+  }
+
+  @Test(expected = CancellationException.class)
+  public void stopsOnceTheJobIsSuperseded() {
+    new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(blobs(1, 6, 15, 10, EPS), cancelledAfter(10));
+  }
+
+  @Test
+  public void connectsCorePointsWithinEps() {
+    // two chains of core points, just within eps at their closest
+    List<GPSLocation> locations = chains(EPS * 0.99);
+    assertEquals(ranges(0, 19), ids(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations)));
+  }
+
+  @Test
+  public void separatesCorePointsBeyondTheApproximation() {
+    List<GPSLocation> locations = chains(EPS * (1 + RHO) * 1.01);
+    assertEquals(ranges(0, 9, 10, 19), ids(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations)));
+  }
+
+  @Test
+  public void duplicatePointsFormOneCluster() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < MIN_PTS; id++) {
+      locations.add(at(id, 0, 0, 0));
+    }
+    locations.add(at(MIN_PTS, 0, 10 * EPS, 0));
+    List<Cluster<GPSLocation>> clusters = new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations);
+    assertEquals(ranges(0, MIN_PTS - 1), ids(clusters));
+  }
+
+  @Test
+  public void tooFewDuplicatesAreNoise() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < MIN_PTS - 1; id++) {
+      locations.add(at(id, 0, 0, 0));
+    }
+    assertTrue(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations).isEmpty());
+  }
+
+  @Test
+  public void clustersAcrossTheAntimeridian() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 6; id++) {
+      locations.add(at(id, 180, 10 * id - 25, 0));
+    }
+    assertEquals(ranges(0, 5), ids(new ApproximateDBScan(EPS, MIN_PTS, RHO).cluster(locations)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveRho() {
+    new ApproximateDBScan(EPS, MIN_PTS, 0);
+  }
+
+  /**
+   * Returns two east-west chains of ten points, each point within eps of the next
+   * two, with the given gap between the chains.
+   */
+  private static List<GPSLocation> chains(double gap) {
+    List<GPSLocation> locations = new ArrayList<>();
+    double spacing = 0.4 * EPS;
+    for (int id = 0; id < 20; id++) {
+      locations.add(at(id, 0, spacing * id + (id < 10 ? 0 : gap - spacing), 0));
+    }
+    return locations;
+  }
+}
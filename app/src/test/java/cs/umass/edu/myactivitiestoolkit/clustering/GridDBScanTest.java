@@ -0,0 +1,81 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobAndChain;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobs;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.cancelledAfter;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GridDBScanTest {
+
+  private static final double EPS = 100;
+
+  private static final int MIN_PTS = 2;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    assertTrue(new GridDBScan(EPS, MIN_PTS).cluster(Collections.<GPSLocation>emptyList()).isEmpty());
+  }
+
+  @Test(expected = CancellationException.class)
+  public void stopsOnceTheJobIsSuperseded() {
+    new GridDBScan(30, 3).cluster(blobs(1, 4, 10, 5, 30), cancelledAfter(10));
+  }
+
+  @Test
+  public void matchesDBScan() {
+    List<GPSLocation> locations = blobs(1, 4, 10, 5, 30);
+    assertEquals(ids(new DBScan<GPSLocation>(30, 3).cluster(locations)),
+      ids(new GridDBScan(30, 3).cluster(locations)));
+  }
+
+  @Test
+  public void keepsNeighborsFarFromTheCentroidLatitude() {
+    List<GPSLocation> locations = blobAndChain(1);
+    assertEquals(ids(new DBScan<GPSLocation>(EPS, MIN_PTS).cluster(locations)),
+      ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)));
+    assertEquals(ranges(0, 299, 300, 329), ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)));
+  }
+
+  @Test
+  public void dropsCandidatesBeyondEpsEastWest() {
+    // near the pole of the data, the conservative projection shrinks east-west
+    // gaps, so these 120 m gaps at 40 degrees look shorter than eps
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 5; id++) {
+      locations.add(at(id, 40, 0, 120 * id, 0));
+    }
+    locations.add(at(5, 70, 0, 0, 0));
+    assertTrue(new GridDBScan(EPS, MIN_PTS).cluster(locations).isEmpty());
+  }
+
+  @Test
+  public void duplicatePointsFormACluster() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < MIN_PTS; id++) {
+      locations.add(at(id, 0, 0, 0));
+    }
+    assertEquals(ranges(0, MIN_PTS - 1), ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)));
+  }
+
+  @Test
+  public void clustersAcrossTheAntimeridian() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 4; id++) {
+      locations.add(at(id, 180, 60 * id - 90, 0));
+    }
+    assertEquals(ranges(0, 3), ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)));
+  }
+}
@@ -0,0 +1,153 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobAndChain;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobs;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalDBScanTest {
+
+  private static final double EPS = 40;
+
+  private static final int MIN_PTS = 3;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    dbScan.insertAll(Collections.<GPSLocation>emptyList());
+    assertEquals(0, dbScan.size());
+    assertTrue(dbScan.getClusters().isEmpty());
+  }
+
+  @Test
+  public void insertionsMatchGridDBScan() {
+    List<GPSLocation> locations = blobs(1, 4, 10, 5, EPS);
+    Collections.shuffle(locations, new Random(2));
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    for (GPSLocation location : locations) {
+      assertTrue(dbScan.insert(location));
+    }
+    assertEquals(locations.size(), dbScan.size());
+    assertEquals(ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)), ids(dbScan.getClusters()));
+    assertEquals(ranges(0, 9, 10, 19, 20, 29, 30, 39), ids(dbScan.getClusters()));
+  }
+
+  @Test
+  public void batchInsertionMatchesSingleInsertions() {
+    List<GPSLocation> locations = blobs(3, 3, 8, 4, EPS);
+    IncrementalDBScan batch = new IncrementalDBScan(EPS, MIN_PTS);
+    batch.insertAll(locations);
+    IncrementalDBScan single = new IncrementalDBScan(EPS, MIN_PTS);
+    for (GPSLocation location : locations) {
+      single.insert(location);
+    }
+    assertEquals(ids(single.getClusters()), ids(batch.getClusters()));
+  }
+
+  @Test
+  public void duplicatePointsFormACluster() {
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    for (int id = 0; id < MIN_PTS; id++) {
+      dbScan.insert(at(id, 0, 0, 0));
+    }
+    assertEquals(ranges(0, MIN_PTS - 1), ids(dbScan.getClusters()));
+  }
+
+  @Test
+  public void duplicateIdsAreIgnored() {
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    GPSLocation location = at(0, 0, 0, 0);
+    assertTrue(dbScan.insert(location));
+    assertFalse(dbScan.insert(at(0, 0, 10, 10)));
+    dbScan.insertAll(Collections.singletonList(location));
+    assertEquals(1, dbScan.size());
+  }
+
+  @Test
+  public void deletingABridgeSplitsTheCluster() {
+    // a chain of points 30 m apart, where every interior point is a core point
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    List<GPSLocation> chain = new ArrayList<>();
+    for (int id = 0; id < 7; id++) {
+      chain.add(at(id, 0, 30 * id, 0));
+    }
+    dbScan.insertAll(chain);
+    assertEquals(ranges(0, 6), ids(dbScan.getClusters()));
+
+    assertTrue(dbScan.delete(chain.get(3)));
+    assertFalse(dbScan.delete(chain.get(3)));
+    assertEquals(ranges(0, 2, 4, 6), ids(dbScan.getClusters()));
+
+    dbScan.insert(chain.get(3));
+    assertEquals(ranges(0, 6), ids(dbScan.getClusters()));
+  }
+
+  @Test
+  public void locationsMovedAfterInsertionAreDeletedWhereTheyWere() {
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    List<GPSLocation> chain = new ArrayList<>();
+    for (int id = 0; id < 7; id++) {
+      chain.add(at(id, 0, 30 * id, 0));
+    }
+    dbScan.insertAll(chain);
+    GPSLocation moved = chain.get(3);
+    moved.longitude += 1;
+    assertTrue(dbScan.delete(moved));
+    assertEquals(ranges(0, 2, 4, 6), ids(dbScan.getClusters()));
+    dbScan.insert(moved);
+    assertEquals(ranges(0, 2, 4, 6), ids(dbScan.getClusters()));
+  }
+
+  @Test
+  public void deletionsMatchGridDBScan() {
+    List<GPSLocation> locations = blobs(4, 3, 6, 3, EPS);
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    dbScan.insertAll(locations);
+    Random random = new Random(5);
+    List<GPSLocation> remaining = new ArrayList<>(locations);
+    while (!remaining.isEmpty()) {
+      dbScan.delete(remaining.remove(random.nextInt(remaining.size())));
+      assertEquals(ids(new GridDBScan(EPS, MIN_PTS).cluster(remaining)), ids(dbScan.getClusters()));
+    }
+    assertEquals(0, dbScan.size());
+  }
+
+  @Test
+  public void keepsNeighborsFarFromTheFirstLatitude() {
+    // the blob at 40 degrees comes first, so the chain at 46 degrees is projected again
+    List<GPSLocation> locations = blobAndChain(1);
+    IncrementalDBScan single = new IncrementalDBScan(100, 2);
+    for (GPSLocation location : locations) {
+      single.insert(location);
+    }
+    assertEquals(ranges(0, 299, 300, 329), ids(single.getClusters()));
+    IncrementalDBScan batch = new IncrementalDBScan(100, 2);
+    batch.insertAll(locations);
+    assertEquals(ranges(0, 299, 300, 329), ids(batch.getClusters()));
+
+    batch.delete(locations.get(315));
+    assertEquals(ranges(0, 299, 300, 314, 316, 329), ids(batch.getClusters()));
+  }
+
+  @Test
+  public void clustersAcrossTheAntimeridian() {
+    IncrementalDBScan dbScan = new IncrementalDBScan(EPS, MIN_PTS);
+    for (int id = 0; id < 4; id++) {
+      dbScan.insert(at(id, 180, 15 * id - 22.5, 0));
+    }
+    assertEquals(ranges(0, 3), ids(dbScan.getClusters()));
+  }
+}
@@ -0,0 +1,95 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobs;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KMeansTest {
+
+  private static final int MAX_ITERATIONS = 300;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    KMeans kMeans = new KMeans(3, MAX_ITERATIONS, 0, 1);
+    assertTrue(kMeans.cluster(Collections.<GPSLocation>emptyList()).isEmpty());
+    assertTrue(kMeans.clusterMiniBatch(Collections.<GPSLocation>emptyList(), 10).isEmpty());
+  }
+
+  @Test
+  public void recoversSeparatedBlobsWhateverTheSeed() {
+    // k-means++ seeding places the centers in different blobs; a uniformly random
+    // start would often put two centers in one blob and merge two others
+    List<GPSLocation> locations = blobs(1, 5, 20, 0, 30);
+    for (long seed = 0; seed < 20; seed++) {
+      List<Cluster<GPSLocation>> clusters = new KMeans(5, MAX_ITERATIONS, seed, 1).cluster(locations);
+      assertEquals(ranges(0, 19, 20, 39, 40, 59, 60, 79, 80, 99), ids(clusters));
+    }
+  }
+
+  @Test
+  public void recoversBlobsOfVeryDifferentSizes() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 500; id++) {
+      locations.add(at(id, 0, id % 20, id / 20));
+    }
+    for (int id = 500; id < 503; id++) {
+      locations.add(at(id, 0, 5000, id));
+    }
+    for (long seed = 0; seed < 20; seed++) {
+      assertEquals(ranges(0, 499, 500, 502), ids(new KMeans(2, MAX_ITERATIONS, seed, 1).cluster(locations)));
+    }
+  }
+
+  @Test
+  public void moreClustersThanLocations() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 3; id++) {
+      locations.add(at(id, 0, 100 * id, 0));
+    }
+    KMeans kMeans = new KMeans(10, MAX_ITERATIONS, 0, 1);
+    assertEquals(ranges(0, 0, 1, 1, 2, 2), ids(kMeans.cluster(locations)));
+    assertEquals(ranges(0, 0, 1, 1, 2, 2), ids(kMeans.clusterMiniBatch(locations, 2)));
+  }
+
+  @Test
+  public void identicalLocationsFormOneCluster() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 10; id++) {
+      locations.add(at(id, 0, 0, 0));
+    }
+    KMeans kMeans = new KMeans(3, MAX_ITERATIONS, 0, 1);
+    assertEquals(ranges(0, 9), ids(kMeans.cluster(locations)));
+    assertEquals(ranges(0, 9), ids(kMeans.clusterMiniBatch(locations, 4)));
+  }
+
+  @Test
+  public void miniBatchConvergesToTheBlobs() {
+    List<GPSLocation> locations = blobs(2, 4, 500, 0, 30);
+    List<Cluster<GPSLocation>> clusters = new KMeans(4, 100, 0, 1).clusterMiniBatch(locations, 50);
+    assertEquals(ranges(0, 499, 500, 999, 1000, 1499, 1500, 1999), ids(clusters));
+  }
+
+  @Test
+  public void parallelAssignmentMatchesSequential() {
+    // enough locations to split the assignment step across threads
+    List<GPSLocation> locations = blobs(3, 6, 1500, 0, 30);
+    assertEquals(ids(new KMeans(6, MAX_ITERATIONS, 1, 1).cluster(locations)),
+      ids(new KMeans(6, MAX_ITERATIONS, 1, 4).cluster(locations)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNoClusters() {
+    new KMeans(0);
+  }
+}
@@ -0,0 +1,94 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobs;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeanShiftTest {
+
+  private static final double BANDWIDTH = 50;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    assertTrue(new MeanShift(BANDWIDTH, MeanShift.Kernel.FLAT).cluster(Collections.<GPSLocation>emptyList())
+      .isEmpty());
+  }
+
+  @Test
+  public void recoversSeparatedBlobs() {
+    // isolated locations are modes of their own
+    List<GPSLocation> locations = blobs(1, 3, 20, 2, 30);
+    for (MeanShift.Kernel kernel : MeanShift.Kernel.values()) {
+      assertEquals(ranges(0, 19, 20, 39, 40, 59, 60, 60, 61, 61),
+        ids(new MeanShift(BANDWIDTH, kernel).cluster(locations)));
+    }
+  }
+
+  @Test
+  public void seedsFromEveryBinConvergeToOneMode() {
+    // a blob spread over many bandwidth-sized bins, each of which seeds a shift
+    Random random = new Random(2);
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 1000; id++) {
+      locations.add(at(id, 0, random.nextGaussian() * 40, random.nextGaussian() * 40));
+    }
+    for (MeanShift.Kernel kernel : MeanShift.Kernel.values()) {
+      assertEquals(ranges(0, 999), ids(new MeanShift(BANDWIDTH, kernel).cluster(locations)));
+    }
+  }
+
+  @Test
+  public void identicalLocationsFormOneCluster() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 10; id++) {
+      locations.add(at(id, 0, 0, 0));
+    }
+    assertEquals(ranges(0, 9), ids(new MeanShift(BANDWIDTH, MeanShift.Kernel.GAUSSIAN).cluster(locations)));
+  }
+
+  @Test
+  public void estimatesTheBandwidthOfALine() {
+    // ten locations 10 m apart: the nearest 30% of the sample, counting the location
+    // itself, reach 20 m from the two ends and 10 m from the others
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 10; id++) {
+      locations.add(at(id, 0, 10 * id, 0));
+    }
+    assertEquals(12, MeanShift.estimateBandwidth(locations), 1e-6);
+  }
+
+  @Test
+  public void estimatesTheBandwidthOfALargeSampleReproducibly() {
+    // a 40 x 40 grid with a 10 m pitch, sampled down; the nearest 30% of a location
+    // near the center lie within about sqrt(0.3 / pi) of the grid's side
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 1600; id++) {
+      locations.add(at(id, 0, 10 * (id % 40), 10 * (id / 40)));
+    }
+    double bandwidth = MeanShift.estimateBandwidth(locations);
+    assertEquals(bandwidth, MeanShift.estimateBandwidth(locations), 0);
+    assertTrue(bandwidth > 0.3 * 400 && bandwidth < 0.5 * 400);
+  }
+
+  @Test
+  public void tooFewLocationsHaveNoBandwidth() {
+    assertEquals(0, MeanShift.estimateBandwidth(Collections.singletonList(at(0, 0, 0, 0))), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveBandwidth() {
+    new MeanShift(0, MeanShift.Kernel.FLAT);
+  }
+}
@@ -0,0 +1,119 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobAndChain;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobs;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.cancelledAfter;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OPTICSTest {
+
+  private static final double GENERATING_DISTANCE = 100;
+
+  private static final int MIN_PTS = 3;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    OPTICS.Ordering<GPSLocation> ordering =
+      new OPTICS<GPSLocation>(GENERATING_DISTANCE, MIN_PTS).order(Collections.<GPSLocation>emptyList());
+    assertEquals(0, ordering.size());
+    assertTrue(ordering.extractDBScan(GENERATING_DISTANCE).isEmpty());
+  }
+
+  @Test
+  public void extractionMatchesGridDBScan() {
+    List<GPSLocation> locations = blobs(1, 4, 10, 5, 30);
+    OPTICS.Ordering<GPSLocation> ordering = new OPTICS<GPSLocation>(GENERATING_DISTANCE, MIN_PTS).order(locations);
+    assertEquals(locations.size(), ordering.size());
+    for (double eps : new double[]{15, 30, 60, GENERATING_DISTANCE}) {
+      assertEquals(ids(new GridDBScan(eps, MIN_PTS).cluster(locations)), ids(ordering.extractDBScan(eps)));
+    }
+  }
+
+  @Test
+  public void extractionDependsOnEps() {
+    // two chains of points 30 m apart, 70 m from each other
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 10; id++) {
+      locations.add(at(id, 0, 30 * id + (id < 5 ? 0 : 40), 0));
+    }
+    OPTICS.Ordering<GPSLocation> ordering = new OPTICS<GPSLocation>(GENERATING_DISTANCE, MIN_PTS).order(locations);
+    assertTrue(ordering.extractDBScan(25).isEmpty());
+    assertEquals(ranges(0, 4, 5, 9), ids(ordering.extractDBScan(40)));
+    assertEquals(ranges(0, 9), ids(ordering.extractDBScan(80)));
+  }
+
+  @Test
+  public void candidateSearchGivesTheSameClusters() {
+    List<GPSLocation> locations = blobs(2, 3, 12, 4, 30);
+    OPTICS<GPSLocation> optics = new OPTICS<>(GENERATING_DISTANCE, MIN_PTS);
+    OPTICS.Ordering<GPSLocation> exhaustive = optics.order(locations);
+    OPTICS.Ordering<GPSLocation> searched =
+      optics.order(locations, new LocationCandidateSearch(locations, GENERATING_DISTANCE));
+    for (double eps : new double[]{15, 30, GENERATING_DISTANCE}) {
+      assertEquals(ids(exhaustive.extractDBScan(eps)), ids(searched.extractDBScan(eps)));
+    }
+  }
+
+  @Test
+  public void candidateSearchKeepsNeighborsFarFromTheCentroidLatitude() {
+    List<GPSLocation> locations = blobAndChain(1);
+    OPTICS<GPSLocation> optics = new OPTICS<>(GENERATING_DISTANCE, 2);
+    OPTICS.Ordering<GPSLocation> exhaustive = optics.order(locations);
+    OPTICS.Ordering<GPSLocation> searched =
+      optics.order(locations, new LocationCandidateSearch(locations, GENERATING_DISTANCE));
+    assertEquals(ranges(0, 299, 300, 329), ids(exhaustive.extractDBScan(GENERATING_DISTANCE)));
+    assertEquals(ranges(0, 299, 300, 329), ids(searched.extractDBScan(GENERATING_DISTANCE)));
+  }
+
+  @Test(expected = CancellationException.class)
+  public void stopsOnceTheJobIsSuperseded() {
+    List<GPSLocation> locations = blobs(2, 3, 12, 4, 30);
+    new OPTICS<GPSLocation>(GENERATING_DISTANCE, MIN_PTS)
+      .order(locations, new LocationCandidateSearch(locations, GENERATING_DISTANCE), cancelledAfter(10));
+  }
+
+  @Test
+  public void duplicatePointsHaveZeroCoreDistance() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < MIN_PTS; id++) {
+      locations.add(at(id, 0, 0, 0));
+    }
+    OPTICS.Ordering<GPSLocation> ordering = new OPTICS<GPSLocation>(GENERATING_DISTANCE, MIN_PTS).order(locations);
+    for (int i = 0; i < ordering.size(); i++) {
+      assertEquals(0, ordering.getCoreDistance(i), 0);
+    }
+    assertEquals(ranges(0, MIN_PTS - 1), ids(ordering.extractDBScan(1)));
+  }
+
+  @Test
+  public void clustersAcrossTheAntimeridian() {
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < 4; id++) {
+      locations.add(at(id, 180, 15 * id - 22.5, 0));
+    }
+    OPTICS<GPSLocation> optics = new OPTICS<>(GENERATING_DISTANCE, MIN_PTS);
+    assertEquals(ranges(0, 3), ids(optics.order(locations).extractDBScan(20)));
+    assertEquals(ranges(0, 3),
+      ids(optics.order(locations, new LocationCandidateSearch(locations, GENERATING_DISTANCE)).extractDBScan(20)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEpsBeyondTheGeneratingDistance() {
+    new OPTICS<GPSLocation>(GENERATING_DISTANCE, MIN_PTS)
+      .order(blobs(3, 1, 5, 0, 30))
+      .extractDBScan(2 * GENERATING_DISTANCE);
+  }
+}
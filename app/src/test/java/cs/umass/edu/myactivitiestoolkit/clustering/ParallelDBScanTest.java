@@ -0,0 +1,87 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.at;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.blobAndChain;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ids;
+import static cs.umass.edu.myactivitiestoolkit.clustering.TestLocations.ranges;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelDBScanTest {
+
+  private static final double EPS = 30;
+
+  private static final int MIN_PTS = 4;
+
+  private static final int THREADS = 4;
+
+  @Test
+  public void emptyInputHasNoClusters() {
+    assertTrue(new ParallelDBScan(EPS, MIN_PTS, THREADS).cluster(Collections.<GPSLocation>emptyList()).isEmpty());
+  }
+
+  @Test
+  public void matchesGridDBScanPointForPoint() {
+    for (long seed = 1; seed <= 3; seed++) {
+      List<GPSLocation> locations = scattered(seed, 6000);
+      List<Cluster<GPSLocation>> expected = new GridDBScan(EPS, MIN_PTS).cluster(locations);
+      List<Cluster<GPSLocation>> actual = new ParallelDBScan(EPS, MIN_PTS, THREADS).cluster(locations);
+      assertTrue(expected.size() > 10);
+      assertEquals(expected.size(), actual.size());
+      for (int c = 0; c < expected.size(); c++) {
+        assertEquals(expected.get(c).getPoints(), actual.get(c).getPoints());
+      }
+    }
+  }
+
+  @Test
+  public void keepsNeighborsFarFromTheCentroidLatitude() {
+    // enough blobs and chains to run in parallel
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int copy = 0; copy < 15; copy++) {
+      for (GPSLocation location : blobAndChain(copy)) {
+        locations.add(new GPSLocation(location.id + 330 * copy, location.timestamp, location.latitude,
+          location.longitude + 0.1 * copy, location.accuracy));
+      }
+    }
+    List<Cluster<GPSLocation>> clusters = new ParallelDBScan(100, 2, THREADS).cluster(locations);
+    assertEquals(ids(new GridDBScan(100, 2).cluster(locations)), ids(clusters));
+    assertEquals(30, clusters.size());
+    assertEquals(ranges(0, 299, 300, 329), ids(clusters.subList(0, 2)));
+  }
+
+  @Test
+  public void smallInputsMatchGridDBScan() {
+    List<GPSLocation> locations = scattered(4, 500);
+    assertEquals(ids(new GridDBScan(EPS, MIN_PTS).cluster(locations)),
+      ids(new ParallelDBScan(EPS, MIN_PTS, THREADS).cluster(locations)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNoThreads() {
+    new ParallelDBScan(EPS, MIN_PTS, 0);
+  }
+
+  /**
+   * Returns locations scattered uniformly over a square sized so that there are
+   * dense clusters, border points shared between clusters, and noise.
+   */
+  private static List<GPSLocation> scattered(long seed, int count) {
+    Random random = new Random(seed);
+    double side = Math.sqrt(count) * EPS;
+    List<GPSLocation> locations = new ArrayList<>();
+    for (int id = 0; id < count; id++) {
+      locations.add(at(id, 0, random.nextDouble() * side, random.nextDouble() * side));
+    }
+    return locations;
+  }
+}
@@ -0,0 +1,173 @@
+package cs.umass.edu.myactivitiestoolkit.clustering;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import cs.umass.edu.myactivitiestoolkit.location.GPSLocation;
+
+/**
+ * Builds saved locations at given offsets in meters, and compares clusterings
+ * by the IDs of their points.
+ */
+final class TestLocations {
+
+  /**
+   * Meters per degree of latitude, and of longitude on the equator.
+   */
+  static final double METERS_PER_DEGREE = Math.toRadians(GPSLocation.RADIUS_OF_EARTH_IN_METERS);
+
+  private TestLocations() {
+  }
+
+  /**
+   * Returns the progress of a clustering job that is superseded once it has been
+   * checked the given number of times.
+   *
+   * @param checks the number of checks before the job is cancelled
+   * @return the progress
+   */
+  static ClusteringJobExecutor.Progress cancelledAfter(final int checks) {
+    return new ClusteringJobExecutor.Progress() {
+      private int remaining = checks;
+
+      @Override
+      public void report(String stage, int percent) {
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return remaining-- <= 0;
+      }
+    };
+  }
+
+  /**
+   * Returns a saved location on the equator, at the given offsets from the
+   * given longitude.
+   *
+   * @param id        the location ID
+   * @param longitude the longitude of the origin
+   * @param east      the offset east, in meters
+   * @param north     the offset north, in meters
+   * @return the location
+   */
+  static GPSLocation at(int id, double longitude, double east, double north) {
+    return at(id, 0, longitude, east, north);
+  }
+
+  /**
+   * Returns a saved location at the given offsets from the given origin. The
+   * offset east is measured along the parallel of the location.
+   *
+   * @param id        the location ID
+   * @param latitude  the latitude of the origin
+   * @param longitude the longitude of the origin
+   * @param east      the offset east, in meters
+   * @param north     the offset north, in meters
+   * @return the location
+   */
+  static GPSLocation at(int id, double latitude, double longitude, double east, double north) {
+    double lat = latitude + north / METERS_PER_DEGREE;
+    double lng = longitude + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+    if (lng >= 180) {
+      lng -= 360;
+    }
+    else if (lng < -180) {
+      lng += 360;
+    }
+    return new GPSLocation(id, id * 1000L, lat, lng, 5);
+  }
+
+  /**
+   * Returns a tight blob of 300 locations at 40 degrees north, followed by an
+   * east-west chain of 30 locations 99 m apart at 46 degrees north. With eps =
+   * 100 m and minPts = 2, the blob and the chain are two clusters; a projection
+   * scaled at the centroid's latitude would stretch the gaps of the chain to
+   * about 108 m and lose it.
+   *
+   * @param seed the random seed
+   * @return the locations, with IDs 0 to 299 in the blob and 300 to 329 in the chain
+   */
+  static List<GPSLocation> blobAndChain(long seed) {
+    Random random = new Random(seed);
+    List<GPSLocation> locations = new ArrayList<>();
+    int id = 0;
+    for (int i = 0; i < 300; i++) {
+      locations.add(at(id++, 40, -100, random.nextGaussian() * 10, random.nextGaussian() * 10));
+    }
+    for (int i = 0; i < 30; i++) {
+      locations.add(at(id++, 46, -100, 99 * i, 0));
+    }
+    return locations;
+  }
+
+  /**
+   * Returns locations in tight blobs far apart from each other, followed by
+   * isolated locations, so that every DBScan variant must find the blobs as
+   * clusters and the isolated locations as noise, whatever the order of the
+   * points.
+   *
+   * @param seed     the random seed
+   * @param blobs    the number of blobs, at least minPts locations each
+   * @param perBlob  the number of locations in each blob
+   * @param isolated the number of isolated locations
+   * @param eps      the DBScan radius, in meters
+   * @return the locations, with consecutive IDs from 0
+   */
+  static List<GPSLocation> blobs(long seed, int blobs, int perBlob, int isolated, double eps) {
+    Random random = new Random(seed);
+    List<GPSLocation> locations = new ArrayList<>();
+    int id = 0;
+    for (int b = 0; b < blobs; b++) {
+      for (int i = 0; i < perBlob; i++) {
+        // within eps / 3 of the blob center, so all pairs are within eps
+        locations.add(at(id++, 0, 20 * eps * b + (random.nextDouble() - 0.5) * eps / 3,
+          (random.nextDouble() - 0.5) * eps / 3));
+      }
+    }
+    for (int i = 0; i < isolated; i++) {
+      locations.add(at(id++, 0, 20 * eps * (blobs + i) + 10 * eps, 10 * eps));
+    }
+    return locations;
+  }
+
+  /**
+   * Returns the IDs of the points of each cluster, ignoring the order of the
+   * clusters and of their points.
+   *
+   * @param clusters the clusters
+   * @return the ID sets
+   */
+  static Set<Set<Integer>> ids(List<Cluster<GPSLocation>> clusters) {
+    Set<Set<Integer>> result = new HashSet<>();
+    for (Cluster<GPSLocation> cluster : clusters) {
+      Set<Integer> ids = new HashSet<>();
+      for (GPSLocation location : cluster.getPoints()) {
+        ids.add(location.id);
+      }
+      result.add(ids);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the given ID ranges as ID sets.
+   *
+   * @param ranges pairs of first and last IDs, inclusive
+   * @return one ID set per range
+   */
+  static Set<Set<Integer>> ranges(int... ranges) {
+    Set<Set<Integer>> result = new HashSet<>();
+    for (int r = 0; r < ranges.length; r += 2) {
+      Set<Integer> ids = new HashSet<>();
+      for (int id = ranges[r]; id <= ranges[r + 1]; id++) {
+        ids.add(id);
+      }
+      result.add(ids);
+    }
+    return result;
+  }
+}
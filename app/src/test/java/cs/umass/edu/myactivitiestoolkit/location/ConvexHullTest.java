@@ -0,0 +1,135 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConvexHullTest {
+
+    @Test
+    public void emptyInputHasNoVertices() {
+        assertEquals(0, ConvexHull.compute(new GPSLocation[0], 0).size());
+        assertTrue(ConvexHull.computeAll(new ArrayList<GPSLocation[]>(), 0, 4).isEmpty());
+    }
+
+    @Test
+    public void dropsInteriorCollinearAndDuplicatePoints() {
+        GPSLocation[] locations = {
+                location(0, 0), location(0, 1), location(0, 2), location(1, 2), location(2, 2),
+                location(2, 1), location(2, 0), location(1, 0), location(1, 1), location(0, 0), location(2, 2),
+        };
+        ConvexHull.Polygon hull = ConvexHull.compute(locations, 0);
+        assertEquals(4, hull.size());
+        assertTrue(signedArea(hull) > 0);
+        assertVertex(hull, 0, 0);
+        assertVertex(hull, 2, 0);
+        assertVertex(hull, 2, 2);
+        assertVertex(hull, 0, 2);
+    }
+
+    @Test
+    public void coincidentPointsHaveOneVertex() {
+        GPSLocation[] locations = {location(1, 1), location(1, 1), location(1, 1)};
+        assertEquals(1, ConvexHull.compute(locations, 0).size());
+    }
+
+    @Test
+    public void containsEveryPoint() {
+        GPSLocation[] locations = randomLocations(new Random(1), 500, 42.39, -72.52);
+        ConvexHull.Polygon hull = ConvexHull.compute(locations, 0);
+        for (GPSLocation location : locations) {
+            assertInside(hull, location);
+        }
+    }
+
+    @Test
+    public void simplifyKeepsAtMostMaxVertices() {
+        GPSLocation[] locations = new GPSLocation[100];
+        for (int i = 0; i < locations.length; i++) {
+            double angle = 2 * Math.PI * i / locations.length;
+            locations[i] = location(Math.sin(angle), Math.cos(angle));
+        }
+        assertEquals(100, ConvexHull.compute(locations, 0).size());
+        ConvexHull.Polygon hull = ConvexHull.compute(locations, 8);
+        assertEquals(8, hull.size());
+        assertTrue(signedArea(hull) > 0);
+        assertEquals(3, ConvexHull.compute(locations, 1).size());
+    }
+
+    @Test
+    public void parallelHullsMatchSequentialHulls() {
+        Random random = new Random(2);
+        List<GPSLocation[]> groups = new ArrayList<>();
+        for (int g = 0; g < 8; g++) {
+            groups.add(randomLocations(random, 5000, g, g));
+        }
+        List<ConvexHull.Polygon> parallel = ConvexHull.computeAll(groups, 16, 4);
+        List<ConvexHull.Polygon> sequential = ConvexHull.computeAll(groups, 16, 1);
+        assertEquals(groups.size(), parallel.size());
+        for (int g = 0; g < groups.size(); g++) {
+            assertArrayEquals(sequential.get(g).latitudes, parallel.get(g).latitudes, 0);
+            assertArrayEquals(sequential.get(g).longitudes, parallel.get(g).longitudes, 0);
+        }
+    }
+
+    @Test
+    public void hullAcrossTheAntimeridianIsNarrow() {
+        GPSLocation[] locations = {
+                location(0, 179.9), location(0.1, 179.95), location(0, -179.9), location(0.1, -179.95),
+        };
+        ConvexHull.Polygon hull = ConvexHull.compute(locations, 0);
+        assertEquals(4, hull.size());
+        for (int k = 0; k < hull.size(); k++) {
+            assertTrue(Arrays.toString(hull.longitudes), Math.abs(hull.longitudes[k]) >= 179.9 - 1e-9);
+        }
+    }
+
+    private static GPSLocation location(double latitude, double longitude) {
+        return new GPSLocation(0, latitude, longitude, 5);
+    }
+
+    private static GPSLocation[] randomLocations(Random random, int n, double latitude, double longitude) {
+        GPSLocation[] locations = new GPSLocation[n];
+        for (int i = 0; i < n; i++) {
+            locations[i] = location(latitude + random.nextGaussian() * 0.01, longitude + random.nextGaussian() * 0.01);
+        }
+        return locations;
+    }
+
+    private static double signedArea(ConvexHull.Polygon hull) {
+        double area = 0;
+        for (int k = 0, n = hull.size(); k < n; k++) {
+            int next = (k + 1) % n;
+            area += hull.longitudes[k] * hull.latitudes[next] - hull.longitudes[next] * hull.latitudes[k];
+        }
+        return area / 2;
+    }
+
+    private static void assertVertex(ConvexHull.Polygon hull, double latitude, double longitude) {
+        for (int k = 0; k < hull.size(); k++) {
+            if (hull.latitudes[k] == latitude && hull.longitudes[k] == longitude) {
+                return;
+            }
+        }
+        throw new AssertionError(latitude + ", " + longitude + " is not a vertex");
+    }
+
+    /**
+     * Checks that a location is on the left of, or on, every edge of a counter-clockwise hull.
+     */
+    private static void assertInside(ConvexHull.Polygon hull, GPSLocation location) {
+        for (int k = 0, n = hull.size(); k < n; k++) {
+            int next = (k + 1) % n;
+            double cross = (hull.longitudes[next] - hull.longitudes[k]) * (location.latitude - hull.latitudes[k])
+                    - (hull.latitudes[next] - hull.latitudes[k]) * (location.longitude - hull.longitudes[k]);
+            assertTrue(cross >= -1e-12);
+        }
+    }
+}
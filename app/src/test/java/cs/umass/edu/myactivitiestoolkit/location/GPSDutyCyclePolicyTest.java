@@ -0,0 +1,130 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GPSDutyCyclePolicyTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GPSLocation.RADIUS_OF_EARTH_IN_METERS);
+
+    private static final long MIN_INTERVAL = 5000, MAX_INTERVAL = 60000, STATIONARY_INTERVAL = 120000;
+
+    private static final double DISTANCE_PER_FIX = 25;
+
+    private static final float GRAVITY = 9.81f;
+
+    /** The accelerometer sampling period, in milliseconds */
+    private static final long SAMPLE_PERIOD = 200;
+
+    @Test
+    public void startsAtTheFastestRate() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        assertEquals(MIN_INTERVAL, policy.getInterval());
+        assertFalse(policy.isStationary());
+        assertFalse(policy.isSuspended());
+        assertTrue(policy.getSpeed() < 0);
+    }
+
+    @Test
+    public void stillPhoneSlowsDownAfterTheStillDuration() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        long changedAt = still(policy, 0, 2 * GPSDutyCyclePolicy.STILL_DURATION);
+        assertEquals(GPSDutyCyclePolicy.STILL_DURATION, changedAt);
+        assertTrue(policy.isStationary());
+        assertFalse(policy.isSuspended());
+        assertEquals(STATIONARY_INTERVAL, policy.getInterval());
+    }
+
+    @Test
+    public void stillPhoneSuspendsWithoutAStationaryInterval() {
+        GPSDutyCyclePolicy policy = policy(0);
+        still(policy, 0, 2 * GPSDutyCyclePolicy.STILL_DURATION);
+        assertTrue(policy.isSuspended());
+    }
+
+    @Test
+    public void motionResumesAtTheFastestRate() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        long time = 2 * GPSDutyCyclePolicy.STILL_DURATION;
+        still(policy, 0, time);
+        assertTrue(policy.onAcceleration(time + SAMPLE_PERIOD, 3, 0, GRAVITY + 3));
+        assertFalse(policy.isStationary());
+        assertEquals(MIN_INTERVAL, policy.getInterval());
+        assertTrue(policy.getSpeed() < 0);
+    }
+
+    @Test
+    public void vehicleVibrationIsNotStill() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        Random random = new Random(1);
+        for (long time = 0; time <= 5 * GPSDutyCyclePolicy.STILL_DURATION; time += SAMPLE_PERIOD) {
+            policy.onAcceleration(time, 0, 0, GRAVITY + (float) random.nextGaussian());
+        }
+        assertFalse(policy.isStationary());
+    }
+
+    @Test
+    public void spacesFixesBySpeed() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        // walking at 1 m/s: one fix per 25 m is one per 25 s
+        assertFalse(policy.onLocation(fix(0, 0)));
+        assertTrue(policy.onLocation(fix(5000, 5)));
+        assertEquals(1, policy.getSpeed(), 1e-3);
+        assertEquals(25000, policy.getInterval(), 50);
+        // driving at 30 m/s: as fast as allowed
+        GPSDutyCyclePolicy driving = policy(STATIONARY_INTERVAL);
+        driving.onLocation(fix(0, 0));
+        assertFalse(driving.onLocation(fix(5000, 150)));
+        assertEquals(MIN_INTERVAL, driving.getInterval());
+    }
+
+    @Test
+    public void duplicateFixesMeanNoSpeed() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        policy.onLocation(fix(0, 0));
+        assertFalse(policy.onLocation(fix(0, 0)));
+        assertTrue(policy.getSpeed() < 0);
+        assertTrue(policy.onLocation(fix(5000, 0)));
+        assertEquals(0, policy.getSpeed(), 0);
+        assertEquals(MAX_INTERVAL, policy.getInterval());
+    }
+
+    @Test
+    public void fixesWhileStationaryKeepTheRequest() {
+        GPSDutyCyclePolicy policy = policy(STATIONARY_INTERVAL);
+        still(policy, 0, 2 * GPSDutyCyclePolicy.STILL_DURATION);
+        assertFalse(policy.onLocation(fix(0, 0)));
+        assertFalse(policy.onLocation(fix(STATIONARY_INTERVAL, 500)));
+        assertEquals(STATIONARY_INTERVAL, policy.getInterval());
+    }
+
+    private static GPSDutyCyclePolicy policy(long stationaryInterval) {
+        return new GPSDutyCyclePolicy(MIN_INTERVAL, MAX_INTERVAL, DISTANCE_PER_FIX, stationaryInterval);
+    }
+
+    /**
+     * Feeds samples of a phone lying still, from start to end inclusive.
+     * @return the time at which the policy asked for a new request, or -1.
+     */
+    private static long still(GPSDutyCyclePolicy policy, long start, long end) {
+        long changedAt = -1;
+        for (long time = start; time <= end; time += SAMPLE_PERIOD) {
+            if (policy.onAcceleration(time, 0, 0, GRAVITY) && changedAt < 0) {
+                changedAt = time;
+            }
+        }
+        return changedAt;
+    }
+
+    /**
+     * Returns a fix on the equator, the given distance east of the prime meridian.
+     */
+    private static GPSLocation fix(long timestamp, double east) {
+        return new GPSLocation(timestamp, 0, east / METERS_PER_DEGREE, 5);
+    }
+}
@@ -0,0 +1,144 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceEngineTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GPSLocation.RADIUS_OF_EARTH_IN_METERS);
+
+    private static final double HYSTERESIS = 20;
+
+    private static final long DWELL_TIME = 5 * 60000;
+
+    @Test
+    public void emptyEngineReportsNothing() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        assertEquals(0, engine.size());
+        assertTrue(engine.update(fix(0, 0, 0)).isEmpty());
+        assertNull(engine.remove("home"));
+    }
+
+    @Test
+    public void reportsEnterDwellAndExit() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        engine.add(Geofence.circle("home", 0, 0, 100));
+
+        assertTrue(engine.update(fix(0, 200, 0)).isEmpty());
+        assertEvents(engine.update(fix(60000, 50, 0)), GeofenceEngine.Event.Type.ENTER);
+        assertTrue(engine.update(fix(2 * 60000, 0, 0)).isEmpty());
+        assertEvents(engine.update(fix(6 * 60000, 0, 0)), GeofenceEngine.Event.Type.DWELL);
+        assertTrue(engine.update(fix(7 * 60000, 0, 0)).isEmpty());
+        assertEvents(engine.update(fix(8 * 60000, 150, 0)), GeofenceEngine.Event.Type.EXIT);
+        assertFalse(engine.isInside("home"));
+    }
+
+    @Test
+    public void noiseAtTheBoundaryDoesNotFlap() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        engine.add(Geofence.circle("home", 0, 0, 100));
+        assertEvents(engine.update(fix(0, 95, 0)), GeofenceEngine.Event.Type.ENTER);
+        for (int i = 1; i < 20; i++) {
+            // within the hysteresis outside the fence
+            assertTrue(engine.update(fix(i * 1000, i % 2 == 0 ? 95 : 115, 0)).isEmpty());
+        }
+        assertTrue(engine.isInside("home"));
+    }
+
+    @Test
+    public void inaccurateFixesDoNotExit() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        engine.add(Geofence.circle("home", 0, 0, 100));
+        engine.update(fix(0, 0, 0));
+        GPSLocation inaccurate = fix(1000, 150, 0);
+        inaccurate.accuracy = 80;
+        assertTrue(engine.update(inaccurate).isEmpty());
+        assertTrue(engine.isInside("home"));
+    }
+
+    @Test
+    public void polygonFences() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        // an L-shaped building, 200 m on a side
+        double d = 200 / METERS_PER_DEGREE, h = d / 2;
+        engine.add(Geofence.polygon("work", new double[]{0, 0, h, h, d, d}, new double[]{0, d, d, h, h, 0}));
+        assertTrue(engine.update(fix(0, 150, 150)).isEmpty());
+        assertEvents(engine.update(fix(1000, 50, 150)), GeofenceEngine.Event.Type.ENTER);
+    }
+
+    @Test
+    public void removingAndReplacingAFenceReportsNoExit() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        engine.add(Geofence.circle("home", 0, 0, 100));
+        engine.update(fix(0, 0, 0));
+        engine.add(Geofence.circle("home", 0, 0, 100));
+        assertEquals(1, engine.size());
+        assertFalse(engine.isInside("home"));
+        assertEvents(engine.update(fix(1000, 0, 0)), GeofenceEngine.Event.Type.ENTER);
+        engine.remove("home");
+        assertTrue(engine.update(fix(2000, 1000, 0)).isEmpty());
+        assertEquals(0, engine.size());
+    }
+
+    @Test
+    public void fencesAcrossTheAntimeridian() {
+        GeofenceEngine engine = new GeofenceEngine(HYSTERESIS, DWELL_TIME);
+        engine.add(Geofence.circle("dateline", 0, 180, 500));
+        assertEvents(engine.update(new GPSLocation(0, 0, -179.998, 5)), GeofenceEngine.Event.Type.ENTER);
+        assertTrue(engine.update(new GPSLocation(1000, 0, 179.998, 5)).isEmpty());
+        assertTrue(engine.isInside("dateline"));
+        assertEvents(engine.update(new GPSLocation(2000, 0, 179.98, 5)), GeofenceEngine.Event.Type.EXIT);
+    }
+
+    @Test
+    public void matchesTestingEveryFence() {
+        Random random = new Random(1);
+        GeofenceEngine engine = new GeofenceEngine(0, DWELL_TIME);
+        List<Geofence> fences = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Geofence fence = Geofence.circle("fence" + i, random.nextDouble() * 0.2, random.nextDouble() * 0.2,
+                    50 + random.nextDouble() * 2000);
+            fences.add(fence);
+            engine.add(fence);
+        }
+        for (int i = 0; i < 500; i++) {
+            GPSLocation location = new GPSLocation(i * 1000, random.nextDouble() * 0.2,
+                    random.nextDouble() * 0.2, 0);
+            engine.update(location);
+            Set<String> expected = new HashSet<>(), actual = new HashSet<>();
+            for (Geofence fence : fences) {
+                if (fence.signedDistance(location) <= 0) {
+                    expected.add(fence.id);
+                }
+                if (engine.isInside(fence.id)) {
+                    actual.add(fence.id);
+                }
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Returns a fix on the equator at the given offsets in meters from the prime meridian.
+     */
+    private static GPSLocation fix(long timestamp, double east, double north) {
+        return new GPSLocation(timestamp, north / METERS_PER_DEGREE, east / METERS_PER_DEGREE, 5);
+    }
+
+    private static void assertEvents(List<GeofenceEngine.Event> events, GeofenceEngine.Event.Type... types) {
+        assertEquals(types.length, events.size());
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(types[i], events.get(i).type);
+        }
+    }
+}
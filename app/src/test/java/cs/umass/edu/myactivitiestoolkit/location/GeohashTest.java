@@ -0,0 +1,77 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeohashTest {
+
+    @Test
+    public void encodesKnownHashes() {
+        assertEquals("ezs42", Geohash.encode(42.6, -5.6, 5));
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void shorterHashesArePrefixes() {
+        String hash = Geohash.encode(42.39, -72.52, Geohash.MAX_PRECISION);
+        for (int precision = 1; precision < Geohash.MAX_PRECISION; precision++) {
+            assertEquals(hash.substring(0, precision), Geohash.encode(42.39, -72.52, precision));
+        }
+    }
+
+    @Test
+    public void encodesTheEdgesOfTheMap() {
+        assertEquals("zzzzz", Geohash.encode(90, 180, 5));
+        assertEquals("00000", Geohash.encode(-90, -180, 5));
+    }
+
+    @Test
+    public void coverContainsEveryLocationInTheBox() {
+        List<String> prefixes = Geohash.cover(42.35, -72.56, 42.42, -72.48, 8, 16);
+        assertTrue(prefixes.size() <= 16);
+        assertCovers(prefixes, 42.35, -72.56, 42.42, -72.48);
+    }
+
+    @Test
+    public void coverCrossesTheAntimeridian() {
+        List<String> prefixes = Geohash.cover(-17.0, 179.8, -16.8, -179.9, 8, 16);
+        assertTrue(prefixes.size() <= 16);
+        assertCovers(prefixes, -17.0, 179.8, -16.8, 180);
+        assertCovers(prefixes, -17.0, -180, -16.8, -179.9);
+    }
+
+    @Test
+    public void coverOfADegenerateBoxIsItsCell() {
+        assertEquals(Collections.singletonList(Geohash.encode(42.39, -72.52, 8)),
+                Geohash.cover(42.39, -72.52, 42.39, -72.52, 8, 1));
+    }
+
+    @Test
+    public void coverOfTheWholeMapIsTheEmptyPrefix() {
+        assertEquals(Collections.singletonList(""), Geohash.cover(-90, -180, 90, 180, 8, 16));
+    }
+
+    private static void assertCovers(List<String> prefixes, double minLatitude, double minLongitude,
+                                     double maxLatitude, double maxLongitude) {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            double latitude = minLatitude + random.nextDouble() * (maxLatitude - minLatitude);
+            double longitude = minLongitude + random.nextDouble() * (maxLongitude - minLongitude);
+            String hash = Geohash.encode(latitude, longitude, Geohash.MAX_PRECISION);
+            boolean covered = false;
+            for (String prefix : prefixes) {
+                covered |= hash.startsWith(prefix);
+            }
+            if (!covered) {
+                fail(hash + " at " + latitude + ", " + longitude + " is not covered by " + prefixes);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LocationHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptyHistoryRoundTrips() throws IOException {
+        File file = folder.newFile();
+        new LocationHistoryWriter(file).close();
+        LocationHistoryReader reader = new LocationHistoryReader(file);
+        assertEquals(0, reader.getCount());
+        assertEquals(0, reader.getBlockCount());
+        assertEquals(0, reader.readAll().size);
+        assertEquals(0, reader.read(0, 1000).size);
+    }
+
+    @Test
+    public void roundTripsWithinTheQuantization() throws IOException {
+        LocationColumns written = randomWalk(new Random(1), 3 * LocationHistory.BLOCK_SIZE + 17, 42.39, -72.52);
+        LocationHistoryReader reader = write(written);
+        assertEquals(written.size, reader.getCount());
+        assertEquals(4, reader.getBlockCount());
+        assertMatches(written, 0, written.size, reader.readAll());
+    }
+
+    @Test
+    public void readsTimeRangesAcrossBlocks() throws IOException {
+        LocationColumns written = randomWalk(new Random(2), 2 * LocationHistory.BLOCK_SIZE + 100, 0, 0);
+        LocationHistoryReader reader = write(written);
+        int from = LocationHistory.BLOCK_SIZE - 10, to = 2 * LocationHistory.BLOCK_SIZE + 10;
+        assertMatches(written, from, to, reader.read(written.timestamps[from], written.timestamps[to - 1]));
+        assertEquals(0, reader.read(written.timestamps[written.size - 1] + 1, Long.MAX_VALUE).size);
+        assertEquals(0, reader.read(Long.MIN_VALUE, written.timestamps[0] - 1).size);
+    }
+
+    @Test
+    public void duplicateFixesRoundTrip() throws IOException {
+        LocationColumns written = new LocationColumns(10);
+        for (int i = 0; i < written.size; i++) {
+            written.timestamps[i] = 1000;
+            written.latitudes[i] = 42.39;
+            written.longitudes[i] = -72.52;
+            written.accuracies[i] = 5;
+        }
+        LocationHistoryReader reader = write(written);
+        assertMatches(written, 0, written.size, reader.read(1000, 1000));
+    }
+
+    @Test
+    public void crossesTheAntimeridianAndThePoles() throws IOException {
+        double[] latitudes = {0, 0, 0, 90, -90, 89.9999999, -45};
+        double[] longitudes = {179.9999999, -180, 180, -179.9999999, 180, 0, -180};
+        LocationColumns written = new LocationColumns(latitudes.length);
+        for (int i = 0; i < written.size; i++) {
+            written.timestamps[i] = i * 1000L;
+            written.latitudes[i] = latitudes[i];
+            written.longitudes[i] = longitudes[i];
+            written.accuracies[i] = 10;
+        }
+        assertMatches(written, 0, written.size, write(written).readAll());
+    }
+
+    @Test
+    public void accuraciesAreQuantizedAndClamped() throws IOException {
+        float[] accuracies = {0, 0.2f, 0.3f, 4.9f, 127.5f, 128, 1000, -5};
+        float[] expected = {0, 0, 0.5f, 5, 127.5f, 127.5f, 127.5f, 0};
+        LocationColumns written = new LocationColumns(accuracies.length);
+        for (int i = 0; i < written.size; i++) {
+            written.timestamps[i] = i;
+            written.accuracies[i] = accuracies[i];
+        }
+        LocationColumns read = write(written).readAll();
+        for (int i = 0; i < read.size; i++) {
+            assertEquals(expected[i], read.accuracies[i], 0);
+        }
+    }
+
+    @Test
+    public void rejectsFixesOutOfOrder() throws IOException {
+        LocationHistoryWriter writer = new LocationHistoryWriter(folder.newFile());
+        try {
+            writer.append(2000, 0, 0, 5);
+            writer.append(1000, 0, 0, 5);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void rejectsIncompleteFiles() throws IOException {
+        File file = folder.newFile();
+        LocationHistoryWriter writer = new LocationHistoryWriter(file);
+        for (int i = 0; i <= LocationHistory.BLOCK_SIZE; i++) {
+            writer.append(i, 0, 0, 5);
+        }
+        // the header is only written on close
+        try {
+            new LocationHistoryReader(file);
+            fail();
+        } catch (IOException expected) {
+        }
+        writer.close();
+        assertEquals(LocationHistory.BLOCK_SIZE + 1, new LocationHistoryReader(file).getCount());
+    }
+
+    @Test
+    public void rejectsOtherVersions() throws IOException {
+        File file = folder.newFile();
+        new LocationHistoryWriter(file).close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.writeInt(LocationHistory.VERSION + 1);
+        } finally {
+            raf.close();
+        }
+        try {
+            new LocationHistoryReader(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void varintsRoundTrip() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        int[] signed = {0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (long value : values) {
+            LocationHistory.putVarLong(buffer, value);
+        }
+        for (int value : signed) {
+            LocationHistory.putZigZag(buffer, value);
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, LocationHistory.getVarLong(buffer));
+        }
+        for (int value : signed) {
+            assertEquals(value, LocationHistory.getZigZag(buffer));
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+    private LocationHistoryReader write(LocationColumns columns) throws IOException {
+        File file = folder.newFile();
+        LocationHistoryWriter writer = new LocationHistoryWriter(file);
+        try {
+            writer.append(columns);
+        } finally {
+            writer.close();
+        }
+        return new LocationHistoryReader(file);
+    }
+
+    /**
+     * Returns fixes every few seconds along a random walk of a few meters per fix.
+     */
+    private static LocationColumns randomWalk(Random random, int size, double latitude, double longitude) {
+        LocationColumns columns = new LocationColumns(size);
+        long timestamp = 1460000000000L;
+        for (int i = 0; i < size; i++) {
+            timestamp += 1000 + random.nextInt(10000);
+            latitude += random.nextGaussian() * 1e-4;
+            longitude += random.nextGaussian() * 1e-4;
+            columns.timestamps[i] = timestamp;
+            columns.latitudes[i] = latitude;
+            columns.longitudes[i] = longitude;
+            columns.accuracies[i] = 3 + random.nextFloat() * 50;
+        }
+        return columns;
+    }
+
+    /**
+     * Checks that the read columns match the written ones from {@code from} to {@code to}, exclusive.
+     */
+    private static void assertMatches(LocationColumns written, int from, int to, LocationColumns read) {
+        assertEquals(to - from, read.size);
+        for (int i = 0; i < read.size; i++) {
+            assertEquals(-1, read.ids[i]);
+            assertEquals(written.timestamps[from + i], read.timestamps[i]);
+            assertEquals(written.latitudes[from + i], read.latitudes[i], 0.5 / LocationHistory.COORDINATE_SCALE);
+            assertEquals(written.longitudes[from + i], read.longitudes[i], 0.5 / LocationHistory.COORDINATE_SCALE);
+            assertEquals(written.accuracies[from + i], read.accuracies[i], LocationHistory.ACCURACY_STEP / 2);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StayPointDetectorTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GPSLocation.RADIUS_OF_EARTH_IN_METERS);
+
+    private static final double DISTANCE_THRESHOLD = 100;
+
+    private static final long TIME_THRESHOLD = 10 * 60000;
+
+    @Test
+    public void emptyStreamHasNoStays() {
+        assertTrue(detect(new ArrayList<GPSLocation>()).isEmpty());
+        assertNull(new StayPointDetector(DISTANCE_THRESHOLD, TIME_THRESHOLD).flush());
+    }
+
+    @Test
+    public void findsStaysBetweenTrips() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        stay(fixes, 0, 0, 0, 0, 20);
+        trip(fixes, 20, 0, 0, 2000, 0, 10);
+        stay(fixes, 30, 2000, 0, 0, 15);
+        trip(fixes, 45, 2000, 0, 2000, 3000, 10);
+        List<StayPoint> stays = detect(fixes);
+        assertEquals(2, stays.size());
+        assertStay(stays.get(0), 0, 19, 0);
+        assertStay(stays.get(1), 29, 44, 2000);
+    }
+
+    @Test
+    public void shortStopsAreNotStays() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        stay(fixes, 0, 0, 0, 0, 5);
+        trip(fixes, 5, 0, 0, 2000, 0, 10);
+        assertTrue(detect(fixes).isEmpty());
+    }
+
+    @Test
+    public void duplicateFixesFormOneStay() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            fixes.add(fix(i, 0, 0, 0));
+            fixes.add(fix(i, 0, 0, 0));
+        }
+        List<StayPoint> stays = detect(fixes);
+        assertEquals(1, stays.size());
+        assertEquals(40, stays.get(0).getCount());
+        assertEquals(19 * 60000, stays.get(0).getDuration());
+    }
+
+    @Test
+    public void staysStartAtTheFixAfterAShortCandidate() {
+        // the first fix is within the threshold of the second but not of the fixes
+        // after it, so the stay is only found by re-anchoring at the second fix
+        List<GPSLocation> fixes = new ArrayList<>();
+        fixes.add(fix(0, 0, 0, 0));
+        fixes.add(fix(1, 80, 0, 0));
+        for (int i = 2; i <= 20; i++) {
+            fixes.add(fix(i, 160, 0, 0));
+        }
+        trip(fixes, 21, 160, 0, 3000, 0, 10);
+        List<StayPoint> stays = detect(fixes);
+        assertEquals(1, stays.size());
+        assertEquals(60000, stays.get(0).getArrivalTime());
+        assertEquals(20 * 60000, stays.get(0).getDepartureTime());
+    }
+
+    @Test
+    public void openStayIsFlushed() {
+        StayPointDetector detector = new StayPointDetector(DISTANCE_THRESHOLD, TIME_THRESHOLD);
+        List<GPSLocation> fixes = new ArrayList<>();
+        stay(fixes, 0, 0, 0, 0, 20);
+        for (GPSLocation fix : fixes) {
+            assertNull(detector.add(fix));
+        }
+        assertStay(detector.flush(), 0, 19, 0);
+        assertNull(detector.flush());
+    }
+
+    @Test
+    public void staysAcrossTheAntimeridian() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            fixes.add(fix(i, i % 2 == 0 ? -20 : 20, 0, 180));
+        }
+        List<StayPoint> stays = detect(fixes);
+        assertEquals(1, stays.size());
+        assertEquals(180, Math.abs(stays.get(0).longitude), 1e-6);
+    }
+
+    private static List<StayPoint> detect(List<GPSLocation> fixes) {
+        return StayPointDetector.detect(fixes.toArray(new GPSLocation[fixes.size()]), DISTANCE_THRESHOLD, TIME_THRESHOLD);
+    }
+
+    /**
+     * Adds one fix per minute at a place, jittered by up to 20 m.
+     */
+    private static void stay(List<GPSLocation> fixes, int minute, double east, double north, double longitude,
+                             int minutes) {
+        for (int i = 0; i < minutes; i++) {
+            fixes.add(fix(minute + i, east + 20 * Math.sin(i), north + 20 * Math.cos(i), longitude));
+        }
+    }
+
+    /**
+     * Adds one fix per minute along a straight line, excluding its start.
+     */
+    private static void trip(List<GPSLocation> fixes, int minute, double fromEast, double fromNorth,
+                             double toEast, double toNorth, int minutes) {
+        for (int i = 1; i <= minutes; i++) {
+            double fraction = (double) i / minutes;
+            fixes.add(fix(minute + i - 1, fromEast + fraction * (toEast - fromEast),
+                    fromNorth + fraction * (toNorth - fromNorth), 0));
+        }
+    }
+
+    /**
+     * Returns a fix on the equator at the given offsets in meters from the given longitude.
+     */
+    private static GPSLocation fix(int minute, double east, double north, double longitude) {
+        double lng = longitude + east / METERS_PER_DEGREE;
+        if (lng >= 180) {
+            lng -= 360;
+        }
+        return new GPSLocation(minute * 60000L, north / METERS_PER_DEGREE, lng, 5);
+    }
+
+    private static void assertStay(StayPoint stay, int arrivalMinute, int departureMinute, double east) {
+        assertEquals(arrivalMinute * 60000L, stay.getArrivalTime());
+        assertEquals(departureMinute * 60000L, stay.getDepartureTime());
+        assertEquals(departureMinute - arrivalMinute + 1, stay.getCount());
+        assertEquals(east, stay.longitude * METERS_PER_DEGREE, 20);
+        assertEquals(0, stay.latitude * METERS_PER_DEGREE, 20);
+    }
+}
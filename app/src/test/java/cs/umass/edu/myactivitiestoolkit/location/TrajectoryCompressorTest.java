@@ -0,0 +1,144 @@
+package cs.umass.edu.myactivitiestoolkit.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TrajectoryCompressorTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GPSLocation.RADIUS_OF_EARTH_IN_METERS);
+
+    private static final double TOLERANCE = 15;
+
+    private static final long MAX_INTERVAL = 60000;
+
+    @Test
+    public void emptyTrajectoryKeepsNothing() {
+        TrajectoryCompressor compressor = new TrajectoryCompressor(TOLERANCE, MAX_INTERVAL);
+        assertNull(compressor.flush());
+        assertEquals(0, compressor.getOutputCount());
+        assertEquals(1, compressor.getCompressionRatio(), 0);
+    }
+
+    @Test
+    public void constantSpeedKeepsTheEnds() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        for (int i = 0; i <= 50; i++) {
+            fixes.add(fix(i * 1000, 10 * i, 5 * i, 0));
+        }
+        List<GPSLocation> kept = compress(fixes);
+        assertEquals(2, kept.size());
+        assertSame(fixes.get(0), kept.get(0));
+        assertSame(fixes.get(50), kept.get(1));
+    }
+
+    @Test
+    public void stoppingOnAStraightPathIsKept() {
+        // the path is a straight line, but the synchronized distance sees the pause
+        List<GPSLocation> fixes = new ArrayList<>();
+        for (int i = 0; i <= 30; i++) {
+            fixes.add(fix(i * 1000, 10 * Math.min(i, 10) + 10 * Math.max(0, i - 20), 0, 0));
+        }
+        List<GPSLocation> kept = compress(fixes);
+        assertTrue(kept.size() > 2);
+        assertWithinTolerance(fixes, kept);
+    }
+
+    @Test
+    public void duplicateFixesKeepOnePerInterval() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        for (int i = 0; i <= 600; i++) {
+            fixes.add(fix(i * 1000, 0, 0, 0));
+        }
+        List<GPSLocation> kept = compress(fixes);
+        assertEquals(11, kept.size());
+        for (int k = 1; k < kept.size(); k++) {
+            assertEquals(MAX_INTERVAL, kept.get(k).timestamp - kept.get(k - 1).timestamp);
+        }
+    }
+
+    @Test
+    public void droppedFixesAreWithinTheTolerance() {
+        Random random = new Random(1);
+        List<GPSLocation> fixes = new ArrayList<>();
+        double east = 0, north = 0, heading = 0;
+        for (int i = 0; i < 2000; i++) {
+            heading += random.nextGaussian() * 0.3;
+            east += 8 * Math.cos(heading) + random.nextGaussian() * 3;
+            north += 8 * Math.sin(heading) + random.nextGaussian() * 3;
+            fixes.add(fix(i * 1000, east, north, 0));
+        }
+        TrajectoryCompressor compressor = new TrajectoryCompressor(TOLERANCE, MAX_INTERVAL);
+        List<GPSLocation> kept = compress(compressor, fixes);
+        assertTrue(kept.size() < fixes.size() / 2);
+        assertTrue(compressor.getMaxError() <= TOLERANCE);
+        assertWithinTolerance(fixes, kept);
+    }
+
+    @Test
+    public void crossesTheAntimeridian() {
+        List<GPSLocation> fixes = new ArrayList<>();
+        for (int i = 0; i <= 50; i++) {
+            fixes.add(fix(i * 1000, 10 * i - 250, 0, 180));
+        }
+        List<GPSLocation> kept = compress(fixes);
+        assertEquals(2, kept.size());
+        assertWithinTolerance(fixes, kept);
+    }
+
+    /**
+     * Returns a fix on the equator at the given offsets in meters from the given longitude.
+     */
+    private static GPSLocation fix(long timestamp, double east, double north, double longitude) {
+        double lng = longitude + east / METERS_PER_DEGREE;
+        if (lng >= 180) {
+            lng -= 360;
+        }
+        return new GPSLocation(timestamp, north / METERS_PER_DEGREE, lng, 5);
+    }
+
+    private static List<GPSLocation> compress(List<GPSLocation> fixes) {
+        return compress(new TrajectoryCompressor(TOLERANCE, MAX_INTERVAL), fixes);
+    }
+
+    private static List<GPSLocation> compress(TrajectoryCompressor compressor, List<GPSLocation> fixes) {
+        List<GPSLocation> kept = new ArrayList<>();
+        for (GPSLocation fix : fixes) {
+            GPSLocation stored = compressor.add(fix);
+            if (stored != null) {
+                kept.add(stored);
+            }
+        }
+        GPSLocation last = compressor.flush();
+        if (last != null) {
+            kept.add(last);
+        }
+        return kept;
+    }
+
+    /**
+     * Checks every fix against the kept trajectory at the fix's timestamp, assuming
+     * constant speed between kept fixes.
+     */
+    private static void assertWithinTolerance(List<GPSLocation> fixes, List<GPSLocation> kept) {
+        int k = 0;
+        for (GPSLocation fix : fixes) {
+            while (kept.get(k + 1).timestamp < fix.timestamp) {
+                k++;
+            }
+            GPSLocation a = kept.get(k), b = kept.get(k + 1);
+            double fraction = (double) (fix.timestamp - a.timestamp) / (b.timestamp - a.timestamp);
+            LocalProjection projection = new LocalProjection(a.latitude, a.longitude);
+            double dx = projection.east(fix) - fraction * projection.east(b);
+            double dy = projection.north(fix) - fraction * projection.north(b);
+            assertTrue("error " + Math.hypot(dx, dy) + " at " + fix.timestamp, Math.hypot(dx, dy) <= TOLERANCE + 1e-6);
+        }
+    }
+}